@@ -1,5 +1,6 @@
 package com.miro.api.widgets.testtask.config;
 
+import com.miro.api.widgets.testtask.interceptors.DeadlineInterceptor;
 import com.miro.api.widgets.testtask.interceptors.RateLimitInterceptor;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
@@ -11,13 +12,18 @@ public class AppConfigurer implements WebMvcConfigurer {
     @Lazy
     private final RateLimitInterceptor interceptor;
 
-    public AppConfigurer(RateLimitInterceptor interceptor) {
+    private final DeadlineInterceptor deadlineInterceptor;
+
+    public AppConfigurer(RateLimitInterceptor interceptor, DeadlineInterceptor deadlineInterceptor) {
         this.interceptor = interceptor;
+        this.deadlineInterceptor = deadlineInterceptor;
     }
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(interceptor)
                 .addPathPatterns("/widgets/**");
+        registry.addInterceptor(deadlineInterceptor)
+                .addPathPatterns("/widgets/**");
     }
 }
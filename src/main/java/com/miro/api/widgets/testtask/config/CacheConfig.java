@@ -0,0 +1,24 @@
+package com.miro.api.widgets.testtask.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Widgets services results caches configuration.
+ */
+@Component
+@ConfigurationProperties(prefix = "application.cache")
+public class CacheConfig {
+    /**
+     * Max count of cached filtered widgets pages, 0 disables cache.
+     */
+    private int filteredWidgetsMaxSize = 1024;
+
+    public int getFilteredWidgetsMaxSize() {
+        return filteredWidgetsMaxSize;
+    }
+
+    public void setFilteredWidgetsMaxSize(int filteredWidgetsMaxSize) {
+        this.filteredWidgetsMaxSize = filteredWidgetsMaxSize;
+    }
+}
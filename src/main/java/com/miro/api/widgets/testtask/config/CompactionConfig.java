@@ -0,0 +1,102 @@
+package com.miro.api.widgets.testtask.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Background z-indexes compaction configuration.
+ */
+@Component
+@ConfigurationProperties(prefix = "application.compaction")
+public class CompactionConfig {
+    /**
+     * If false, then compaction is run by manual trigger only.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Delay between stacking order density checks, in milliseconds.
+     */
+    private long intervalMillis = 60_000;
+
+    /**
+     * Max count of widgets moved by one short write (lock or transaction).
+     */
+    private int batchSize = 256;
+
+    /**
+     * Distance between z-indexes of neighbour widgets after compaction, so target density is 1 / spacing.
+     */
+    private int spacing = 2;
+
+    /**
+     * Stacking order of fewer widgets isn't compacted automatically.
+     */
+    private int minWidgetsCount = 1000;
+
+    /**
+     * Stacking order is compacted automatically if widgets count divided by z-indexes span is lower (too fragmented).
+     */
+    private double minDensity = 0.05;
+
+    /**
+     * Stacking order is compacted automatically if widgets count divided by z-indexes span is greater (too packed).
+     */
+    private double maxDensity = 0.75;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getSpacing() {
+        return spacing;
+    }
+
+    public void setSpacing(int spacing) {
+        this.spacing = spacing;
+    }
+
+    public int getMinWidgetsCount() {
+        return minWidgetsCount;
+    }
+
+    public void setMinWidgetsCount(int minWidgetsCount) {
+        this.minWidgetsCount = minWidgetsCount;
+    }
+
+    public double getMinDensity() {
+        return minDensity;
+    }
+
+    public void setMinDensity(double minDensity) {
+        this.minDensity = minDensity;
+    }
+
+    public double getMaxDensity() {
+        return maxDensity;
+    }
+
+    public void setMaxDensity(double maxDensity) {
+        this.maxDensity = maxDensity;
+    }
+}
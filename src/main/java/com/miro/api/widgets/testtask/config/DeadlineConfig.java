@@ -0,0 +1,37 @@
+package com.miro.api.widgets.testtask.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Requests time budgets configuration.
+ */
+@Component
+@ConfigurationProperties(prefix = "application.deadline")
+public class DeadlineConfig {
+    /**
+     * Time budget of request without timeout header or param, in milliseconds.
+     */
+    private long defaultTimeoutMillis = 10_000;
+
+    /**
+     * Max time budget of request, bigger requested timeouts are reduced to it, in milliseconds.
+     */
+    private long maxTimeoutMillis = 30_000;
+
+    public long getDefaultTimeoutMillis() {
+        return defaultTimeoutMillis;
+    }
+
+    public void setDefaultTimeoutMillis(long defaultTimeoutMillis) {
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+    }
+
+    public long getMaxTimeoutMillis() {
+        return maxTimeoutMillis;
+    }
+
+    public void setMaxTimeoutMillis(long maxTimeoutMillis) {
+        this.maxTimeoutMillis = maxTimeoutMillis;
+    }
+}
@@ -0,0 +1,21 @@
+package com.miro.api.widgets.testtask.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory repository configuration.
+ */
+@Component
+@ConfigurationProperties(prefix = "application.repository")
+public class RepositoryConfig {
+    private SearchIndexType searchIndex = SearchIndexType.RTREE;
+
+    public SearchIndexType getSearchIndex() {
+        return searchIndex;
+    }
+
+    public void setSearchIndex(SearchIndexType searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+}
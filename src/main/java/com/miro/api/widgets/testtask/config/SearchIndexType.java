@@ -0,0 +1,21 @@
+package com.miro.api.widgets.testtask.config;
+
+/**
+ * Search index types, that could be used by in-memory repository to filter widgets.
+ */
+public enum SearchIndexType {
+    /**
+     * R*-tree spatial index.
+     */
+    RTREE,
+
+    /**
+     * Four tree maps by every widget coordinate, which matches are intersected.
+     */
+    TREEMAP,
+
+    /**
+     * Columnar arrays of every widget coordinate and z-index, which are fully scanned in parallel.
+     */
+    COLUMNAR
+}
@@ -0,0 +1,131 @@
+package com.miro.api.widgets.testtask.config;
+
+import com.miro.api.widgets.testtask.exceptions.InvalidRequestException;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Level-of-detail tiles configuration. Zoom level 0 has the smallest cells, every next level doubles cell size.
+ */
+@Component
+@ConfigurationProperties(prefix = "application.tiles")
+public class TilesConfig {
+    /**
+     * Cell size of zoom level 0 in board units.
+     */
+    private int baseCellSize = 256;
+
+    /**
+     * Count of zoom levels.
+     */
+    private int zoomLevels = 8;
+
+    /**
+     * Cell size on screen in pixels, used to get widgets on-screen size.
+     */
+    private int cellPixels = 256;
+
+    /**
+     * Widgets which on-screen size is lower are culled from tiles.
+     */
+    private int minWidgetPixels = 2;
+
+    /**
+     * Max count of topmost widgets ids in tile.
+     */
+    private int topWidgetsCount = 3;
+
+    /**
+     * Max count of cells in one request.
+     */
+    private int maxCellsCount = 4096;
+
+    public int getBaseCellSize() {
+        return baseCellSize;
+    }
+
+    public void setBaseCellSize(int baseCellSize) {
+        this.baseCellSize = baseCellSize;
+    }
+
+    public int getZoomLevels() {
+        return zoomLevels;
+    }
+
+    public void setZoomLevels(int zoomLevels) {
+        this.zoomLevels = zoomLevels;
+    }
+
+    public int getCellPixels() {
+        return cellPixels;
+    }
+
+    public void setCellPixels(int cellPixels) {
+        this.cellPixels = cellPixels;
+    }
+
+    public int getMinWidgetPixels() {
+        return minWidgetPixels;
+    }
+
+    public void setMinWidgetPixels(int minWidgetPixels) {
+        this.minWidgetPixels = minWidgetPixels;
+    }
+
+    public int getTopWidgetsCount() {
+        return topWidgetsCount;
+    }
+
+    public void setTopWidgetsCount(int topWidgetsCount) {
+        this.topWidgetsCount = topWidgetsCount;
+    }
+
+    public int getMaxCellsCount() {
+        return maxCellsCount;
+    }
+
+    public void setMaxCellsCount(int maxCellsCount) {
+        this.maxCellsCount = maxCellsCount;
+    }
+
+    /**
+     * Allow to get cell size of zoom level.
+     *
+     * @param zoom Zoom level.
+     * @return Cell size in board units.
+     * @throws IllegalArgumentException throws if zoom level doesn't exist.
+     */
+    public int getCellSize(int zoom) throws IllegalArgumentException {
+        if (zoom < 0 || zoom >= zoomLevels) {
+            throw new InvalidRequestException(String.format("Zoom level must be between 0 and %d.", zoomLevels - 1));
+        }
+        return baseCellSize << zoom;
+    }
+
+    /**
+     * Check if widget is visible on zoom level, so it isn't culled.
+     *
+     * @param width    Widget width.
+     * @param height   Widget height.
+     * @param cellSize Cell size of zoom level.
+     * @return True if widget on-screen size isn't lower than min widget size.
+     */
+    public boolean isVisible(int width, int height, int cellSize) {
+        return (long) Math.max(width, height) * cellPixels >= (long) minWidgetPixels * cellSize;
+    }
+
+    /**
+     * Allow to check that cells count in rectangle isn't too big.
+     *
+     * @param fromCellX First cell x.
+     * @param fromCellY First cell y.
+     * @param toCellX   Last cell x.
+     * @param toCellY   Last cell y.
+     * @throws IllegalArgumentException throws if rectangle has too many cells.
+     */
+    public void checkCellsCount(long fromCellX, long fromCellY, long toCellX, long toCellY) throws IllegalArgumentException {
+        if ((toCellX - fromCellX + 1) * (toCellY - fromCellY + 1) > maxCellsCount) {
+            throw new InvalidRequestException(String.format("Rectangle contains more than %d cells, use bigger zoom level.", maxCellsCount));
+        }
+    }
+}
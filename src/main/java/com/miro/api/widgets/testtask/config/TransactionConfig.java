@@ -0,0 +1,43 @@
+package com.miro.api.widgets.testtask.config;
+
+import com.miro.api.widgets.testtask.utils.RequestDeadline;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.transaction.TransactionManagerCustomizers;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transactions configuration. Transaction timeout is limited by request deadline, JPA applies transaction time left
+ * to every query as JDBC query timeout, so database stops query when request time budget is spent.
+ */
+@Configuration
+public class TransactionConfig {
+
+    /**
+     * JPA transaction manager which limits transaction timeout by request deadline.
+     */
+    static class DeadlineJpaTransactionManager extends JpaTransactionManager {
+        @Override
+        protected int determineTimeout(TransactionDefinition definition) {
+            int timeout = super.determineTimeout(definition);
+            if (!RequestDeadline.isStarted()) {
+                return timeout;
+            }
+            long remainingNanos = Math.max(RequestDeadline.getRemainingNanos(), 1);
+            int deadlineTimeout = (int) Math.min(Integer.MAX_VALUE, (remainingNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+            return timeout == TransactionDefinition.TIMEOUT_DEFAULT ? deadlineTimeout : Math.min(timeout, deadlineTimeout);
+        }
+    }
+
+    @Bean
+    public PlatformTransactionManager transactionManager(ObjectProvider<TransactionManagerCustomizers> transactionManagerCustomizers) {
+        JpaTransactionManager transactionManager = new DeadlineJpaTransactionManager();
+        transactionManagerCustomizers.ifAvailable(customizers -> customizers.customize(transactionManager));
+        return transactionManager;
+    }
+}
@@ -1,6 +1,7 @@
 package com.miro.api.widgets.testtask.controllers;
 
 import com.miro.api.widgets.testtask.dto.*;
+import com.miro.api.widgets.testtask.services.SingleFlightReads;
 import com.miro.api.widgets.testtask.services.WidgetService;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -14,7 +15,10 @@ import javax.validation.Valid;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 
 @RestController
@@ -23,13 +27,20 @@ import java.util.List;
 public class WidgetController {
     private final WidgetService<WidgetResponseDTO> widgetService;
 
-    public WidgetController(WidgetService<WidgetResponseDTO> widgetService) {
+    /**
+     * Coalescing of identical concurrent reads in front of widget service.
+     */
+    private final SingleFlightReads singleFlightReads;
+
+    public WidgetController(WidgetService<WidgetResponseDTO> widgetService, SingleFlightReads singleFlightReads) {
         this.widgetService = widgetService;
+        this.singleFlightReads = singleFlightReads;
     }
 
     @GetMapping
     public ResponseEntity<List<WidgetResponseDTO>> getAllWidgets() {
-        return new ResponseEntity<>(widgetService.getAllWidgets(), HttpStatus.OK);
+        List<WidgetResponseDTO> widgets = singleFlightReads.read(widgetService.getVersion(), widgetService::getAllWidgets, "getAllWidgets");
+        return new ResponseEntity<>(widgets, HttpStatus.OK);
     }
 
     @GetMapping(params = {"page", "size"})
@@ -38,7 +49,8 @@ public class WidgetController {
             @RequestParam(value = "size", defaultValue = "10") @Min(1) @Max(500) Integer size
     ) {
         Pageable pageRequest = PageRequest.of(page, size);
-        return new ResponseEntity<>(widgetService.getAllWidgets(pageRequest), HttpStatus.OK);
+        Page<WidgetResponseDTO> widgets = singleFlightReads.read(widgetService.getVersion(), () -> widgetService.getAllWidgets(pageRequest), "getWidgets", page, size);
+        return new ResponseEntity<>(widgets, HttpStatus.OK);
     }
 
     @GetMapping(params = {"page", "size", "x1", "y1", "x2", "y2"})
@@ -48,11 +60,95 @@ public class WidgetController {
             @RequestParam(value = "x1") @NotNull Integer x1,
             @RequestParam(value = "y1") @NotNull Integer y1,
             @RequestParam(value = "x2") @NotNull Integer x2,
-            @RequestParam(value = "y2") @NotNull Integer y2
+            @RequestParam(value = "y2") @NotNull Integer y2,
+            @RequestParam(value = "mode", defaultValue = "inside") @Pattern(regexp = "inside|intersects") String mode,
+            @RequestParam(value = "exactCount", defaultValue = "true") Boolean exactCount
     ) {
         Pageable pageRequest = PageRequest.of(page, size);
-        WidgetFilterDTO filter = new WidgetFilterDTO(x1, y1, x2, y2);
-        return new ResponseEntity<>(widgetService.getFilteredWidgets(pageRequest, filter), HttpStatus.OK);
+        WidgetFilterMode filterMode = WidgetFilterMode.valueOf(mode.toUpperCase());
+        WidgetFilterDTO filter = new WidgetFilterDTO(x1, y1, x2, y2, filterMode, exactCount);
+        Page<WidgetResponseDTO> widgets = singleFlightReads.read(
+                widgetService.getVersion(),
+                () -> widgetService.getFilteredWidgets(pageRequest, filter),
+                "getFilteredWidgets", page, size, x1, y1, x2, y2, filterMode, exactCount
+        );
+        return new ResponseEntity<>(widgets, HttpStatus.OK);
+    }
+
+    @GetMapping(params = {"updatedSince"})
+    public ResponseEntity<List<WidgetResponseDTO>> getUpdatedWidgets(
+            @RequestParam(value = "updatedSince") @NotNull @Min(0) Long updatedSince
+    ) {
+        return new ResponseEntity<>(widgetService.getUpdatedWidgets(updatedSince, null), HttpStatus.OK);
+    }
+
+    @GetMapping(params = {"updatedSince", "x1", "y1", "x2", "y2"})
+    public ResponseEntity<List<WidgetResponseDTO>> getUpdatedFilteredWidgets(
+            @RequestParam(value = "updatedSince") @NotNull @Min(0) Long updatedSince,
+            @RequestParam(value = "x1") @NotNull Integer x1,
+            @RequestParam(value = "y1") @NotNull Integer y1,
+            @RequestParam(value = "x2") @NotNull Integer x2,
+            @RequestParam(value = "y2") @NotNull Integer y2,
+            @RequestParam(value = "mode", defaultValue = "inside") @Pattern(regexp = "inside|intersects") String mode
+    ) {
+        WidgetFilterDTO filter = new WidgetFilterDTO(x1, y1, x2, y2, WidgetFilterMode.valueOf(mode.toUpperCase()), true);
+        return new ResponseEntity<>(widgetService.getUpdatedWidgets(updatedSince, filter), HttpStatus.OK);
+    }
+
+    @GetMapping(value = "/count")
+    public ResponseEntity<WidgetsCountResponseDTO> countFilteredWidgets(
+            @RequestParam(value = "x1") @NotNull Integer x1,
+            @RequestParam(value = "y1") @NotNull Integer y1,
+            @RequestParam(value = "x2") @NotNull Integer x2,
+            @RequestParam(value = "y2") @NotNull Integer y2,
+            @RequestParam(value = "mode", defaultValue = "inside") @Pattern(regexp = "inside|intersects") String mode
+    ) {
+        WidgetFilterMode filterMode = WidgetFilterMode.valueOf(mode.toUpperCase());
+        WidgetFilterDTO filter = new WidgetFilterDTO(x1, y1, x2, y2, filterMode, true);
+        long count = singleFlightReads.read(widgetService.getVersion(), () -> widgetService.countFilteredWidgets(filter), "countFilteredWidgets", x1, y1, x2, y2, filterMode);
+        return new ResponseEntity<>(new WidgetsCountResponseDTO(count), HttpStatus.OK);
+    }
+
+    @GetMapping(value = "/hit")
+    public ResponseEntity<List<WidgetResponseDTO>> getWidgetsAtPoint(
+            @RequestParam(value = "x") @NotNull Integer x,
+            @RequestParam(value = "y") @NotNull Integer y,
+            @RequestParam(value = "limit", defaultValue = "1") @Min(1) @Max(500) Integer limit
+    ) {
+        return new ResponseEntity<>(widgetService.getWidgetsAtPoint(x, y, limit), HttpStatus.OK);
+    }
+
+    @GetMapping(value = "/nearest")
+    public ResponseEntity<List<WidgetResponseDTO>> getNearestWidgets(
+            @RequestParam(value = "x") @NotNull Integer x,
+            @RequestParam(value = "y") @NotNull Integer y,
+            @RequestParam(value = "k", defaultValue = "1") @Min(1) @Max(500) Integer k
+    ) {
+        return new ResponseEntity<>(widgetService.getNearestWidgets(x, y, k), HttpStatus.OK);
+    }
+
+    @GetMapping(value = "/tiles")
+    public ResponseEntity<List<WidgetsTileResponseDTO>> getTiles(
+            @RequestParam(value = "x1") @NotNull Integer x1,
+            @RequestParam(value = "y1") @NotNull Integer y1,
+            @RequestParam(value = "x2") @NotNull Integer x2,
+            @RequestParam(value = "y2") @NotNull Integer y2,
+            @RequestParam(value = "zoom", defaultValue = "0") @Min(0) Integer zoom,
+            @RequestParam(value = "top", defaultValue = "3") @Min(0) @Max(100) Integer top
+    ) {
+        WidgetFilterDTO filter = new WidgetFilterDTO(x1, y1, x2, y2, WidgetFilterMode.INTERSECTS, true);
+        List<WidgetsTileResponseDTO> tiles = singleFlightReads.read(widgetService.getVersion(), () -> widgetService.getTiles(filter, zoom, top), "getTiles", x1, y1, x2, y2, zoom, top);
+        return new ResponseEntity<>(tiles, HttpStatus.OK);
+    }
+
+    @GetMapping(value = "/overlaps")
+    public ResponseEntity<List<WidgetsOverlapResponseDTO>> getOverlappingWidgetsPairs() {
+        return new ResponseEntity<>(widgetService.getOverlappingWidgetsPairs(), HttpStatus.OK);
+    }
+
+    @GetMapping(value = "/{widgetId}/overlaps")
+    public ResponseEntity<List<WidgetResponseDTO>> getOverlappingWidgets(@PathVariable String widgetId) {
+        return ResponseEntity.of(widgetService.getOverlappingWidgets(widgetId));
     }
 
     @GetMapping(value = "/{widgetId}")
@@ -60,18 +156,46 @@ public class WidgetController {
         return ResponseEntity.of(widgetService.getWidgetById(widgetId));
     }
 
+    @PostMapping(value = "/_mget")
+    public ResponseEntity<WidgetsMultiGetResponseDTO> getWidgetsByIds(@Valid @RequestBody WidgetsMultiGetRequestDTO multiGetRequestDTO) {
+        List<String> ids = multiGetRequestDTO.getIds();
+        List<Optional<WidgetResponseDTO>> widgets = widgetService.getWidgetsByIds(ids);
+        List<WidgetResponseDTO> foundWidgets = new ArrayList<>();
+        List<String> missingIds = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            if (widgets.get(i).isPresent()) {
+                foundWidgets.add(widgets.get(i).get());
+            } else {
+                missingIds.add(ids.get(i));
+            }
+        }
+        return new ResponseEntity<>(new WidgetsMultiGetResponseDTO(foundWidgets, missingIds), HttpStatus.OK);
+    }
+
     @PostMapping
     public ResponseEntity<WidgetResponseDTO> createWidget(@Valid @RequestBody WidgetCreateRequestDTO createRequestDTO) {
         WidgetCreateDTO widgetCreateDTO = new WidgetCreateDTO(createRequestDTO);
         return new ResponseEntity<>(widgetService.createAndSaveWidget(widgetCreateDTO), HttpStatus.CREATED);
     }
 
+    @PostMapping(value = "/_bulk")
+    public ResponseEntity<List<WidgetResponseDTO>> createWidgets(@Valid @RequestBody WidgetsBulkCreateRequestDTO bulkCreateRequestDTO) {
+        WidgetsBulkCreateDTO widgetsBulkCreateDTO = new WidgetsBulkCreateDTO(bulkCreateRequestDTO);
+        return new ResponseEntity<>(widgetService.createAndSaveWidgets(widgetsBulkCreateDTO), HttpStatus.CREATED);
+    }
+
     @PutMapping(value = "/{widgetId}")
     public ResponseEntity<WidgetResponseDTO> updateWidget(@PathVariable String widgetId, @Valid @RequestBody WidgetUpdateRequestDTO updateRequestDTO) {
         WidgetUpdateDTO widgetUpdateDTO = new WidgetUpdateDTO(updateRequestDTO);
         return ResponseEntity.of(widgetService.updateWidgetById(widgetId, widgetUpdateDTO));
     }
 
+    @PostMapping(value = "/_reorder")
+    public ResponseEntity<List<WidgetResponseDTO>> reorderWidgets(@Valid @RequestBody WidgetsReorderRequestDTO reorderRequestDTO) {
+        WidgetReorderDTO widgetReorderDTO = new WidgetReorderDTO(reorderRequestDTO);
+        return ResponseEntity.of(widgetService.reorderWidgets(widgetReorderDTO));
+    }
+
     @DeleteMapping(value = "/{widgetId}")
     public ResponseEntity<Void> deleteWidgetById(@PathVariable String widgetId) {
         boolean deleteResult = widgetService.deleteWidgetById(widgetId);
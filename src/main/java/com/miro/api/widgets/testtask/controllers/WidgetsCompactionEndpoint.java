@@ -0,0 +1,32 @@
+package com.miro.api.widgets.testtask.controllers;
+
+import com.miro.api.widgets.testtask.dto.WidgetsCompactionReportDTO;
+import com.miro.api.widgets.testtask.services.StackingOrderCompaction;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint with progress of background stacking order compaction. Write operation starts compaction pass
+ * regardless of stacking order density and returns immediately.
+ */
+@Component
+@Endpoint(id = "widgetscompaction")
+public class WidgetsCompactionEndpoint {
+    private final StackingOrderCompaction stackingOrderCompaction;
+
+    public WidgetsCompactionEndpoint(StackingOrderCompaction stackingOrderCompaction) {
+        this.stackingOrderCompaction = stackingOrderCompaction;
+    }
+
+    @ReadOperation
+    public WidgetsCompactionReportDTO getReport() {
+        return stackingOrderCompaction.getReport();
+    }
+
+    @WriteOperation
+    public WidgetsCompactionReportDTO trigger() {
+        return stackingOrderCompaction.trigger();
+    }
+}
@@ -0,0 +1,31 @@
+package com.miro.api.widgets.testtask.controllers;
+
+import com.miro.api.widgets.testtask.dto.WidgetResponseDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsHeapReportDTO;
+import com.miro.api.widgets.testtask.services.WidgetInternalService;
+import com.miro.api.widgets.testtask.services.WidgetService;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint with heap accounting of in-memory widgets repository, used for capacity planning and index bloat detection.
+ * Not found if widgets are stored in SQL database.
+ */
+@Component
+@Endpoint(id = "widgetsheap")
+public class WidgetsHeapEndpoint {
+    private final WidgetService<WidgetResponseDTO> widgetService;
+
+    public WidgetsHeapEndpoint(WidgetService<WidgetResponseDTO> widgetService) {
+        this.widgetService = widgetService;
+    }
+
+    @ReadOperation
+    public WidgetsHeapReportDTO getHeapReport() {
+        if (!(widgetService instanceof WidgetInternalService)) {
+            return null;
+        }
+        return ((WidgetInternalService) widgetService).getHeapReport();
+    }
+}
@@ -5,12 +5,28 @@ public class WidgetFilterDTO implements ServiceLayerDTO {
     private final int y1;
     private final int x2;
     private final int y2;
+    private final WidgetFilterMode mode;
+
+    /**
+     * If false, then filtered widgets count is only lower bound ("at least N"), so filtering could stop as soon as page is full.
+     */
+    private final boolean exactCount;
 
     public WidgetFilterDTO(int x1, int y1, int x2, int y2) {
+        this(x1, y1, x2, y2, true);
+    }
+
+    public WidgetFilterDTO(int x1, int y1, int x2, int y2, boolean exactCount) {
+        this(x1, y1, x2, y2, WidgetFilterMode.INSIDE, exactCount);
+    }
+
+    public WidgetFilterDTO(int x1, int y1, int x2, int y2, WidgetFilterMode mode, boolean exactCount) {
         this.x1 = x1;
         this.y1 = y1;
         this.x2 = x2;
         this.y2 = y2;
+        this.mode = mode;
+        this.exactCount = exactCount;
     }
 
     public int getX1() {
@@ -28,4 +44,12 @@ public class WidgetFilterDTO implements ServiceLayerDTO {
     public int getY2() {
         return y2;
     }
+
+    public WidgetFilterMode getMode() {
+        return mode;
+    }
+
+    public boolean isExactCount() {
+        return exactCount;
+    }
 }
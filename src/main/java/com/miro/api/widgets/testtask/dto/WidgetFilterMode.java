@@ -0,0 +1,16 @@
+package com.miro.api.widgets.testtask.dto;
+
+/**
+ * Widgets filtering modes by rectangle.
+ */
+public enum WidgetFilterMode {
+    /**
+     * Widget rectangle is fully inside (inclusive) of filter rectangle.
+     */
+    INSIDE,
+
+    /**
+     * Widget rectangle intersects (inclusive) filter rectangle.
+     */
+    INTERSECTS
+}
@@ -0,0 +1,33 @@
+package com.miro.api.widgets.testtask.dto;
+
+import java.util.List;
+
+public class WidgetReorderDTO implements ServiceLayerDTO {
+    private final List<String> ids;
+
+    private final WidgetReorderPosition position;
+
+    private final String targetId;
+
+    public WidgetReorderDTO(List<String> ids, WidgetReorderPosition position, String targetId) {
+        this.ids = ids;
+        this.position = position;
+        this.targetId = targetId;
+    }
+
+    public WidgetReorderDTO(WidgetsReorderRequestDTO requestDTO) {
+        this(requestDTO.getIds(), WidgetReorderPosition.valueOf(requestDTO.getPosition().toUpperCase()), requestDTO.getTargetId());
+    }
+
+    public List<String> getIds() {
+        return ids;
+    }
+
+    public WidgetReorderPosition getPosition() {
+        return position;
+    }
+
+    public String getTargetId() {
+        return targetId;
+    }
+}
@@ -0,0 +1,35 @@
+package com.miro.api.widgets.testtask.dto;
+
+/**
+ * Widgets reordering positions in stacking order.
+ */
+public enum WidgetReorderPosition {
+    /**
+     * Widgets are moved above all other widgets.
+     */
+    FRONT,
+
+    /**
+     * Widgets are moved below all other widgets.
+     */
+    BACK,
+
+    /**
+     * Widgets are moved right above target widget.
+     */
+    ABOVE,
+
+    /**
+     * Widgets are moved right below target widget.
+     */
+    BELOW;
+
+    /**
+     * Check if position is relative to target widget.
+     *
+     * @return True if target widget is required, else false.
+     */
+    public boolean isRelative() {
+        return this == ABOVE || this == BELOW;
+    }
+}
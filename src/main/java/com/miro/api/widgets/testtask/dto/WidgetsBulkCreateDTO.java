@@ -0,0 +1,104 @@
+package com.miro.api.widgets.testtask.dto;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Batch of widgets created as one mutation. Widgets with z-index are stacked ascend by requested z-index, widgets with
+ * the same requested z-index keep their order in batch, and every widget takes requested z-index or z-index right above
+ * the previous one, so widgets of batch never shift each other. Stacked z-indexes form ranges of consecutive z-indexes,
+ * which are freed by one shift of existing widgets. Widgets without z-index are placed on top after them, in batch order.
+ */
+public class WidgetsBulkCreateDTO implements ServiceLayerDTO {
+    private final List<WidgetCreateDTO> widgets;
+
+    private final List<WidgetCreateDTO> stackedWidgets = new ArrayList<>();
+
+    private final List<WidgetCreateDTO> topWidgets = new ArrayList<>();
+
+    private final long maxStackedZIndex;
+
+    private final int[] rangesFromIndexes;
+
+    private final int[] rangesCounts;
+
+    public WidgetsBulkCreateDTO(List<WidgetCreateDTO> widgets) {
+        this.widgets = widgets;
+        for (WidgetCreateDTO widget : widgets) {
+            (widget.getZIndex() == null ? topWidgets : stackedWidgets).add(widget);
+        }
+        stackedWidgets.sort(Comparator.comparing(WidgetCreateDTO::getZIndex));
+
+        long[] zIndexes = new long[stackedWidgets.size()];
+        int rangesCount = 0;
+        for (int i = 0; i < zIndexes.length; i++) {
+            zIndexes[i] = i == 0 ? stackedWidgets.get(i).getZIndex() : Math.max(stackedWidgets.get(i).getZIndex(), zIndexes[i - 1] + 1);
+            if (i == 0 || zIndexes[i] > zIndexes[i - 1] + 1) {
+                rangesCount++;
+            }
+        }
+        maxStackedZIndex = zIndexes.length == 0 ? Integer.MIN_VALUE : zIndexes[zIndexes.length - 1];
+
+        rangesFromIndexes = new int[rangesCount];
+        rangesCounts = new int[rangesCount];
+        if (maxStackedZIndex > Integer.MAX_VALUE) {
+            return;
+        }
+        int range = -1;
+        for (int i = 0; i < zIndexes.length; i++) {
+            if (i == 0 || zIndexes[i] > zIndexes[i - 1] + 1) {
+                rangesFromIndexes[++range] = (int) zIndexes[i];
+            }
+            rangesCounts[range]++;
+            stackedWidgets.get(i).setZIndex((int) zIndexes[i]);
+        }
+    }
+
+    public WidgetsBulkCreateDTO(WidgetsBulkCreateRequestDTO requestDTO) {
+        this(requestDTO.getWidgets().stream().map(WidgetCreateDTO::new).collect(Collectors.toList()));
+    }
+
+    /**
+     * @return All widgets in batch order.
+     */
+    public List<WidgetCreateDTO> getWidgets() {
+        return widgets;
+    }
+
+    /**
+     * @return Widgets with z-index, sorted ascend by stacked z-index.
+     */
+    public List<WidgetCreateDTO> getStackedWidgets() {
+        return stackedWidgets;
+    }
+
+    /**
+     * @return Widgets without z-index in batch order.
+     */
+    public List<WidgetCreateDTO> getTopWidgets() {
+        return topWidgets;
+    }
+
+    /**
+     * @return The highest stacked z-index, it is greater than {@link Integer#MAX_VALUE} if z-indexes overflow.
+     */
+    public long getMaxStackedZIndex() {
+        return maxStackedZIndex;
+    }
+
+    /**
+     * @return The first z-indexes of ranges of stacked z-indexes, ascending.
+     */
+    public int[] getRangesFromIndexes() {
+        return rangesFromIndexes;
+    }
+
+    /**
+     * @return Lengths of ranges of stacked z-indexes.
+     */
+    public int[] getRangesCounts() {
+        return rangesCounts;
+    }
+}
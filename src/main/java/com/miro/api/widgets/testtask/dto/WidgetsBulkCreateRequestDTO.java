@@ -0,0 +1,24 @@
+package com.miro.api.widgets.testtask.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+public class WidgetsBulkCreateRequestDTO implements AppLayerDTO {
+    @NotNull
+    @Size(min = 1, max = 1000)
+    private final List<@Valid @NotNull WidgetCreateRequestDTO> widgets;
+
+    @JsonCreator
+    public WidgetsBulkCreateRequestDTO(@JsonProperty("widgets") List<WidgetCreateRequestDTO> widgets) {
+        this.widgets = widgets;
+    }
+
+    public List<WidgetCreateRequestDTO> getWidgets() {
+        return widgets;
+    }
+}
@@ -0,0 +1,65 @@
+package com.miro.api.widgets.testtask.dto;
+
+/**
+ * Batch of stacking order compaction. Compacted widget with rank r (position in ascending z-index order) has target z-index
+ * base + r * spacing. Compaction pass is two sweeps: lowering sweep goes upwards and moves widgets down only,
+ * raising sweep goes downwards and moves widgets up only. Widget is never moved past its neighbours,
+ * so stacking order isn't changed by any batch, and after both sweeps every widget has its target z-index.
+ */
+public class WidgetsCompactionBatchDTO implements ServiceLayerDTO {
+    private final long base;
+
+    private final long spacing;
+
+    private final int fromRank;
+
+    private final int toRank;
+
+    private final boolean raising;
+
+    /**
+     * @param base     Target z-index of the lowest widget.
+     * @param spacing  Distance between target z-indexes of neighbour widgets.
+     * @param fromRank The first rank of batch, inclusive.
+     * @param toRank   The last rank of batch, exclusive.
+     * @param raising  True for raising sweep, false for lowering sweep.
+     */
+    public WidgetsCompactionBatchDTO(long base, long spacing, int fromRank, int toRank, boolean raising) {
+        this.base = base;
+        this.spacing = spacing;
+        this.fromRank = fromRank;
+        this.toRank = toRank;
+        this.raising = raising;
+    }
+
+    public int getFromRank() {
+        return fromRank;
+    }
+
+    public int getToRank() {
+        return toRank;
+    }
+
+    public boolean isRaising() {
+        return raising;
+    }
+
+    /**
+     * Allow to get z-index of widget after it is moved towards its target z-index between its current neighbours.
+     *
+     * @param rank        Widget rank.
+     * @param zIndex      Widget z-index.
+     * @param lowerZIndex Z-index of widget below, or {@link Integer#MIN_VALUE} - 1 if there is no such widget.
+     * @param upperZIndex Z-index of widget above, or {@link Integer#MAX_VALUE} + 1 if there is no such widget.
+     * @return New z-index, or the same z-index if widget isn't moved.
+     */
+    public int getCompactedZIndex(long rank, int zIndex, long lowerZIndex, long upperZIndex) {
+        long targetZIndex = base + rank * spacing;
+        if (raising) {
+            targetZIndex = Math.min(targetZIndex, upperZIndex - 1);
+            return targetZIndex > zIndex ? (int) targetZIndex : zIndex;
+        }
+        targetZIndex = Math.max(targetZIndex, lowerZIndex + 1);
+        return targetZIndex < zIndex ? (int) targetZIndex : zIndex;
+    }
+}
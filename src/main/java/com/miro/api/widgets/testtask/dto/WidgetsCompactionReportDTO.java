@@ -0,0 +1,107 @@
+package com.miro.api.widgets.testtask.dto;
+
+/**
+ * Progress of background stacking order compaction.
+ */
+public class WidgetsCompactionReportDTO implements AppLayerDTO {
+    private final boolean enabled;
+    private final boolean running;
+    private final String phase;
+    private final long passesCount;
+    private final int widgetsCount;
+    private final long processedWidgetsCount;
+    private final long movedWidgetsCount;
+    private final long startedAt;
+    private final long finishedAt;
+    private final double density;
+    private final String lastError;
+
+    public WidgetsCompactionReportDTO(boolean enabled, boolean running, String phase, long passesCount, int widgetsCount, long processedWidgetsCount,
+                                      long movedWidgetsCount, long startedAt, long finishedAt, double density, String lastError) {
+        this.enabled = enabled;
+        this.running = running;
+        this.phase = phase;
+        this.passesCount = passesCount;
+        this.widgetsCount = widgetsCount;
+        this.processedWidgetsCount = processedWidgetsCount;
+        this.movedWidgetsCount = movedWidgetsCount;
+        this.startedAt = startedAt;
+        this.finishedAt = finishedAt;
+        this.density = density;
+        this.lastError = lastError;
+    }
+
+    /**
+     * @return True if compaction is run automatically.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return Current sweep of running pass: lowering or raising, or idle.
+     */
+    public String getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return Count of finished passes.
+     */
+    public long getPassesCount() {
+        return passesCount;
+    }
+
+    /**
+     * @return Widgets count at start of current or the last pass.
+     */
+    public int getWidgetsCount() {
+        return widgetsCount;
+    }
+
+    /**
+     * @return Count of widgets processed by current or the last pass, every widget is processed by both sweeps.
+     */
+    public long getProcessedWidgetsCount() {
+        return processedWidgetsCount;
+    }
+
+    /**
+     * @return Count of widgets moves made by current or the last pass.
+     */
+    public long getMovedWidgetsCount() {
+        return movedWidgetsCount;
+    }
+
+    /**
+     * @return Start time of current or the last pass, epoch seconds, or 0 if there was no pass.
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * @return Finish time of the last pass, epoch seconds, or 0 if there was no finished pass.
+     */
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * @return Stacking order density measured by the last check or pass.
+     */
+    public double getDensity() {
+        return density;
+    }
+
+    /**
+     * @return Error message which stopped the last pass, or null.
+     */
+    public String getLastError() {
+        return lastError;
+    }
+}
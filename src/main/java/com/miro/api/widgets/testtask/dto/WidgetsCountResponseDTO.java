@@ -0,0 +1,16 @@
+package com.miro.api.widgets.testtask.dto;
+
+/**
+ * Widgets count that will be produced to client via API response.
+ */
+public class WidgetsCountResponseDTO implements AppLayerDTO {
+    private final long count;
+
+    public WidgetsCountResponseDTO(long count) {
+        this.count = count;
+    }
+
+    public long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,108 @@
+package com.miro.api.widgets.testtask.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Map;
+
+/**
+ * Heap accounting of in-memory widgets repository that will be produced to admin via actuator endpoint:
+ * live widgets count and estimated heap size, entries count and stale entries count of every storage and index.
+ */
+public class WidgetsHeapReportDTO implements AppLayerDTO {
+    private final long widgetsCount;
+    private final long estimatedBytes;
+    private final Map<String, StructureReport> structures;
+
+    public WidgetsHeapReportDTO(long widgetsCount, Map<String, StructureReport> structures) {
+        this.widgetsCount = widgetsCount;
+        this.estimatedBytes = structures.values().stream().mapToLong(StructureReport::getEstimatedBytes).sum();
+        this.structures = structures;
+    }
+
+    public long getWidgetsCount() {
+        return widgetsCount;
+    }
+
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public Map<String, StructureReport> getStructures() {
+        return structures;
+    }
+
+    /**
+     * Heap accounting of one storage or index. Stale entries are entries of removed widgets or entries which key
+     * doesn't match widget anymore.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class StructureReport {
+        private final long entriesCount;
+        private final long estimatedBytes;
+        private final long staleEntriesCount;
+        private final PostingSetsReport postingSets;
+
+        public StructureReport(long entriesCount, long estimatedBytes, long staleEntriesCount, PostingSetsReport postingSets) {
+            this.entriesCount = entriesCount;
+            this.estimatedBytes = estimatedBytes;
+            this.staleEntriesCount = staleEntriesCount;
+            this.postingSets = postingSets;
+        }
+
+        public long getEntriesCount() {
+            return entriesCount;
+        }
+
+        public long getEstimatedBytes() {
+            return estimatedBytes;
+        }
+
+        public long getStaleEntriesCount() {
+            return staleEntriesCount;
+        }
+
+        public PostingSetsReport getPostingSets() {
+            return postingSets;
+        }
+    }
+
+    /**
+     * Distribution of posting sets (widgets ordinals bitmaps of index keys) sizes. Histogram is keyed by sizes range,
+     * ranges are powers of two: "1", "2-3", "4-7" and so on.
+     */
+    public static class PostingSetsReport {
+        private final long keysCount;
+        private final long minSize;
+        private final long maxSize;
+        private final double meanSize;
+        private final Map<String, Long> histogram;
+
+        public PostingSetsReport(long keysCount, long minSize, long maxSize, double meanSize, Map<String, Long> histogram) {
+            this.keysCount = keysCount;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.meanSize = meanSize;
+            this.histogram = histogram;
+        }
+
+        public long getKeysCount() {
+            return keysCount;
+        }
+
+        public long getMinSize() {
+            return minSize;
+        }
+
+        public long getMaxSize() {
+            return maxSize;
+        }
+
+        public double getMeanSize() {
+            return meanSize;
+        }
+
+        public Map<String, Long> getHistogram() {
+            return histogram;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.miro.api.widgets.testtask.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+public class WidgetsMultiGetRequestDTO implements AppLayerDTO {
+    @NotNull
+    @Size(min = 1, max = 500)
+    private final List<@NotNull String> ids;
+
+    @JsonCreator
+    public WidgetsMultiGetRequestDTO(@JsonProperty("ids") List<String> ids) {
+        this.ids = ids;
+    }
+
+    public List<String> getIds() {
+        return ids;
+    }
+}
@@ -0,0 +1,31 @@
+package com.miro.api.widgets.testtask.dto;
+
+import java.util.List;
+
+/**
+ * Widgets found by ids that will be produced to client via API response.
+ */
+public class WidgetsMultiGetResponseDTO implements AppLayerDTO {
+    /**
+     * Found widgets in order of requested ids.
+     */
+    private final List<WidgetResponseDTO> widgets;
+
+    /**
+     * Requested ids of widgets which don't exist, in order of requested ids.
+     */
+    private final List<String> missingIds;
+
+    public WidgetsMultiGetResponseDTO(List<WidgetResponseDTO> widgets, List<String> missingIds) {
+        this.widgets = widgets;
+        this.missingIds = missingIds;
+    }
+
+    public List<WidgetResponseDTO> getWidgets() {
+        return widgets;
+    }
+
+    public List<String> getMissingIds() {
+        return missingIds;
+    }
+}
@@ -0,0 +1,29 @@
+package com.miro.api.widgets.testtask.dto;
+
+/**
+ * Pair of overlapping widgets that will be produced to client via API response.
+ */
+public class WidgetsOverlapResponseDTO implements AppLayerDTO {
+    /**
+     * Id of widget with lower z-index.
+     */
+    private final String lowerWidgetId;
+
+    /**
+     * Id of widget with higher z-index.
+     */
+    private final String upperWidgetId;
+
+    public WidgetsOverlapResponseDTO(String lowerWidgetId, String upperWidgetId) {
+        this.lowerWidgetId = lowerWidgetId;
+        this.upperWidgetId = upperWidgetId;
+    }
+
+    public String getLowerWidgetId() {
+        return lowerWidgetId;
+    }
+
+    public String getUpperWidgetId() {
+        return upperWidgetId;
+    }
+}
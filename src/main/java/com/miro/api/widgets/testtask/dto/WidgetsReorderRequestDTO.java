@@ -0,0 +1,40 @@
+package com.miro.api.widgets.testtask.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+public class WidgetsReorderRequestDTO implements AppLayerDTO {
+    @NotNull
+    @Size(min = 1, max = 500)
+    private final List<@NotNull String> ids;
+
+    @NotNull
+    @Pattern(regexp = "front|back|above|below")
+    private final String position;
+
+    private final String targetId;
+
+    @JsonCreator
+    public WidgetsReorderRequestDTO(@JsonProperty("ids") List<String> ids, @JsonProperty("position") String position, @JsonProperty("targetId") String targetId) {
+        this.ids = ids;
+        this.position = position;
+        this.targetId = targetId;
+    }
+
+    public List<String> getIds() {
+        return ids;
+    }
+
+    public String getPosition() {
+        return position;
+    }
+
+    public String getTargetId() {
+        return targetId;
+    }
+}
@@ -0,0 +1,34 @@
+package com.miro.api.widgets.testtask.dto;
+
+public class WidgetsStackingSummaryDTO implements ServiceLayerDTO {
+    private final int widgetsCount;
+
+    private final int minZIndex;
+
+    private final int maxZIndex;
+
+    public WidgetsStackingSummaryDTO(int widgetsCount, int minZIndex, int maxZIndex) {
+        this.widgetsCount = widgetsCount;
+        this.minZIndex = minZIndex;
+        this.maxZIndex = maxZIndex;
+    }
+
+    public int getWidgetsCount() {
+        return widgetsCount;
+    }
+
+    public int getMinZIndex() {
+        return minZIndex;
+    }
+
+    public int getMaxZIndex() {
+        return maxZIndex;
+    }
+
+    /**
+     * @return Widgets count divided by z-indexes span, 1 if all z-indexes from the lowest to the highest are occupied.
+     */
+    public double getDensity() {
+        return widgetsCount == 0 ? 1 : widgetsCount / ((double) maxZIndex - minZIndex + 1);
+    }
+}
@@ -0,0 +1,61 @@
+package com.miro.api.widgets.testtask.dto;
+
+import java.util.List;
+
+/**
+ * Level-of-detail tile that will be produced to client via API response: widgets count, bounding box
+ * and topmost widgets ids of widgets which centers are in grid cell.
+ */
+public class WidgetsTileResponseDTO implements AppLayerDTO {
+    private final int cellX;
+    private final int cellY;
+    private final int count;
+    private final int minX;
+    private final int minY;
+    private final int maxX;
+    private final int maxY;
+    private final List<String> topWidgetsIds;
+
+    public WidgetsTileResponseDTO(int cellX, int cellY, int count, int minX, int minY, int maxX, int maxY, List<String> topWidgetsIds) {
+        this.cellX = cellX;
+        this.cellY = cellY;
+        this.count = count;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.topWidgetsIds = topWidgetsIds;
+    }
+
+    public int getCellX() {
+        return cellX;
+    }
+
+    public int getCellY() {
+        return cellY;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public int getMaxX() {
+        return maxX;
+    }
+
+    public int getMaxY() {
+        return maxY;
+    }
+
+    public List<String> getTopWidgetsIds() {
+        return topWidgetsIds;
+    }
+}
@@ -7,19 +7,28 @@ import java.util.UUID;
 
 /**
  * Widget class, that contains all widget description.
+ * Widget id is UUID kept as two longs, it is converted to string only by {@link #getId()} and {@link #setId(String)}.
+ * Widget placed to stacking order keeps only its stacking key: z-index and time of the last shift are derived from
+ * stacking order, so they are changed by shifting without writes to widget. Displaced widget keeps them in own fields.
  */
 
 public class WidgetCustomEntity extends AbstractWidgetEntity {
-    private String id;
+    private long idMostSignificantBits;
+    private long idLeastSignificantBits;
     private int xCoordinate;
     private int yCoordinate;
     private int zIndex;
     private int height;
     private int width;
     private long updatedAt;
+    private long shiftedAt = Long.MIN_VALUE;
+    private long zKey;
+    private WidgetStackingOrder stackingOrder;
 
     public WidgetCustomEntity(int xCoordinate, int yCoordinate, int zIndex, int height, int width) {
-        this.id = UUID.randomUUID().toString();
+        UUID id = UUID.randomUUID();
+        this.idMostSignificantBits = id.getMostSignificantBits();
+        this.idLeastSignificantBits = id.getLeastSignificantBits();
         this.xCoordinate = xCoordinate;
         this.yCoordinate = yCoordinate;
         this.zIndex = zIndex;
@@ -29,7 +38,9 @@ public class WidgetCustomEntity extends AbstractWidgetEntity {
     }
 
     public WidgetCustomEntity(WidgetCreateDTO createDTO) {
-        this.id = UUID.randomUUID().toString();
+        UUID id = UUID.randomUUID();
+        this.idMostSignificantBits = id.getMostSignificantBits();
+        this.idLeastSignificantBits = id.getLeastSignificantBits();
         this.xCoordinate = createDTO.getXCoordinate();
         this.yCoordinate = createDTO.getYCoordinate();
         this.zIndex = createDTO.getZIndex();
@@ -39,11 +50,31 @@ public class WidgetCustomEntity extends AbstractWidgetEntity {
     }
 
     public String getId() {
-        return id;
+        return new UUID(idMostSignificantBits, idLeastSignificantBits).toString();
     }
 
-    public void setId(String id) {
-        this.id = id;
+    /**
+     * Allow to set widget id from string.
+     *
+     * @param id Widget id, must be UUID.
+     * @throws IllegalArgumentException throws if id isn't UUID.
+     */
+    public void setId(String id) throws IllegalArgumentException {
+        UUID uuid = UUID.fromString(id);
+        setId(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    public void setId(long idMostSignificantBits, long idLeastSignificantBits) {
+        this.idMostSignificantBits = idMostSignificantBits;
+        this.idLeastSignificantBits = idLeastSignificantBits;
+    }
+
+    public long getIdMostSignificantBits() {
+        return idMostSignificantBits;
+    }
+
+    public long getIdLeastSignificantBits() {
+        return idLeastSignificantBits;
     }
 
     public int getXCoordinate() {
@@ -63,13 +94,57 @@ public class WidgetCustomEntity extends AbstractWidgetEntity {
     }
 
     public int getZIndex() {
-        return zIndex;
+        WidgetStackingOrder order = stackingOrder;
+        return order != null ? order.getZIndex(zKey) : zIndex;
     }
 
+    /**
+     * Allow to set z-index, widget is displaced from its stacking order until it is placed again.
+     *
+     * @param zIndex Widget z-index.
+     */
     public void setZIndex(int zIndex) {
+        displace();
         this.zIndex = zIndex;
     }
 
+    public long getZKey() {
+        return zKey;
+    }
+
+    /**
+     * Allow to change stacking key of placed widget on stacking keys rebalancing, widget order isn't changed.
+     *
+     * @param zKey New widget stacking key.
+     */
+    public void setZKey(long zKey) {
+        this.zKey = zKey;
+    }
+
+    /**
+     * Allow to place widget to stacking order, so its z-index is derived from stacking key.
+     *
+     * @param stackingOrder Stacking order.
+     * @param zKey          Widget stacking key.
+     */
+    public void place(WidgetStackingOrder stackingOrder, long zKey) {
+        this.zKey = zKey;
+        this.stackingOrder = stackingOrder;
+    }
+
+    /**
+     * Allow to displace widget from stacking order before it is removed from it, so current z-index and
+     * time of the last shift are kept by widget.
+     */
+    public void displace() {
+        WidgetStackingOrder order = stackingOrder;
+        if (order != null) {
+            zIndex = order.getZIndex(zKey);
+            shiftedAt = order.getShiftedAt(zKey);
+            stackingOrder = null;
+        }
+    }
+
     public int getHeight() {
         return height;
     }
@@ -86,7 +161,18 @@ public class WidgetCustomEntity extends AbstractWidgetEntity {
         this.width = width;
     }
 
+    /**
+     * @return Time of the last widget modification or shift, epoch seconds.
+     */
     public long getUpdatedAt() {
+        WidgetStackingOrder order = stackingOrder;
+        return Math.max(updatedAt, order != null ? order.getShiftedAt(zKey) : shiftedAt);
+    }
+
+    /**
+     * @return Time of the last widget modification without shifts, epoch seconds.
+     */
+    public long getModifiedAt() {
         return updatedAt;
     }
 
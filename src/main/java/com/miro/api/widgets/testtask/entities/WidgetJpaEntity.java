@@ -11,7 +11,9 @@ import java.util.UUID;
 @Table(name = "widgets",
         indexes = {
                 @Index(name = "filtering_index", columnList = "x1_coordinate,y1_coordinate,x2_coordinate,y2_coordinate"),
-                @Index(name = "unique_index__z_index", columnList = "z_index")
+                @Index(name = "intersects_filtering_index", columnList = "x2_coordinate,y2_coordinate,x1_coordinate,y1_coordinate"),
+                @Index(name = "z_key_index", columnList = "z_key"),
+                @Index(name = "updated_at_index", columnList = "updated_at,z_key")
         }
 )
 public class WidgetJpaEntity extends AbstractWidgetEntity {
@@ -43,9 +45,31 @@ public class WidgetJpaEntity extends AbstractWidgetEntity {
     @Column(name = "y2_coordinate", nullable = false)
     private Integer y2Coordinate;
 
-    @Column(name = "z_index", nullable = false)
+    /**
+     * Sparse stacking key, see {@link com.miro.api.widgets.testtask.repositories.indexes.StackingKeys}.
+     * It is changed by stacking order repository only, so it isn't updatable by entity.
+     */
+    @Column(name = "z_key", updatable = false)
+    private Long zKey;
+
+    /**
+     * Difference between widget z-index and z-index of previous widget. It is changed by stacking order repository only.
+     */
+    @Column(name = "z_weight", nullable = false, updatable = false)
+    private long zWeight;
+
+    /**
+     * Z-index derived from weights by stacking order repository.
+     */
+    @Transient
     private Integer zIndex;
 
+    /**
+     * Time of the last shift of widget, it is derived by stacking order repository.
+     */
+    @Transient
+    private long shiftedAt = Long.MIN_VALUE;
+
     @Column(name = "updated_at", nullable = false)
     private Long updatedAt = Instant.now().getEpochSecond();
 
@@ -111,8 +135,33 @@ public class WidgetJpaEntity extends AbstractWidgetEntity {
         this.zIndex = zIndex;
     }
 
+    public Long getZKey() {
+        return zKey;
+    }
+
+    public void setZKey(Long zKey) {
+        this.zKey = zKey;
+    }
+
+    public long getZWeight() {
+        return zWeight;
+    }
+
+    public void setZWeight(long zWeight) {
+        this.zWeight = zWeight;
+    }
+
+    public void setShiftedAt(long shiftedAt) {
+        this.shiftedAt = shiftedAt;
+    }
+
+    /**
+     * Allow to get widget modification time: widget is modified when it is updated or shifted.
+     *
+     * @return Modification time, epoch seconds.
+     */
     public long getUpdatedAt() {
-        return updatedAt;
+        return Math.max(updatedAt, shiftedAt);
     }
 
     public void setUpdatedAt(long updatedAt) {
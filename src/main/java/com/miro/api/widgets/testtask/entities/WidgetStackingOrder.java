@@ -0,0 +1,23 @@
+package com.miro.api.widgets.testtask.entities;
+
+/**
+ * Stacking order of widgets, which keeps widgets by sparse stacking keys and derives their z-indexes on read,
+ * so shifting of widgets doesn't rewrite them.
+ */
+public interface WidgetStackingOrder {
+    /**
+     * Allow to get z-index of widget placed by stacking key.
+     *
+     * @param zKey Widget stacking key.
+     * @return Widget z-index.
+     */
+    int getZIndex(long zKey);
+
+    /**
+     * Allow to get time of the last shift of widget placed by stacking key.
+     *
+     * @param zKey Widget stacking key.
+     * @return Shift time, epoch seconds, or {@link Long#MIN_VALUE} if widget was never shifted.
+     */
+    long getShiftedAt(long zKey);
+}
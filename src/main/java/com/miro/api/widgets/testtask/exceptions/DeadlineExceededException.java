@@ -0,0 +1,10 @@
+package com.miro.api.widgets.testtask.exceptions;
+
+/**
+ * Exception that is thrown when request time budget is spent before request is handled.
+ */
+public class DeadlineExceededException extends RuntimeException {
+    public DeadlineExceededException() {
+        super("Request deadline exceeded.");
+    }
+}
@@ -1,8 +1,10 @@
 package com.miro.api.widgets.testtask.exceptions;
 
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.TransactionTimedOutException;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -54,4 +56,19 @@ public class ExceptionsHandler extends ResponseEntityExceptionHandler {
         ErrorResponse error = new ErrorResponse("Invalid query params.", details);
         return new ResponseEntity<>(error, HttpStatus.BAD_REQUEST);
     }
-}
\ No newline at end of file
+
+    @ExceptionHandler(InvalidRequestException.class)
+    protected ResponseEntity<Object> handleInvalidRequest(InvalidRequestException ex) {
+        ErrorResponse error = new ErrorResponse("Invalid request.", ex.getMessage() == null ? List.of() : List.of(ex.getMessage()));
+        return new ResponseEntity<>(error, HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Request time budget was spent: by cooperative check, by transaction deadline or by JDBC query timeout.
+     */
+    @ExceptionHandler({DeadlineExceededException.class, TransactionTimedOutException.class, QueryTimeoutException.class})
+    protected ResponseEntity<Object> handleDeadlineExceeded(RuntimeException ex) {
+        ErrorResponse error = new ErrorResponse("Request deadline exceeded.", List.of("Request wasn't handled within its timeout, narrow the query or increase the timeout."));
+        return new ResponseEntity<>(error, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+}
@@ -0,0 +1,12 @@
+package com.miro.api.widgets.testtask.exceptions;
+
+/**
+ * Exception that is thrown when request is well-formed but can't be handled, e.g. zoom level doesn't exist
+ * or widgets z-indexes overflow. Only this exception is converted to bad request response,
+ * other illegal arguments are internal errors.
+ */
+public class InvalidRequestException extends IllegalArgumentException {
+    public InvalidRequestException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,59 @@
+package com.miro.api.widgets.testtask.interceptors;
+
+import com.miro.api.widgets.testtask.config.DeadlineConfig;
+import com.miro.api.widgets.testtask.exceptions.InvalidRequestException;
+import com.miro.api.widgets.testtask.utils.RequestDeadline;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Starts request deadline from timeout header or param (milliseconds), server default timeout is used if there is none.
+ * Timeout is reduced to server max timeout.
+ */
+@Component
+public class DeadlineInterceptor implements HandlerInterceptor {
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout";
+
+    public static final String TIMEOUT_PARAM = "timeout";
+
+    private final DeadlineConfig config;
+
+    public DeadlineInterceptor(DeadlineConfig config) {
+        this.config = config;
+    }
+
+    private long getTimeoutMillis(HttpServletRequest request) throws IllegalArgumentException {
+        String timeout = request.getHeader(TIMEOUT_HEADER);
+        if (timeout == null) {
+            timeout = request.getParameter(TIMEOUT_PARAM);
+        }
+        if (timeout == null) {
+            return Math.min(config.getDefaultTimeoutMillis(), config.getMaxTimeoutMillis());
+        }
+        long timeoutMillis;
+        try {
+            timeoutMillis = Long.parseLong(timeout.trim());
+        } catch (NumberFormatException e) {
+            throw new InvalidRequestException("Timeout must be positive number of milliseconds.");
+        }
+        if (timeoutMillis <= 0) {
+            throw new InvalidRequestException("Timeout must be positive number of milliseconds.");
+        }
+        return Math.min(timeoutMillis, config.getMaxTimeoutMillis());
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        RequestDeadline.clear();
+        RequestDeadline.start(getTimeoutMillis(request));
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        RequestDeadline.clear();
+    }
+}
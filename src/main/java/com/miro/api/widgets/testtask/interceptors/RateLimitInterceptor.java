@@ -60,6 +60,7 @@ public class RateLimitInterceptor implements HandlerInterceptor {
         String method = request.getMethod();
         String uri = request.getRequestURI();
         List<String> params = new ArrayList<>(request.getParameterMap().keySet());
+        params.remove(DeadlineInterceptor.TIMEOUT_PARAM);
         String labelForCurrentRequest = EndpointRateLimit.getLabel(method, uri, params);
 
         Map<String, Integer> rateLimitConfigs = config
@@ -2,6 +2,8 @@ package com.miro.api.widgets.testtask.repositories;
 
 import com.miro.api.widgets.testtask.dto.ServiceLayerDTO;
 import com.miro.api.widgets.testtask.utils.PageHelperWrapper;
+import com.miro.api.widgets.testtask.utils.PairHelperWrapper;
+import com.miro.api.widgets.testtask.utils.TileHelperWrapper;
 
 import java.util.List;
 import java.util.Optional;
@@ -84,4 +86,66 @@ public interface EntityRepository<Entity, CreateDTO extends ServiceLayerDTO, Fil
      * @return List of filtered entities on page.
      */
     PageHelperWrapper<Entity> getFilteredEntities(int page, int size, FilterDTO filter);
+
+    /**
+     * Allow to count filtered entities without getting them.
+     *
+     * @param filter Object with filter properties.
+     * @return Count of filtered entities.
+     */
+    int countFilteredEntities(FilterDTO filter);
+
+    /**
+     * Allow to get topmost entities which contain point.
+     *
+     * @param x     Point x-coordinate.
+     * @param y     Point y-coordinate.
+     * @param limit Max entities count. Min value is 1.
+     * @return List of entities containing point, sorted descend by index.
+     */
+    List<Entity> findEntitiesAtPoint(int x, int y, int limit);
+
+    /**
+     * Allow to get entities nearest to point.
+     *
+     * @param x Point x-coordinate.
+     * @param y Point y-coordinate.
+     * @param k Max entities count. Min value is 1.
+     * @return List of nearest entities, sorted ascend by distance to point, then descend by index.
+     */
+    List<Entity> findNearestEntities(int x, int y, int k);
+
+    /**
+     * Allow to get entities modified since time.
+     *
+     * @param updatedSince Modification time lower bound (inclusive).
+     * @param filter       Object with filter properties, or null to get entities without filtering.
+     * @return List of modified entities, sorted ascend by modification time, then by index.
+     */
+    List<Entity> findUpdatedEntities(long updatedSince, FilterDTO filter);
+
+    /**
+     * Allow to get level-of-detail tiles of entities: per grid cell count, bounding box and topmost entities.
+     *
+     * @param filter Rectangle which tiles cells intersect.
+     * @param zoom   Zoom level. Min value is 0.
+     * @param top    Count of topmost entities in every tile.
+     * @return Not empty tiles sorted by cell y, then by cell x.
+     */
+    List<TileHelperWrapper<Entity>> getTiles(FilterDTO filter, int zoom, int top);
+
+    /**
+     * Allow to get entities which rectangles intersect (inclusive) rectangle of entity with ID.
+     *
+     * @param id Entity unique ID.
+     * @return Overlapping entities without entity itself, sorted ascend by index, if entity exists.
+     */
+    Optional<List<Entity>> findOverlappingEntities(String id);
+
+    /**
+     * Allow to get all pairs of entities which rectangles intersect (inclusive).
+     *
+     * @return Pairs with lower index entity first, sorted ascend by first entity index, then by second entity index.
+     */
+    List<PairHelperWrapper<Entity>> findOverlappingEntitiesPairs();
 }
@@ -1,6 +1,10 @@
 package com.miro.api.widgets.testtask.repositories;
 
 import com.miro.api.widgets.testtask.dto.ServiceLayerDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsHeapReportDTO;
+
+import java.util.List;
+import java.util.OptionalInt;
 
 /**
  * Common CRUD interface for any entity repository, where entity could be shifted by unique int index.
@@ -38,4 +42,54 @@ public interface InternalWidgetEntityRepository<Entity, CreateDTO extends Servic
      * @param index Entity unique int index.
      */
     void shiftUpwards(int index);
+
+    /**
+     * Allow to free ranges of int indexes for new entities by one pass, every entity is shifted once at most.
+     *
+     * @param fromIndexes The first indexes of ranges, ascending.
+     * @param counts      Ranges lengths, ranges don't overlap.
+     * @return The lowest index of shifted entities before shift, or empty OptionalInt if no entity is shifted.
+     * @throws IllegalArgumentException throws if index of shifted entity overflows.
+     */
+    OptionalInt shiftUpwards(int[] fromIndexes, int[] counts) throws IllegalArgumentException;
+
+    /**
+     * Allow to get entities by their ranks (positions in ascending unique int index order).
+     *
+     * @param fromRank The first rank, starting from 0.
+     * @param count    Max entities count.
+     * @return Entities sorted ascend by unique int index.
+     */
+    List<Entity> findEntitiesByRank(int fromRank, int count);
+
+    /**
+     * Allow to save (upsert) batch of entities in batch order.
+     *
+     * @param entities Entities to save (upsert).
+     * @return Saved entities.
+     */
+    List<Entity> saveAllEntities(List<Entity> entities);
+
+    /**
+     * Allow to remove stored entity from stacking order before it is moved, so its unique int index becomes free
+     * and indexes of other entities aren't changed. Entity stays stored, use {@link #placeEntity} to complete move.
+     *
+     * @param entity Stored entity.
+     */
+    void displaceEntity(Entity entity);
+
+    /**
+     * Allow to place displaced entity to stacking order by unique int index, which must be free.
+     *
+     * @param entity Displaced entity.
+     * @param index  Entity unique int index.
+     */
+    void placeEntity(Entity entity, int index);
+
+    /**
+     * Allow to get heap accounting of repository storages and indexes.
+     *
+     * @return Heap report.
+     */
+    WidgetsHeapReportDTO getHeapReport();
 }
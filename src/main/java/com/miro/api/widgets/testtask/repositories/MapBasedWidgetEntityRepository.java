@@ -1,54 +1,152 @@
 package com.miro.api.widgets.testtask.repositories;
 
+import com.miro.api.widgets.testtask.config.RepositoryConfig;
+import com.miro.api.widgets.testtask.config.SearchIndexType;
+import com.miro.api.widgets.testtask.config.TilesConfig;
 import com.miro.api.widgets.testtask.dto.WidgetCreateDTO;
 import com.miro.api.widgets.testtask.dto.WidgetFilterDTO;
+import com.miro.api.widgets.testtask.dto.WidgetFilterMode;
+import com.miro.api.widgets.testtask.dto.WidgetsHeapReportDTO;
 import com.miro.api.widgets.testtask.entities.WidgetCustomEntity;
+import com.miro.api.widgets.testtask.entities.WidgetStackingOrder;
+import com.miro.api.widgets.testtask.exceptions.InvalidRequestException;
+import com.miro.api.widgets.testtask.repositories.indexes.ColumnarRectangleStore;
+import com.miro.api.widgets.testtask.repositories.indexes.HeapSize;
+import com.miro.api.widgets.testtask.repositories.indexes.RTree;
+import com.miro.api.widgets.testtask.repositories.indexes.StackingKeys;
+import com.miro.api.widgets.testtask.repositories.indexes.StackingOrderTree;
+import com.miro.api.widgets.testtask.repositories.indexes.SweepLineOverlaps;
+import com.miro.api.widgets.testtask.repositories.indexes.UuidOrdinalMap;
+import com.miro.api.widgets.testtask.repositories.indexes.WidgetTilesIndex;
+import com.miro.api.widgets.testtask.repositories.indexes.ZIndexRuns;
 import com.miro.api.widgets.testtask.utils.PageHelperWrapper;
+import com.miro.api.widgets.testtask.utils.PairHelperWrapper;
+import com.miro.api.widgets.testtask.utils.RequestDeadline;
+import com.miro.api.widgets.testtask.utils.TileHelperWrapper;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.IntConsumer;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Repository
-public class MapBasedWidgetEntityRepository implements InternalWidgetEntityRepository<WidgetCustomEntity, WidgetCreateDTO, WidgetFilterDTO> {
+public class MapBasedWidgetEntityRepository implements InternalWidgetEntityRepository<WidgetCustomEntity, WidgetCreateDTO, WidgetFilterDTO>, WidgetStackingOrder {
     /**
-     * Hash map that is store widgets ids to their indexes.
+     * Search index type using for widgets filtering.
      */
-    private final HashMap<String, Integer> widgetsIdsToZIndexesStorage = new HashMap<>();
+    private final SearchIndexType searchIndexType;
 
     /**
-     * Tree map that is store widget x-coordinate search index.
+     * R*-tree that is store widgets by their rectangles. Always maintained for point lookups, used for filtering when
+     * search index type is {@link SearchIndexType#RTREE}.
+     * Index keeps widgets references, so widgets z-indexes shifting doesn't affect it.
      */
-    private final TreeMap<Integer, Set<Integer>> x1CoordinateSearchIndex = new TreeMap<>();
+    private final RTree<WidgetCustomEntity> spatialSearchIndex = new RTree<>();
 
     /**
-     * Tree map that is store widget y-coordinate search index.
+     * True while batch is saved to empty repository. R*-tree and tiles aren't updated by every widget then,
+     * they are rebuilt once after batch.
      */
-    private final TreeMap<Integer, Set<Integer>> y1CoordinateSearchIndex = new TreeMap<>();
+    private boolean spatialIndexesDeferred;
 
     /**
-     * Tree map that is store widget x-coordinate + widget width search index.
+     * Columnar store of widgets rectangles and stacking keys by their ordinals. Used when search index type is {@link SearchIndexType#COLUMNAR}.
      */
-    private final TreeMap<Integer, Set<Integer>> x2CoordinateSearchIndex = new TreeMap<>();
+    private final ColumnarRectangleStore columnarSearchIndex = new ColumnarRectangleStore();
 
     /**
-     * Tree map that is store widget y-coordinate + widget height search index.
+     * Level-of-detail tiles of widgets for every zoom level. Always maintained.
      */
-    private final TreeMap<Integer, Set<Integer>> y2CoordinateSearchIndex = new TreeMap<>();
+    private final WidgetTilesIndex tilesIndex;
+
+    /**
+     * Count of widgets visited by long running scans between request deadline checks. Must be power of two.
+     */
+    private static final int DEADLINE_CHECK_INTERVAL = 4096;
+
+    /**
+     * Initial capacity of widgets ordinals table.
+     */
+    private static final int INITIAL_ORDINALS_CAPACITY = 16;
+
+    /**
+     * Table that is store widgets by their ordinals. Ordinal is stable dense widget number, assigned on save and released on delete,
+     * so it isn't changed by widgets z-indexes shifting. Released ordinals are reused, so table stays dense.
+     */
+    private WidgetCustomEntity[] widgetsOrdinalsStorage = new WidgetCustomEntity[INITIAL_ORDINALS_CAPACITY];
+
+    /**
+     * Ordinals released by deleted widgets, ready to be reused.
+     */
+    private final RoaringBitmap freeOrdinals = new RoaringBitmap();
+
+    /**
+     * Ordinal that will be assigned to widget if there are no free ordinals.
+     */
+    private int nextOrdinal = 0;
+
+    /**
+     * Primitive hash map that is store widgets ids (UUIDs as two longs) to their ordinals.
+     */
+    private final UuidOrdinalMap widgetsIdsToOrdinalsStorage = new UuidOrdinalMap();
+
+    /**
+     * Tree map that is store widget x-coordinate search index. Used when search index type is {@link SearchIndexType#TREEMAP}.
+     */
+    private final TreeMap<Integer, RoaringBitmap> x1CoordinateSearchIndex = new TreeMap<>();
+
+    /**
+     * Tree map that is store widget y-coordinate search index. Used when search index type is {@link SearchIndexType#TREEMAP}.
+     */
+    private final TreeMap<Integer, RoaringBitmap> y1CoordinateSearchIndex = new TreeMap<>();
+
+    /**
+     * Tree map that is store widget x-coordinate + widget width search index. Used when search index type is {@link SearchIndexType#TREEMAP}.
+     */
+    private final TreeMap<Integer, RoaringBitmap> x2CoordinateSearchIndex = new TreeMap<>();
+
+    /**
+     * Tree map that is store widget y-coordinate + widget height search index. Used when search index type is {@link SearchIndexType#TREEMAP}.
+     */
+    private final TreeMap<Integer, RoaringBitmap> y2CoordinateSearchIndex = new TreeMap<>();
+
+    /**
+     * Tree map that is store widgets ordinals by widgets last modification time. Always maintained,
+     * so recently modified widgets are found without full scan. Shifted widgets are found by tags of widgets storage.
+     */
+    private final TreeMap<Long, RoaringBitmap> updatedAtSearchIndex = new TreeMap<>();
+
+    public MapBasedWidgetEntityRepository() {
+        this(new RepositoryConfig());
+    }
+
+    public MapBasedWidgetEntityRepository(RepositoryConfig config) {
+        this(config, new TilesConfig());
+    }
+
+    @Autowired
+    public MapBasedWidgetEntityRepository(RepositoryConfig config, TilesConfig tilesConfig) {
+        this.searchIndexType = config.getSearchIndex();
+        this.tilesIndex = new WidgetTilesIndex(tilesConfig, spatialSearchIndex);
+    }
 
     /**
      * Allow to remove widget from search index.
      *
      * @param searchIndex One of search indexes.
      * @param key         Key of search index.
-     * @param zIndex      {@link WidgetCustomEntity} z-index.
+     * @param ordinal     {@link WidgetCustomEntity} ordinal.
      */
-    private void removeWidgetFromSearchIndex(TreeMap<Integer, Set<Integer>> searchIndex, int key, int zIndex) {
-        Set<Integer> zIndexes = searchIndex.get(key);
-        if (zIndexes != null) {
-            zIndexes.remove(zIndex);
-            if (zIndexes.isEmpty()) {
+    private <K> void removeWidgetFromSearchIndex(TreeMap<K, RoaringBitmap> searchIndex, K key, int ordinal) {
+        RoaringBitmap ordinals = searchIndex.get(key);
+        if (ordinals != null) {
+            ordinals.remove(ordinal);
+            if (ordinals.isEmpty()) {
                 searchIndex.remove(key);
             }
         }
@@ -59,81 +157,169 @@ public class MapBasedWidgetEntityRepository implements InternalWidgetEntityRepos
      *
      * @param searchIndex One of search indexes.
      * @param key         Key of search index.
-     * @param zIndex      {@link WidgetCustomEntity} z-index.
-     */
-    private void addWidgetToSearchIndex(TreeMap<Integer, Set<Integer>> searchIndex, int key, int zIndex) {
-        Set<Integer> zIndexes = searchIndex.get(key);
-        if (zIndexes == null) {
-            HashSet<Integer> set = new HashSet<>();
-            set.add(zIndex);
-            searchIndex.put(key, set);
-        } else {
-            zIndexes.add(zIndex);
-        }
+     * @param ordinal     {@link WidgetCustomEntity} ordinal.
+     */
+    private <K> void addWidgetToSearchIndex(TreeMap<K, RoaringBitmap> searchIndex, K key, int ordinal) {
+        searchIndex.computeIfAbsent(key, k -> new RoaringBitmap()).add(ordinal);
     }
 
     /**
      * Allow to add widget to search indexes.
      *
-     * @param widget {@link WidgetCustomEntity} which will be added to search indexes.
+     * @param widget  {@link WidgetCustomEntity} which will be added to search indexes.
+     * @param ordinal {@link WidgetCustomEntity} ordinal.
      */
-    private void addWidgetToSearchIndexes(WidgetCustomEntity widget) {
-        int zIndex = widget.getZIndex();
+    private void addWidgetToSearchIndexes(WidgetCustomEntity widget, int ordinal) {
         int x1 = widget.getXCoordinate();
         int y1 = widget.getYCoordinate();
         int x2 = x1 + widget.getWidth();
         int y2 = y1 + widget.getHeight();
 
-        addWidgetToSearchIndex(x1CoordinateSearchIndex, x1, zIndex);
-        addWidgetToSearchIndex(y1CoordinateSearchIndex, y1, zIndex);
-        addWidgetToSearchIndex(x2CoordinateSearchIndex, x2, zIndex);
-        addWidgetToSearchIndex(y2CoordinateSearchIndex, y2, zIndex);
+        if (!spatialIndexesDeferred) {
+            spatialSearchIndex.insert(x1, y1, x2, y2, widget);
+            tilesIndex.add(widget);
+        }
+        addWidgetToSearchIndex(updatedAtSearchIndex, widget.getModifiedAt(), ordinal);
+        if (searchIndexType == SearchIndexType.RTREE) {
+            return;
+        }
+        if (searchIndexType == SearchIndexType.COLUMNAR) {
+            columnarSearchIndex.set(ordinal, x1, y1, x2, y2, widget.getZKey());
+            return;
+        }
+        addWidgetToSearchIndex(x1CoordinateSearchIndex, x1, ordinal);
+        addWidgetToSearchIndex(y1CoordinateSearchIndex, y1, ordinal);
+        addWidgetToSearchIndex(x2CoordinateSearchIndex, x2, ordinal);
+        addWidgetToSearchIndex(y2CoordinateSearchIndex, y2, ordinal);
     }
 
     /**
      * Allow to remove widget from search indexes.
      *
-     * @param widget {@link WidgetCustomEntity} which will be removed from search indexes.
+     * @param widget  {@link WidgetCustomEntity} which will be removed from search indexes.
+     * @param ordinal {@link WidgetCustomEntity} ordinal.
      */
-    private void removeWidgetFromSearchIndexes(WidgetCustomEntity widget) {
-        int zIndex = widget.getZIndex();
+    private void removeWidgetFromSearchIndexes(WidgetCustomEntity widget, int ordinal) {
         int x1 = widget.getXCoordinate();
         int y1 = widget.getYCoordinate();
         int x2 = x1 + widget.getWidth();
         int y2 = y1 + widget.getHeight();
-        removeWidgetFromSearchIndex(x1CoordinateSearchIndex, x1, zIndex);
-        removeWidgetFromSearchIndex(y1CoordinateSearchIndex, y1, zIndex);
-        removeWidgetFromSearchIndex(x2CoordinateSearchIndex, x2, zIndex);
-        removeWidgetFromSearchIndex(y2CoordinateSearchIndex, y2, zIndex);
+
+        if (!spatialIndexesDeferred) {
+            spatialSearchIndex.remove(x1, y1, x2, y2, widget);
+            tilesIndex.remove(widget);
+        }
+        removeWidgetFromSearchIndex(updatedAtSearchIndex, widget.getModifiedAt(), ordinal);
+        if (searchIndexType == SearchIndexType.RTREE) {
+            return;
+        }
+        if (searchIndexType == SearchIndexType.COLUMNAR) {
+            columnarSearchIndex.clear(ordinal);
+            return;
+        }
+        removeWidgetFromSearchIndex(x1CoordinateSearchIndex, x1, ordinal);
+        removeWidgetFromSearchIndex(y1CoordinateSearchIndex, y1, ordinal);
+        removeWidgetFromSearchIndex(x2CoordinateSearchIndex, x2, ordinal);
+        removeWidgetFromSearchIndex(y2CoordinateSearchIndex, y2, ordinal);
     }
 
     /**
-     * Allow to set widget indexes.
+     * Allow to get free ordinal for new widget. The lowest released ordinal is reused first.
      *
-     * @param oldWidget {@link WidgetCustomEntity} widget with old params.
-     * @param newWidget {@link WidgetCustomEntity} widget with new params.
+     * @return Free ordinal.
      */
-    private void setFilteringIndexes(WidgetCustomEntity oldWidget, WidgetCustomEntity newWidget) {
-        if (oldWidget != null && oldWidget.getZIndex() == newWidget.getZIndex()) {
-            removeWidgetFromSearchIndexes(oldWidget);
+    private int acquireOrdinal() {
+        if (!freeOrdinals.isEmpty()) {
+            int ordinal = freeOrdinals.first();
+            freeOrdinals.remove(ordinal);
+            return ordinal;
+        }
+        if (nextOrdinal == widgetsOrdinalsStorage.length) {
+            widgetsOrdinalsStorage = Arrays.copyOf(widgetsOrdinalsStorage, widgetsOrdinalsStorage.length * 2);
         }
+        return nextOrdinal++;
+    }
+
+    /**
+     * Allow to remove widget from all repository storages and indexes, except ids to ordinals storage.
+     *
+     * @param ordinal {@link WidgetCustomEntity} ordinal.
+     * @return True if widget was stored by its stacking key, else false.
+     */
+    private boolean removeWidgetByOrdinal(int ordinal) {
+        WidgetCustomEntity widget = widgetsOrdinalsStorage[ordinal];
+        widgetsOrdinalsStorage[ordinal] = null;
+        removeWidgetFromSearchIndexes(widget, ordinal);
+        return removeWidgetFromStackingOrder(widget);
+    }
 
-        addWidgetToSearchIndexes(newWidget);
+    /**
+     * Allow to remove widget from widgets storage. Widget is displaced from stacking order, so it keeps its last z-index,
+     * and its weight is passed to the next widget, so z-indexes of other widgets aren't changed.
+     *
+     * @param widget {@link WidgetCustomEntity} Placed widget.
+     * @return True if widget was stored by its stacking key, else false.
+     */
+    private boolean removeWidgetFromStackingOrder(WidgetCustomEntity widget) {
+        widget.displace();
+        long zKey = widget.getZKey();
+        if (widgetsStorage.get(zKey) != widget) {
+            return false;
+        }
+        zIndexRuns.remove(widget.getZIndex());
+        long weight = widgetsStorage.getWeight(zKey);
+        long nextKey = widgetsStorage.higherKey(zKey);
+        widgetsStorage.remove(zKey);
+        if (nextKey != StackingKeys.NO_KEY) {
+            widgetsStorage.addWeight(nextKey, weight);
+        }
+        return true;
     }
 
     /**
-     * Tree map that is store widgets sorted descending by z-index.
+     * B+-tree that is store widgets by sparse stacking keys (see {@link StackingKeys}). Every widget has weight,
+     * so z-index is derived from prefix weight in O(log n), and tag, which is time of its last shift.
+     * Keys are primitive and values are kept only in leaves, so ordered scans go sequentially over leaves arrays.
      */
-    private final ConcurrentSkipListMap<Integer, WidgetCustomEntity> widgetsStorage = new ConcurrentSkipListMap<>(Collections.reverseOrder());
+    private final StackingOrderTree<WidgetCustomEntity> widgetsStorage = new StackingOrderTree<>();
 
     /**
-     * Allow to get widget z-index by its id.
+     * Runs of consecutive occupied z-indexes, so tail of widgets to shift is found without scanning.
+     */
+    private final ZIndexRuns zIndexRuns = new ZIndexRuns();
+
+    /**
+     * Allow to get z-index of widget placed by stacking key.
      *
-     * @param id {@link WidgetCustomEntity} Widget unique ID.
-     * @return Widget z-index mapped to its id.
+     * @param zKey Widget stacking key.
+     * @return Widget z-index.
      */
-    private int getWidgetZIndexById(String id) {
-        return widgetsIdsToZIndexesStorage.get(id);
+    @Override
+    public int getZIndex(long zKey) {
+        return StackingKeys.toZIndex(widgetsStorage.getPrefixWeight(zKey));
+    }
+
+    /**
+     * Allow to get time of the last shift of widget placed by stacking key.
+     *
+     * @param zKey Widget stacking key.
+     * @return Shift time, epoch seconds, or {@link Long#MIN_VALUE} if widget was never shifted.
+     */
+    @Override
+    public long getShiftedAt(long zKey) {
+        return widgetsStorage.getTag(zKey);
+    }
+
+    /**
+     * Allow to find stacking key of widget with z-index.
+     *
+     * @param zIndex {@link WidgetCustomEntity} Widget z-index.
+     * @return Stacking key, or {@link StackingKeys#NO_KEY} if there is no widget with such z-index.
+     */
+    private long getKeyByZIndex(int zIndex) {
+        long prefixWeight = StackingKeys.toPrefixWeight(zIndex);
+        long zKey = widgetsStorage.ceilingKeyByPrefixWeight(prefixWeight);
+        return zKey != StackingKeys.NO_KEY && widgetsStorage.getPrefixWeight(zKey) == prefixWeight ? zKey : StackingKeys.NO_KEY;
     }
 
     /**
@@ -143,7 +329,7 @@ public class MapBasedWidgetEntityRepository implements InternalWidgetEntityRepos
      * @return True if widgets z-indexes needs to be shifted, else false.
      */
     public boolean isNeedToShift(int index) {
-        return widgetsStorage.containsKey(index);
+        return zIndexRuns.contains(index);
     }
 
     /**
@@ -155,88 +341,248 @@ public class MapBasedWidgetEntityRepository implements InternalWidgetEntityRepos
      * @return True if widgets z-indexes needs to be shifted, else false.
      */
     public boolean isNeedToShift(int zIndex, String id) {
-        if (!widgetsStorage.containsKey(zIndex)) {
+        long zKey = getKeyByZIndex(zIndex);
+        if (zKey == StackingKeys.NO_KEY) {
             return false;
         }
-        WidgetCustomEntity widget = widgetsStorage.get(zIndex);
-        return !widget.getId().equals(id);
+        WidgetCustomEntity widget = widgetsStorage.get(zKey);
+        UUID uuid = parseId(id);
+        return uuid == null
+                || widget.getIdMostSignificantBits() != uuid.getMostSignificantBits()
+                || widget.getIdLeastSignificantBits() != uuid.getLeastSignificantBits();
+    }
+
+    /**
+     * Allow to parse widget id at API boundary.
+     *
+     * @param id Widget id.
+     * @return UUID, or null if id isn't UUID in canonical form, so no widget can have such id.
+     */
+    private static UUID parseId(String id) {
+        if (id == null || id.length() != 36) {
+            return null;
+        }
+        try {
+            return UUID.fromString(id);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 
     /**
-     * Return z-index for tail position in repository for filter widgets to shift.
-     * It is the z-index where difference between inserting widget z-index and searchable z-index equals size of elements between this z-indexes.
+     * Allow to get widget ordinal by its id.
+     *
+     * @param id Widget id.
+     * @return Widget ordinal, or {@link UuidOrdinalMap#NO_ORDINAL} if widget doesn't exist.
+     */
+    private int getOrdinal(String id) {
+        UUID uuid = parseId(id);
+        return uuid == null
+                ? UuidOrdinalMap.NO_ORDINAL
+                : widgetsIdsToOrdinalsStorage.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Return stacking key of tail position in repository for widgets to shift: key of the last widget in run of consecutive
+     * z-indexes, which is found by one lookup in z-indexes runs.
      *
      * For example, there are such z-indexes in repository: 1, 2, 3, 4, 5, 10, 11, 20, 21 and we want to insert new widget with z-index 3.
-     * In this case we need to shifts only widgets with z-index 3, 4 and 5. So for this example this method will return 5.
-     *
-     * This method use binary search algorithm with additional logic.
-     *
-     *
-     * @param index z-index to insert in repository.
-     * @return z-index shifting to.
-     */
-    private int getTailToIndex(int index) {
-        int currentListPosition;
-        int elementsCountNeedToReachCurrentValue;
-        int realElementsCount;
-        int listSize;
-        List<Integer> widgetsList;
-        widgetsList = new ArrayList<>(widgetsStorage.headMap(index, true).keySet());
-        final int realListSize = widgetsList.size();
-        listSize = widgetsList.size();
-        boolean resetCurrentValue = true;
-        Integer currentListValue = null;
-
-        while (listSize > 1) {
-            currentListPosition = listSize / 2;
-            if (currentListValue != null && currentListValue + 1 != widgetsList.get(listSize - 1)) {
-                widgetsList = widgetsList.subList(currentListPosition, currentListPosition + 1);
-                if (widgetsList.get(0) != index) {
-                    resetCurrentValue = false;
+     * In this case we need to shifts only widgets with z-index 3, 4 and 5. So for this example this method will return key of widget 5.
+     *
+     * @param zIndex Z-index to insert in repository.
+     * @return Stacking key shifting to.
+     */
+    private long getTailToKey(int zIndex) {
+        return getKeyByZIndex(zIndexRuns.getRunEnd(zIndex));
+    }
+
+    /**
+     * Shifts only necessary widgets z-indexes upwards.
+     *
+     * Widgets from widget with insertable index to widget returned by getTailToKey method aren't touched: weight of the first one
+     * is increased and weight of the widget after the last one is decreased, so z-indexes of shifted widgets are increased.
+     * Shifted widgets keys range is tagged with shift time, so they are found as updated. Stacking keys aren't changed,
+     * so search indexes don't need to be updated.
+     *
+     * @param index new widget z-index.
+     */
+    public void shiftUpwards(int index) {
+        long zKey = getKeyByZIndex(index);
+        if (zKey == StackingKeys.NO_KEY) {
+            return;
+        }
+        long tailToKey = getTailToKey(index);
+        long gapKey = widgetsStorage.higherKey(tailToKey);
+        widgetsStorage.addWeight(zKey, 1);
+        if (gapKey != StackingKeys.NO_KEY) {
+            widgetsStorage.addWeight(gapKey, -1);
+        }
+        widgetsStorage.tag(zKey, tailToKey, Instant.now().getEpochSecond());
+        zIndexRuns.shift(index);
+    }
+
+    /**
+     * Allow to free ranges of z-indexes for new widgets by one sweep over runs of consecutive z-indexes.
+     *
+     * Sweep goes upwards from the first range and keeps the highest z-index taken by shifted widgets or ranges.
+     * Part of run below the next range is shifted right above taken z-indexes, part of run which reaches the range
+     * is shifted above it. Runs which aren't reached by taken z-indexes are skipped up to the next range, so sweep
+     * touches only runs which are shifted. Displacement is computed before any change, then every shifted part of run
+     * gets its final displacement by changing weights of its borders, so every widget is shifted once at most.
+     *
+     * For example, there are such z-indexes in repository: 1, 2, 3, 5, 10 and we want to insert new widgets with z-indexes 2 and 4.
+     * Widget 1 isn't shifted, widgets 2 and 3 are shifted to 3 and 5, so widget 3 reaches range 4 and is shifted to 6,
+     * and widget 5 is shifted to 7. Widget 10 isn't shifted.
+     *
+     * @param fromIndexes The first z-indexes of ranges, ascending.
+     * @param counts      Ranges lengths, ranges don't overlap.
+     * @return The lowest z-index of shifted widgets before shift, or empty OptionalInt if no widget is shifted.
+     * @throws IllegalArgumentException throws if z-index of shifted widget overflows, nothing is shifted in this case.
+     */
+    @Override
+    public OptionalInt shiftUpwards(int[] fromIndexes, int[] counts) throws IllegalArgumentException {
+        List<long[]> parts = new ArrayList<>();
+        long takenIndex = Long.MIN_VALUE;
+        int range = 0;
+        long zKey = fromIndexes.length == 0 ? StackingKeys.NO_KEY : widgetsStorage.ceilingKeyByPrefixWeight(StackingKeys.toPrefixWeight(fromIndexes[0]));
+        while (zKey != StackingKeys.NO_KEY) {
+            long fromIndex = getZIndex(zKey);
+            int runEnd = zIndexRuns.getRunEnd((int) fromIndex);
+            while (fromIndex <= runEnd) {
+                long shiftedIndex = Math.max(fromIndex, takenIndex + 1);
+                long toIndex = runEnd;
+                if (range < fromIndexes.length && fromIndexes[range] <= shiftedIndex + runEnd - fromIndex) {
+                    if (fromIndexes[range] <= shiftedIndex) {
+                        takenIndex = Math.max(takenIndex, (long) fromIndexes[range] + counts[range] - 1);
+                        range++;
+                        continue;
+                    }
+                    toIndex = fromIndex + fromIndexes[range] - shiftedIndex - 1;
+                }
+                if (shiftedIndex + toIndex - fromIndex > Integer.MAX_VALUE) {
+                    throw new InvalidRequestException("Widgets z-indexes can't be greater than " + Integer.MAX_VALUE + ".");
+                }
+                if (shiftedIndex > fromIndex) {
+                    parts.add(new long[]{fromIndex, toIndex, shiftedIndex - fromIndex});
                 }
-                break;
+                takenIndex = shiftedIndex + toIndex - fromIndex;
+                fromIndex = toIndex + 1;
             }
-            currentListValue = widgetsList.get(currentListPosition);
-            if (currentListValue == index && widgetsList.get(currentListPosition - 1) != currentListValue + 1) {
-                widgetsList = widgetsList.subList(currentListPosition, currentListPosition + 1);
-                break;
+
+            zKey = widgetsStorage.higherKey(getKeyByZIndex(runEnd));
+            if (zKey != StackingKeys.NO_KEY && getZIndex(zKey) > takenIndex) {
+                zKey = range < fromIndexes.length
+                        ? widgetsStorage.ceilingKeyByPrefixWeight(StackingKeys.toPrefixWeight(fromIndexes[range]))
+                        : StackingKeys.NO_KEY;
             }
-            elementsCountNeedToReachCurrentValue = currentListValue - index;
-            realElementsCount = realListSize - currentListPosition - 1;
-            if (realElementsCount >= elementsCountNeedToReachCurrentValue) {
-                widgetsList = widgetsList.subList(0, currentListPosition);
-            } else {
-                widgetsList = widgetsList.subList(currentListPosition + 1, widgetsList.size());
+        }
+        if (parts.isEmpty()) {
+            return OptionalInt.empty();
+        }
+
+        long shiftedAt = Instant.now().getEpochSecond();
+        long[] fromKeys = new long[parts.size()];
+        long[] toKeys = new long[parts.size()];
+        for (int i = 0; i < parts.size(); i++) {
+            fromKeys[i] = getKeyByZIndex((int) parts.get(i)[0]);
+            toKeys[i] = getKeyByZIndex((int) parts.get(i)[1]);
+        }
+        for (int i = 0; i < parts.size(); i++) {
+            long delta = parts.get(i)[2];
+            boolean isAfterPrevious = i > 0 && widgetsStorage.lowerKey(fromKeys[i]) == toKeys[i - 1];
+            widgetsStorage.addWeight(fromKeys[i], isAfterPrevious ? delta - parts.get(i - 1)[2] : delta);
+            long gapKey = widgetsStorage.higherKey(toKeys[i]);
+            if (gapKey != StackingKeys.NO_KEY && (i == parts.size() - 1 || gapKey != fromKeys[i + 1])) {
+                widgetsStorage.addWeight(gapKey, -delta);
             }
-            listSize = widgetsList.size();
+            widgetsStorage.tag(fromKeys[i], toKeys[i], shiftedAt);
         }
-        if (resetCurrentValue) {
-            currentListValue = widgetsList.get(0);
+        for (long[] part : parts) {
+            zIndexRuns.removeRange((int) part[0], (int) part[1]);
         }
-        return currentListValue;
+        for (long[] part : parts) {
+            zIndexRuns.addRange((int) (part[0] + part[2]), (int) (part[1] + part[2]));
+        }
+        return OptionalInt.of((int) parts.get(0)[0]);
     }
 
     /**
-     * Shifts only necessary widgets z-indexes upwards.
+     * Allow to place widget to widgets storage by its z-index, which must be free.
+     * Weight of new widget is taken from the next widget, so z-indexes of other widgets aren't changed.
      *
-     * Update widgets z-indexes for widgets where z-indexes greater than insertable index and lower than index returning by getTailToIndex method.
+     * @param widget {@link WidgetCustomEntity} Widget with z-index.
+     */
+    private void placeWidget(WidgetCustomEntity widget) {
+        long prefixWeight = StackingKeys.toPrefixWeight(widget.getZIndex());
+        long upperKey = widgetsStorage.ceilingKeyByPrefixWeight(prefixWeight);
+        long lowerKey;
+        long weight;
+        if (upperKey == StackingKeys.NO_KEY) {
+            lowerKey = widgetsStorage.isEmpty() ? StackingKeys.NO_KEY : widgetsStorage.lastKey();
+            weight = prefixWeight - widgetsStorage.getTotalWeight();
+        } else {
+            lowerKey = widgetsStorage.lowerKey(upperKey);
+            weight = prefixWeight - widgetsStorage.getPrefixWeight(upperKey) + widgetsStorage.getWeight(upperKey);
+            widgetsStorage.addWeight(upperKey, -weight);
+        }
+
+        long zKey = StackingKeys.between(lowerKey, upperKey);
+        if (zKey == StackingKeys.NO_KEY) {
+            zKey = rebalanceKeys(lowerKey == StackingKeys.NO_KEY ? 0 : widgetsStorage.getRank(lowerKey) + 1);
+        }
+        widgetsStorage.put(zKey, widget, weight, StackingOrderTree.NO_TAG);
+        widget.place(this, zKey);
+        zIndexRuns.add(widget.getZIndex());
+    }
+
+    /**
+     * Allow to spread stacking keys of widgets around position evenly to get free key at position.
+     * Window of widgets is doubled until keys gap is at least {@link StackingKeys#MIN_SPREAD_GAP}.
+     * Widgets keep their weights and tags, so z-indexes aren't changed.
      *
-     * @param index new widget z-index.
+     * @param rank Position of free key in ascending key order.
+     * @return Free stacking key.
      */
-    public void shiftUpwards(int index) {
-        int tailTo = getTailToIndex(index);
-        widgetsStorage
-                .headMap(index, true)
-                .tailMap(tailTo, true)
-                .values()
-                .forEach(widget -> {
-                    int newWidgetZIndex = widget.getZIndex() + 1;
-                    widget.setZIndex(newWidgetZIndex);
-                    widget.markUpdated();
-                    addWidgetToSearchIndexes(widget);
-                    widgetsStorage.put(newWidgetZIndex, widget);
-                    widgetsIdsToZIndexesStorage.put(widget.getId(), newWidgetZIndex);
-                });
+    private long rebalanceKeys(int rank) {
+        for (int radius = StackingKeys.MIN_REBALANCE_RADIUS; ; radius *= 2) {
+            int fromRank = Math.max(0, rank - radius);
+            int toRank = Math.min(widgetsStorage.size(), rank + radius);
+            List<WidgetCustomEntity> widgets = new ArrayList<>(toRank - fromRank + 2);
+            widgetsStorage.forEachAscendingFromRank(Math.max(0, fromRank - 1), (zKey, widget) -> {
+                widgets.add(widget);
+                return widgets.size() < toRank - fromRank + 2;
+            });
+            long lowerKey = fromRank > 0 ? widgets.remove(0).getZKey() : StackingKeys.NO_KEY;
+            long upperKey = widgets.size() > toRank - fromRank ? widgets.remove(widgets.size() - 1).getZKey() : StackingKeys.NO_KEY;
+            long[] zKeys = StackingKeys.spread(lowerKey, upperKey, widgets.size() + 1);
+            if (zKeys == null) {
+                if (fromRank == 0 && toRank == widgetsStorage.size()) {
+                    throw new IllegalStateException("Stacking keys are exhausted");
+                }
+                continue;
+            }
+
+            long[] weights = new long[widgets.size()];
+            long[] tags = new long[widgets.size()];
+            for (int i = 0; i < widgets.size(); i++) {
+                long zKey = widgets.get(i).getZKey();
+                weights[i] = widgetsStorage.getWeight(zKey);
+                tags[i] = widgetsStorage.getTag(zKey);
+            }
+            for (WidgetCustomEntity widget : widgets) {
+                widgetsStorage.remove(widget.getZKey());
+            }
+            for (int i = 0; i < widgets.size(); i++) {
+                WidgetCustomEntity widget = widgets.get(i);
+                long zKey = zKeys[i < rank - fromRank ? i : i + 1];
+                widgetsStorage.put(zKey, widget, weights[i], tags[i]);
+                widget.setZKey(zKey);
+                if (searchIndexType == SearchIndexType.COLUMNAR) {
+                    columnarSearchIndex.setKey(widgetsIdsToOrdinalsStorage.get(widget.getIdMostSignificantBits(), widget.getIdLeastSignificantBits()), zKey);
+                }
+            }
+            return zKeys[rank - fromRank];
+        }
     }
 
     /**
@@ -257,8 +603,10 @@ public class MapBasedWidgetEntityRepository implements InternalWidgetEntityRepos
      * @return {@link WidgetCustomEntity} Widget entity if exists.
      */
     public Optional<WidgetCustomEntity> findEntityById(String id) {
-        Integer zIndex = this.getWidgetZIndexById(id);
-        return Optional.ofNullable(widgetsStorage.get(zIndex));
+        int ordinal = getOrdinal(id);
+        return ordinal == UuidOrdinalMap.NO_ORDINAL
+                ? Optional.empty()
+                : Optional.ofNullable(widgetsOrdinalsStorage[ordinal]);
     }
 
     /**
@@ -267,56 +615,210 @@ public class MapBasedWidgetEntityRepository implements InternalWidgetEntityRepos
      * @return {@link List<WidgetCustomEntity>} All widgets in repository.
      */
     public List<WidgetCustomEntity> findAllEntities() {
-        return new ArrayList<>(widgetsStorage.descendingMap().values());
+        List<WidgetCustomEntity> widgets = new ArrayList<>(widgetsStorage.size());
+        widgetsStorage.forEachAscending((zKey, widget) -> widgets.add(widget));
+        return widgets;
     }
 
     /**
-     * Allow to get all widgets in repository by page.
+     * Allow to get all widgets in repository by page. Page start is found by rank in O(log n), so any page costs O(log n + size).
      *
      * @param page Page of widgets you want to get. Min value is 1.
      * @param size Number of widgets in page. Min value is 1.
      * @return {@link List<WidgetCustomEntity>} Widgets in repository on page.
      */
     public PageHelperWrapper<WidgetCustomEntity> findAllEntities(int page, int size) {
-        List<WidgetCustomEntity> widgets = widgetsStorage
-                .descendingMap()
-                .values()
-                .stream()
-                .skip(page * size)
-                .limit(size)
-                .collect(Collectors.toList());
+        List<WidgetCustomEntity> widgets = new ArrayList<>(size);
+        widgetsStorage.forEachAscendingFromRank((long) page * size, (zKey, widget) -> {
+            widgets.add(widget);
+            return widgets.size() < size;
+        });
         int count = widgetsStorage.size();
         return new PageHelperWrapper<>(widgets, count);
     }
 
+    /**
+     * Allow to get widgets by their ranks. The first widget is found by rank in O(log n).
+     *
+     * @param fromRank The first rank, starting from 0.
+     * @param count    Max widgets count.
+     * @return {@link List<WidgetCustomEntity>} Widgets sorted ascend by z-index.
+     */
+    @Override
+    public List<WidgetCustomEntity> findEntitiesByRank(int fromRank, int count) {
+        List<WidgetCustomEntity> widgets = new ArrayList<>(Math.max(0, Math.min(count, widgetsStorage.size() - fromRank)));
+        if (count > 0) {
+            widgetsStorage.forEachAscendingFromRank(fromRank, (zKey, widget) -> {
+                widgets.add(widget);
+                return widgets.size() < count;
+            });
+        }
+        return widgets;
+    }
+
     /**
      * Allow to get current max z-index of all widgets.
      *
      * @return {@link WidgetCustomEntity} max z-index.
      */
     public int getMaxIndex() {
-        try {
-            return widgetsStorage.firstKey();
-        } catch (NoSuchElementException e) {
-            return 0;
+        return widgetsStorage.isEmpty() ? 0 : StackingKeys.toZIndex(widgetsStorage.getTotalWeight());
+    }
+
+    /**
+     * Allow to get the greatest z-index of widget lower than or equal to given one.
+     *
+     * @param index Z-index.
+     * @return Widget z-index, or empty OptionalInt if there is no such widget.
+     */
+    @Override
+    public OptionalInt getFloorIndex(int index) {
+        if (widgetsStorage.isEmpty()) {
+            return OptionalInt.empty();
         }
+        if (index == Integer.MAX_VALUE) {
+            return OptionalInt.of(getMaxIndex());
+        }
+        long upperKey = widgetsStorage.ceilingKeyByPrefixWeight(StackingKeys.toPrefixWeight(index + 1));
+        long zKey = upperKey == StackingKeys.NO_KEY ? widgetsStorage.lastKey() : widgetsStorage.lowerKey(upperKey);
+        return zKey == StackingKeys.NO_KEY ? OptionalInt.empty() : OptionalInt.of(getZIndex(zKey));
+    }
+
+    /**
+     * Allow to get the least z-index of widget greater than or equal to given one.
+     *
+     * @param index Z-index.
+     * @return Widget z-index, or empty OptionalInt if there is no such widget.
+     */
+    @Override
+    public OptionalInt getCeilingIndex(int index) {
+        long zKey = widgetsStorage.ceilingKeyByPrefixWeight(StackingKeys.toPrefixWeight(index));
+        return zKey == StackingKeys.NO_KEY ? OptionalInt.empty() : OptionalInt.of(getZIndex(zKey));
     }
 
     /**
      * Allow to save (upsert) widget in repository with write lock.
+     * Widget with same id keeps its ordinal, widget which is stored with same z-index is replaced.
+     * Widget is placed to stacking order, so its z-index is derived from stacking key since then.
      *
      * @param widgetEntity {@link List<WidgetCustomEntity>} Widget entity to save (upsert).
      */
     @Override
     public WidgetCustomEntity saveEntity(WidgetCustomEntity widgetEntity) {
-        int zIndex = widgetEntity.getZIndex();
-        WidgetCustomEntity oldWidgetEntity = widgetsStorage.get(zIndex);
-        setFilteringIndexes(oldWidgetEntity, widgetEntity);
-        widgetsStorage.put(zIndex, widgetEntity);
-        widgetsIdsToZIndexesStorage.put(widgetEntity.getId(), zIndex);
+        long idMostSignificantBits = widgetEntity.getIdMostSignificantBits();
+        long idLeastSignificantBits = widgetEntity.getIdLeastSignificantBits();
+        int ordinal = widgetsIdsToOrdinalsStorage.get(idMostSignificantBits, idLeastSignificantBits);
+        if (ordinal == UuidOrdinalMap.NO_ORDINAL) {
+            ordinal = acquireOrdinal();
+            widgetsIdsToOrdinalsStorage.put(idMostSignificantBits, idLeastSignificantBits, ordinal);
+        } else {
+            removeWidgetByOrdinal(ordinal);
+        }
+
+        long replacedZKey = getKeyByZIndex(widgetEntity.getZIndex());
+        if (replacedZKey != StackingKeys.NO_KEY) {
+            WidgetCustomEntity replacedWidgetEntity = widgetsStorage.get(replacedZKey);
+            deleteEntityByOrdinal(widgetsIdsToOrdinalsStorage.remove(replacedWidgetEntity.getIdMostSignificantBits(), replacedWidgetEntity.getIdLeastSignificantBits()));
+        }
+
+        placeWidget(widgetEntity);
+        widgetsOrdinalsStorage[ordinal] = widgetEntity;
+        addWidgetToSearchIndexes(widgetEntity, ordinal);
         return widgetEntity;
     }
 
+    /**
+     * Allow to save (upsert) batch of widgets in repository in batch order. If repository is empty, widgets aren't
+     * inserted to R*-tree one by one: R*-tree is packed by Sort-Tile-Recursive once after batch
+     * and tiles are recalculated from stored widgets.
+     *
+     * @param widgetEntities {@link List<WidgetCustomEntity>} Widget entities to save (upsert).
+     * @return Saved widget entities.
+     */
+    @Override
+    public List<WidgetCustomEntity> saveAllEntities(List<WidgetCustomEntity> widgetEntities) {
+        if (!widgetsStorage.isEmpty() || widgetEntities.size() < 2) {
+            widgetEntities.forEach(this::saveEntity);
+            return widgetEntities;
+        }
+        spatialIndexesDeferred = true;
+        try {
+            widgetEntities.forEach(this::saveEntity);
+        } finally {
+            spatialIndexesDeferred = false;
+            rebuildSpatialIndexes();
+        }
+        return widgetEntities;
+    }
+
+    /**
+     * Allow to rebuild R*-tree by Sort-Tile-Recursive packing and tiles from all stored widgets.
+     */
+    private void rebuildSpatialIndexes() {
+        List<RTree.Entry<WidgetCustomEntity>> entries = new ArrayList<>(widgetsStorage.size());
+        widgetsStorage.forEachAscending((zKey, widget) -> {
+            entries.add(new RTree.Entry<>(
+                    widget.getXCoordinate(),
+                    widget.getYCoordinate(),
+                    widget.getXCoordinate() + widget.getWidth(),
+                    widget.getYCoordinate() + widget.getHeight(),
+                    widget
+            ));
+            return true;
+        });
+        spatialSearchIndex.load(entries);
+        tilesIndex.clear();
+        entries.forEach(entry -> tilesIndex.add(entry.getValue()));
+    }
+
+    /**
+     * Allow to remove stored widget from stacking order before it is moved. Widget keeps its ordinal and stays
+     * in coordinates indexes, only indexes which depend on z-index or modification time are updated.
+     * Widget also leaves R*-tree until it is placed, so tiles recalculated while other widgets are displaced
+     * don't pick it up again.
+     *
+     * @param widgetEntity {@link WidgetCustomEntity} Stored widget.
+     */
+    @Override
+    public void displaceEntity(WidgetCustomEntity widgetEntity) {
+        int ordinal = widgetsIdsToOrdinalsStorage.get(widgetEntity.getIdMostSignificantBits(), widgetEntity.getIdLeastSignificantBits());
+        spatialSearchIndex.remove(
+                widgetEntity.getXCoordinate(),
+                widgetEntity.getYCoordinate(),
+                widgetEntity.getXCoordinate() + widgetEntity.getWidth(),
+                widgetEntity.getYCoordinate() + widgetEntity.getHeight(),
+                widgetEntity
+        );
+        tilesIndex.remove(widgetEntity);
+        removeWidgetFromSearchIndex(updatedAtSearchIndex, widgetEntity.getModifiedAt(), ordinal);
+        removeWidgetFromStackingOrder(widgetEntity);
+    }
+
+    /**
+     * Allow to place displaced widget to stacking order by z-index, which must be free.
+     *
+     * @param widgetEntity {@link WidgetCustomEntity} Displaced widget.
+     * @param index        Widget z-index.
+     */
+    @Override
+    public void placeEntity(WidgetCustomEntity widgetEntity, int index) {
+        int ordinal = widgetsIdsToOrdinalsStorage.get(widgetEntity.getIdMostSignificantBits(), widgetEntity.getIdLeastSignificantBits());
+        widgetEntity.setZIndex(index);
+        placeWidget(widgetEntity);
+        spatialSearchIndex.insert(
+                widgetEntity.getXCoordinate(),
+                widgetEntity.getYCoordinate(),
+                widgetEntity.getXCoordinate() + widgetEntity.getWidth(),
+                widgetEntity.getYCoordinate() + widgetEntity.getHeight(),
+                widgetEntity
+        );
+        tilesIndex.add(widgetEntity);
+        addWidgetToSearchIndex(updatedAtSearchIndex, widgetEntity.getModifiedAt(), ordinal);
+        if (searchIndexType == SearchIndexType.COLUMNAR) {
+            columnarSearchIndex.setKey(ordinal, widgetEntity.getZKey());
+        }
+    }
+
     /**
      * Allow to remove widget by its ID from repository.
      *
@@ -325,11 +827,24 @@ public class MapBasedWidgetEntityRepository implements InternalWidgetEntityRepos
      */
     @Override
     public boolean deleteEntityById(String id) {
-        int zIndex = this.getWidgetZIndexById(id);
-        WidgetCustomEntity widget = widgetsStorage.get(zIndex);
-        removeWidgetFromSearchIndexes(widget);
-        widgetsIdsToZIndexesStorage.remove(id);
-        return widgetsStorage.remove(zIndex) != null;
+        UUID uuid = parseId(id);
+        if (uuid == null) {
+            return false;
+        }
+        int ordinal = widgetsIdsToOrdinalsStorage.remove(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        return ordinal != UuidOrdinalMap.NO_ORDINAL && deleteEntityByOrdinal(ordinal);
+    }
+
+    /**
+     * Allow to remove widget, which id is already removed from ids to ordinals storage, and release its ordinal.
+     *
+     * @param ordinal {@link WidgetCustomEntity} ordinal.
+     * @return True if widget was stored by its stacking key, else false.
+     */
+    private boolean deleteEntityByOrdinal(int ordinal) {
+        boolean isRemoved = removeWidgetByOrdinal(ordinal);
+        freeOrdinals.add(ordinal);
+        return isRemoved;
     }
 
     /**
@@ -338,11 +853,19 @@ public class MapBasedWidgetEntityRepository implements InternalWidgetEntityRepos
     @Override
     public void purge() {
         widgetsStorage.clear();
-        widgetsIdsToZIndexesStorage.clear();
+        zIndexRuns.clear();
+        widgetsIdsToOrdinalsStorage.clear();
+        widgetsOrdinalsStorage = new WidgetCustomEntity[INITIAL_ORDINALS_CAPACITY];
+        freeOrdinals.clear();
+        nextOrdinal = 0;
         x1CoordinateSearchIndex.clear();
         y1CoordinateSearchIndex.clear();
         x2CoordinateSearchIndex.clear();
         y2CoordinateSearchIndex.clear();
+        updatedAtSearchIndex.clear();
+        spatialSearchIndex.clear();
+        columnarSearchIndex.clearAll();
+        tilesIndex.clear();
     }
 
     /**
@@ -356,27 +879,214 @@ public class MapBasedWidgetEntityRepository implements InternalWidgetEntityRepos
     }
 
     /**
-     * Allow to get all widgets z-indexes suitable for current search index.
+     * Estimated heap size of widget: two longs of id, longs of modification and shift time, long of stacking key,
+     * five ints of rectangle and z-index and reference to stacking order.
+     */
+    private static final long WIDGET_SIZE = HeapSize.ofObject(5 * 8 + 5 * 4 + HeapSize.REFERENCE);
+
+    /**
+     * Estimated heap size of empty {@link TreeMap}.
+     */
+    private static final long TREE_MAP_SIZE = HeapSize.ofObject(7 * HeapSize.REFERENCE + 2 * 4);
+
+    /**
+     * Estimated heap size of {@link TreeMap} entry: key, value, left, right and parent references and color.
+     */
+    private static final long TREE_MAP_ENTRY_SIZE = HeapSize.ofObject(5 * HeapSize.REFERENCE + 1);
+
+    /**
+     * Allow to get heap accounting of repository storages and indexes. Widgets aren't visited: every live widget has
+     * exactly one entry in every storage and index, so entries above live widgets count are stale. Only ordinals table,
+     * B+-tree nodes, R*-tree nodes and search indexes keys are visited.
+     *
+     * @return Heap report.
+     */
+    @Override
+    public WidgetsHeapReportDTO getHeapReport() {
+        WidgetCustomEntity[] widgetsByOrdinals = widgetsOrdinalsStorage;
+        long widgetsCount = 0;
+        for (int ordinal = 0; ordinal < Math.min(nextOrdinal, widgetsByOrdinals.length); ordinal++) {
+            if (widgetsByOrdinals[ordinal] != null) {
+                widgetsCount++;
+            }
+        }
+
+
+        Map<String, WidgetsHeapReportDTO.StructureReport> structures = new LinkedHashMap<>();
+        structures.put("widgets", new WidgetsHeapReportDTO.StructureReport(widgetsCount, widgetsCount * WIDGET_SIZE, 0, null));
+        structures.put("widgetsStorage", new WidgetsHeapReportDTO.StructureReport(
+                widgetsStorage.size(),
+                widgetsStorage.estimateSizeInBytes(),
+                Math.max(0, widgetsStorage.size() - widgetsCount),
+                null
+        ));
+        structures.put("zIndexRuns", new WidgetsHeapReportDTO.StructureReport(
+                zIndexRuns.size(),
+                zIndexRuns.estimateSizeInBytes(),
+                0,
+                null
+        ));
+        structures.put("widgetsIdsToOrdinalsStorage", new WidgetsHeapReportDTO.StructureReport(
+                widgetsIdsToOrdinalsStorage.size(),
+                widgetsIdsToOrdinalsStorage.estimateSizeInBytes(),
+                Math.max(0, widgetsIdsToOrdinalsStorage.size() - widgetsCount),
+                null
+        ));
+        structures.put("widgetsOrdinalsStorage", new WidgetsHeapReportDTO.StructureReport(
+                nextOrdinal,
+                HeapSize.ofReferenceArray(widgetsByOrdinals.length) + HeapSize.ofRoaringBitmap(freeOrdinals),
+                freeOrdinals.getLongCardinality(),
+                null
+        ));
+        structures.put("x1CoordinateSearchIndex", getSearchIndexReport(x1CoordinateSearchIndex, HeapSize.ofObject(4), widgetsCount));
+        structures.put("y1CoordinateSearchIndex", getSearchIndexReport(y1CoordinateSearchIndex, HeapSize.ofObject(4), widgetsCount));
+        structures.put("x2CoordinateSearchIndex", getSearchIndexReport(x2CoordinateSearchIndex, HeapSize.ofObject(4), widgetsCount));
+        structures.put("y2CoordinateSearchIndex", getSearchIndexReport(y2CoordinateSearchIndex, HeapSize.ofObject(4), widgetsCount));
+        structures.put("updatedAtSearchIndex", getSearchIndexReport(updatedAtSearchIndex, HeapSize.ofObject(8), widgetsCount));
+        structures.put("spatialSearchIndex", new WidgetsHeapReportDTO.StructureReport(
+                spatialSearchIndex.size(),
+                spatialSearchIndex.estimateSizeInBytes(),
+                Math.max(0, spatialSearchIndex.size() - widgetsCount),
+                null
+        ));
+        structures.put("tilesIndex", new WidgetsHeapReportDTO.StructureReport(
+                tilesIndex.getTilesCount(),
+                tilesIndex.estimateSizeInBytes(),
+                0,
+                null
+        ));
+        structures.put("columnarSearchIndex", new WidgetsHeapReportDTO.StructureReport(
+                searchIndexType == SearchIndexType.COLUMNAR ? widgetsCount : 0,
+                columnarSearchIndex.estimateSizeInBytes(),
+                0,
+                null
+        ));
+        return new WidgetsHeapReportDTO(widgetsCount, structures);
+    }
+
+    /**
+     * Allow to get heap accounting of one of search indexes. Index which isn't used by search index type is empty.
+     *
+     * @param searchIndex  One of search indexes.
+     * @param keySize      Estimated heap size of boxed key.
+     * @param widgetsCount Live widgets count.
+     * @return Search index heap report.
+     */
+    private static <K> WidgetsHeapReportDTO.StructureReport getSearchIndexReport(TreeMap<K, RoaringBitmap> searchIndex, long keySize, long widgetsCount) {
+        long entriesCount = 0;
+        long estimatedBytes = TREE_MAP_SIZE;
+        long minSize = Long.MAX_VALUE;
+        long maxSize = 0;
+        TreeMap<Integer, Long> sizesHistogram = new TreeMap<>();
+        for (RoaringBitmap ordinals : searchIndex.values()) {
+            long size = ordinals.getLongCardinality();
+            entriesCount += size;
+            estimatedBytes += TREE_MAP_ENTRY_SIZE + keySize + HeapSize.ofRoaringBitmap(ordinals);
+            minSize = Math.min(minSize, size);
+            maxSize = Math.max(maxSize, size);
+            sizesHistogram.merge(63 - Long.numberOfLeadingZeros(Math.max(size, 1)), 1L, Long::sum);
+        }
+
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        sizesHistogram.forEach((power, keysCount) -> {
+            long from = 1L << power;
+            long to = (from << 1) - 1;
+            histogram.put(from == to ? String.valueOf(from) : from + "-" + to, keysCount);
+        });
+        WidgetsHeapReportDTO.PostingSetsReport postingSets = new WidgetsHeapReportDTO.PostingSetsReport(
+                searchIndex.size(),
+                searchIndex.isEmpty() ? 0 : minSize,
+                maxSize,
+                searchIndex.isEmpty() ? 0 : (double) entriesCount / searchIndex.size(),
+                histogram
+        );
+        long staleEntriesCount = searchIndex.isEmpty() ? 0 : Math.max(0, entriesCount - widgetsCount);
+        return new WidgetsHeapReportDTO.StructureReport(entriesCount, estimatedBytes, staleEntriesCount, postingSets);
+    }
+
+    /**
+     * Allow to get union of widgets ordinals in range of search index suitable for current filter.
      *
      * @param searchIndex One of four search indexes.
      * @param filter      Filtering value for search index.
      * @param gte         If true, then search only in higher (inclusive) elements, else only lower (inclusive) elements.
-     * @return Set of widgets z-indexes in current search index suitable for current filter.
+     * @return Ordinals of widgets suitable for current filter by one of coordinates.
      */
-    private Set<Integer> getSearchIndexSetOfZIndexes(TreeMap<Integer, Set<Integer>> searchIndex, int filter, boolean gte) {
-        NavigableMap<Integer, Set<Integer>> map = gte
+    private RoaringBitmap getSearchIndexRangeOrdinals(TreeMap<Integer, RoaringBitmap> searchIndex, int filter, boolean gte) {
+        NavigableMap<Integer, RoaringBitmap> range = gte
                 ? searchIndex.tailMap(filter, true)
                 : searchIndex.headMap(filter, true);
-        return map
-                .values()
-                .stream()
-                .flatMap(Collection::stream)
-                .collect(Collectors.toSet());
+        return FastAggregation.or(range.values().iterator());
+    }
+
+    /**
+     * Check if widget rectangle matches filter rectangle: is fully inside (inclusive) of it or intersects (inclusive) it,
+     * depending on filter mode.
+     *
+     * @param widget {@link WidgetCustomEntity} widget to check.
+     * @param filter Object with filter properties.
+     * @return True if widget matches filter, else false.
+     */
+    private boolean isWidgetMatchesFilter(WidgetCustomEntity widget, WidgetFilterDTO filter) {
+        int x1 = widget.getXCoordinate();
+        int y1 = widget.getYCoordinate();
+        int x2 = x1 + widget.getWidth();
+        int y2 = y1 + widget.getHeight();
+        if (filter.getMode() == WidgetFilterMode.INTERSECTS) {
+            return x2 >= filter.getX1()
+                    && y2 >= filter.getY1()
+                    && x1 <= filter.getX2()
+                    && y1 <= filter.getY2();
+        }
+        return x1 >= filter.getX1()
+                && y1 >= filter.getY1()
+                && x2 <= filter.getX2()
+                && y2 <= filter.getY2();
+    }
+
+    /**
+     * Allow to get widgets modified or shifted since time via last modification time index and tags of widgets storage,
+     * so only modified and shifted widgets are touched.
+     *
+     * @param updatedSince Modification time lower bound (inclusive), epoch seconds.
+     * @param filter       Object with filter properties, or null to get widgets from the whole board.
+     * @return List of modified widgets sorted ascend by modification time, then by z-index.
+     */
+    @Override
+    public List<WidgetCustomEntity> findUpdatedEntities(long updatedSince, WidgetFilterDTO filter) {
+        Set<WidgetCustomEntity> widgets = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (RoaringBitmap ordinals : updatedAtSearchIndex.tailMap(updatedSince, true).values()) {
+            RequestDeadline.check();
+            ordinals.forEach((IntConsumer) ordinal -> {
+                WidgetCustomEntity widget = widgetsOrdinalsStorage[ordinal];
+                if (filter == null || isWidgetMatchesFilter(widget, filter)) {
+                    widgets.add(widget);
+                }
+            });
+        }
+        widgetsStorage.forEachTagged(updatedSince, (zKey, widget) -> {
+            if ((widgets.size() & (DEADLINE_CHECK_INTERVAL - 1)) == 0) {
+                RequestDeadline.check();
+            }
+            if (filter == null || isWidgetMatchesFilter(widget, filter)) {
+                widgets.add(widget);
+            }
+            return true;
+        });
+
+        RequestDeadline.check();
+        List<WidgetCustomEntity> sortedWidgets = new ArrayList<>(widgets);
+        sortedWidgets.sort(Comparator.comparingLong(WidgetCustomEntity::getUpdatedAt).thenComparingLong(WidgetCustomEntity::getZKey));
+        return sortedWidgets;
     }
 
     /**
      * Allow to get filtered widgets from repository by page.
      *
+     * If filter doesn't require exact count, widgets are scanned in z-index order until page is full.
+     * Each of four search indexes ranges is unioned to ordinals bitmap, then bitmaps are intersected,
+     * so no widgets are touched until the final matches are known.
+     *
      * @param page   Page of widgets you want to get. Min value is 0.
      * @param size   Number of widgets in page. Min value is 1.
      * @param filter Object with filter properties.
@@ -384,23 +1094,267 @@ public class MapBasedWidgetEntityRepository implements InternalWidgetEntityRepos
      */
     @Override
     public PageHelperWrapper<WidgetCustomEntity> getFilteredEntities(int page, int size, WidgetFilterDTO filter) {
-        Set<Integer> x1Match = getSearchIndexSetOfZIndexes(x1CoordinateSearchIndex, filter.getX1(), true);
-        Set<Integer> y1Match = getSearchIndexSetOfZIndexes(y1CoordinateSearchIndex, filter.getY1(), true);
-        Set<Integer> x2Match = getSearchIndexSetOfZIndexes(x2CoordinateSearchIndex, filter.getX2(), false);
-        Set<Integer> y2Match = getSearchIndexSetOfZIndexes(y2CoordinateSearchIndex, filter.getY2(), false);
+        if (!filter.isExactCount()) {
+            return getZOrderedFilteredEntities(page, size, filter);
+        }
+        if (searchIndexType == SearchIndexType.RTREE) {
+            return getSpatialFilteredEntities(page, size, filter);
+        }
+        if (searchIndexType == SearchIndexType.COLUMNAR) {
+            return getColumnarFilteredEntities(page, size, filter);
+        }
+
+        boolean intersects = filter.getMode() == WidgetFilterMode.INTERSECTS;
+        RequestDeadline.check();
+        RoaringBitmap lowerXMatches = getSearchIndexRangeOrdinals(intersects ? x2CoordinateSearchIndex : x1CoordinateSearchIndex, filter.getX1(), true);
+        RequestDeadline.check();
+        RoaringBitmap lowerYMatches = getSearchIndexRangeOrdinals(intersects ? y2CoordinateSearchIndex : y1CoordinateSearchIndex, filter.getY1(), true);
+        RequestDeadline.check();
+        RoaringBitmap upperXMatches = getSearchIndexRangeOrdinals(intersects ? x1CoordinateSearchIndex : x2CoordinateSearchIndex, filter.getX2(), false);
+        RequestDeadline.check();
+        RoaringBitmap upperYMatches = getSearchIndexRangeOrdinals(intersects ? y1CoordinateSearchIndex : y2CoordinateSearchIndex, filter.getY2(), false);
+        RequestDeadline.check();
+        RoaringBitmap matches = FastAggregation.and(lowerXMatches, lowerYMatches, upperXMatches, upperYMatches);
+
+        RequestDeadline.check();
+        List<WidgetCustomEntity> matchedWidgets = new ArrayList<>(matches.getCardinality());
+        matches.forEach((IntConsumer) ordinal -> matchedWidgets.add(widgetsOrdinalsStorage[ordinal]));
 
-        x1Match.retainAll(y1Match);
-        x1Match.retainAll(x2Match);
-        x1Match.retainAll(y2Match);
+        RequestDeadline.check();
+        List<WidgetCustomEntity> widgets = matchedWidgets
+                .stream()
+                .sorted(Comparator.comparingLong(WidgetCustomEntity::getZKey))
+                .skip(page * size)
+                .limit(size)
+                .collect(Collectors.toList());
+
+        return new PageHelperWrapper<>(widgets, matchedWidgets.size());
+    }
+
+    /**
+     * Allow to get filtered widgets from repository by page via widgets scan in z-index order.
+     * Scan stops on the first match after page, so returned count is lower bound: matches before page, matches on page
+     * and one more if next page exists. Request deadline is checked every {@link #DEADLINE_CHECK_INTERVAL} visited widgets.
+     *
+     * @param page   Page of widgets you want to get. Min value is 0.
+     * @param size   Number of widgets in page. Min value is 1.
+     * @param filter Object with filter properties.
+     * @return List of filtered widgets on page.
+     */
+    private PageHelperWrapper<WidgetCustomEntity> getZOrderedFilteredEntities(int page, int size, WidgetFilterDTO filter) {
+        long skip = (long) page * size;
+        List<WidgetCustomEntity> widgets = new ArrayList<>(size);
+        long[] count = {0};
+        int[] visited = {0};
+        widgetsStorage.forEachAscending((zKey, widget) -> {
+            if ((++visited[0] & (DEADLINE_CHECK_INTERVAL - 1)) == 0) {
+                RequestDeadline.check();
+            }
+            if (widget.getZKey() != zKey || !isWidgetMatchesFilter(widget, filter)) {
+                return true;
+            }
+            count[0]++;
+            if (count[0] > skip + size) {
+                return false;
+            }
+            if (count[0] > skip) {
+                widgets.add(widget);
+            }
+            return true;
+        });
+        return new PageHelperWrapper<>(widgets, (int) Math.min(count[0], Integer.MAX_VALUE));
+    }
+
+    /**
+     * Allow to get filtered widgets from repository by page via full parallel scan of columnar search index.
+     * Widgets are touched only for requested page, they are found by stacking keys. Scan runs in pool threads, so
+     * request deadline is passed to it as remaining time budget.
+     *
+     * @param page   Page of widgets you want to get. Min value is 0.
+     * @param size   Number of widgets in page. Min value is 1.
+     * @param filter Object with filter properties.
+     * @return List of filtered widgets on page.
+     */
+    private PageHelperWrapper<WidgetCustomEntity> getColumnarFilteredEntities(int page, int size, WidgetFilterDTO filter) {
+        long budgetNanos = RequestDeadline.getRemainingNanos();
+        long[] zKeys = filter.getMode() == WidgetFilterMode.INTERSECTS
+                ? columnarSearchIndex.searchIntersectingSortedByKey(filter.getX1(), filter.getY1(), filter.getX2(), filter.getY2(), budgetNanos)
+                : columnarSearchIndex.searchContainedSortedByKey(filter.getX1(), filter.getY1(), filter.getX2(), filter.getY2(), budgetNanos);
+        RequestDeadline.check();
+
+        List<WidgetCustomEntity> widgets = new ArrayList<>(size);
+        long skip = (long) page * size;
+        for (long i = skip; i < zKeys.length && widgets.size() < size; i++) {
+            WidgetCustomEntity widget = widgetsStorage.get(zKeys[(int) i]);
+            if (widget != null) {
+                widgets.add(widget);
+            }
+        }
+        return new PageHelperWrapper<>(widgets, zKeys.length);
+    }
+
+    /**
+     * Allow to count filtered widgets via R*-tree, which nodes keep entries count, so matches aren't collected.
+     *
+     * @param filter Object with filter properties.
+     * @return Count of filtered widgets.
+     */
+    @Override
+    public int countFilteredEntities(WidgetFilterDTO filter) {
+        return filter.getMode() == WidgetFilterMode.INTERSECTS
+                ? spatialSearchIndex.countIntersecting(filter.getX1(), filter.getY1(), filter.getX2(), filter.getY2())
+                : spatialSearchIndex.countContained(filter.getX1(), filter.getY1(), filter.getX2(), filter.getY2());
+    }
+
+    /**
+     * Allow to get level-of-detail tiles of widgets, which are maintained incrementally on every write.
+     *
+     * @param filter Rectangle which tiles cells intersect.
+     * @param zoom   Zoom level.
+     * @param top    Count of topmost widgets ids in every tile.
+     * @return Not empty tiles sorted by cell y, then by cell x.
+     * @throws IllegalArgumentException throws if zoom level doesn't exist or rectangle has too many cells.
+     */
+    @Override
+    public List<TileHelperWrapper<WidgetCustomEntity>> getTiles(WidgetFilterDTO filter, int zoom, int top) throws IllegalArgumentException {
+        return tilesIndex.getTiles(filter.getX1(), filter.getY1(), filter.getX2(), filter.getY2(), zoom, top);
+    }
+
+    /**
+     * Allow to get widgets which rectangles contain (inclusive) point, sorted descend by z-index.
+     * Only R*-tree nodes containing point are visited.
+     *
+     * @param x     Point x-coordinate.
+     * @param y     Point y-coordinate.
+     * @param limit Max widgets count. Min value is 1.
+     * @return Topmost widgets at point.
+     */
+    @Override
+    public List<WidgetCustomEntity> findEntitiesAtPoint(int x, int y, int limit) {
+        PriorityQueue<WidgetCustomEntity> topmostWidgets = new PriorityQueue<>(Comparator.comparingLong(WidgetCustomEntity::getZKey));
+        spatialSearchIndex.searchIntersecting(x, y, x, y, widget -> {
+            topmostWidgets.add(widget);
+            if (topmostWidgets.size() > limit) {
+                topmostWidgets.poll();
+            }
+        });
+
+        List<WidgetCustomEntity> widgets = new ArrayList<>(topmostWidgets);
+        widgets.sort(Comparator.comparingLong(WidgetCustomEntity::getZKey).reversed());
+        return widgets;
+    }
+
+    /**
+     * Allow to get widgets nearest to point via best-first search over R*-tree. Distance is euclidean distance
+     * from point to widget rectangle, so widgets containing point have zero distance.
+     *
+     * @param x Point x-coordinate.
+     * @param y Point y-coordinate.
+     * @param k Max widgets count. Min value is 1.
+     * @return Nearest widgets, sorted ascend by distance, then descend by z-index.
+     */
+    @Override
+    public List<WidgetCustomEntity> findNearestEntities(int x, int y, int k) {
+        return spatialSearchIndex.searchNearest(x, y, k, Comparator.comparingLong(WidgetCustomEntity::getZKey).reversed());
+    }
+
+    /**
+     * Allow to get widgets overlapping widget with ID via R*-tree probe by widget rectangle.
+     *
+     * @param id {@link WidgetCustomEntity} Widget unique ID.
+     * @return Overlapping widgets without widget itself, sorted ascend by z-index, if widget exists.
+     */
+    @Override
+    public Optional<List<WidgetCustomEntity>> findOverlappingEntities(String id) {
+        return findEntityById(id).map(widget -> {
+            List<WidgetCustomEntity> widgets = new ArrayList<>();
+            spatialSearchIndex.searchIntersecting(
+                    widget.getXCoordinate(),
+                    widget.getYCoordinate(),
+                    widget.getXCoordinate() + widget.getWidth(),
+                    widget.getYCoordinate() + widget.getHeight(),
+                    overlappingWidget -> {
+                        if (overlappingWidget != widget) {
+                            widgets.add(overlappingWidget);
+                        }
+                    }
+            );
+            widgets.sort(Comparator.comparingLong(WidgetCustomEntity::getZKey));
+            return widgets;
+        });
+    }
+
+    /**
+     * Allow to get all pairs of overlapping widgets via parallel sweep line over widgets rectangles snapshot.
+     *
+     * @return Pairs with lower z-index widget first, sorted ascend by first widget z-index, then by second widget z-index.
+     */
+    @Override
+    public List<PairHelperWrapper<WidgetCustomEntity>> findOverlappingEntitiesPairs() {
+        WidgetCustomEntity[] widgets = new WidgetCustomEntity[widgetsIdsToOrdinalsStorage.size()];
+        int count = 0;
+        for (int ordinal = 0; ordinal < nextOrdinal; ordinal++) {
+            if (widgetsOrdinalsStorage[ordinal] != null) {
+                widgets[count++] = widgetsOrdinalsStorage[ordinal];
+            }
+        }
+
+        int[] minX = new int[count];
+        int[] minY = new int[count];
+        int[] maxX = new int[count];
+        int[] maxY = new int[count];
+        for (int i = 0; i < count; i++) {
+            minX[i] = widgets[i].getXCoordinate();
+            minY[i] = widgets[i].getYCoordinate();
+            maxX[i] = minX[i] + widgets[i].getWidth();
+            maxY[i] = minY[i] + widgets[i].getHeight();
+        }
+
+        long[] pairs = SweepLineOverlaps.findIntersectingPairs(minX, minY, maxX, maxY);
+        List<PairHelperWrapper<WidgetCustomEntity>> result = new ArrayList<>(pairs.length);
+        for (long pair : pairs) {
+            WidgetCustomEntity first = widgets[(int) (pair >>> 32)];
+            WidgetCustomEntity second = widgets[(int) pair];
+            result.add(first.getZKey() < second.getZKey()
+                    ? new PairHelperWrapper<>(first, second)
+                    : new PairHelperWrapper<>(second, first));
+        }
+        result.sort(Comparator
+                .comparingLong((PairHelperWrapper<WidgetCustomEntity> pair) -> pair.getFirst().getZKey())
+                .thenComparingLong(pair -> pair.getSecond().getZKey()));
+        return result;
+    }
+
+    /**
+     * Allow to get filtered widgets from repository by page via R*-tree. Only tree nodes intersecting filter rectangle are visited.
+     *
+     * @param page   Page of widgets you want to get. Min value is 0.
+     * @param size   Number of widgets in page. Min value is 1.
+     * @param filter Object with filter properties.
+     * @return List of filtered widgets on page.
+     */
+    private PageHelperWrapper<WidgetCustomEntity> getSpatialFilteredEntities(int page, int size, WidgetFilterDTO filter) {
+        List<WidgetCustomEntity> matches = new ArrayList<>();
+        Consumer<WidgetCustomEntity> collector = widget -> {
+            matches.add(widget);
+            if ((matches.size() & (DEADLINE_CHECK_INTERVAL - 1)) == 0) {
+                RequestDeadline.check();
+            }
+        };
+        if (filter.getMode() == WidgetFilterMode.INTERSECTS) {
+            spatialSearchIndex.searchIntersecting(filter.getX1(), filter.getY1(), filter.getX2(), filter.getY2(), collector);
+        } else {
+            spatialSearchIndex.searchContained(filter.getX1(), filter.getY1(), filter.getX2(), filter.getY2(), collector);
+        }
 
-        List<WidgetCustomEntity> widgets = x1Match
+        RequestDeadline.check();
+        List<WidgetCustomEntity> widgets = matches
                 .stream()
-                .sorted()
+                .sorted(Comparator.comparingLong(WidgetCustomEntity::getZKey))
                 .skip(page * size)
                 .limit(size)
-                .map(widgetsStorage::get)
                 .collect(Collectors.toList());
 
-        return new PageHelperWrapper<>(widgets, x1Match.size());
+        return new PageHelperWrapper<>(widgets, matches.size());
     }
 }
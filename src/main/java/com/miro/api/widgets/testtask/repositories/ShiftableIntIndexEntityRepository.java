@@ -1,5 +1,10 @@
 package com.miro.api.widgets.testtask.repositories;
 
+import com.miro.api.widgets.testtask.dto.WidgetReorderPosition;
+import com.miro.api.widgets.testtask.exceptions.InvalidRequestException;
+
+import java.util.OptionalInt;
+
 /**
  * Common interface for any entity repository, where entity could be shifted by unique int index.
  */
@@ -34,4 +39,72 @@ public interface ShiftableIntIndexEntityRepository {
      * @param index Entity unique int index.
      */
     void shiftUpwards(int index);
+
+    /**
+     * Allow to free ranges of int indexes for new entities by one pass. Entities are shifted the same way as if new entity
+     * was created at every index of ranges in ascending order, but combined displacement is applied, so every entity is shifted once at most.
+     *
+     * @param fromIndexes The first indexes of ranges, ascending.
+     * @param counts      Ranges lengths, ranges don't overlap.
+     * @return The lowest index of shifted entities before shift, or empty OptionalInt if no entity is shifted.
+     * @throws IllegalArgumentException throws if index of shifted entity overflows, nothing is shifted in this case.
+     */
+    OptionalInt shiftUpwards(int[] fromIndexes, int[] counts) throws IllegalArgumentException;
+
+    /**
+     * Allow to get the greatest entity int index lower than or equal to given one.
+     *
+     * @param index Int index.
+     * @return Entity index, or empty OptionalInt if there is no such entity.
+     */
+    OptionalInt getFloorIndex(int index);
+
+    /**
+     * Allow to get the least entity int index greater than or equal to given one.
+     *
+     * @param index Int index.
+     * @return Entity index, or empty OptionalInt if there is no such entity.
+     */
+    OptionalInt getCeilingIndex(int index);
+
+    /**
+     * Allow to get the first of consecutive int indexes to place reordered entities to. Use after entities are displaced,
+     * so only other entities are taken into account. Front and back take index next to the topmost or the lowest entity,
+     * above takes index next to target, below takes free indexes under target if there are enough of them,
+     * else index next to entity under target, so entities from target up are shifted.
+     *
+     * @param position      Reorder position.
+     * @param count         Reordered entities count.
+     * @param targetIndex   Target entity index, used by relative positions only.
+     * @param fallbackIndex Index to start from if there are no other entities.
+     * @return The first int index.
+     * @throws IllegalArgumentException throws if the last int index overflows.
+     */
+    default int getReorderStartIndex(WidgetReorderPosition position, int count, int targetIndex, int fallbackIndex) throws IllegalArgumentException {
+        long startIndex;
+        switch (position) {
+            case FRONT: {
+                OptionalInt topIndex = getFloorIndex(Integer.MAX_VALUE);
+                startIndex = topIndex.isPresent() ? topIndex.getAsInt() + 1L : fallbackIndex;
+                break;
+            }
+            case BACK: {
+                OptionalInt bottomIndex = getCeilingIndex(Integer.MIN_VALUE);
+                startIndex = bottomIndex.isPresent() ? Math.max(Integer.MIN_VALUE, (long) bottomIndex.getAsInt() - count) : fallbackIndex;
+                break;
+            }
+            case ABOVE:
+                startIndex = targetIndex + 1L;
+                break;
+            default: {
+                OptionalInt lowerIndex = targetIndex == Integer.MIN_VALUE ? OptionalInt.empty() : getFloorIndex(targetIndex - 1);
+                long lowestFreeIndex = lowerIndex.isPresent() ? lowerIndex.getAsInt() + 1L : Integer.MIN_VALUE;
+                startIndex = Math.max(lowestFreeIndex, (long) targetIndex - count);
+            }
+        }
+        if (startIndex + count - 1 > Integer.MAX_VALUE) {
+            throw new InvalidRequestException("Widgets z-indexes can't be greater than " + Integer.MAX_VALUE + ".");
+        }
+        return (int) startIndex;
+    }
 }
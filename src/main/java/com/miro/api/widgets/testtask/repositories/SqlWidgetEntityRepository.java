@@ -3,24 +3,24 @@ package com.miro.api.widgets.testtask.repositories;
 import com.miro.api.widgets.testtask.entities.WidgetJpaEntity;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.stereotype.Repository;
 
-@Repository
-public interface SqlWidgetEntityRepository extends PagingAndSortingRepository<WidgetJpaEntity, String>, ShiftableIntIndexEntityRepository {
+import java.util.List;
 
-    @Query("Select coalesce(max(w.zIndex), 0) from widget w")
-    int getMaxIndex();
+@Repository
+public interface SqlWidgetEntityRepository extends PagingAndSortingRepository<WidgetJpaEntity, String>, SqlWidgetStackingOrderRepository {
 
-    @Query("Select w from widget w order by w.zIndex asc")
+    @Query("Select w from widget w order by w.zKey asc")
     Iterable<WidgetJpaEntity> findAll();
 
-    @Query("Select w from widget w order by w.zIndex asc")
+    @Query("Select w from widget w order by w.zKey asc")
     Page<WidgetJpaEntity> findAll(Pageable pageable);
 
-    @Query("Select w from widget w where w.x1Coordinate >= ?1 and w.y1Coordinate >= ?2 and w.x2Coordinate <= ?3  and w.y2Coordinate <= ?4 order by w.zIndex asc")
+    @Query("Select w from widget w where w.x1Coordinate >= ?1 and w.y1Coordinate >= ?2 and w.x2Coordinate <= ?3  and w.y2Coordinate <= ?4 order by w.zKey asc")
     Page<WidgetJpaEntity> getFilteredEntities(
             int x1,
             int y1,
@@ -29,13 +29,109 @@ public interface SqlWidgetEntityRepository extends PagingAndSortingRepository<Wi
             Pageable pageRequest
     );
 
-    @Modifying(clearAutomatically = true)
-    @Query("Update widget w set w.zIndex = w.zIndex + 1 where w.zIndex >= ?1")
-    void shiftUpwards(int zIndex);
+    @Query("Select w from widget w where w.x1Coordinate >= ?1 and w.y1Coordinate >= ?2 and w.x2Coordinate <= ?3  and w.y2Coordinate <= ?4 order by w.zKey asc")
+    Slice<WidgetJpaEntity> getFilteredEntitiesSlice(
+            int x1,
+            int y1,
+            int x2,
+            int y2,
+            Pageable pageRequest
+    );
 
-    @Query("Select count(w) > 0 from widget w where w.zIndex = ?1")
-    boolean isNeedToShift(int index);
+    @Query("Select w from widget w where w.x2Coordinate >= ?1 and w.y2Coordinate >= ?2 and w.x1Coordinate <= ?3 and w.y1Coordinate <= ?4 order by w.zKey asc")
+    Page<WidgetJpaEntity> getIntersectingEntities(
+            int x1,
+            int y1,
+            int x2,
+            int y2,
+            Pageable pageRequest
+    );
 
-    @Query("Select count(w) > 0 from widget w where w.zIndex = ?1 and w.id = ?2")
-    boolean isNeedToShift(int index, String id);
+    @Query("Select w from widget w where w.x2Coordinate >= ?1 and w.y2Coordinate >= ?2 and w.x1Coordinate <= ?3 and w.y1Coordinate <= ?4 order by w.zKey asc")
+    Slice<WidgetJpaEntity> getIntersectingEntitiesSlice(
+            int x1,
+            int y1,
+            int x2,
+            int y2,
+            Pageable pageRequest
+    );
+
+    @Query("Select count(w) from widget w where w.x1Coordinate >= ?1 and w.y1Coordinate >= ?2 and w.x2Coordinate <= ?3  and w.y2Coordinate <= ?4")
+    long countFilteredEntities(int x1, int y1, int x2, int y2);
+
+    @Query("Select count(w) from widget w where w.x2Coordinate >= ?1 and w.y2Coordinate >= ?2 and w.x1Coordinate <= ?3 and w.y1Coordinate <= ?4")
+    long countIntersectingEntities(int x1, int y1, int x2, int y2);
+
+    @Query("Select w from widget w where (w.updatedAt >= ?1 or w.zKey >= ?2) order by w.zKey asc")
+    List<WidgetJpaEntity> findUpdatedEntities(long updatedSince, long shiftedKeysFrom);
+
+    @Query("Select w from widget w where (w.updatedAt >= ?1 or w.zKey >= ?2) and w.x1Coordinate >= ?3 and w.y1Coordinate >= ?4 and w.x2Coordinate <= ?5 and w.y2Coordinate <= ?6 order by w.zKey asc")
+    List<WidgetJpaEntity> findUpdatedFilteredEntities(long updatedSince, long shiftedKeysFrom, int x1, int y1, int x2, int y2);
+
+    @Query("Select w from widget w where (w.updatedAt >= ?1 or w.zKey >= ?2) and w.x2Coordinate >= ?3 and w.y2Coordinate >= ?4 and w.x1Coordinate <= ?5 and w.y1Coordinate <= ?6 order by w.zKey asc")
+    List<WidgetJpaEntity> findUpdatedIntersectingEntities(long updatedSince, long shiftedKeysFrom, int x1, int y1, int x2, int y2);
+
+    @Query("Select w from widget w where w.x1Coordinate <= ?1 and w.y1Coordinate <= ?2 and w.x2Coordinate >= ?1 and w.y2Coordinate >= ?2 order by w.zKey desc")
+    List<WidgetJpaEntity> findEntitiesAtPoint(int x, int y, Pageable pageRequest);
+
+    @Query(nativeQuery = true, value = "select * from widgets " +
+            "where x2_coordinate >= :x1 and y2_coordinate >= :y1 and x1_coordinate <= :x2 and y1_coordinate <= :y2 " +
+            "order by power(greatest(cast(x1_coordinate as bigint) - :x, 0, :x - cast(x2_coordinate as bigint)), 2) " +
+            "+ power(greatest(cast(y1_coordinate as bigint) - :y, 0, :y - cast(y2_coordinate as bigint)), 2) asc, z_key desc " +
+            "limit :k")
+    List<WidgetJpaEntity> findNearestEntities(
+            @Param("x") long x,
+            @Param("y") long y,
+            @Param("x1") int x1,
+            @Param("y1") int y1,
+            @Param("x2") int x2,
+            @Param("y2") int y2,
+            @Param("k") int k
+    );
+
+    @Query("Select w from widget w, widget t where t.id = ?1 and w.id <> t.id and w.x2Coordinate >= t.x1Coordinate and w.y2Coordinate >= t.y1Coordinate and w.x1Coordinate <= t.x2Coordinate and w.y1Coordinate <= t.y2Coordinate order by w.zKey asc")
+    List<WidgetJpaEntity> findOverlappingEntities(String id);
+
+    @Query("Select l, u from widget l, widget u where u.x2Coordinate >= l.x1Coordinate and u.y2Coordinate >= l.y1Coordinate and u.x1Coordinate <= l.x2Coordinate and u.y1Coordinate <= l.y2Coordinate and u.zKey > l.zKey order by l.zKey asc, u.zKey asc")
+    List<Object[]> findOverlappingEntitiesPairs();
+
+    String TILES_CELLS_QUERY = "select cast(floor((cast(x1_coordinate as bigint) + (x2_coordinate - x1_coordinate) / 2) / cast(:cellSize as double)) as bigint) as cell_x, cast(floor((cast(y1_coordinate as bigint) + (y2_coordinate - y1_coordinate) / 2) / cast(:cellSize as double)) as bigint) as cell_y, id, x1_coordinate, y1_coordinate, x2_coordinate, y2_coordinate, z_key from widgets where x2_coordinate >= :x1 and y2_coordinate >= :y1 and x1_coordinate <= :x2 and y1_coordinate <= :y2 and greatest(x2_coordinate - x1_coordinate, y2_coordinate - y1_coordinate) * :cellPixels >= :minVisibleSize";
+
+    @Query(nativeQuery = true, value = "select cell_x, cell_y, count(*), min(x1_coordinate), min(y1_coordinate), max(x2_coordinate), max(y2_coordinate) " +
+            "from (" + TILES_CELLS_QUERY + ") cells " +
+            "where cell_x between :fromCellX and :toCellX and cell_y between :fromCellY and :toCellY " +
+            "group by cell_x, cell_y order by cell_y, cell_x")
+    List<Object[]> getTiles(
+            @Param("x1") int x1,
+            @Param("y1") int y1,
+            @Param("x2") int x2,
+            @Param("y2") int y2,
+            @Param("fromCellX") long fromCellX,
+            @Param("fromCellY") long fromCellY,
+            @Param("toCellX") long toCellX,
+            @Param("toCellY") long toCellY,
+            @Param("cellSize") int cellSize,
+            @Param("cellPixels") long cellPixels,
+            @Param("minVisibleSize") long minVisibleSize
+    );
+
+    @Query(nativeQuery = true, value = "select cell_x, cell_y, id from (" +
+            "select cell_x, cell_y, id, row_number() over (partition by cell_x, cell_y order by z_key desc) as position " +
+            "from (" + TILES_CELLS_QUERY + ") cells " +
+            "where cell_x between :fromCellX and :toCellX and cell_y between :fromCellY and :toCellY" +
+            ") ranked where position <= :top order by cell_y, cell_x, position")
+    List<Object[]> getTilesTopmostIds(
+            @Param("x1") int x1,
+            @Param("y1") int y1,
+            @Param("x2") int x2,
+            @Param("y2") int y2,
+            @Param("fromCellX") long fromCellX,
+            @Param("fromCellY") long fromCellY,
+            @Param("toCellX") long toCellX,
+            @Param("toCellY") long toCellY,
+            @Param("cellSize") int cellSize,
+            @Param("cellPixels") long cellPixels,
+            @Param("minVisibleSize") long minVisibleSize,
+            @Param("top") int top
+    );
 }
@@ -0,0 +1,68 @@
+package com.miro.api.widgets.testtask.repositories;
+
+import com.miro.api.widgets.testtask.entities.WidgetJpaEntity;
+
+import java.util.List;
+
+/**
+ * Stacking order of widgets stored in SQL database. Widgets rows keep sparse stacking keys and weights only,
+ * z-indexes and shift times are derived on read, so shifting and placing of widget changes a few rows.
+ */
+public interface SqlWidgetStackingOrderRepository extends ShiftableIntIndexEntityRepository {
+    /**
+     * Allow to place widget to stacking order by z-index, which must be free.
+     * Weight of widget is taken from the next widget, so z-indexes of other widgets aren't changed.
+     * Stacking key and weight are set to widget, row of widget which is already stored is updated.
+     *
+     * @param widget {@link WidgetJpaEntity} Widget to place.
+     * @param zIndex Widget z-index.
+     */
+    void place(WidgetJpaEntity widget, int zIndex);
+
+    /**
+     * Allow to place new widgets to stacking order by their z-indexes and insert them, as one pass.
+     * Stored widgets rows are updated once at most and new rows are inserted by one JDBC batch.
+     *
+     * @param widgets {@link List<WidgetJpaEntity>} New widgets with z-indexes, which must be free, sorted ascend by z-index.
+     */
+    void placeAll(List<WidgetJpaEntity> widgets);
+
+    /**
+     * Allow to remove widget from stacking order. Weight of widget is passed to the next widget,
+     * so z-indexes of other widgets aren't changed.
+     *
+     * @param widget {@link WidgetJpaEntity} Stored widget.
+     */
+    void displace(WidgetJpaEntity widget);
+
+    /**
+     * Allow to derive z-indexes and shift times of widgets.
+     *
+     * @param widgets {@link List<WidgetJpaEntity>} Stored widgets.
+     * @return Same widgets.
+     */
+    List<WidgetJpaEntity> resolve(List<WidgetJpaEntity> widgets);
+
+    /**
+     * Allow to get widgets by their ranks (positions in ascending z-index order) with derived z-indexes and shift times.
+     * The first widget is found by blocks widgets counts, so only rows of its block are skipped.
+     *
+     * @param fromRank The first rank, starting from 0.
+     * @param count    Max widgets count.
+     * @return {@link List<WidgetJpaEntity>} Widgets sorted ascend by z-index.
+     */
+    List<WidgetJpaEntity> findByRank(int fromRank, int count);
+
+    /**
+     * Allow to get the lowest stacking key of widgets shifted since time.
+     *
+     * @param shiftedSince Shift time lower bound (inclusive), epoch seconds.
+     * @return Stacking key, or {@link Long#MAX_VALUE} if no widget was shifted since time.
+     */
+    long getShiftedKeysFrom(long shiftedSince);
+
+    /**
+     * Allow to clean stacking order, use after all widgets are deleted.
+     */
+    void clearStackingOrder();
+}
@@ -0,0 +1,725 @@
+package com.miro.api.widgets.testtask.repositories;
+
+import com.miro.api.widgets.testtask.entities.WidgetJpaEntity;
+import com.miro.api.widgets.testtask.exceptions.InvalidRequestException;
+import com.miro.api.widgets.testtask.repositories.indexes.StackingKeys;
+import org.hibernate.Session;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.sql.PreparedStatement;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.TreeMap;
+
+/**
+ * Stacking order of widgets stored in SQL database.
+ *
+ * Widgets rows keep sparse stacking keys and weights (see {@link StackingKeys}). Rows are grouped into blocks by keys ranges,
+ * block row in widget_z_blocks table keeps block start key, widgets count and sum of widgets weights, so z-index of widget
+ * is sum of weights of previous blocks and weights of previous widgets in its block. Block is split in halves when it is full,
+ * so placing, displacing and shifting of widget change a few rows. Block of z-index is found by one query with running sum
+ * of blocks weights, so writers read one block row and rows of this block, and z-indexes of page are derived by reading
+ * blocks and rows of blocks page widgets belong to.
+ *
+ * Shifts are kept in widget_z_shifts table as staircase: every step tags widgets from its key up with shift time,
+ * and new shift removes steps above it, so shift time of widget is time of the nearest step below its key,
+ * and widgets shifted since time are widgets above the lowest step with such time.
+ *
+ * Writers are serialized by lock of the first block row, which is taken before the first stacking order read of read-write
+ * transaction. Z-indexes are derived by several statements, so readers must see one snapshot of all tables: read-only
+ * transactions must be serializable, which is snapshot isolation in H2.
+ */
+public class SqlWidgetStackingOrderRepositoryImpl implements SqlWidgetStackingOrderRepository {
+    /**
+     * Max widgets count in block, full block is split in halves before widget is placed to it.
+     */
+    static final int BLOCK_CAPACITY = 512;
+
+    /**
+     * Start key of the first block, this block is never removed.
+     */
+    private static final long FIRST_BLOCK_KEY = Long.MIN_VALUE;
+
+    /**
+     * Blocks with prefix weights and end keys, computed by window functions in one statement.
+     */
+    private static final String BLOCKS_QUERY = "select start_key, weight, widgets_count, " +
+            "sum(weight) over (order by start_key) - weight as prefix_weight, " +
+            "lead(start_key) over (order by start_key) as end_key " +
+            "from widget_z_blocks";
+
+    private final EntityManager entityManager;
+
+    public SqlWidgetStackingOrderRepositoryImpl(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    private static final class Block {
+        private final long startKey;
+        private long endKey = Long.MAX_VALUE;
+        private final long weight;
+        private final int widgetsCount;
+        private final long prefixWeight;
+
+        private Block(long startKey, long weight, int widgetsCount, long prefixWeight) {
+            this.startKey = startKey;
+            this.weight = weight;
+            this.widgetsCount = widgetsCount;
+            this.prefixWeight = prefixWeight;
+        }
+
+        private static Block of(Object[] row) {
+            Block block = new Block(toLong(row[0]), toLong(row[1]), (int) toLong(row[2]), toLong(row[3]));
+            block.endKey = row[4] == null ? Long.MAX_VALUE : toLong(row[4]);
+            return block;
+        }
+    }
+
+    private static final class Position {
+        private final Block block;
+        private final String id;
+        private final long zKey;
+        private final long weight;
+        private final long prefixWeight;
+
+        private Position(Block block, String id, long zKey, long weight, long prefixWeight) {
+            this.block = block;
+            this.id = id;
+            this.zKey = zKey;
+            this.weight = weight;
+            this.prefixWeight = prefixWeight;
+        }
+    }
+
+    private Query createQuery(String sql, Object... parameters) {
+        Query query = entityManager.createNativeQuery(sql);
+        for (int i = 0; i < parameters.length; i++) {
+            query.setParameter(i + 1, parameters[i]);
+        }
+        return query;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object[]> getRows(String sql, Object... parameters) {
+        return createQuery(sql, parameters).getResultList();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> getValues(String sql, Object... parameters) {
+        return createQuery(sql, parameters).getResultList();
+    }
+
+    private int update(String sql, Object... parameters) {
+        return createQuery(sql, parameters).executeUpdate();
+    }
+
+    private static long toLong(Object value) {
+        return ((Number) value).longValue();
+    }
+
+    private static long toKey(Object value) {
+        return value == null ? StackingKeys.NO_KEY : toLong(value);
+    }
+
+    /**
+     * Allow to serialize stacking order writers.
+     */
+    private void lock() {
+        getValues("select start_key from widget_z_blocks where start_key = ?1 for update", FIRST_BLOCK_KEY);
+    }
+
+    /**
+     * Allow to take writers lock before stacking order is read in read-write transaction, so writer doesn't act on state
+     * changed by concurrent writer after its read. Read-only transactions read snapshot without lock.
+     *
+     * @return True if lock is taken, else false.
+     */
+    private boolean lockIfWriting() {
+        if (TransactionSynchronizationManager.isActualTransactionActive() && !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            lock();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Allow to get all blocks with prefix weights.
+     *
+     * @return {@link List<Block>} Blocks sorted ascend by start key.
+     */
+    private List<Block> getBlocks() {
+        List<Block> blocks = new ArrayList<>();
+        long prefixWeight = 0;
+        for (Object[] row : getRows("select start_key, weight, widgets_count from widget_z_blocks order by start_key")) {
+            Block block = new Block(toLong(row[0]), toLong(row[1]), (int) toLong(row[2]), prefixWeight);
+            if (!blocks.isEmpty()) {
+                blocks.get(blocks.size() - 1).endKey = block.startKey;
+            }
+            blocks.add(block);
+            prefixWeight += block.weight;
+        }
+        return blocks;
+    }
+
+    private static Block getBlock(List<Block> blocks, long zKey) {
+        int low = 0;
+        int high = blocks.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (blocks.get(middle).startKey <= zKey) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return blocks.get(low);
+    }
+
+    private static long getTotalWeight(List<Block> blocks) {
+        Block lastBlock = blocks.get(blocks.size() - 1);
+        return lastBlock.prefixWeight + lastBlock.weight;
+    }
+
+    private long getTotalWeight() {
+        return toLong(getValues("select coalesce(sum(weight), 0) from widget_z_blocks").get(0));
+    }
+
+    /**
+     * Allow to get block of key with its prefix weight by one query.
+     *
+     * @param zKey Stacking key.
+     * @return {@link Block} Block which keys range contains key.
+     */
+    private Block getBlock(long zKey) {
+        return Block.of(getRows("select * from (" + BLOCKS_QUERY + ") where start_key <= ?1 order by start_key desc limit 1", zKey).get(0));
+    }
+
+    private long getBlockStartKey(long zKey) {
+        return toLong(getValues("select max(start_key) from widget_z_blocks where start_key <= ?1", zKey).get(0));
+    }
+
+    private void addToBlock(long startKey, long weight, int widgetsCount) {
+        update("update widget_z_blocks set weight = weight + ?2, widgets_count = widgets_count + ?3 where start_key = ?1", startKey, weight, widgetsCount);
+    }
+
+    /**
+     * Allow to find the first widget with prefix weight not lower than given one. Block of widget is the first not empty block
+     * which ends not lower than prefix weight, it is found by one query, then only rows of this block are read.
+     *
+     * @param prefixWeight Prefix weight.
+     * @return Widget position, or null if there is no such widget.
+     */
+    private Position getCeiling(long prefixWeight) {
+        List<Object[]> blocks = getRows("select * from (" + BLOCKS_QUERY + ") " +
+                "where widgets_count > 0 and prefix_weight + weight >= ?1 order by start_key limit 1", prefixWeight);
+        if (blocks.isEmpty()) {
+            return null;
+        }
+        Block block = Block.of(blocks.get(0));
+        long rowPrefixWeight = block.prefixWeight;
+        for (Object[] row : getRows("select id, z_key, z_weight from widgets where z_key >= ?1 and z_key < ?2 order by z_key", block.startKey, block.endKey)) {
+            long weight = toLong(row[2]);
+            rowPrefixWeight += weight;
+            if (rowPrefixWeight >= prefixWeight) {
+                return new Position(block, (String) row[0], toLong(row[1]), weight, rowPrefixWeight);
+            }
+        }
+        return null;
+    }
+
+    private long getLowerKey(long zKey) {
+        return toKey(getValues("select max(z_key) from widgets where z_key < ?1", zKey).get(0));
+    }
+
+    private long getHigherKey(long zKey) {
+        return toKey(getValues("select min(z_key) from widgets where z_key > ?1", zKey).get(0));
+    }
+
+    @Override
+    public int getMaxIndex() {
+        lockIfWriting();
+        Object[] totals = getRows("select coalesce(sum(weight), 0), coalesce(sum(widgets_count), 0) from widget_z_blocks").get(0);
+        return toLong(totals[1]) == 0 ? 0 : StackingKeys.toZIndex(toLong(totals[0]));
+    }
+
+    @Override
+    public OptionalInt getFloorIndex(int index) {
+        lockIfWriting();
+        Position upper = index == Integer.MAX_VALUE ? null : getCeiling(StackingKeys.toPrefixWeight(index + 1));
+        if (getLowerKey(upper == null ? Long.MAX_VALUE : upper.zKey) == StackingKeys.NO_KEY) {
+            return OptionalInt.empty();
+        }
+        return OptionalInt.of(StackingKeys.toZIndex(upper == null ? getTotalWeight() : upper.prefixWeight - upper.weight));
+    }
+
+    @Override
+    public OptionalInt getCeilingIndex(int index) {
+        lockIfWriting();
+        Position position = getCeiling(StackingKeys.toPrefixWeight(index));
+        return position == null ? OptionalInt.empty() : OptionalInt.of(StackingKeys.toZIndex(position.prefixWeight));
+    }
+
+    @Override
+    public boolean isNeedToShift(int index) {
+        lockIfWriting();
+        long prefixWeight = StackingKeys.toPrefixWeight(index);
+        Position position = getCeiling(prefixWeight);
+        return position != null && position.prefixWeight == prefixWeight;
+    }
+
+    /**
+     * Check if widgets z-indexes needs to be shifted. Use on update.
+     * Updated widget takes z-index after all widgets with the same or greater z-index are shifted,
+     * so we need to shift widgets if there is any widget except updated one with the same or greater z-index.
+     *
+     * @param index Widget z-index.
+     * @param id    Widget id.
+     * @return True if widgets z-indexes needs to be shifted, else false.
+     */
+    @Override
+    public boolean isNeedToShift(int index, String id) {
+        lockIfWriting();
+        Position position = getCeiling(StackingKeys.toPrefixWeight(index));
+        return position != null && (!position.id.equals(id) || getHigherKey(position.zKey) != StackingKeys.NO_KEY);
+    }
+
+    /**
+     * Shifts widgets with the same or greater z-index upwards. Weight of the first of them is increased,
+     * and shift is added to staircase from its key, so other widgets rows aren't changed.
+     *
+     * @param index Widget z-index.
+     */
+    @Override
+    public void shiftUpwards(int index) {
+        entityManager.flush();
+        lock();
+        Position position = getCeiling(StackingKeys.toPrefixWeight(index));
+        if (position == null) {
+            return;
+        }
+        update("update widgets set z_weight = z_weight + 1 where z_key = ?1", position.zKey);
+        addToBlock(position.block.startKey, 1, 0);
+        addShift(position.zKey, Instant.now().getEpochSecond());
+    }
+
+    /**
+     * Allow to free ranges of z-indexes for new widgets by one pass. Every range shifts widgets with the same or greater z-index,
+     * so ceiling widget of every range is found in state before changes: z-indexes of widgets from the previous ceiling
+     * are increased by sum of previous shifts. Shifts of the same ceiling widget and block are merged, so every row is updated
+     * once at most, and one step is added to staircase from the lowest shifted widget.
+     *
+     * @param fromIndexes The first z-indexes of ranges, ascending.
+     * @param counts      Ranges lengths, ranges don't overlap.
+     * @return The lowest z-index of shifted widgets before shift, or empty OptionalInt if no widget is shifted.
+     * @throws IllegalArgumentException throws if z-index of shifted widget overflows, nothing is shifted in this case.
+     */
+    @Override
+    public OptionalInt shiftUpwards(int[] fromIndexes, int[] counts) throws IllegalArgumentException {
+        entityManager.flush();
+        lock();
+        Map<Long, Long> widgetsWeights = new LinkedHashMap<>();
+        Map<Long, Long> blocksWeights = new HashMap<>();
+        Position firstShifted = null;
+        Position ceiling = null;
+        long shift = 0;
+        for (int i = 0; i < fromIndexes.length; i++) {
+            long prefixWeight = StackingKeys.toPrefixWeight(fromIndexes[i]) - shift;
+            ceiling = getCeiling(ceiling == null ? prefixWeight : Math.max(prefixWeight, ceiling.prefixWeight));
+            if (ceiling == null) {
+                break;
+            }
+            long delta = StackingKeys.toPrefixWeight(fromIndexes[i]) + counts[i] - ceiling.prefixWeight - shift;
+            if (delta <= 0) {
+                continue;
+            }
+            widgetsWeights.merge(ceiling.zKey, delta, Long::sum);
+            blocksWeights.merge(ceiling.block.startKey, delta, Long::sum);
+            if (firstShifted == null) {
+                firstShifted = ceiling;
+            }
+            shift += delta;
+        }
+        if (firstShifted == null) {
+            return OptionalInt.empty();
+        }
+        if (getTotalWeight() + shift > StackingKeys.toPrefixWeight(Integer.MAX_VALUE)) {
+            throw new InvalidRequestException("Widgets z-indexes can't be greater than " + Integer.MAX_VALUE + ".");
+        }
+
+        widgetsWeights.forEach((zKey, delta) -> update("update widgets set z_weight = z_weight + ?2 where z_key = ?1", zKey, delta));
+        blocksWeights.forEach((startKey, delta) -> addToBlock(startKey, delta, 0));
+        addShift(firstShifted.zKey, Instant.now().getEpochSecond());
+        return OptionalInt.of(StackingKeys.toZIndex(firstShifted.prefixWeight));
+    }
+
+    private void addShift(long fromKey, long shiftedAt) {
+        update("delete from widget_z_shifts where from_key >= ?1", fromKey);
+        List<Object> previous = getValues("select shifted_at from widget_z_shifts where from_key < ?1 order by from_key desc limit 1", fromKey);
+        if (previous.isEmpty() || toLong(previous.get(0)) != shiftedAt) {
+            update("insert into widget_z_shifts (from_key, shifted_at) values (?1, ?2)", fromKey, shiftedAt);
+        }
+    }
+
+    @Override
+    public void place(WidgetJpaEntity widget, int zIndex) {
+        entityManager.flush();
+        lock();
+        long prefixWeight = StackingKeys.toPrefixWeight(zIndex);
+        while (true) {
+            Position upper = getCeiling(prefixWeight);
+            long upperKey = upper == null ? StackingKeys.NO_KEY : upper.zKey;
+            long lowerKey = getLowerKey(upper == null ? Long.MAX_VALUE : upperKey);
+            long zKey = StackingKeys.between(lowerKey, upperKey);
+            if (zKey == StackingKeys.NO_KEY) {
+                rebalanceKeys(lowerKey, upperKey);
+                continue;
+            }
+            Block block = getBlock(zKey);
+            if (block.widgetsCount >= BLOCK_CAPACITY) {
+                splitBlock(block);
+                continue;
+            }
+
+            long weight;
+            if (upper == null) {
+                weight = prefixWeight - getTotalWeight();
+            } else {
+                weight = prefixWeight - upper.prefixWeight + upper.weight;
+                update("update widgets set z_weight = z_weight - ?2 where z_key = ?1", upperKey, weight);
+                addToBlock(upper.block.startKey, -weight, 0);
+            }
+            addToBlock(block.startKey, weight, 1);
+            widget.setZKey(zKey);
+            widget.setZWeight(weight);
+            widget.setZIndex(zIndex);
+            if (entityManager.contains(widget)) {
+                update("update widgets set z_key = ?1, z_weight = ?2 where id = ?3", zKey, weight, widget.getId());
+            }
+            return;
+        }
+    }
+
+    /**
+     * Allow to place new widgets to stacking order by one pass and insert them. Widgets are grouped by the next stored widget,
+     * every group takes keys spread between its neighbours and weight is taken from the next widget once, so every stored row
+     * is updated once at most. All positions are found before changes: placing keeps z-indexes of stored widgets.
+     * New rows are inserted by one JDBC batch, then overfilled blocks are split in halves.
+     * If there is no room for group keys between neighbours, widgets are placed one by one with local rebalancing.
+     *
+     * @param widgets {@link List<WidgetJpaEntity>} New widgets with z-indexes, which must be free, sorted ascend by z-index.
+     */
+    @Override
+    public void placeAll(List<WidgetJpaEntity> widgets) {
+        entityManager.flush();
+        lock();
+        List<Block> blocks = getBlocks();
+        List<Position> uppers = new ArrayList<>();
+        List<long[]> groupsKeys = new ArrayList<>();
+        for (int from = 0; from < widgets.size(); ) {
+            Position upper = getCeiling(StackingKeys.toPrefixWeight(widgets.get(from).getZIndex()));
+            int to = from + 1;
+            while (to < widgets.size() && (upper == null || StackingKeys.toPrefixWeight(widgets.get(to).getZIndex()) < upper.prefixWeight)) {
+                to++;
+            }
+            long upperKey = upper == null ? StackingKeys.NO_KEY : upper.zKey;
+            long[] zKeys = StackingKeys.allocate(getLowerKey(upper == null ? Long.MAX_VALUE : upperKey), upperKey, to - from);
+            if (zKeys == null) {
+                for (WidgetJpaEntity widget : widgets) {
+                    place(widget, widget.getZIndex());
+                    insert(List.of(widget));
+                }
+                return;
+            }
+            uppers.add(upper);
+            groupsKeys.add(zKeys);
+            from = to;
+        }
+
+        Map<Long, long[]> blocksChanges = new HashMap<>();
+        int index = 0;
+        for (int group = 0; group < uppers.size(); group++) {
+            Position upper = uppers.get(group);
+            long prefixWeight = upper == null ? getTotalWeight(blocks) : upper.prefixWeight - upper.weight;
+            for (long zKey : groupsKeys.get(group)) {
+                WidgetJpaEntity widget = widgets.get(index++);
+                long weight = StackingKeys.toPrefixWeight(widget.getZIndex()) - prefixWeight;
+                prefixWeight += weight;
+                long[] blockChanges = blocksChanges.computeIfAbsent(getBlock(blocks, zKey).startKey, startKey -> new long[2]);
+                blockChanges[0] += weight;
+                blockChanges[1]++;
+                widget.setZKey(zKey);
+                widget.setZWeight(weight);
+            }
+            if (upper != null) {
+                long weight = prefixWeight - upper.prefixWeight + upper.weight;
+                update("update widgets set z_weight = z_weight - ?2 where z_key = ?1", upper.zKey, weight);
+                blocksChanges.computeIfAbsent(upper.block.startKey, startKey -> new long[2])[0] -= weight;
+            }
+        }
+        blocksChanges.forEach((startKey, changes) -> addToBlock(startKey, changes[0], (int) changes[1]));
+        insert(widgets);
+
+        while (true) {
+            List<Object[]> fullBlocks = getRows("select * from (" + BLOCKS_QUERY + ") where widgets_count > ?1 order by start_key limit 1", BLOCK_CAPACITY);
+            if (fullBlocks.isEmpty()) {
+                return;
+            }
+            splitBlock(Block.of(fullBlocks.get(0)));
+        }
+    }
+
+    /**
+     * Allow to insert rows of new placed widgets by one JDBC batch. Widgets ids are assigned on creation,
+     * so they can't be persisted by entity manager without select of every id.
+     *
+     * @param widgets {@link List<WidgetJpaEntity>} New placed widgets.
+     */
+    private void insert(List<WidgetJpaEntity> widgets) {
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("insert into widgets " +
+                    "(id, x1_coordinate, y1_coordinate, x2_coordinate, y2_coordinate, z_key, z_weight, updated_at) values (?, ?, ?, ?, ?, ?, ?, ?)")) {
+                for (WidgetJpaEntity widget : widgets) {
+                    statement.setString(1, widget.getId());
+                    statement.setInt(2, widget.getXCoordinate());
+                    statement.setInt(3, widget.getYCoordinate());
+                    statement.setInt(4, widget.getXCoordinate() + widget.getWidth());
+                    statement.setInt(5, widget.getYCoordinate() + widget.getHeight());
+                    statement.setLong(6, widget.getZKey());
+                    statement.setLong(7, widget.getZWeight());
+                    statement.setLong(8, widget.getUpdatedAt());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        });
+    }
+
+    @Override
+    public void displace(WidgetJpaEntity widget) {
+        entityManager.flush();
+        lock();
+        List<Object[]> rows = getRows("select z_key, z_weight from widgets where id = ?1 and z_key is not null", widget.getId());
+        if (rows.isEmpty()) {
+            return;
+        }
+        long zKey = toLong(rows.get(0)[0]);
+        long weight = toLong(rows.get(0)[1]);
+        long startKey = getBlockStartKey(zKey);
+        long nextKey = getHigherKey(zKey);
+        addToBlock(startKey, -weight, -1);
+        if (nextKey != StackingKeys.NO_KEY) {
+            update("update widgets set z_weight = z_weight + ?2 where z_key = ?1", nextKey, weight);
+            addToBlock(getBlockStartKey(nextKey), weight, 0);
+        }
+        update("update widgets set z_key = null, z_weight = 0 where id = ?1", widget.getId());
+        update("delete from widget_z_blocks where start_key = ?1 and start_key <> ?2 and widgets_count = 0", startKey, FIRST_BLOCK_KEY);
+        widget.setZKey(null);
+        widget.setZWeight(0);
+    }
+
+    /**
+     * Allow to split block in halves by its middle widget key.
+     *
+     * @param block {@link Block} Full block.
+     */
+    private void splitBlock(Block block) {
+        long startKey = toLong(getValues(
+                "select z_key from widgets where z_key >= ?1 and z_key < ?2 order by z_key limit 1 offset ?3",
+                block.startKey, block.endKey, block.widgetsCount / 2
+        ).get(0));
+        Object[] totals = getRows("select coalesce(sum(z_weight), 0), count(*) from widgets where z_key >= ?1 and z_key < ?2", startKey, block.endKey).get(0);
+        long weight = toLong(totals[0]);
+        int widgetsCount = (int) toLong(totals[1]);
+        update("insert into widget_z_blocks (start_key, weight, widgets_count) values (?1, ?2, ?3)", startKey, weight, widgetsCount);
+        addToBlock(block.startKey, -weight, -widgetsCount);
+    }
+
+    /**
+     * Allow to spread stacking keys of widgets around free position evenly. Window of widgets is doubled
+     * until keys gap is at least {@link StackingKeys#MIN_SPREAD_GAP}. Blocks and shifts inside window are moved
+     * to new keys of the same widgets, so z-indexes and shift times aren't changed.
+     *
+     * @param lowerKey Key of widget below free position, or {@link StackingKeys#NO_KEY} if there is no such widget.
+     * @param upperKey Key of widget above free position, or {@link StackingKeys#NO_KEY} if there is no such widget.
+     */
+    private void rebalanceKeys(long lowerKey, long upperKey) {
+        for (int radius = StackingKeys.MIN_REBALANCE_RADIUS; ; radius *= 2) {
+            List<Object[]> lowerRows = lowerKey == StackingKeys.NO_KEY
+                    ? List.of()
+                    : getRows("select id, z_key from widgets where z_key <= ?1 order by z_key desc limit ?2", lowerKey, radius + 1);
+            List<Object[]> upperRows = upperKey == StackingKeys.NO_KEY
+                    ? List.of()
+                    : getRows("select id, z_key from widgets where z_key >= ?1 order by z_key limit ?2", upperKey, radius + 1);
+            long lowerBound = lowerRows.size() > radius ? toLong(lowerRows.get(radius)[1]) : StackingKeys.NO_KEY;
+            long upperBound = upperRows.size() > radius ? toLong(upperRows.get(radius)[1]) : StackingKeys.NO_KEY;
+
+            List<Object[]> window = new ArrayList<>();
+            for (int i = Math.min(radius, lowerRows.size()) - 1; i >= 0; i--) {
+                window.add(lowerRows.get(i));
+            }
+            int freeIndex = window.size();
+            window.addAll(upperRows.subList(0, Math.min(radius, upperRows.size())));
+            long[] zKeys = StackingKeys.spread(lowerBound, upperBound, window.size() + 1);
+            if (zKeys == null) {
+                if (lowerBound == StackingKeys.NO_KEY && upperBound == StackingKeys.NO_KEY) {
+                    throw new IllegalStateException("Stacking keys are exhausted");
+                }
+                continue;
+            }
+
+            long[] oldKeys = new long[window.size()];
+            long[] newKeys = new long[window.size()];
+            for (int i = 0; i < window.size(); i++) {
+                oldKeys[i] = toLong(window.get(i)[1]);
+                newKeys[i] = zKeys[i < freeIndex ? i : i + 1];
+            }
+            long upperBoundExclusive = upperBound == StackingKeys.NO_KEY ? Long.MAX_VALUE : upperBound;
+
+            List<Object[]> blocks = getRows("select start_key, weight, widgets_count from widget_z_blocks where start_key > ?1 and start_key < ?2", lowerBound, upperBoundExclusive);
+            update("delete from widget_z_blocks where start_key > ?1 and start_key < ?2", lowerBound, upperBoundExclusive);
+            for (Object[] block : blocks) {
+                long startKey = remapKey(toLong(block[0]), oldKeys, newKeys, upperBound);
+                update("insert into widget_z_blocks (start_key, weight, widgets_count) values (?1, ?2, ?3)", startKey, block[1], block[2]);
+            }
+
+            TreeMap<Long, Long> shifts = new TreeMap<>();
+            for (Object[] shift : getRows("select from_key, shifted_at from widget_z_shifts where from_key > ?1 and from_key < ?2", lowerBound, upperBoundExclusive)) {
+                long fromKey = remapKey(toLong(shift[0]), oldKeys, newKeys, upperBound);
+                if (fromKey != StackingKeys.NO_KEY) {
+                    shifts.merge(fromKey, toLong(shift[1]), Math::max);
+                }
+            }
+            update("delete from widget_z_shifts where from_key > ?1 and from_key < ?2", lowerBound, upperBoundExclusive);
+            shifts.forEach((fromKey, shiftedAt) -> {
+                if (update("update widget_z_shifts set shifted_at = greatest(shifted_at, ?2) where from_key = ?1", fromKey, shiftedAt) == 0) {
+                    update("insert into widget_z_shifts (from_key, shifted_at) values (?1, ?2)", fromKey, shiftedAt);
+                }
+            });
+
+            for (int i = 0; i < window.size(); i++) {
+                update("update widgets set z_key = ?1 where id = ?2", newKeys[i], window.get(i)[0]);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Allow to move key inside rebalancing window to new key of the first widget above it.
+     * Blocks aren't empty, so block start is always moved to widget inside window or to window upper bound.
+     *
+     * @param key        Block start or shift key.
+     * @param oldKeys    Window widgets keys before rebalancing, ascending.
+     * @param newKeys    Window widgets keys after rebalancing.
+     * @param upperBound Window upper bound key, or {@link StackingKeys#NO_KEY} if window isn't bounded.
+     * @return New key, or {@link StackingKeys#NO_KEY} if there is no widget above key.
+     */
+    private static long remapKey(long key, long[] oldKeys, long[] newKeys, long upperBound) {
+        int index = Arrays.binarySearch(oldKeys, key);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return index < newKeys.length ? newKeys[index] : upperBound;
+    }
+
+    @Override
+    public List<WidgetJpaEntity> resolve(List<WidgetJpaEntity> widgets) {
+        if (widgets.isEmpty()) {
+            return widgets;
+        }
+        if (lockIfWriting()) {
+            refreshKeys(widgets);
+        }
+        List<Block> blocks = getBlocks();
+        Map<Long, Map<Long, Long>> prefixWeights = new HashMap<>();
+        long minKey = Long.MAX_VALUE;
+        long maxKey = Long.MIN_VALUE;
+        for (WidgetJpaEntity widget : widgets) {
+            long zKey = widget.getZKey();
+            Block block = getBlock(blocks, zKey);
+            Long prefixWeight = prefixWeights.computeIfAbsent(block.startKey, startKey -> getPrefixWeights(block)).get(zKey);
+            widget.setZIndex(StackingKeys.toZIndex(prefixWeight));
+            minKey = Math.min(minKey, zKey);
+            maxKey = Math.max(maxKey, zKey);
+        }
+
+        TreeMap<Long, Long> shifts = new TreeMap<>();
+        for (Object[] shift : getRows("select from_key, shifted_at from widget_z_shifts " +
+                "where from_key <= ?2 and from_key >= coalesce((select max(from_key) from widget_z_shifts where from_key <= ?1), ?1)", minKey, maxKey)) {
+            shifts.put(toLong(shift[0]), toLong(shift[1]));
+        }
+        for (WidgetJpaEntity widget : widgets) {
+            Map.Entry<Long, Long> shift = shifts.floorEntry(widget.getZKey());
+            widget.setShiftedAt(shift == null ? Long.MIN_VALUE : shift.getValue());
+        }
+        return widgets;
+    }
+
+    /**
+     * Allow to re-read stacking keys of widgets which were loaded before writers lock was taken,
+     * so keys changed by concurrent writer are actual.
+     *
+     * @param widgets {@link List<WidgetJpaEntity>} Stored widgets.
+     */
+    private void refreshKeys(List<WidgetJpaEntity> widgets) {
+        Map<String, WidgetJpaEntity> widgetsByIds = new HashMap<>();
+        widgets.forEach(widget -> widgetsByIds.put(widget.getId(), widget));
+        for (Object[] row : getRows("select id, z_key from widgets where id in (?1) and z_key is not null", widgetsByIds.keySet())) {
+            WidgetJpaEntity widget = widgetsByIds.get((String) row[0]);
+            long zKey = toLong(row[1]);
+            if (widget.getZKey() == null || widget.getZKey() != zKey) {
+                widget.setZKey(zKey);
+            }
+        }
+    }
+
+    private Map<Long, Long> getPrefixWeights(Block block) {
+        Map<Long, Long> prefixWeights = new HashMap<>();
+        long prefixWeight = block.prefixWeight;
+        for (Object[] row : getRows("select z_key, z_weight from widgets where z_key >= ?1 and z_key < ?2 order by z_key", block.startKey, block.endKey)) {
+            prefixWeight += toLong(row[1]);
+            prefixWeights.put(toLong(row[0]), prefixWeight);
+        }
+        return prefixWeights;
+    }
+
+    @Override
+    public List<WidgetJpaEntity> findByRank(int fromRank, int count) {
+        lockIfWriting();
+        long rank = 0;
+        for (Block block : getBlocks()) {
+            if (rank + block.widgetsCount > fromRank) {
+                return resolve(entityManager
+                        .createQuery("select w from widget w where w.zKey >= ?1 order by w.zKey", WidgetJpaEntity.class)
+                        .setParameter(1, block.startKey)
+                        .setFirstResult((int) (fromRank - rank))
+                        .setMaxResults(count)
+                        .getResultList());
+            }
+            rank += block.widgetsCount;
+        }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public long getShiftedKeysFrom(long shiftedSince) {
+        Object fromKey = getValues("select min(from_key) from widget_z_shifts where shifted_at >= ?1", shiftedSince).get(0);
+        return fromKey == null ? Long.MAX_VALUE : toLong(fromKey);
+    }
+
+    @Override
+    @Transactional
+    public void clearStackingOrder() {
+        update("delete from widget_z_shifts");
+        update("delete from widget_z_blocks where start_key <> ?1", FIRST_BLOCK_KEY);
+        update("update widget_z_blocks set weight = 0, widgets_count = 0");
+    }
+}
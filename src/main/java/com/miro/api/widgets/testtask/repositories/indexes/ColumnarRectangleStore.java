@@ -0,0 +1,246 @@
+package com.miro.api.widgets.testtask.repositories.indexes;
+
+import com.miro.api.widgets.testtask.exceptions.DeadlineExceededException;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Columnar (struct of arrays) store of integer rectangles with unique sort key, addressed by dense slot.
+ * Every rectangle bound and sort key are kept in own primitive array, so filtering is a tight loop over
+ * sequential memory. Large stores are scanned by chunks in parallel in {@link java.util.concurrent.ForkJoinPool#commonPool()}.
+ * Scan time budget is passed explicitly, because pool threads don't see request deadline of caller thread.
+ * Not thread safe, all writes must be guarded by caller.
+ */
+public class ColumnarRectangleStore {
+    /**
+     * Initial slots capacity.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Slots count scanned by one task. Stores with fewer slots are scanned in caller thread.
+     */
+    private static final int SCAN_CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Slots count scanned between scan time budget checks, power of two.
+     */
+    private static final int BUDGET_CHECK_INTERVAL = 1 << 12;
+
+    private int[] minX = new int[INITIAL_CAPACITY];
+    private int[] minY = new int[INITIAL_CAPACITY];
+    private int[] maxX = new int[INITIAL_CAPACITY];
+    private int[] maxY = new int[INITIAL_CAPACITY];
+    private long[] keys = new long[INITIAL_CAPACITY];
+
+    /**
+     * Slots before this one could be used, slots after are always empty.
+     */
+    private int slotsUpperBound;
+
+    /**
+     * Allow to put rectangle into slot.
+     *
+     * @param slot Dense slot number.
+     * @param x1   Rectangle min x.
+     * @param y1   Rectangle min y.
+     * @param x2   Rectangle max x.
+     * @param y2   Rectangle max y.
+     * @param key  Rectangle sort key, not {@link StackingKeys#NO_KEY}.
+     */
+    public void set(int slot, int x1, int y1, int x2, int y2, long key) {
+        if (slot >= minX.length) {
+            int capacity = Math.max(slot + 1, minX.length * 2);
+            minX = Arrays.copyOf(minX, capacity);
+            minY = Arrays.copyOf(minY, capacity);
+            maxX = Arrays.copyOf(maxX, capacity);
+            maxY = Arrays.copyOf(maxY, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+        }
+        for (int i = slotsUpperBound; i < slot; i++) {
+            clear(i);
+        }
+        minX[slot] = x1;
+        minY[slot] = y1;
+        maxX[slot] = x2;
+        maxY[slot] = y2;
+        keys[slot] = key;
+        slotsUpperBound = Math.max(slotsUpperBound, slot + 1);
+    }
+
+    /**
+     * Allow to change sort key of rectangle in slot.
+     *
+     * @param slot Dense slot number.
+     * @param key  New rectangle sort key, not {@link StackingKeys#NO_KEY}.
+     */
+    public void setKey(int slot, long key) {
+        keys[slot] = key;
+    }
+
+    /**
+     * Allow to make slot empty. Empty slot keeps point rectangle at max integer coordinates and {@link StackingKeys#NO_KEY}
+     * sort key, so it is never found.
+     *
+     * @param slot Dense slot number.
+     */
+    public void clear(int slot) {
+        minX[slot] = Integer.MAX_VALUE;
+        minY[slot] = Integer.MAX_VALUE;
+        maxX[slot] = Integer.MAX_VALUE;
+        maxY[slot] = Integer.MAX_VALUE;
+        keys[slot] = StackingKeys.NO_KEY;
+    }
+
+    /**
+     * Allow to estimate heap size of store, it is determined by slots capacity only.
+     *
+     * @return Estimated size in bytes.
+     */
+    public long estimateSizeInBytes() {
+        return HeapSize.ofObject(5L * HeapSize.REFERENCE + 4) + 4 * HeapSize.ofIntArray(minX.length) + HeapSize.ofLongArray(keys.length);
+    }
+
+    /**
+     * Allow to remove all rectangles.
+     */
+    public void clearAll() {
+        minX = new int[INITIAL_CAPACITY];
+        minY = new int[INITIAL_CAPACITY];
+        maxX = new int[INITIAL_CAPACITY];
+        maxY = new int[INITIAL_CAPACITY];
+        keys = new long[INITIAL_CAPACITY];
+        slotsUpperBound = 0;
+    }
+
+    /**
+     * Allow to find sort keys of rectangles fully inside (inclusive) of query rectangle.
+     *
+     * @param x1 Query min x.
+     * @param y1 Query min y.
+     * @param x2 Query max x.
+     * @param y2 Query max y.
+     * @return Matched sort keys sorted ascend.
+     */
+    public long[] searchContainedSortedByKey(int x1, int y1, int x2, int y2) {
+        return searchContainedSortedByKey(x1, y1, x2, y2, Long.MAX_VALUE);
+    }
+
+    /**
+     * Allow to find sort keys of rectangles fully inside (inclusive) of query rectangle within scan time budget.
+     *
+     * @param x1          Query min x.
+     * @param y1          Query min y.
+     * @param x2          Query max x.
+     * @param y2          Query max y.
+     * @param budgetNanos Scan time budget in nanoseconds, {@link Long#MAX_VALUE} if there is no budget.
+     * @return Matched sort keys sorted ascend.
+     * @throws DeadlineExceededException throws if scan time budget is spent.
+     */
+    public long[] searchContainedSortedByKey(int x1, int y1, int x2, int y2, long budgetNanos) throws DeadlineExceededException {
+        return searchSortedByKey(x1, y1, x2, y2, false, budgetNanos);
+    }
+
+    /**
+     * Allow to find sort keys of rectangles intersecting (inclusive) query rectangle.
+     *
+     * @param x1 Query min x.
+     * @param y1 Query min y.
+     * @param x2 Query max x.
+     * @param y2 Query max y.
+     * @return Matched sort keys sorted ascend.
+     */
+    public long[] searchIntersectingSortedByKey(int x1, int y1, int x2, int y2) {
+        return searchIntersectingSortedByKey(x1, y1, x2, y2, Long.MAX_VALUE);
+    }
+
+    /**
+     * Allow to find sort keys of rectangles intersecting (inclusive) query rectangle within scan time budget.
+     *
+     * @param x1          Query min x.
+     * @param y1          Query min y.
+     * @param x2          Query max x.
+     * @param y2          Query max y.
+     * @param budgetNanos Scan time budget in nanoseconds, {@link Long#MAX_VALUE} if there is no budget.
+     * @return Matched sort keys sorted ascend.
+     * @throws DeadlineExceededException throws if scan time budget is spent.
+     */
+    public long[] searchIntersectingSortedByKey(int x1, int y1, int x2, int y2, long budgetNanos) throws DeadlineExceededException {
+        return searchSortedByKey(x1, y1, x2, y2, true, budgetNanos);
+    }
+
+    private long[] searchSortedByKey(int x1, int y1, int x2, int y2, boolean intersecting, long budgetNanos) {
+        long startNanos = System.nanoTime();
+        int upperBound = slotsUpperBound;
+        int chunksCount = (upperBound + SCAN_CHUNK_SIZE - 1) / SCAN_CHUNK_SIZE;
+        long[] matches;
+        if (chunksCount <= 1) {
+            matches = scanChunk(0, upperBound, x1, y1, x2, y2, intersecting, startNanos, budgetNanos);
+        } else {
+            long[][] chunksMatches = IntStream
+                    .range(0, chunksCount)
+                    .parallel()
+                    .mapToObj(chunk -> scanChunk(chunk * SCAN_CHUNK_SIZE, Math.min(upperBound, (chunk + 1) * SCAN_CHUNK_SIZE), x1, y1, x2, y2, intersecting, startNanos, budgetNanos))
+                    .toArray(long[][]::new);
+            matches = concat(chunksMatches);
+        }
+        checkBudget(startNanos, budgetNanos);
+
+        if (matches.length > SCAN_CHUNK_SIZE) {
+            Arrays.parallelSort(matches);
+        } else {
+            Arrays.sort(matches);
+        }
+        return matches;
+    }
+
+    /**
+     * Allow to scan slots range. Sort keys are unique, so matches are sorted by them without slots.
+     * For intersection max bounds are compared with lower query bounds and min bounds with upper ones,
+     * so both modes share one loop. Scan time budget is checked every {@link #BUDGET_CHECK_INTERVAL} slots.
+     *
+     * @return Matched sort keys.
+     */
+    private long[] scanChunk(int from, int to, int x1, int y1, int x2, int y2, boolean intersecting, long startNanos, long budgetNanos) {
+        long[] keys = this.keys;
+        long[] matches = new long[16];
+        int matchesCount = 0;
+        int[] lowerX = intersecting ? maxX : minX;
+        int[] lowerY = intersecting ? maxY : minY;
+        int[] upperX = intersecting ? minX : maxX;
+        int[] upperY = intersecting ? minY : maxY;
+        for (int i = from; i < to; i++) {
+            if ((i & (BUDGET_CHECK_INTERVAL - 1)) == 0) {
+                checkBudget(startNanos, budgetNanos);
+            }
+            if (lowerX[i] >= x1 & lowerY[i] >= y1 & upperX[i] <= x2 & upperY[i] <= y2 & keys[i] != StackingKeys.NO_KEY) {
+                if (matchesCount == matches.length) {
+                    matches = Arrays.copyOf(matches, matchesCount * 2);
+                }
+                matches[matchesCount++] = keys[i];
+            }
+        }
+        return Arrays.copyOf(matches, matchesCount);
+    }
+
+    private static void checkBudget(long startNanos, long budgetNanos) throws DeadlineExceededException {
+        if (System.nanoTime() - startNanos >= budgetNanos) {
+            throw new DeadlineExceededException();
+        }
+    }
+
+    private static long[] concat(long[][] arrays) {
+        int length = 0;
+        for (long[] array : arrays) {
+            length += array.length;
+        }
+        long[] result = new long[length];
+        int position = 0;
+        for (long[] array : arrays) {
+            System.arraycopy(array, 0, result, position, array.length);
+            position += array.length;
+        }
+        return result;
+    }
+}
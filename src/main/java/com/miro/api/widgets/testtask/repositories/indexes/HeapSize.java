@@ -0,0 +1,67 @@
+package com.miro.api.widgets.testtask.repositories.indexes;
+
+import org.roaringbitmap.ContainerPointer;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Shallow heap size estimates of objects and arrays for 64-bit JVM with compressed oops (default for heaps under 32 GB):
+ * 12 bytes object header, 16 bytes array header, 4 bytes reference, sizes aligned to 8 bytes.
+ */
+public final class HeapSize {
+    public static final int OBJECT_HEADER = 12;
+
+    public static final int ARRAY_HEADER = 16;
+
+    public static final int REFERENCE = 4;
+
+    private HeapSize() {
+    }
+
+    public static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * @param fieldsBytes Sum of object fields sizes, including inherited ones.
+     * @return Object size.
+     */
+    public static long ofObject(long fieldsBytes) {
+        return align(OBJECT_HEADER + fieldsBytes);
+    }
+
+    public static long ofIntArray(long length) {
+        return align(ARRAY_HEADER + 4 * length);
+    }
+
+    public static long ofLongArray(long length) {
+        return align(ARRAY_HEADER + 8 * length);
+    }
+
+    public static long ofReferenceArray(long length) {
+        return align(ARRAY_HEADER + REFERENCE * length);
+    }
+
+    /**
+     * Bitmap own estimate counts containers data only, but small bitmaps are dominated by containers objects and arrays
+     * headers, so they are counted too. Arrays capacity slack isn't counted.
+     *
+     * @param bitmap Bitmap.
+     * @return Bitmap size.
+     */
+    public static long ofRoaringBitmap(RoaringBitmap bitmap) {
+        long containersCount = 0;
+        long containersBytes = 0;
+        ContainerPointer containers = bitmap.getContainerPointer();
+        while (containers.getContainer() != null) {
+            containersCount++;
+            containersBytes += ofObject(REFERENCE + 4) + align(ARRAY_HEADER + containers.getContainer().getArraySizeInBytes());
+            containers.advance();
+        }
+        long containersCapacity = Math.max(4, containersCount);
+        return ofObject(REFERENCE)
+                + ofObject(2 * REFERENCE + 4)
+                + align(ARRAY_HEADER + 2 * containersCapacity)
+                + ofReferenceArray(containersCapacity)
+                + containersBytes;
+    }
+}
@@ -0,0 +1,663 @@
+package com.miro.api.widgets.testtask.repositories.indexes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * R*-tree spatial index over integer rectangles.
+ * Uses R* split heuristics (minimal margin axis, minimal overlap distribution) on insert
+ * and Sort-Tile-Recursive packing for bulk loading.
+ * Values are compared by identity, so the same rectangle may hold several different values.
+ * Not thread safe, all writes must be guarded by caller.
+ *
+ * @param <T> Any value stored in index.
+ */
+public class RTree<T> {
+    /**
+     * Max entries count in one node.
+     */
+    private static final int MAX_NODE_ENTRIES = 16;
+
+    /**
+     * Min entries count in one node, 40% of max entries count as recommended for R*-tree.
+     */
+    private static final int MIN_NODE_ENTRIES = 6;
+
+    private Node root = new Node(true);
+
+    private int size;
+
+    /**
+     * Rectangle with inclusive bounds.
+     */
+    private abstract static class Bounded {
+        int minX;
+        int minY;
+        int maxX;
+        int maxY;
+
+        boolean intersects(int x1, int y1, int x2, int y2) {
+            return minX <= x2 && maxX >= x1 && minY <= y2 && maxY >= y1;
+        }
+
+        boolean isInside(int x1, int y1, int x2, int y2) {
+            return minX >= x1 && maxX <= x2 && minY >= y1 && maxY <= y2;
+        }
+
+        boolean contains(Bounded other) {
+            return other.isInside(minX, minY, maxX, maxY);
+        }
+
+        long area() {
+            return ((long) maxX - minX) * ((long) maxY - minY);
+        }
+
+        long margin() {
+            return ((long) maxX - minX) + ((long) maxY - minY);
+        }
+
+        long enlargedArea(Bounded other) {
+            return ((long) Math.max(maxX, other.maxX) - Math.min(minX, other.minX))
+                    * ((long) Math.max(maxY, other.maxY) - Math.min(minY, other.minY));
+        }
+
+        long centerX() {
+            return (long) minX + maxX;
+        }
+
+        long centerY() {
+            return (long) minY + maxY;
+        }
+
+        void resetBounds() {
+            minX = Integer.MAX_VALUE;
+            minY = Integer.MAX_VALUE;
+            maxX = Integer.MIN_VALUE;
+            maxY = Integer.MIN_VALUE;
+        }
+
+        /**
+         * Squared euclidean distance from point to rectangle, zero if rectangle contains point.
+         */
+        double distanceSquared(int x, int y) {
+            long dx = Math.max(0, Math.max((long) minX - x, (long) x - maxX));
+            long dy = Math.max(0, Math.max((long) minY - y, (long) y - maxY));
+            return (double) dx * dx + (double) dy * dy;
+        }
+
+        void extendBounds(Bounded other) {
+            minX = Math.min(minX, other.minX);
+            minY = Math.min(minY, other.minY);
+            maxX = Math.max(maxX, other.maxX);
+            maxY = Math.max(maxY, other.maxY);
+        }
+    }
+
+    /**
+     * Plain rectangle, used for split distributions calculation.
+     */
+    private static final class Box extends Bounded {
+        Box() {
+            resetBounds();
+        }
+    }
+
+    /**
+     * Index entry, that is store value with its rectangle.
+     *
+     * @param <T> Any value stored in index.
+     */
+    public static final class Entry<T> extends Bounded {
+        private final T value;
+
+        public Entry(int minX, int minY, int maxX, int maxY, T value) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.value = value;
+        }
+
+        public int getMinX() {
+            return minX;
+        }
+
+        public int getMinY() {
+            return minY;
+        }
+
+        public int getMaxX() {
+            return maxX;
+        }
+
+        public int getMaxY() {
+            return maxY;
+        }
+
+        public T getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * Tree node. Leaf node children are entries, other nodes children are nodes.
+     * Node keeps count of entries in its subtree, so counting queries don't visit nodes fully inside of search rectangle.
+     */
+    private static final class Node extends Bounded {
+        final boolean leaf;
+        final Bounded[] children = new Bounded[MAX_NODE_ENTRIES + 1];
+        int childrenCount;
+        int entriesCount;
+
+        Node(boolean leaf) {
+            this.leaf = leaf;
+        }
+
+        void add(Bounded child) {
+            children[childrenCount++] = child;
+        }
+
+        void removeAt(int position) {
+            children[position] = children[--childrenCount];
+            children[childrenCount] = null;
+        }
+
+        void recalculate() {
+            resetBounds();
+            entriesCount = leaf ? childrenCount : 0;
+            for (int i = 0; i < childrenCount; i++) {
+                extendBounds(children[i]);
+                if (!leaf) {
+                    entriesCount += ((Node) children[i]).entriesCount;
+                }
+            }
+        }
+    }
+
+    public RTree() {
+        root.recalculate();
+    }
+
+    /**
+     * Allow to create index from entries via Sort-Tile-Recursive packing.
+     * Much faster than inserting entries one by one and produces nodes with almost no overlapping.
+     *
+     * @param entries Entries to load.
+     * @param <T>     Any value stored in index.
+     * @return Packed index.
+     */
+    public static <T> RTree<T> bulkLoad(List<Entry<T>> entries) {
+        RTree<T> tree = new RTree<>();
+        tree.load(entries);
+        return tree;
+    }
+
+    /**
+     * Allow to replace all entries of index with entries packed via Sort-Tile-Recursive.
+     * Index is changed in place, so holders of index reference see loaded entries.
+     *
+     * @param entries Entries to load.
+     */
+    public void load(List<Entry<T>> entries) {
+        clear();
+        if (entries.isEmpty()) {
+            return;
+        }
+        List<Node> level = pack(new ArrayList<>(entries), true);
+        while (level.size() > 1) {
+            level = pack(new ArrayList<>(level), false);
+        }
+        root = level.get(0);
+        size = entries.size();
+    }
+
+    /**
+     * Pack items into nodes of one level: sort by x center, split into vertical slices,
+     * sort every slice by y center and fill nodes sequentially.
+     */
+    private static List<Node> pack(List<? extends Bounded> items, boolean leaf) {
+        int nodesCount = (items.size() + MAX_NODE_ENTRIES - 1) / MAX_NODE_ENTRIES;
+        int slicesCount = (int) Math.ceil(Math.sqrt(nodesCount));
+        int sliceSize = slicesCount * MAX_NODE_ENTRIES;
+
+        items.sort(Comparator.comparingLong(Bounded::centerX));
+        List<Node> nodes = new ArrayList<>(nodesCount);
+        for (int sliceStart = 0; sliceStart < items.size(); sliceStart += sliceSize) {
+            List<? extends Bounded> slice = items.subList(sliceStart, Math.min(sliceStart + sliceSize, items.size()));
+            slice.sort(Comparator.comparingLong(Bounded::centerY));
+            for (int nodeStart = 0; nodeStart < slice.size(); nodeStart += MAX_NODE_ENTRIES) {
+                Node node = new Node(leaf);
+                slice.subList(nodeStart, Math.min(nodeStart + MAX_NODE_ENTRIES, slice.size())).forEach(node::add);
+                node.recalculate();
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Allow to get count of entries in index.
+     *
+     * @return entries count.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Allow to estimate heap size of tree nodes and entries, values aren't included.
+     *
+     * @return Estimated size in bytes.
+     */
+    public long estimateSizeInBytes() {
+        long nodeSize = HeapSize.ofObject(4 * 4 + 1 + HeapSize.REFERENCE + 2 * 4) + HeapSize.ofReferenceArray(MAX_NODE_ENTRIES + 1);
+        long entrySize = HeapSize.ofObject(4 * 4 + HeapSize.REFERENCE);
+        return HeapSize.ofObject(HeapSize.REFERENCE + 4) + countNodes(root) * nodeSize + size * entrySize;
+    }
+
+    private static long countNodes(Node node) {
+        long count = 1;
+        if (!node.leaf) {
+            for (int i = 0; i < node.childrenCount; i++) {
+                count += countNodes((Node) node.children[i]);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Allow to remove all entries from index.
+     */
+    public void clear() {
+        root = new Node(true);
+        root.recalculate();
+        size = 0;
+    }
+
+    /**
+     * Allow to add value with its rectangle to index.
+     *
+     * @param minX  Rectangle left bound.
+     * @param minY  Rectangle bottom bound.
+     * @param maxX  Rectangle right bound.
+     * @param maxY  Rectangle top bound.
+     * @param value Value to add.
+     */
+    public void insert(int minX, int minY, int maxX, int maxY, T value) {
+        insertEntry(new Entry<>(minX, minY, maxX, maxY, value));
+        size++;
+    }
+
+    private void insertEntry(Entry<T> entry) {
+        Node sibling = insert(root, entry);
+        if (sibling != null) {
+            Node newRoot = new Node(false);
+            newRoot.add(root);
+            newRoot.add(sibling);
+            newRoot.recalculate();
+            root = newRoot;
+        }
+    }
+
+    /**
+     * Insert entry in subtree.
+     *
+     * @return New sibling node if node was split, else null.
+     */
+    private Node insert(Node node, Entry<T> entry) {
+        node.extendBounds(entry);
+        node.entriesCount++;
+        if (node.leaf) {
+            node.add(entry);
+        } else {
+            Node child = chooseSubtree(node, entry);
+            Node childSibling = insert(child, entry);
+            if (childSibling != null) {
+                node.add(childSibling);
+            }
+        }
+        return node.childrenCount > MAX_NODE_ENTRIES ? split(node) : null;
+    }
+
+    /**
+     * Choose child which rectangle needs least area enlargement to include entry, resolve ties by smallest area.
+     */
+    private Node chooseSubtree(Node node, Bounded entry) {
+        Node best = null;
+        long bestEnlargement = Long.MAX_VALUE;
+        long bestArea = Long.MAX_VALUE;
+        for (int i = 0; i < node.childrenCount; i++) {
+            Node child = (Node) node.children[i];
+            long area = child.area();
+            long enlargement = child.enlargedArea(entry) - area;
+            if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+                best = child;
+                bestEnlargement = enlargement;
+                bestArea = area;
+            }
+        }
+        return best;
+    }
+
+    private static final List<Comparator<Bounded>> X_AXIS_COMPARATORS = List.of(
+            Comparator.comparingInt((Bounded b) -> b.minX).thenComparingInt(b -> b.maxX),
+            Comparator.comparingInt((Bounded b) -> b.maxX).thenComparingInt(b -> b.minX)
+    );
+
+    private static final List<Comparator<Bounded>> Y_AXIS_COMPARATORS = List.of(
+            Comparator.comparingInt((Bounded b) -> b.minY).thenComparingInt(b -> b.maxY),
+            Comparator.comparingInt((Bounded b) -> b.maxY).thenComparingInt(b -> b.minY)
+    );
+
+    /**
+     * R* split. Choose axis with minimal sum of groups margins, then choose distribution on this axis
+     * with minimal groups overlap, resolve ties by minimal groups area.
+     * Node keeps first group, second group is moved to new sibling node.
+     */
+    private Node split(Node node) {
+        Bounded[] children = Arrays.copyOf(node.children, node.childrenCount);
+        List<Comparator<Bounded>> axisComparators = getSplitAxisMargin(children, X_AXIS_COMPARATORS) <= getSplitAxisMargin(children, Y_AXIS_COMPARATORS)
+                ? X_AXIS_COMPARATORS
+                : Y_AXIS_COMPARATORS;
+
+        Bounded[] bestOrder = null;
+        int bestSplitPosition = 0;
+        long bestOverlap = Long.MAX_VALUE;
+        long bestArea = Long.MAX_VALUE;
+        for (Comparator<Bounded> comparator : axisComparators) {
+            Bounded[] sorted = children.clone();
+            Arrays.sort(sorted, comparator);
+            for (int splitPosition = MIN_NODE_ENTRIES; splitPosition <= sorted.length - MIN_NODE_ENTRIES; splitPosition++) {
+                Box first = boundsOf(sorted, 0, splitPosition);
+                Box second = boundsOf(sorted, splitPosition, sorted.length);
+                long overlap = overlapArea(first, second);
+                long area = first.area() + second.area();
+                if (overlap < bestOverlap || (overlap == bestOverlap && area < bestArea)) {
+                    bestOrder = sorted;
+                    bestSplitPosition = splitPosition;
+                    bestOverlap = overlap;
+                    bestArea = area;
+                }
+            }
+        }
+
+        Node sibling = new Node(node.leaf);
+        Arrays.fill(node.children, null);
+        node.childrenCount = 0;
+        for (int i = 0; i < bestOrder.length; i++) {
+            (i < bestSplitPosition ? node : sibling).add(bestOrder[i]);
+        }
+        node.recalculate();
+        sibling.recalculate();
+        return sibling;
+    }
+
+    private long getSplitAxisMargin(Bounded[] children, List<Comparator<Bounded>> axisComparators) {
+        long margin = 0;
+        for (Comparator<Bounded> comparator : axisComparators) {
+            Bounded[] sorted = children.clone();
+            Arrays.sort(sorted, comparator);
+            for (int splitPosition = MIN_NODE_ENTRIES; splitPosition <= sorted.length - MIN_NODE_ENTRIES; splitPosition++) {
+                margin += boundsOf(sorted, 0, splitPosition).margin() + boundsOf(sorted, splitPosition, sorted.length).margin();
+            }
+        }
+        return margin;
+    }
+
+    private static Box boundsOf(Bounded[] items, int from, int to) {
+        Box bounds = new Box();
+        for (int i = from; i < to; i++) {
+            bounds.extendBounds(items[i]);
+        }
+        return bounds;
+    }
+
+    private static long overlapArea(Bounded first, Bounded second) {
+        long width = (long) Math.min(first.maxX, second.maxX) - Math.max(first.minX, second.minX);
+        long height = (long) Math.min(first.maxY, second.maxY) - Math.max(first.minY, second.minY);
+        return width > 0 && height > 0 ? width * height : 0;
+    }
+
+    /**
+     * Allow to remove value with its rectangle from index.
+     * Underfilled nodes are removed from tree and their entries are inserted again.
+     *
+     * @param minX  Rectangle left bound.
+     * @param minY  Rectangle bottom bound.
+     * @param maxX  Rectangle right bound.
+     * @param maxY  Rectangle top bound.
+     * @param value Value to remove, compared by identity.
+     * @return True if value was found and removed, else false.
+     */
+    public boolean remove(int minX, int minY, int maxX, int maxY, T value) {
+        Entry<T> entry = new Entry<>(minX, minY, maxX, maxY, value);
+        List<Entry<T>> orphans = new ArrayList<>();
+        if (!remove(root, entry, orphans)) {
+            return false;
+        }
+        if (!root.leaf && root.childrenCount == 1) {
+            root = (Node) root.children[0];
+        }
+        size--;
+        orphans.forEach(this::insertEntry);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean remove(Node node, Entry<T> entry, List<Entry<T>> orphans) {
+        for (int i = 0; i < node.childrenCount; i++) {
+            Bounded child = node.children[i];
+            if (node.leaf) {
+                if (((Entry<T>) child).value == entry.value && entry.isInside(child.minX, child.minY, child.maxX, child.maxY)) {
+                    node.removeAt(i);
+                    node.recalculate();
+                    return true;
+                }
+            } else if (child.contains(entry) && remove((Node) child, entry, orphans)) {
+                Node childNode = (Node) child;
+                if (childNode.childrenCount < MIN_NODE_ENTRIES) {
+                    node.removeAt(i);
+                    collectEntries(childNode, orphans);
+                }
+                node.recalculate();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void collectEntries(Node node, List<Entry<T>> entries) {
+        for (int i = 0; i < node.childrenCount; i++) {
+            if (node.leaf) {
+                entries.add((Entry<T>) node.children[i]);
+            } else {
+                collectEntries((Node) node.children[i], entries);
+            }
+        }
+    }
+
+    /**
+     * Allow to find all values which rectangles are fully inside (inclusive) of search rectangle.
+     * Only nodes intersecting search rectangle are visited.
+     *
+     * @param x1       Search rectangle left bound.
+     * @param y1       Search rectangle bottom bound.
+     * @param x2       Search rectangle right bound.
+     * @param y2       Search rectangle top bound.
+     * @param consumer Consumer for every found value.
+     */
+    public void searchContained(int x1, int y1, int x2, int y2, Consumer<T> consumer) {
+        if (size != 0) {
+            searchContained(root, x1, y1, x2, y2, consumer);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void searchContained(Node node, int x1, int y1, int x2, int y2, Consumer<T> consumer) {
+        for (int i = 0; i < node.childrenCount; i++) {
+            Bounded child = node.children[i];
+            if (node.leaf) {
+                if (child.isInside(x1, y1, x2, y2)) {
+                    consumer.accept(((Entry<T>) child).value);
+                }
+            } else if (child.isInside(x1, y1, x2, y2)) {
+                collectValues((Node) child, consumer);
+            } else if (child.intersects(x1, y1, x2, y2)) {
+                searchContained((Node) child, x1, y1, x2, y2, consumer);
+            }
+        }
+    }
+
+    /**
+     * Allow to find all values which rectangles intersect (inclusive) search rectangle.
+     * Point search is search by rectangle with zero width and height.
+     *
+     * @param x1       Search rectangle left bound.
+     * @param y1       Search rectangle bottom bound.
+     * @param x2       Search rectangle right bound.
+     * @param y2       Search rectangle top bound.
+     * @param consumer Consumer for every found value.
+     */
+    public void searchIntersecting(int x1, int y1, int x2, int y2, Consumer<T> consumer) {
+        if (size != 0) {
+            searchIntersecting(root, x1, y1, x2, y2, consumer);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void searchIntersecting(Node node, int x1, int y1, int x2, int y2, Consumer<T> consumer) {
+        for (int i = 0; i < node.childrenCount; i++) {
+            Bounded child = node.children[i];
+            if (!child.intersects(x1, y1, x2, y2)) {
+                continue;
+            }
+            if (node.leaf) {
+                consumer.accept(((Entry<T>) child).value);
+            } else if (child.isInside(x1, y1, x2, y2)) {
+                collectValues((Node) child, consumer);
+            } else {
+                searchIntersecting((Node) child, x1, y1, x2, y2, consumer);
+            }
+        }
+    }
+
+    /**
+     * Allow to count values which rectangles are fully inside (inclusive) of search rectangle without collecting them.
+     * Nodes fully inside of search rectangle are counted by their entries count, so only nodes crossing
+     * search rectangle border are visited.
+     *
+     * @param x1 Search rectangle left bound.
+     * @param y1 Search rectangle bottom bound.
+     * @param x2 Search rectangle right bound.
+     * @param y2 Search rectangle top bound.
+     * @return Values count.
+     */
+    public int countContained(int x1, int y1, int x2, int y2) {
+        return size == 0 ? 0 : count(root, x1, y1, x2, y2, false);
+    }
+
+    /**
+     * Allow to count values which rectangles intersect (inclusive) search rectangle without collecting them.
+     *
+     * @param x1 Search rectangle left bound.
+     * @param y1 Search rectangle bottom bound.
+     * @param x2 Search rectangle right bound.
+     * @param y2 Search rectangle top bound.
+     * @return Values count.
+     */
+    public int countIntersecting(int x1, int y1, int x2, int y2) {
+        return size == 0 ? 0 : count(root, x1, y1, x2, y2, true);
+    }
+
+    private int count(Node node, int x1, int y1, int x2, int y2, boolean intersecting) {
+        int count = 0;
+        for (int i = 0; i < node.childrenCount; i++) {
+            Bounded child = node.children[i];
+            if (node.leaf) {
+                if (intersecting ? child.intersects(x1, y1, x2, y2) : child.isInside(x1, y1, x2, y2)) {
+                    count++;
+                }
+            } else if (child.isInside(x1, y1, x2, y2)) {
+                count += ((Node) child).entriesCount;
+            } else if (child.intersects(x1, y1, x2, y2)) {
+                count += count((Node) child, x1, y1, x2, y2, intersecting);
+            }
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void collectValues(Node node, Consumer<T> consumer) {
+        for (int i = 0; i < node.childrenCount; i++) {
+            if (node.leaf) {
+                consumer.accept(((Entry<T>) node.children[i]).value);
+            } else {
+                collectValues((Node) node.children[i], consumer);
+            }
+        }
+    }
+
+    /**
+     * Node or entry waiting in best-first search queue with its distance to search point.
+     */
+    private static final class Candidate {
+        final Bounded item;
+        final double distance;
+
+        Candidate(Bounded item, double distance) {
+            this.item = item;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * Allow to find k values which rectangles are nearest to point via best-first search.
+     * Nodes and entries are kept in one priority queue by distance to point, so nodes are expanded only while they are
+     * closer than already found values. On equal distance nodes are expanded before entries are taken,
+     * so all entries with the same distance are ordered by tie breaker.
+     *
+     * @param x          Point x-coordinate.
+     * @param y          Point y-coordinate.
+     * @param k          Max values count.
+     * @param tieBreaker Order of values with equal distance.
+     * @return Values sorted ascend by distance, then by tie breaker.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> searchNearest(int x, int y, int k, Comparator<T> tieBreaker) {
+        List<T> result = new ArrayList<>(Math.min(k, size));
+        if (size == 0 || k <= 0) {
+            return result;
+        }
+        PriorityQueue<Candidate> queue = new PriorityQueue<>((first, second) -> {
+            int compare = Double.compare(first.distance, second.distance);
+            if (compare != 0) {
+                return compare;
+            }
+            boolean isFirstEntry = first.item instanceof Entry;
+            boolean isSecondEntry = second.item instanceof Entry;
+            if (isFirstEntry != isSecondEntry) {
+                return isFirstEntry ? 1 : -1;
+            }
+            return isFirstEntry ? tieBreaker.compare(((Entry<T>) first.item).value, ((Entry<T>) second.item).value) : 0;
+        });
+        queue.add(new Candidate(root, root.distanceSquared(x, y)));
+        while (!queue.isEmpty() && result.size() < k) {
+            Candidate candidate = queue.poll();
+            if (candidate.item instanceof Entry) {
+                result.add(((Entry<T>) candidate.item).value);
+                continue;
+            }
+            Node node = (Node) candidate.item;
+            for (int i = 0; i < node.childrenCount; i++) {
+                Bounded child = node.children[i];
+                queue.add(new Candidate(child, child.distanceSquared(x, y)));
+            }
+        }
+        return result;
+    }
+}
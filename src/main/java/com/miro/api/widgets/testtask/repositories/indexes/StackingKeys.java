@@ -0,0 +1,134 @@
+package com.miro.api.widgets.testtask.repositories.indexes;
+
+/**
+ * Sparse stacking keys of widgets, shared by both repositories.
+ * Stacking key keeps only widgets order: keys are allocated with gaps, so widget can be placed between any two
+ * neighbours without changing other keys. When gap between neighbours is exhausted, keys of a few neighbours are
+ * spread evenly (local rebalancing), window of neighbours is doubled until it has enough room.
+ * Z-index isn't stored, it is derived from weights: widget weight is difference between its z-index and z-index
+ * of previous widget (or {@link Integer#MIN_VALUE} for the first widget), so z-index is {@link Integer#MIN_VALUE}
+ * plus sum of weights up to widget (prefix weight), and shifting of widgets run changes weights of its borders only.
+ */
+public final class StackingKeys {
+    /**
+     * Missing key, it is never allocated.
+     */
+    public static final long NO_KEY = Long.MIN_VALUE;
+
+    /**
+     * Gap between key of new first or last widget and key of its neighbour.
+     */
+    public static final long KEY_GAP = 1L << 32;
+
+    /**
+     * Min gap between keys spread by local rebalancing.
+     */
+    public static final long MIN_SPREAD_GAP = 1L << 16;
+
+    /**
+     * Widgets count on each side of new key in the first local rebalancing window.
+     */
+    public static final int MIN_REBALANCE_RADIUS = 16;
+
+    private StackingKeys() {
+    }
+
+    /**
+     * Allow to get prefix weight of widget with z-index.
+     *
+     * @param zIndex Widget z-index.
+     * @return Prefix weight.
+     */
+    public static long toPrefixWeight(int zIndex) {
+        return (long) zIndex - Integer.MIN_VALUE;
+    }
+
+    /**
+     * Allow to get z-index of widget with prefix weight.
+     *
+     * @param prefixWeight Prefix weight.
+     * @return Widget z-index.
+     */
+    public static int toZIndex(long prefixWeight) {
+        return (int) (prefixWeight + Integer.MIN_VALUE);
+    }
+
+    /**
+     * Allow to allocate key between two neighbour keys. Key after the last one and before the first one is
+     * {@link #KEY_GAP} away from it, so appending and prepending never need rebalancing.
+     *
+     * @param lowerKey Lower neighbour key, or {@link #NO_KEY} if there is no lower neighbour.
+     * @param upperKey Upper neighbour key, or {@link #NO_KEY} if there is no upper neighbour.
+     * @return Key between neighbours, or {@link #NO_KEY} if there is no room between them.
+     */
+    public static long between(long lowerKey, long upperKey) {
+        if (lowerKey == NO_KEY && upperKey == NO_KEY) {
+            return 0;
+        }
+        if (upperKey == NO_KEY && lowerKey < Long.MAX_VALUE - KEY_GAP) {
+            return lowerKey + KEY_GAP;
+        }
+        if (lowerKey == NO_KEY && upperKey > Long.MIN_VALUE + KEY_GAP) {
+            return upperKey - KEY_GAP;
+        }
+        long upperBound = upperKey == NO_KEY ? Long.MAX_VALUE : upperKey;
+        long distance = upperBound - lowerKey;
+        if (Long.compareUnsigned(distance, 2) < 0) {
+            return NO_KEY;
+        }
+        return lowerKey + (distance >>> 1);
+    }
+
+    /**
+     * Allow to allocate consecutive keys between two neighbour keys for widgets placed together. Like {@link #between},
+     * keys after the last one and before the first one are {@link #KEY_GAP} away from each other, else keys are spread evenly.
+     *
+     * @param lowerKey Lower neighbour key, or {@link #NO_KEY} if there is no lower neighbour.
+     * @param upperKey Upper neighbour key, or {@link #NO_KEY} if there is no upper neighbour.
+     * @param count    Keys count.
+     * @return Ascending keys, or null if there is no room for them between neighbours.
+     */
+    public static long[] allocate(long lowerKey, long upperKey, int count) {
+        long[] keys = new long[count];
+        if (lowerKey == NO_KEY && upperKey == NO_KEY && Long.MAX_VALUE / KEY_GAP >= count) {
+            for (int i = 0; i < count; i++) {
+                keys[i] = KEY_GAP * i;
+            }
+            return keys;
+        }
+        if (upperKey == NO_KEY && lowerKey != NO_KEY && Long.divideUnsigned(Long.MAX_VALUE - lowerKey, KEY_GAP) > count) {
+            for (int i = 0; i < count; i++) {
+                keys[i] = lowerKey + KEY_GAP * (i + 1);
+            }
+            return keys;
+        }
+        if (lowerKey == NO_KEY && upperKey != NO_KEY && Long.divideUnsigned(upperKey - Long.MIN_VALUE, KEY_GAP) > count) {
+            for (int i = 0; i < count; i++) {
+                keys[i] = upperKey - KEY_GAP * (count - i);
+            }
+            return keys;
+        }
+        return spread(lowerKey, upperKey, count);
+    }
+
+    /**
+     * Allow to spread keys evenly between two bounds.
+     *
+     * @param lowerKey Lower bound key (exclusive), or {@link #NO_KEY} if there is no lower bound.
+     * @param upperKey Upper bound key (exclusive), or {@link #NO_KEY} if there is no upper bound.
+     * @param count    Keys count.
+     * @return Ascending keys, or null if gap between them would be lower than {@link #MIN_SPREAD_GAP}.
+     */
+    public static long[] spread(long lowerKey, long upperKey, int count) {
+        long upperBound = upperKey == NO_KEY ? Long.MAX_VALUE : upperKey;
+        long gap = Long.divideUnsigned(upperBound - lowerKey, count + 1L);
+        if (Long.compareUnsigned(gap, MIN_SPREAD_GAP) < 0) {
+            return null;
+        }
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = lowerKey + gap * (i + 1);
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,933 @@
+package com.miro.api.widgets.testtask.repositories.indexes;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * B+-tree ordered map of stacking order, specialized for sparse long keys (see {@link StackingKeys}).
+ * Keys are kept in primitive arrays, values only in leaves, and leaves are linked, so ordered iteration is a sequential
+ * scan over leaf arrays without boxing or per-entry objects.
+ * Every entry has weight, and inner nodes keep weights sum of every child subtree, so sum of weights of entries up to key
+ * (prefix weight) is found in O(log n). Z-index is derived from prefix weight, so shifting of any count of entries costs
+ * one or two weight changes instead of rewriting every shifted entry.
+ * Every entry has tag, which is time of its last shift. Keys range is tagged in O(log n): inner nodes keep pending tag of
+ * every child subtree, which is pushed down only when child subtree is restructured, and max tag inside every child subtree,
+ * so tagged entries are found without full scan.
+ * Nodes are rebalanced on removal (borrowing from or merging with sibling), so every node but root is at least half full.
+ * Inner nodes keep entries count of every child subtree, so entry with given rank (position in key order) is found in O(log n).
+ * Not thread safe, all writes must be guarded by caller. Concurrent reader can get inconsistent result or exception,
+ * but never loops forever, so it must validate result (see optimistic reads of widget service).
+ *
+ * @param <V> Any value stored in tree.
+ */
+public class StackingOrderTree<V> {
+    /**
+     * Tag of entry which was never shifted.
+     */
+    public static final long NO_TAG = Long.MIN_VALUE;
+
+    /**
+     * Max keys count in one node.
+     */
+    private static final int MAX_KEYS = 64;
+
+    /**
+     * Min keys count in one node but root.
+     */
+    private static final int MIN_KEYS = MAX_KEYS / 2;
+
+    /**
+     * Visitor of tree entries in key order.
+     *
+     * @param <V> Any value stored in tree.
+     */
+    @FunctionalInterface
+    public interface EntryVisitor<V> {
+        /**
+         * @param key   Entry key.
+         * @param value Entry value.
+         * @return True to continue iteration, false to stop it.
+         */
+        boolean visit(long key, V value);
+    }
+
+    /**
+     * Tree node. Node has one spare key slot, so it can overflow before split.
+     */
+    private abstract static class Node {
+        final long[] keys = new long[MAX_KEYS + 1];
+        int size;
+    }
+
+    /**
+     * Leaf node with values, weights and tags, linked to next leaf.
+     */
+    private static final class Leaf extends Node {
+        final Object[] values = new Object[MAX_KEYS + 1];
+        final long[] weights = new long[MAX_KEYS + 1];
+        final long[] tags = new long[MAX_KEYS + 1];
+        Leaf next;
+    }
+
+    /**
+     * Inner node, child i contains keys from keys[i - 1] (inclusive) to keys[i] (exclusive), childrenSizes[i] entries
+     * with childrenWeights[i] weights sum. Pending tag childrenTags[i] applies to every entry of child i,
+     * childrenMaxTags[i] is not lower than max tag inside child i without its pending tag.
+     */
+    private static final class Inner extends Node {
+        final Node[] children = new Node[MAX_KEYS + 2];
+        final int[] childrenSizes = new int[MAX_KEYS + 2];
+        final long[] childrenWeights = new long[MAX_KEYS + 2];
+        final long[] childrenTags = new long[MAX_KEYS + 2];
+        final long[] childrenMaxTags = new long[MAX_KEYS + 2];
+    }
+
+    /**
+     * Allow to recalculate child aggregates of inner node from child content.
+     */
+    private static void refreshChild(Inner parent, int position) {
+        Node child = parent.children[position];
+        int subtreeSize = 0;
+        long subtreeWeight = 0;
+        long subtreeMaxTag = NO_TAG;
+        if (child instanceof Leaf) {
+            Leaf leaf = (Leaf) child;
+            subtreeSize = leaf.size;
+            for (int i = 0; i < leaf.size; i++) {
+                subtreeWeight += leaf.weights[i];
+                subtreeMaxTag = Math.max(subtreeMaxTag, leaf.tags[i]);
+            }
+        } else {
+            Inner inner = (Inner) child;
+            for (int i = 0; i <= inner.size; i++) {
+                subtreeSize += inner.childrenSizes[i];
+                subtreeWeight += inner.childrenWeights[i];
+                subtreeMaxTag = Math.max(subtreeMaxTag, Math.max(inner.childrenTags[i], inner.childrenMaxTags[i]));
+            }
+        }
+        parent.childrenSizes[position] = subtreeSize;
+        parent.childrenWeights[position] = subtreeWeight;
+        parent.childrenMaxTags[position] = subtreeMaxTag;
+    }
+
+    /**
+     * Allow to apply pending tag of child to child content, so child can be restructured.
+     */
+    private static void pushDownTag(Inner parent, int position) {
+        long tag = parent.childrenTags[position];
+        if (tag == NO_TAG) {
+            return;
+        }
+        Node child = parent.children[position];
+        if (child instanceof Leaf) {
+            Leaf leaf = (Leaf) child;
+            for (int i = 0; i < leaf.size; i++) {
+                leaf.tags[i] = Math.max(leaf.tags[i], tag);
+            }
+        } else {
+            Inner inner = (Inner) child;
+            for (int i = 0; i <= inner.size; i++) {
+                inner.childrenTags[i] = Math.max(inner.childrenTags[i], tag);
+            }
+        }
+        parent.childrenMaxTags[position] = Math.max(parent.childrenMaxTags[position], tag);
+        parent.childrenTags[position] = NO_TAG;
+    }
+
+    /**
+     * Allow to copy children with their aggregates, arrays can overlap.
+     */
+    private static void copyChildren(Inner from, int fromPosition, Inner to, int toPosition, int count) {
+        System.arraycopy(from.children, fromPosition, to.children, toPosition, count);
+        System.arraycopy(from.childrenSizes, fromPosition, to.childrenSizes, toPosition, count);
+        System.arraycopy(from.childrenWeights, fromPosition, to.childrenWeights, toPosition, count);
+        System.arraycopy(from.childrenTags, fromPosition, to.childrenTags, toPosition, count);
+        System.arraycopy(from.childrenMaxTags, fromPosition, to.childrenMaxTags, toPosition, count);
+    }
+
+    /**
+     * Allow to copy leaf entries, arrays can overlap.
+     */
+    private static void copyEntries(Leaf from, int fromPosition, Leaf to, int toPosition, int count) {
+        System.arraycopy(from.keys, fromPosition, to.keys, toPosition, count);
+        System.arraycopy(from.values, fromPosition, to.values, toPosition, count);
+        System.arraycopy(from.weights, fromPosition, to.weights, toPosition, count);
+        System.arraycopy(from.tags, fromPosition, to.tags, toPosition, count);
+    }
+
+    private Node root = new Leaf();
+
+    /**
+     * Count of inner nodes levels.
+     */
+    private int height;
+
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Allow to estimate heap size of tree nodes, values aren't included. Every node is visited, but nodes are at least
+     * half full, so there are less than size / {@link #MIN_KEYS} of them.
+     *
+     * @return Estimated size in bytes.
+     */
+    public long estimateSizeInBytes() {
+        long leafSize = HeapSize.ofObject(5L * HeapSize.REFERENCE + 4)
+                + 3 * HeapSize.ofLongArray(MAX_KEYS + 1)
+                + HeapSize.ofReferenceArray(MAX_KEYS + 1);
+        long innerSize = HeapSize.ofObject(6L * HeapSize.REFERENCE + 4)
+                + HeapSize.ofLongArray(MAX_KEYS + 1)
+                + HeapSize.ofReferenceArray(MAX_KEYS + 2)
+                + HeapSize.ofIntArray(MAX_KEYS + 2)
+                + 3 * HeapSize.ofLongArray(MAX_KEYS + 2);
+        long[] nodesCounts = countNodes(root, new long[2]);
+        return HeapSize.ofObject(HeapSize.REFERENCE + 8) + nodesCounts[0] * leafSize + nodesCounts[1] * innerSize;
+    }
+
+    /**
+     * @return Leaves count and inner nodes count of node subtree, added to counts.
+     */
+    private static long[] countNodes(Node node, long[] counts) {
+        if (node instanceof Leaf) {
+            counts[0]++;
+            return counts;
+        }
+        counts[1]++;
+        Inner inner = (Inner) node;
+        for (int i = 0; i <= inner.size; i++) {
+            countNodes(inner.children[i], counts);
+        }
+        return counts;
+    }
+
+    /**
+     * Allow to remove all entries.
+     */
+    public void clear() {
+        root = new Leaf();
+        height = 0;
+        size = 0;
+    }
+
+    /**
+     * Binary search of key in node keys.
+     *
+     * @return Key position if found, else -(insertion point + 1).
+     */
+    private static int search(Node node, long key) {
+        int low = 0;
+        int high = node.size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleKey = node.keys[middle];
+            if (middleKey < key) {
+                low = middle + 1;
+            } else if (middleKey > key) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Allow to get position of child which can contain key.
+     */
+    private static int childPosition(Inner node, long key) {
+        int position = search(node, key);
+        return position >= 0 ? position + 1 : -position - 1;
+    }
+
+    private Leaf findLeaf(long key) {
+        Node node = root;
+        for (int level = 0; level < height; level++) {
+            Inner inner = (Inner) node;
+            node = inner.children[childPosition(inner, key)];
+        }
+        return (Leaf) node;
+    }
+
+    /**
+     * Allow to find leaf which can contain key, remembering path from root.
+     *
+     * @param path       Inner nodes on path, filled from root.
+     * @param positions  Children positions on path.
+     * @param isPushDown If true, then pending tags on path are pushed down, so path can be restructured.
+     */
+    private Leaf findLeaf(long key, Inner[] path, int[] positions, boolean isPushDown) {
+        Node node = root;
+        for (int level = 0; level < height; level++) {
+            Inner inner = (Inner) node;
+            int position = childPosition(inner, key);
+            if (isPushDown) {
+                pushDownTag(inner, position);
+            }
+            path[level] = inner;
+            positions[level] = position;
+            node = inner.children[position];
+        }
+        return (Leaf) node;
+    }
+
+    /**
+     * Allow to get value by key.
+     *
+     * @param key Entry key.
+     * @return Value, or null if tree doesn't contain key.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        Leaf leaf = findLeaf(key);
+        int position = search(leaf, key);
+        return position >= 0 ? (V) leaf.values[position] : null;
+    }
+
+    public boolean containsKey(long key) {
+        Leaf leaf = findLeaf(key);
+        return search(leaf, key) >= 0;
+    }
+
+    /**
+     * Allow to get entry weight.
+     *
+     * @param key Entry key.
+     * @return Entry weight.
+     * @throws NoSuchElementException throws if tree doesn't contain key.
+     */
+    public long getWeight(long key) throws NoSuchElementException {
+        Leaf leaf = findLeaf(key);
+        int position = search(leaf, key);
+        if (position < 0) {
+            throw new NoSuchElementException();
+        }
+        return leaf.weights[position];
+    }
+
+    /**
+     * Allow to get entry tag with pending tags applied.
+     *
+     * @param key Entry key.
+     * @return Entry tag, or {@link #NO_TAG} if entry was never tagged or tree doesn't contain key.
+     */
+    public long getTag(long key) {
+        long tag = NO_TAG;
+        Node node = root;
+        for (int level = 0; level < height; level++) {
+            Inner inner = (Inner) node;
+            int position = childPosition(inner, key);
+            tag = Math.max(tag, inner.childrenTags[position]);
+            node = inner.children[position];
+        }
+        int position = search(node, key);
+        return position >= 0 ? Math.max(tag, ((Leaf) node).tags[position]) : NO_TAG;
+    }
+
+    /**
+     * Allow to get the lowest key.
+     *
+     * @return The lowest key.
+     * @throws NoSuchElementException throws if tree is empty.
+     */
+    public long firstKey() throws NoSuchElementException {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        Node node = root;
+        for (int level = 0; level < height; level++) {
+            node = ((Inner) node).children[0];
+        }
+        return node.keys[0];
+    }
+
+    /**
+     * Allow to get the highest key.
+     *
+     * @return The highest key.
+     * @throws NoSuchElementException throws if tree is empty.
+     */
+    public long lastKey() throws NoSuchElementException {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        Node node = root;
+        for (int level = 0; level < height; level++) {
+            node = ((Inner) node).children[node.size];
+        }
+        return node.keys[node.size - 1];
+    }
+
+    /**
+     * Allow to get the highest key lower than key.
+     *
+     * @param key Any key.
+     * @return The highest lower key, or {@link StackingKeys#NO_KEY} if there is no such key.
+     */
+    public long lowerKey(long key) {
+        Inner[] path = new Inner[height];
+        int[] positions = new int[height];
+        Leaf leaf = findLeaf(key, path, positions, false);
+        int position = search(leaf, key);
+        position = position >= 0 ? position - 1 : -position - 2;
+        if (position >= 0) {
+            return leaf.keys[position];
+        }
+        for (int level = height - 1; level >= 0; level--) {
+            if (positions[level] > 0) {
+                Node node = path[level].children[positions[level] - 1];
+                for (int depth = level + 1; depth < height; depth++) {
+                    node = ((Inner) node).children[node.size];
+                }
+                return node.keys[node.size - 1];
+            }
+        }
+        return StackingKeys.NO_KEY;
+    }
+
+    /**
+     * Allow to get the lowest key higher than key.
+     *
+     * @param key Any key.
+     * @return The lowest higher key, or {@link StackingKeys#NO_KEY} if there is no such key.
+     */
+    public long higherKey(long key) {
+        Leaf leaf = findLeaf(key);
+        int position = search(leaf, key);
+        position = position >= 0 ? position + 1 : -position - 1;
+        if (position < leaf.size) {
+            return leaf.keys[position];
+        }
+        return leaf.next != null ? leaf.next.keys[0] : StackingKeys.NO_KEY;
+    }
+
+    /**
+     * Allow to get count of entries with keys lower than key.
+     *
+     * @param key Any key.
+     * @return Rank of key in ascending key order, starting from 0.
+     */
+    public int getRank(long key) {
+        int rank = 0;
+        Node node = root;
+        for (int level = 0; level < height; level++) {
+            Inner inner = (Inner) node;
+            int position = childPosition(inner, key);
+            for (int i = 0; i < position; i++) {
+                rank += inner.childrenSizes[i];
+            }
+            node = inner.children[position];
+        }
+        int position = search(node, key);
+        return rank + (position >= 0 ? position : -position - 1);
+    }
+
+    /**
+     * Allow to get sum of weights of entries with keys lower than or equal to key.
+     *
+     * @param key Any key.
+     * @return Prefix weight of key.
+     */
+    public long getPrefixWeight(long key) {
+        long prefixWeight = 0;
+        Node node = root;
+        for (int level = 0; level < height; level++) {
+            Inner inner = (Inner) node;
+            int position = childPosition(inner, key);
+            for (int i = 0; i < position; i++) {
+                prefixWeight += inner.childrenWeights[i];
+            }
+            node = inner.children[position];
+        }
+        Leaf leaf = (Leaf) node;
+        for (int i = 0; i < leaf.size && leaf.keys[i] <= key; i++) {
+            prefixWeight += leaf.weights[i];
+        }
+        return prefixWeight;
+    }
+
+    /**
+     * Allow to get sum of weights of all entries.
+     *
+     * @return Total weight.
+     */
+    public long getTotalWeight() {
+        long totalWeight = 0;
+        if (root instanceof Leaf) {
+            Leaf leaf = (Leaf) root;
+            for (int i = 0; i < leaf.size; i++) {
+                totalWeight += leaf.weights[i];
+            }
+            return totalWeight;
+        }
+        Inner inner = (Inner) root;
+        for (int i = 0; i <= inner.size; i++) {
+            totalWeight += inner.childrenWeights[i];
+        }
+        return totalWeight;
+    }
+
+    /**
+     * Allow to find the lowest key which prefix weight is greater than or equal to prefix weight.
+     *
+     * @param prefixWeight Prefix weight lower bound (inclusive).
+     * @return The lowest key, or {@link StackingKeys#NO_KEY} if total weight is lower than prefix weight.
+     */
+    public long ceilingKeyByPrefixWeight(long prefixWeight) {
+        long weight = 0;
+        Node node = root;
+        for (int level = 0; level < height; level++) {
+            Inner inner = (Inner) node;
+            int position = 0;
+            while (position < inner.size && weight + inner.childrenWeights[position] < prefixWeight) {
+                weight += inner.childrenWeights[position];
+                position++;
+            }
+            node = inner.children[position];
+        }
+        Leaf leaf = (Leaf) node;
+        for (int i = 0; i < leaf.size; i++) {
+            weight += leaf.weights[i];
+            if (weight >= prefixWeight) {
+                return leaf.keys[i];
+            }
+        }
+        return StackingKeys.NO_KEY;
+    }
+
+    /**
+     * Allow to change entry weight.
+     *
+     * @param key   Entry key.
+     * @param delta Weight change.
+     * @throws NoSuchElementException throws if tree doesn't contain key.
+     */
+    public void addWeight(long key, long delta) throws NoSuchElementException {
+        Inner[] path = new Inner[height];
+        int[] positions = new int[height];
+        Leaf leaf = findLeaf(key, path, positions, false);
+        int position = search(leaf, key);
+        if (position < 0) {
+            throw new NoSuchElementException();
+        }
+        leaf.weights[position] += delta;
+        for (int level = 0; level < height; level++) {
+            path[level].childrenWeights[positions[level]] += delta;
+        }
+    }
+
+    /**
+     * Allow to tag entries with keys in range. Entry tag becomes max of its tag and new one.
+     * Only nodes on range borders are visited, nodes inside range get pending tag.
+     *
+     * @param fromKey Range lower bound, inclusive.
+     * @param toKey   Range upper bound, inclusive.
+     * @param tag     New tag.
+     */
+    public void tag(long fromKey, long toKey, long tag) {
+        if (fromKey <= toKey) {
+            tag(root, Long.MIN_VALUE, Long.MAX_VALUE, fromKey, toKey, tag);
+        }
+    }
+
+    /**
+     * @param lower Lower bound of node keys, inclusive.
+     * @param upper Upper bound of node keys, exclusive.
+     * @return True if any entry could be tagged.
+     */
+    private static boolean tag(Node node, long lower, long upper, long fromKey, long toKey, long tag) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            boolean isTagged = false;
+            for (int i = 0; i < leaf.size; i++) {
+                if (leaf.keys[i] >= fromKey && leaf.keys[i] <= toKey) {
+                    leaf.tags[i] = Math.max(leaf.tags[i], tag);
+                    isTagged = true;
+                }
+            }
+            return isTagged;
+        }
+
+        Inner inner = (Inner) node;
+        boolean isTagged = false;
+        for (int i = 0; i <= inner.size; i++) {
+            long childLower = i == 0 ? lower : inner.keys[i - 1];
+            long childUpper = i == inner.size ? upper : inner.keys[i];
+            if (childUpper - 1 < fromKey || childLower > toKey) {
+                continue;
+            }
+            if (childLower >= fromKey && childUpper - 1 <= toKey) {
+                inner.childrenTags[i] = Math.max(inner.childrenTags[i], tag);
+                isTagged = true;
+            } else if (tag(inner.children[i], childLower, childUpper, fromKey, toKey, tag)) {
+                inner.childrenMaxTags[i] = Math.max(inner.childrenMaxTags[i], tag);
+                isTagged = true;
+            }
+        }
+        return isTagged;
+    }
+
+    /**
+     * Allow to put value by key, existing value, weight and tag are replaced. Pending tags aren't applied to new entry.
+     *
+     * @param key    Entry key.
+     * @param value  Entry value, not null.
+     * @param weight Entry weight.
+     * @param tag    Entry tag, or {@link #NO_TAG}.
+     * @return Replaced value, or null if tree didn't contain key.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value, long weight, long tag) {
+        Objects.requireNonNull(value);
+        Inner[] path = new Inner[height];
+        int[] positions = new int[height];
+        Leaf leaf = findLeaf(key, path, positions, true);
+        int position = search(leaf, key);
+        if (position >= 0) {
+            V replaced = (V) leaf.values[position];
+            long delta = weight - leaf.weights[position];
+            leaf.values[position] = value;
+            leaf.weights[position] = weight;
+            leaf.tags[position] = tag;
+            for (int level = 0; level < height; level++) {
+                path[level].childrenWeights[positions[level]] += delta;
+                path[level].childrenMaxTags[positions[level]] = Math.max(path[level].childrenMaxTags[positions[level]], tag);
+            }
+            return replaced;
+        }
+
+        position = -position - 1;
+        copyEntries(leaf, position, leaf, position + 1, leaf.size - position);
+        leaf.keys[position] = key;
+        leaf.values[position] = value;
+        leaf.weights[position] = weight;
+        leaf.tags[position] = tag;
+        leaf.size++;
+        size++;
+        for (int level = 0; level < height; level++) {
+            path[level].childrenSizes[positions[level]]++;
+            path[level].childrenWeights[positions[level]] += weight;
+            path[level].childrenMaxTags[positions[level]] = Math.max(path[level].childrenMaxTags[positions[level]], tag);
+        }
+        if (leaf.size > MAX_KEYS) {
+            splitLeaf(leaf, path, positions);
+        }
+        return null;
+    }
+
+    private void splitLeaf(Leaf leaf, Inner[] path, int[] positions) {
+        Leaf right = new Leaf();
+        int leftSize = leaf.size / 2;
+        right.size = leaf.size - leftSize;
+        copyEntries(leaf, leftSize, right, 0, right.size);
+        Arrays.fill(leaf.values, leftSize, leaf.size, null);
+        right.next = leaf.next;
+        leaf.next = right;
+        leaf.size = leftSize;
+        insertIntoParent(leaf, right.keys[0], right, path, positions, height - 1);
+    }
+
+    /**
+     * Allow to insert separator and new right node after split into parent on path level, splitting parent if needed.
+     */
+    private void insertIntoParent(Node left, long separator, Node right, Inner[] path, int[] positions, int level) {
+        if (level < 0) {
+            Inner newRoot = new Inner();
+            newRoot.keys[0] = separator;
+            newRoot.children[0] = left;
+            newRoot.children[1] = right;
+            newRoot.childrenTags[0] = NO_TAG;
+            newRoot.childrenTags[1] = NO_TAG;
+            newRoot.size = 1;
+            refreshChild(newRoot, 0);
+            refreshChild(newRoot, 1);
+            root = newRoot;
+            height++;
+            return;
+        }
+
+        Inner parent = path[level];
+        int position = positions[level];
+        System.arraycopy(parent.keys, position, parent.keys, position + 1, parent.size - position);
+        copyChildren(parent, position + 1, parent, position + 2, parent.size - position);
+        parent.keys[position] = separator;
+        parent.children[position + 1] = right;
+        parent.childrenTags[position + 1] = NO_TAG;
+        parent.size++;
+        refreshChild(parent, position);
+        refreshChild(parent, position + 1);
+        if (parent.size <= MAX_KEYS) {
+            return;
+        }
+
+        Inner rightParent = new Inner();
+        int middle = parent.size / 2;
+        long promoted = parent.keys[middle];
+        rightParent.size = parent.size - middle - 1;
+        System.arraycopy(parent.keys, middle + 1, rightParent.keys, 0, rightParent.size);
+        copyChildren(parent, middle + 1, rightParent, 0, rightParent.size + 1);
+        Arrays.fill(parent.children, middle + 1, parent.size + 1, null);
+        parent.size = middle;
+        insertIntoParent(parent, promoted, rightParent, path, positions, level - 1);
+    }
+
+    /**
+     * Allow to remove entry by key.
+     *
+     * @param key Entry key.
+     * @return Removed value, or null if tree didn't contain key.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        Inner[] path = new Inner[height];
+        int[] positions = new int[height];
+        Leaf leaf = findLeaf(key, path, positions, true);
+        int position = search(leaf, key);
+        if (position < 0) {
+            return null;
+        }
+
+        V removed = (V) leaf.values[position];
+        long weight = leaf.weights[position];
+        copyEntries(leaf, position + 1, leaf, position, leaf.size - position - 1);
+        leaf.size--;
+        leaf.values[leaf.size] = null;
+        size--;
+        for (int level = 0; level < height; level++) {
+            path[level].childrenSizes[positions[level]]--;
+            path[level].childrenWeights[positions[level]] -= weight;
+        }
+        if (height > 0 && leaf.size < MIN_KEYS) {
+            rebalanceLeaf(leaf, path, positions);
+        }
+        return removed;
+    }
+
+    private void rebalanceLeaf(Leaf leaf, Inner[] path, int[] positions) {
+        int level = height - 1;
+        Inner parent = path[level];
+        int position = positions[level];
+        Leaf left = position > 0 ? (Leaf) parent.children[position - 1] : null;
+        Leaf right = position < parent.size ? (Leaf) parent.children[position + 1] : null;
+
+        if (left != null && left.size > MIN_KEYS) {
+            pushDownTag(parent, position - 1);
+            copyEntries(leaf, 0, leaf, 1, leaf.size);
+            left.size--;
+            copyEntries(left, left.size, leaf, 0, 1);
+            left.values[left.size] = null;
+            leaf.size++;
+            parent.keys[position - 1] = leaf.keys[0];
+            refreshChild(parent, position - 1);
+            refreshChild(parent, position);
+        } else if (right != null && right.size > MIN_KEYS) {
+            pushDownTag(parent, position + 1);
+            copyEntries(right, 0, leaf, leaf.size, 1);
+            leaf.size++;
+            right.size--;
+            copyEntries(right, 1, right, 0, right.size);
+            right.values[right.size] = null;
+            parent.keys[position] = right.keys[0];
+            refreshChild(parent, position);
+            refreshChild(parent, position + 1);
+        } else if (left != null) {
+            pushDownTag(parent, position - 1);
+            mergeLeaves(left, leaf);
+            removeFromParent(path, positions, level, position - 1);
+        } else {
+            pushDownTag(parent, position + 1);
+            mergeLeaves(leaf, right);
+            removeFromParent(path, positions, level, position);
+        }
+    }
+
+    private static void mergeLeaves(Leaf left, Leaf right) {
+        copyEntries(right, 0, left, left.size, right.size);
+        left.size += right.size;
+        left.next = right.next;
+    }
+
+    /**
+     * Allow to remove separator and its right child from inner node on path level after merge, rebalancing node if needed.
+     * Both merged children have no pending tags.
+     */
+    private void removeFromParent(Inner[] path, int[] positions, int level, int keyPosition) {
+        Inner node = path[level];
+        System.arraycopy(node.keys, keyPosition + 1, node.keys, keyPosition, node.size - keyPosition - 1);
+        copyChildren(node, keyPosition + 2, node, keyPosition + 1, node.size - keyPosition - 1);
+        node.children[node.size] = null;
+        node.size--;
+        refreshChild(node, keyPosition);
+
+        if (level == 0) {
+            if (node.size == 0) {
+                root = node.children[0];
+                height--;
+            }
+            return;
+        }
+        if (node.size >= MIN_KEYS) {
+            return;
+        }
+
+        Inner parent = path[level - 1];
+        int position = positions[level - 1];
+        Inner left = position > 0 ? (Inner) parent.children[position - 1] : null;
+        Inner right = position < parent.size ? (Inner) parent.children[position + 1] : null;
+
+        if (left != null && left.size > MIN_KEYS) {
+            pushDownTag(parent, position - 1);
+            System.arraycopy(node.keys, 0, node.keys, 1, node.size);
+            copyChildren(node, 0, node, 1, node.size + 1);
+            node.keys[0] = parent.keys[position - 1];
+            copyChildren(left, left.size, node, 0, 1);
+            node.size++;
+            parent.keys[position - 1] = left.keys[left.size - 1];
+            left.children[left.size] = null;
+            left.size--;
+            refreshChild(parent, position - 1);
+            refreshChild(parent, position);
+        } else if (right != null && right.size > MIN_KEYS) {
+            pushDownTag(parent, position + 1);
+            node.keys[node.size] = parent.keys[position];
+            copyChildren(right, 0, node, node.size + 1, 1);
+            node.size++;
+            parent.keys[position] = right.keys[0];
+            System.arraycopy(right.keys, 1, right.keys, 0, right.size - 1);
+            copyChildren(right, 1, right, 0, right.size);
+            right.children[right.size] = null;
+            right.size--;
+            refreshChild(parent, position);
+            refreshChild(parent, position + 1);
+        } else if (left != null) {
+            pushDownTag(parent, position - 1);
+            mergeInners(left, parent.keys[position - 1], node);
+            removeFromParent(path, positions, level - 1, position - 1);
+        } else {
+            pushDownTag(parent, position + 1);
+            mergeInners(node, parent.keys[position], right);
+            removeFromParent(path, positions, level - 1, position);
+        }
+    }
+
+    private static void mergeInners(Inner left, long separator, Inner right) {
+        left.keys[left.size] = separator;
+        System.arraycopy(right.keys, 0, left.keys, left.size + 1, right.size);
+        copyChildren(right, 0, left, left.size + 1, right.size + 1);
+        left.size += right.size + 1;
+    }
+
+    /**
+     * Allow to visit entries with keys in range in ascending key order.
+     *
+     * @param fromKey Range lower bound, inclusive.
+     * @param toKey   Range upper bound, inclusive.
+     * @param visitor Visitor of every entry, can stop iteration.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachAscending(long fromKey, long toKey, EntryVisitor<V> visitor) {
+        Leaf leaf = findLeaf(fromKey);
+        int position = search(leaf, fromKey);
+        if (position < 0) {
+            position = -position - 1;
+        }
+        while (leaf != null) {
+            for (; position < leaf.size; position++) {
+                long key = leaf.keys[position];
+                if (key > toKey || !visitor.visit(key, (V) leaf.values[position])) {
+                    return;
+                }
+            }
+            leaf = leaf.next;
+            position = 0;
+        }
+    }
+
+    /**
+     * Allow to visit entries in ascending key order starting from entry with given rank.
+     * Start entry is found by children subtrees sizes in O(log n), so iteration from any position costs the same.
+     *
+     * @param rank    Position of the first visited entry in ascending key order, starting from 0.
+     * @param visitor Visitor of every entry, can stop iteration.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachAscendingFromRank(long rank, EntryVisitor<V> visitor) {
+        if (rank < 0 || rank >= size) {
+            return;
+        }
+        int position = (int) rank;
+        Node node = root;
+        for (int level = 0; level < height; level++) {
+            Inner inner = (Inner) node;
+            int child = 0;
+            while (child < inner.size && position >= inner.childrenSizes[child]) {
+                position -= inner.childrenSizes[child];
+                child++;
+            }
+            node = inner.children[child];
+        }
+        Leaf leaf = (Leaf) node;
+        while (leaf != null) {
+            for (; position < leaf.size; position++) {
+                if (!visitor.visit(leaf.keys[position], (V) leaf.values[position])) {
+                    return;
+                }
+            }
+            leaf = leaf.next;
+            position = 0;
+        }
+    }
+
+    /**
+     * Allow to visit all entries in ascending key order.
+     *
+     * @param visitor Visitor of every entry, can stop iteration.
+     */
+    public void forEachAscending(EntryVisitor<V> visitor) {
+        forEachAscending(Long.MIN_VALUE, Long.MAX_VALUE, visitor);
+    }
+
+    /**
+     * Allow to visit entries which tag is greater than or equal to tag in ascending key order.
+     * Subtrees without such tags are skipped by their max tags.
+     *
+     * @param minTag  Tag lower bound, inclusive.
+     * @param visitor Visitor of every entry, can stop iteration.
+     */
+    public void forEachTagged(long minTag, EntryVisitor<V> visitor) {
+        forEachTagged(root, NO_TAG, minTag, visitor);
+    }
+
+    /**
+     * @param tag Max of pending tags on path to node.
+     * @return False if iteration was stopped.
+     */
+    @SuppressWarnings("unchecked")
+    private static <V> boolean forEachTagged(Node node, long tag, long minTag, EntryVisitor<V> visitor) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            for (int i = 0; i < leaf.size; i++) {
+                if (Math.max(tag, leaf.tags[i]) >= minTag && !visitor.visit(leaf.keys[i], (V) leaf.values[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        Inner inner = (Inner) node;
+        for (int i = 0; i <= inner.size; i++) {
+            long childTag = Math.max(tag, inner.childrenTags[i]);
+            if ((childTag >= minTag || inner.childrenMaxTags[i] >= minTag)
+                    && !forEachTagged(inner.children[i], childTag, minTag, visitor)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,109 @@
+package com.miro.api.widgets.testtask.repositories.indexes;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Sort and sweep search of all intersecting (inclusive) pairs of integer rectangles.
+ * Rectangles are sorted by min x once, then every rectangle is compared only with rectangles which start before it ends
+ * on x axis, so cost is O(n log n + k) for typical layouts. Sweep starts of different rectangles are independent,
+ * so sorted rectangles are swept by chunks in parallel in {@link java.util.concurrent.ForkJoinPool#commonPool()}.
+ */
+public final class SweepLineOverlaps {
+    /**
+     * Sweep starts count processed by one task. Fewer rectangles are swept in caller thread.
+     */
+    private static final int SWEEP_CHUNK_SIZE = 1 << 12;
+
+    private SweepLineOverlaps() {
+    }
+
+    /**
+     * Allow to find all pairs of intersecting (inclusive) rectangles. Rectangle i is given by minX[i], minY[i], maxX[i], maxY[i].
+     *
+     * @param minX Rectangles min x.
+     * @param minY Rectangles min y.
+     * @param maxX Rectangles max x.
+     * @param maxY Rectangles max y.
+     * @return Pairs packed to long: lower rectangle number in high bits, higher one in low bits. Pairs are not sorted.
+     */
+    public static long[] findIntersectingPairs(int[] minX, int[] minY, int[] maxX, int[] maxY) {
+        int count = minX.length;
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = ((long) minX[i] << 32) | i;
+        }
+        if (count > SWEEP_CHUNK_SIZE) {
+            Arrays.parallelSort(order);
+        } else {
+            Arrays.sort(order);
+        }
+
+        int[] numbers = new int[count];
+        int[] sortedMinX = new int[count];
+        int[] sortedMinY = new int[count];
+        int[] sortedMaxX = new int[count];
+        int[] sortedMaxY = new int[count];
+        for (int i = 0; i < count; i++) {
+            int number = (int) order[i];
+            numbers[i] = number;
+            sortedMinX[i] = minX[number];
+            sortedMinY[i] = minY[number];
+            sortedMaxX[i] = maxX[number];
+            sortedMaxY[i] = maxY[number];
+        }
+
+        int chunksCount = (count + SWEEP_CHUNK_SIZE - 1) / SWEEP_CHUNK_SIZE;
+        if (chunksCount <= 1) {
+            return sweepChunk(0, count, numbers, sortedMinX, sortedMinY, sortedMaxX, sortedMaxY);
+        }
+        long[][] chunksPairs = IntStream
+                .range(0, chunksCount)
+                .parallel()
+                .mapToObj(chunk -> sweepChunk(chunk * SWEEP_CHUNK_SIZE, Math.min(count, (chunk + 1) * SWEEP_CHUNK_SIZE), numbers, sortedMinX, sortedMinY, sortedMaxX, sortedMaxY))
+                .toArray(long[][]::new);
+        return concat(chunksPairs);
+    }
+
+    /**
+     * Allow to sweep from every sorted rectangle in range to the right until rectangles start after it ends.
+     * Rectangles on the right start not before current one, so only y axis needs to be checked.
+     *
+     * @return Packed pairs.
+     */
+    private static long[] sweepChunk(int from, int to, int[] numbers, int[] minX, int[] minY, int[] maxX, int[] maxY) {
+        long[] pairs = new long[16];
+        int pairsCount = 0;
+        int count = numbers.length;
+        for (int i = from; i < to; i++) {
+            int currentMaxX = maxX[i];
+            int currentMinY = minY[i];
+            int currentMaxY = maxY[i];
+            for (int j = i + 1; j < count && minX[j] <= currentMaxX; j++) {
+                if (maxY[j] >= currentMinY & minY[j] <= currentMaxY) {
+                    if (pairsCount == pairs.length) {
+                        pairs = Arrays.copyOf(pairs, pairsCount * 2);
+                    }
+                    int first = Math.min(numbers[i], numbers[j]);
+                    int second = Math.max(numbers[i], numbers[j]);
+                    pairs[pairsCount++] = ((long) first << 32) | second;
+                }
+            }
+        }
+        return Arrays.copyOf(pairs, pairsCount);
+    }
+
+    private static long[] concat(long[][] arrays) {
+        int length = 0;
+        for (long[] array : arrays) {
+            length += array.length;
+        }
+        long[] result = new long[length];
+        int position = 0;
+        for (long[] array : arrays) {
+            System.arraycopy(array, 0, result, position, array.length);
+            position += array.length;
+        }
+        return result;
+    }
+}
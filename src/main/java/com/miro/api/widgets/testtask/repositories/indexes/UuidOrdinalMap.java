@@ -0,0 +1,184 @@
+package com.miro.api.widgets.testtask.repositories.indexes;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from 128-bit UUIDs to non-negative int ordinals, stored in primitive arrays.
+ * UUID is kept as two longs in keys array next to each other, ordinal in parallel array, so map has no object per entry.
+ * Linear probing is used, removal shifts following entries back, so there are no tombstones.
+ *
+ * Single writer, many readers: writes must be guarded by caller. Readers never block and never fail: table arrays are
+ * published together via volatile field and probing is bounded by table capacity, so concurrent reader can get stale
+ * or missed result only, which caller detects by its lock validation (see optimistic reads of widget service).
+ */
+public class UuidOrdinalMap {
+    /**
+     * Initial table capacity, must be power of two.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Ordinal value of empty slot.
+     */
+    public static final int NO_ORDINAL = -1;
+
+    private static final class Table {
+        final long[] keys;
+        final int[] ordinals;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new long[capacity * 2];
+            ordinals = new int[capacity];
+            mask = capacity - 1;
+            Arrays.fill(ordinals, NO_ORDINAL);
+        }
+    }
+
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+
+    private int size;
+
+    private static int getHash(long mostSignificantBits, long leastSignificantBits) {
+        long hash = mostSignificantBits * 0x9E3779B97F4A7C15L ^ leastSignificantBits;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return (int) hash;
+    }
+
+    /**
+     * Allow to get ordinal by UUID.
+     *
+     * @param mostSignificantBits  UUID most significant bits.
+     * @param leastSignificantBits UUID least significant bits.
+     * @return Ordinal, or {@link #NO_ORDINAL} if map doesn't contain UUID.
+     */
+    public int get(long mostSignificantBits, long leastSignificantBits) {
+        Table current = table;
+        int slot = getHash(mostSignificantBits, leastSignificantBits) & current.mask;
+        for (int probes = 0; probes <= current.mask; probes++) {
+            int ordinal = current.ordinals[slot];
+            if (ordinal == NO_ORDINAL) {
+                return NO_ORDINAL;
+            }
+            if (current.keys[slot * 2] == mostSignificantBits && current.keys[slot * 2 + 1] == leastSignificantBits) {
+                return ordinal;
+            }
+            slot = (slot + 1) & current.mask;
+        }
+        return NO_ORDINAL;
+    }
+
+    /**
+     * Allow to put ordinal by UUID, existing ordinal is replaced.
+     *
+     * @param mostSignificantBits  UUID most significant bits.
+     * @param leastSignificantBits UUID least significant bits.
+     * @param ordinal              Non-negative ordinal.
+     */
+    public void put(long mostSignificantBits, long leastSignificantBits, int ordinal) {
+        if (ordinal < 0) {
+            throw new IllegalArgumentException("Ordinal can't be negative.");
+        }
+        if ((size + 1) * 4L > table.ordinals.length * 3L) {
+            resize(table.ordinals.length * 2);
+        }
+        if (insert(table, mostSignificantBits, leastSignificantBits, ordinal)) {
+            size++;
+        }
+    }
+
+    /**
+     * Allow to insert ordinal into table. Keys are written before ordinal, which marks slot as used.
+     *
+     * @return True if UUID is new, false if its ordinal was replaced.
+     */
+    private static boolean insert(Table current, long mostSignificantBits, long leastSignificantBits, int ordinal) {
+        int slot = getHash(mostSignificantBits, leastSignificantBits) & current.mask;
+        while (current.ordinals[slot] != NO_ORDINAL) {
+            if (current.keys[slot * 2] == mostSignificantBits && current.keys[slot * 2 + 1] == leastSignificantBits) {
+                current.ordinals[slot] = ordinal;
+                return false;
+            }
+            slot = (slot + 1) & current.mask;
+        }
+        current.keys[slot * 2] = mostSignificantBits;
+        current.keys[slot * 2 + 1] = leastSignificantBits;
+        current.ordinals[slot] = ordinal;
+        return true;
+    }
+
+    private void resize(int capacity) {
+        Table current = table;
+        Table resized = new Table(capacity);
+        for (int slot = 0; slot <= current.mask; slot++) {
+            if (current.ordinals[slot] != NO_ORDINAL) {
+                insert(resized, current.keys[slot * 2], current.keys[slot * 2 + 1], current.ordinals[slot]);
+            }
+        }
+        table = resized;
+    }
+
+    /**
+     * Allow to remove UUID. Following entries of the same probe sequence are shifted back to freed slot.
+     *
+     * @param mostSignificantBits  UUID most significant bits.
+     * @param leastSignificantBits UUID least significant bits.
+     * @return Removed ordinal, or {@link #NO_ORDINAL} if map doesn't contain UUID.
+     */
+    public int remove(long mostSignificantBits, long leastSignificantBits) {
+        Table current = table;
+        int slot = getHash(mostSignificantBits, leastSignificantBits) & current.mask;
+        while (current.ordinals[slot] != NO_ORDINAL) {
+            if (current.keys[slot * 2] == mostSignificantBits && current.keys[slot * 2 + 1] == leastSignificantBits) {
+                int ordinal = current.ordinals[slot];
+                shiftBack(current, slot);
+                size--;
+                return ordinal;
+            }
+            slot = (slot + 1) & current.mask;
+        }
+        return NO_ORDINAL;
+    }
+
+    private static void shiftBack(Table current, int freeSlot) {
+        int next = (freeSlot + 1) & current.mask;
+        while (current.ordinals[next] != NO_ORDINAL) {
+            int idealSlot = getHash(current.keys[next * 2], current.keys[next * 2 + 1]) & current.mask;
+            if (((next - idealSlot) & current.mask) >= ((next - freeSlot) & current.mask)) {
+                current.keys[freeSlot * 2] = current.keys[next * 2];
+                current.keys[freeSlot * 2 + 1] = current.keys[next * 2 + 1];
+                current.ordinals[freeSlot] = current.ordinals[next];
+                freeSlot = next;
+            }
+            next = (next + 1) & current.mask;
+        }
+        current.ordinals[freeSlot] = NO_ORDINAL;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Allow to estimate heap size of map, it is determined by table capacity only.
+     *
+     * @return Estimated size in bytes.
+     */
+    public long estimateSizeInBytes() {
+        Table current = table;
+        return HeapSize.ofObject(HeapSize.REFERENCE + 4)
+                + HeapSize.ofObject(2L * HeapSize.REFERENCE + 4)
+                + HeapSize.ofLongArray(current.keys.length)
+                + HeapSize.ofIntArray(current.ordinals.length);
+    }
+
+    /**
+     * Allow to remove all UUIDs.
+     */
+    public void clear() {
+        table = new Table(INITIAL_CAPACITY);
+        size = 0;
+    }
+}
@@ -0,0 +1,241 @@
+package com.miro.api.widgets.testtask.repositories.indexes;
+
+import com.miro.api.widgets.testtask.config.TilesConfig;
+import com.miro.api.widgets.testtask.entities.WidgetCustomEntity;
+import com.miro.api.widgets.testtask.utils.TileHelperWrapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Level-of-detail tiles of widgets, maintained incrementally for every zoom level.
+ * Widget belongs to the cell of its center and is culled from zoom levels where it is too small on screen.
+ * Every tile keeps widgets count, bounding box and topmost widgets. Topmost widgets are ordered by stacking keys,
+ * which give z-index order without deriving z-indexes, and shifting doesn't change keys, so topmost widgets stay valid after shifting.
+ * Tile is recalculated via R*-tree only when removed widget was on its bounding box border or among its topmost widgets.
+ * Not thread safe, all writes must be guarded by caller.
+ */
+public class WidgetTilesIndex {
+    private static final Comparator<WidgetCustomEntity> TOPMOST_FIRST = Comparator.comparingLong(WidgetCustomEntity::getZKey).reversed();
+
+    private final TilesConfig config;
+
+    /**
+     * R*-tree with the same widgets, used to recalculate tiles.
+     */
+    private final RTree<WidgetCustomEntity> spatialIndex;
+
+    /**
+     * Tiles of every zoom level by cell key.
+     */
+    private final List<HashMap<Long, Tile>> levels = new ArrayList<>();
+
+    private static final class Tile {
+        int count;
+        int minX;
+        int minY;
+        int maxX;
+        int maxY;
+        final WidgetCustomEntity[] topmost;
+        int topmostCount;
+
+        Tile(int topWidgetsCount) {
+            topmost = new WidgetCustomEntity[topWidgetsCount];
+            resetBounds();
+        }
+
+        void resetBounds() {
+            minX = Integer.MAX_VALUE;
+            minY = Integer.MAX_VALUE;
+            maxX = Integer.MIN_VALUE;
+            maxY = Integer.MIN_VALUE;
+        }
+
+        void extend(WidgetCustomEntity widget) {
+            minX = Math.min(minX, widget.getXCoordinate());
+            minY = Math.min(minY, widget.getYCoordinate());
+            maxX = Math.max(maxX, widget.getXCoordinate() + widget.getWidth());
+            maxY = Math.max(maxY, widget.getYCoordinate() + widget.getHeight());
+            if (topmost.length == 0) {
+                return;
+            }
+            if (topmostCount < topmost.length) {
+                topmost[topmostCount++] = widget;
+            } else if (widget.getZKey() > topmost[topmostCount - 1].getZKey()) {
+                topmost[topmostCount - 1] = widget;
+            } else {
+                return;
+            }
+            Arrays.sort(topmost, 0, topmostCount, TOPMOST_FIRST);
+        }
+
+        boolean isOnBorderOrTopmost(WidgetCustomEntity widget) {
+            if (widget.getXCoordinate() == minX
+                    || widget.getYCoordinate() == minY
+                    || widget.getXCoordinate() + widget.getWidth() == maxX
+                    || widget.getYCoordinate() + widget.getHeight() == maxY) {
+                return true;
+            }
+            for (int i = 0; i < topmostCount; i++) {
+                if (topmost[i] == widget) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public WidgetTilesIndex(TilesConfig config, RTree<WidgetCustomEntity> spatialIndex) {
+        this.config = config;
+        this.spatialIndex = spatialIndex;
+        clear();
+    }
+
+    private static long getCellKey(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+
+    private static int getCenterCell(int coordinate, int size, int cellSize) {
+        return (int) Math.floorDiv(coordinate + (long) size / 2, cellSize);
+    }
+
+    private static int clamp(long value) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    /**
+     * Allow to add widget to tiles of every zoom level where it is visible.
+     *
+     * @param widget {@link WidgetCustomEntity} which will be added.
+     */
+    public void add(WidgetCustomEntity widget) {
+        for (int zoom = 0; zoom < levels.size(); zoom++) {
+            int cellSize = config.getCellSize(zoom);
+            if (!config.isVisible(widget.getWidth(), widget.getHeight(), cellSize)) {
+                return;
+            }
+            int cellX = getCenterCell(widget.getXCoordinate(), widget.getWidth(), cellSize);
+            int cellY = getCenterCell(widget.getYCoordinate(), widget.getHeight(), cellSize);
+            Tile tile = levels.get(zoom).computeIfAbsent(getCellKey(cellX, cellY), key -> new Tile(config.getTopWidgetsCount()));
+            tile.count++;
+            tile.extend(widget);
+        }
+    }
+
+    /**
+     * Allow to remove widget from tiles of every zoom level where it is visible.
+     * Must be called after widget was removed from R*-tree.
+     *
+     * @param widget {@link WidgetCustomEntity} which will be removed.
+     */
+    public void remove(WidgetCustomEntity widget) {
+        for (int zoom = 0; zoom < levels.size(); zoom++) {
+            int cellSize = config.getCellSize(zoom);
+            if (!config.isVisible(widget.getWidth(), widget.getHeight(), cellSize)) {
+                return;
+            }
+            int cellX = getCenterCell(widget.getXCoordinate(), widget.getWidth(), cellSize);
+            int cellY = getCenterCell(widget.getYCoordinate(), widget.getHeight(), cellSize);
+            long cellKey = getCellKey(cellX, cellY);
+            Tile tile = levels.get(zoom).get(cellKey);
+            if (tile == null) {
+                continue;
+            }
+            if (--tile.count == 0) {
+                levels.get(zoom).remove(cellKey);
+            } else if (tile.isOnBorderOrTopmost(widget)) {
+                recalculate(tile, cellX, cellY, cellSize);
+            }
+        }
+    }
+
+    /**
+     * Recalculate tile bounding box and topmost widgets by widgets from R*-tree which centers are in tile cell.
+     */
+    private void recalculate(Tile tile, int cellX, int cellY, int cellSize) {
+        tile.resetBounds();
+        Arrays.fill(tile.topmost, null);
+        tile.topmostCount = 0;
+        spatialIndex.searchIntersecting(
+                clamp((long) cellX * cellSize),
+                clamp((long) cellY * cellSize),
+                clamp((long) (cellX + 1) * cellSize - 1),
+                clamp((long) (cellY + 1) * cellSize - 1),
+                widget -> {
+                    if (config.isVisible(widget.getWidth(), widget.getHeight(), cellSize)
+                            && getCenterCell(widget.getXCoordinate(), widget.getWidth(), cellSize) == cellX
+                            && getCenterCell(widget.getYCoordinate(), widget.getHeight(), cellSize) == cellY) {
+                        tile.extend(widget);
+                    }
+                }
+        );
+    }
+
+    /**
+     * Allow to get not empty tiles of zoom level which cells intersect rectangle.
+     *
+     * @param x1   Rectangle left bound.
+     * @param y1   Rectangle bottom bound.
+     * @param x2   Rectangle right bound.
+     * @param y2   Rectangle top bound.
+     * @param zoom Zoom level.
+     * @param top  Count of topmost widgets in every tile.
+     * @return Tiles sorted by cell y, then by cell x.
+     * @throws IllegalArgumentException throws if zoom level doesn't exist or rectangle has too many cells.
+     */
+    public List<TileHelperWrapper<WidgetCustomEntity>> getTiles(int x1, int y1, int x2, int y2, int zoom, int top) throws IllegalArgumentException {
+        int cellSize = config.getCellSize(zoom);
+        int fromCellX = Math.floorDiv(x1, cellSize);
+        int fromCellY = Math.floorDiv(y1, cellSize);
+        int toCellX = Math.floorDiv(x2, cellSize);
+        int toCellY = Math.floorDiv(y2, cellSize);
+        config.checkCellsCount(fromCellX, fromCellY, toCellX, toCellY);
+
+        HashMap<Long, Tile> tiles = levels.get(zoom);
+        List<TileHelperWrapper<WidgetCustomEntity>> result = new ArrayList<>();
+        for (int cellY = fromCellY; cellY <= toCellY; cellY++) {
+            for (int cellX = fromCellX; cellX <= toCellX; cellX++) {
+                Tile tile = tiles.get(getCellKey(cellX, cellY));
+                if (tile != null) {
+                    List<WidgetCustomEntity> topmost = Arrays.asList(tile.topmost).subList(0, Math.min(top, tile.topmostCount));
+                    result.add(new TileHelperWrapper<>(cellX, cellY, tile.count, tile.minX, tile.minY, tile.maxX, tile.maxY, new ArrayList<>(topmost)));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Tiles count of all zoom levels.
+     */
+    public long getTilesCount() {
+        return levels.stream().mapToLong(HashMap::size).sum();
+    }
+
+    /**
+     * Allow to estimate heap size of tiles of all zoom levels, widgets aren't included. HashMap table is assumed to be
+     * 3/4 full, as it is right before resize.
+     *
+     * @return Estimated size in bytes.
+     */
+    public long estimateSizeInBytes() {
+        long tileSize = HeapSize.ofObject(6 * 4 + HeapSize.REFERENCE) + HeapSize.ofReferenceArray(config.getTopWidgetsCount());
+        long entrySize = HeapSize.ofObject(3 * HeapSize.REFERENCE + 4) + HeapSize.ofObject(8);
+        long tilesCount = getTilesCount();
+        return levels.size() * HeapSize.ofObject(6 * HeapSize.REFERENCE + 3 * 4 + 4)
+                + tilesCount * (tileSize + entrySize + HeapSize.REFERENCE * 4 / 3);
+    }
+
+    /**
+     * Allow to remove all tiles.
+     */
+    public void clear() {
+        levels.clear();
+        for (int zoom = 0; zoom < config.getZoomLevels(); zoom++) {
+            levels.add(new HashMap<>());
+        }
+    }
+}
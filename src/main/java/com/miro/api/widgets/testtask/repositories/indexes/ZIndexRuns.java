@@ -0,0 +1,163 @@
+package com.miro.api.widgets.testtask.repositories.indexes;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Run-length set of occupied z-indexes: tree map from start of every run of consecutive z-indexes to its end (inclusive).
+ * Runs are merged and split locally on every change, so end of run is found by one floor lookup without allocation.
+ *
+ * Not thread safe, writes and reads must be guarded by caller.
+ */
+public class ZIndexRuns {
+    /**
+     * Estimated heap size of empty {@link TreeMap}.
+     */
+    private static final long TREE_MAP_SIZE = HeapSize.ofObject(7 * HeapSize.REFERENCE + 2 * 4);
+
+    /**
+     * Estimated heap size of {@link TreeMap} entry with boxed start and end: key, value, left, right and parent references and color.
+     */
+    private static final long RUN_SIZE = HeapSize.ofObject(5 * HeapSize.REFERENCE + 1) + 2 * HeapSize.ofObject(4);
+
+    private final TreeMap<Integer, Integer> runs = new TreeMap<>();
+
+    /**
+     * Allow to get runs count.
+     *
+     * @return Runs count.
+     */
+    public int size() {
+        return runs.size();
+    }
+
+    /**
+     * Allow to estimate heap size of runs.
+     *
+     * @return Estimated heap size, bytes.
+     */
+    public long estimateSizeInBytes() {
+        return TREE_MAP_SIZE + runs.size() * RUN_SIZE;
+    }
+
+    /**
+     * Allow to remove all runs.
+     */
+    public void clear() {
+        runs.clear();
+    }
+
+    /**
+     * Check if z-index is occupied.
+     *
+     * @param zIndex Z-index.
+     * @return True if z-index is occupied, else false.
+     */
+    public boolean contains(int zIndex) {
+        Map.Entry<Integer, Integer> run = runs.floorEntry(zIndex);
+        return run != null && run.getValue() >= zIndex;
+    }
+
+    /**
+     * Allow to get end of run with occupied z-index.
+     *
+     * @param zIndex Occupied z-index.
+     * @return The last z-index of run.
+     * @throws IllegalArgumentException throws if z-index isn't occupied.
+     */
+    public int getRunEnd(int zIndex) throws IllegalArgumentException {
+        Map.Entry<Integer, Integer> run = runs.floorEntry(zIndex);
+        if (run == null || run.getValue() < zIndex) {
+            throw new IllegalArgumentException("Z-index " + zIndex + " isn't occupied");
+        }
+        return run.getValue();
+    }
+
+    /**
+     * Allow to occupy free z-index, run is merged with neighbour runs.
+     *
+     * @param zIndex Free z-index.
+     */
+    public void add(int zIndex) {
+        addRange(zIndex, zIndex);
+    }
+
+    /**
+     * Allow to occupy range of free z-indexes, range is merged with neighbour runs.
+     *
+     * @param fromZIndex The first free z-index.
+     * @param toZIndex   The last free z-index (inclusive).
+     */
+    public void addRange(int fromZIndex, int toZIndex) {
+        int start = fromZIndex;
+        int end = toZIndex;
+        Map.Entry<Integer, Integer> lowerRun = runs.floorEntry(fromZIndex);
+        if (lowerRun != null && (long) lowerRun.getValue() + 1 == fromZIndex) {
+            start = lowerRun.getKey();
+        }
+        Map.Entry<Integer, Integer> higherRun = runs.higherEntry(toZIndex);
+        if (higherRun != null && (long) higherRun.getKey() - 1 == toZIndex) {
+            end = runs.remove(higherRun.getKey());
+        }
+        runs.put(start, end);
+    }
+
+    /**
+     * Allow to free occupied z-index, its run is split.
+     *
+     * @param zIndex Occupied z-index.
+     */
+    public void remove(int zIndex) {
+        Map.Entry<Integer, Integer> run = runs.floorEntry(zIndex);
+        if (run == null || run.getValue() < zIndex) {
+            return;
+        }
+        splitAt(run.getKey(), run.getValue(), zIndex, zIndex);
+    }
+
+    /**
+     * Allow to free range of occupied z-indexes of one run, the run is split.
+     *
+     * @param fromZIndex The first occupied z-index.
+     * @param toZIndex   The last occupied z-index (inclusive).
+     * @throws IllegalArgumentException throws if range isn't part of one run.
+     */
+    public void removeRange(int fromZIndex, int toZIndex) throws IllegalArgumentException {
+        Map.Entry<Integer, Integer> run = runs.floorEntry(fromZIndex);
+        if (run == null || run.getValue() < toZIndex) {
+            throw new IllegalArgumentException("Z-indexes from " + fromZIndex + " to " + toZIndex + " aren't occupied");
+        }
+        splitAt(run.getKey(), run.getValue(), fromZIndex, toZIndex);
+    }
+
+    /**
+     * Allow to shift occupied z-index and z-indexes after it in its run upwards, so z-index becomes free.
+     * Shifted part of run is merged with the next run if they become consecutive.
+     *
+     * @param zIndex Occupied z-index.
+     */
+    public void shift(int zIndex) {
+        Map.Entry<Integer, Integer> run = runs.floorEntry(zIndex);
+        if (run == null || run.getValue() < zIndex) {
+            return;
+        }
+        int start = run.getKey();
+        int end = run.getValue();
+        runs.remove(start);
+        if (start < zIndex) {
+            runs.put(start, zIndex - 1);
+        }
+        Integer higherRunEnd = runs.remove(end + 2);
+        runs.put(zIndex + 1, higherRunEnd == null ? end + 1 : higherRunEnd);
+    }
+
+    private void splitAt(int start, int end, int fromZIndex, int toZIndex) {
+        runs.remove(start);
+        if (start < fromZIndex) {
+            runs.put(start, fromZIndex - 1);
+        }
+        if (end > toZIndex) {
+            runs.put(toZIndex + 1, end);
+        }
+    }
+}
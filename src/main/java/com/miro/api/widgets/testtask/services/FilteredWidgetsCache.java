@@ -0,0 +1,209 @@
+package com.miro.api.widgets.testtask.services;
+
+import com.miro.api.widgets.testtask.config.CacheConfig;
+import com.miro.api.widgets.testtask.dto.WidgetFilterDTO;
+import com.miro.api.widgets.testtask.dto.WidgetFilterMode;
+import com.miro.api.widgets.testtask.dto.WidgetResponseDTO;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LRU cache of filtered widgets pages, keyed by filter rectangle, mode, page and size.
+ *
+ * Mutation invalidates only pages which could be changed by it: pages which rectangles intersect widget old or new bounds,
+ * and pages containing widgets from shifted z-indexes range. Every mutation increments cache version, and page is cached
+ * only if version wasn't changed while page was computed, so page computed before concurrent mutation is never cached.
+ * Mutations must be reported after they are visible to readers.
+ */
+@Component
+public class FilteredWidgetsCache implements MeterBinder {
+    private final int maxSize;
+
+    private final LinkedHashMap<Key, Entry> entries;
+
+    private final AtomicLong version = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private static final class Key {
+        final int x1;
+        final int y1;
+        final int x2;
+        final int y2;
+        final WidgetFilterMode mode;
+        final boolean exactCount;
+        final int page;
+        final int size;
+
+        Key(Pageable pageRequest, WidgetFilterDTO filter) {
+            x1 = filter.getX1();
+            y1 = filter.getY1();
+            x2 = filter.getX2();
+            y2 = filter.getY2();
+            mode = filter.getMode();
+            exactCount = filter.isExactCount();
+            page = pageRequest.getPageNumber();
+            size = pageRequest.getPageSize();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return x1 == key.x1 && y1 == key.y1 && x2 == key.x2 && y2 == key.y2
+                    && mode == key.mode && exactCount == key.exactCount && page == key.page && size == key.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(x1, y1, x2, y2, mode, exactCount, page, size);
+        }
+    }
+
+    private static final class Entry {
+        final Page<WidgetResponseDTO> page;
+
+        /**
+         * Cache version when page was computed.
+         */
+        final long version;
+
+        /**
+         * Z-indexes range of widgets on page.
+         */
+        final int minZIndex;
+        final int maxZIndex;
+
+        Entry(Page<WidgetResponseDTO> page, long version) {
+            this.page = page;
+            this.version = version;
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (WidgetResponseDTO widget : page.getContent()) {
+                min = Math.min(min, widget.getZIndex());
+                max = Math.max(max, widget.getZIndex());
+            }
+            minZIndex = min;
+            maxZIndex = max;
+        }
+    }
+
+    public FilteredWidgetsCache(CacheConfig config) {
+        this.maxSize = config.getFilteredWidgetsMaxSize();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Allow to get current cache version, incremented by every reported mutation. Must be taken before page computing and passed to {@link #put}.
+     *
+     * @return Cache version.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Allow to get cached filtered widgets page.
+     *
+     * @param pageRequest Page request.
+     * @param filter      Filter properties.
+     * @return Cached page, or null if page isn't cached.
+     */
+    public synchronized Page<WidgetResponseDTO> get(Pageable pageRequest, WidgetFilterDTO filter) {
+        Entry entry = maxSize > 0 ? entries.get(new Key(pageRequest, filter)) : null;
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.page;
+    }
+
+    /**
+     * Allow to cache filtered widgets page. Page isn't cached if any mutation was reported since version was taken.
+     *
+     * @param pageRequest Page request.
+     * @param filter      Filter properties.
+     * @param page        Computed page.
+     * @param version     Cache version taken before page computing.
+     */
+    public synchronized void put(Pageable pageRequest, WidgetFilterDTO filter, Page<WidgetResponseDTO> page, long version) {
+        if (maxSize > 0 && this.version.get() == version) {
+            entries.put(new Key(pageRequest, filter), new Entry(page, version));
+        }
+    }
+
+    /**
+     * Allow to invalidate pages which rectangles intersect (inclusive) widget bounds.
+     * Must be called for both old and new bounds of changed widget.
+     *
+     * @param x1 Widget left bound.
+     * @param y1 Widget bottom bound.
+     * @param x2 Widget right bound.
+     * @param y2 Widget top bound.
+     */
+    public synchronized void invalidate(int x1, int y1, int x2, int y2) {
+        version.incrementAndGet();
+        entries.keySet().removeIf(key -> key.x2 >= x1 && key.y2 >= y1 && key.x1 <= x2 && key.y1 <= y2);
+    }
+
+    /**
+     * Allow to invalidate pages containing widgets which z-indexes are in range.
+     *
+     * @param fromZIndex Range lower bound, inclusive.
+     * @param toZIndex   Range upper bound, inclusive.
+     */
+    public synchronized void invalidateZIndexes(int fromZIndex, int toZIndex) {
+        version.incrementAndGet();
+        entries.values().removeIf(entry -> entry.maxZIndex >= fromZIndex && entry.minZIndex <= toZIndex);
+    }
+
+    /**
+     * Allow to invalidate all pages.
+     */
+    public synchronized void invalidateAll() {
+        version.incrementAndGet();
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("widgets.filtered.cache.requests", hits, AtomicLong::get)
+                .tag("result", "hit")
+                .description("Filtered widgets pages cache hits")
+                .register(registry);
+        FunctionCounter.builder("widgets.filtered.cache.requests", misses, AtomicLong::get)
+                .tag("result", "miss")
+                .description("Filtered widgets pages cache misses")
+                .register(registry);
+        Gauge.builder("widgets.filtered.cache.size", this, FilteredWidgetsCache::size)
+                .description("Count of cached filtered widgets pages")
+                .register(registry);
+    }
+}
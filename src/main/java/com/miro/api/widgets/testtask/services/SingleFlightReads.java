@@ -0,0 +1,113 @@
+package com.miro.api.widgets.testtask.services;
+
+import com.miro.api.widgets.testtask.exceptions.DeadlineExceededException;
+import com.miro.api.widgets.testtask.utils.RequestDeadline;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight coalescing of identical concurrent reads. The first read of operation with arguments is computed,
+ * identical reads which arrive while it is in flight wait for it and share its result (or exception) instead of computing
+ * it again. Read is identical only if widgets version is the same, so read which arrives after mutation never gets
+ * result computed before it. Nothing is cached, result is forgotten as soon as computation is finished.
+ * Identical read waits no longer than its own request deadline, and is computed again if read in flight exceeded
+ * deadline of its own request.
+ */
+@Component
+public class SingleFlightReads implements MeterBinder {
+    private final ConcurrentHashMap<List<Object>, CompletableFuture<Object>> inFlightReads = new ConcurrentHashMap<>();
+
+    private final AtomicLong coalescedReads = new AtomicLong();
+
+    /**
+     * Allow to run read or join identical read in flight.
+     *
+     * @param version   Widgets version, changed by every mutation.
+     * @param operation Read operation.
+     * @param arguments Operation name and arguments, which identify read. Must have value-based equality.
+     * @param <T>       Read operation result type.
+     * @return Read operation result, shared with identical concurrent reads.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T read(long version, Supplier<T> operation, Object... arguments) {
+        List<Object> key = new ArrayList<>(arguments.length + 1);
+        key.add(version);
+        key.addAll(Arrays.asList(arguments));
+
+        CompletableFuture<Object> read = new CompletableFuture<>();
+        CompletableFuture<Object> inFlightRead = inFlightReads.putIfAbsent(key, read);
+        if (inFlightRead != null) {
+            coalescedReads.incrementAndGet();
+            try {
+                return (T) join(inFlightRead);
+            } catch (DeadlineExceededException e) {
+                RequestDeadline.check();
+                if (inFlightRead.isDone()) {
+                    inFlightReads.remove(key, inFlightRead);
+                }
+                return read(version, operation, arguments);
+            }
+        }
+
+        T result;
+        try {
+            result = operation.get();
+        } catch (RuntimeException | Error e) {
+            inFlightReads.remove(key, read);
+            read.completeExceptionally(e);
+            throw e;
+        }
+        inFlightReads.remove(key, read);
+        read.complete(result);
+        return result;
+    }
+
+    /**
+     * Allow to wait for read in flight no longer than current request deadline.
+     *
+     * @param inFlightRead Read in flight.
+     * @return Read result.
+     * @throws DeadlineExceededException throws if read in flight exceeded its own deadline or current request deadline
+     *                                   is exceeded while waiting.
+     */
+    private static Object join(CompletableFuture<Object> inFlightRead) throws DeadlineExceededException {
+        try {
+            return RequestDeadline.isStarted()
+                    ? inFlightRead.get(Math.max(RequestDeadline.getRemainingNanos(), 0), TimeUnit.NANOSECONDS)
+                    : inFlightRead.get();
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("widgets.reads.coalesced", coalescedReads, AtomicLong::get)
+                .description("Reads which joined identical read in flight instead of computing it")
+                .register(registry);
+    }
+}
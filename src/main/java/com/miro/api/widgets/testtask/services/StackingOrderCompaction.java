@@ -0,0 +1,178 @@
+package com.miro.api.widgets.testtask.services;
+
+import com.miro.api.widgets.testtask.config.CompactionConfig;
+import com.miro.api.widgets.testtask.dto.WidgetResponseDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsCompactionBatchDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsCompactionReportDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsStackingSummaryDTO;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background incremental compaction of widgets stacking order. After heavy churn z-indexes become either fragmented,
+ * so the highest z-index climbs towards int overflow, or tightly packed, so every insert shifts long runs of widgets.
+ * Compaction renumbers widgets to z-indexes base + rank * spacing, which keeps free z-index next to every widget.
+ *
+ * Pass is made of small batches (see {@link WidgetsCompactionBatchDTO}), every batch is one short write of widget service,
+ * so writes and reads of other requests are interleaved with compaction. Widgets changed between batches aren't lost:
+ * batches never change stacking order, and the next pass compacts them.
+ *
+ * Density is checked periodically in background thread, manual trigger runs pass regardless of density.
+ */
+@Component
+public class StackingOrderCompaction {
+    private static final String PHASE_IDLE = "idle";
+    private static final String PHASE_LOWERING = "lowering";
+    private static final String PHASE_RAISING = "raising";
+
+    private final WidgetService<WidgetResponseDTO> widgetService;
+
+    private final CompactionConfig config;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "widgets-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private boolean running;
+    private String phase = PHASE_IDLE;
+    private long passesCount;
+    private int widgetsCount;
+    private long processedWidgetsCount;
+    private long movedWidgetsCount;
+    private long startedAt;
+    private long finishedAt;
+    private double density = 1;
+    private String lastError;
+
+    public StackingOrderCompaction(WidgetService<WidgetResponseDTO> widgetService, CompactionConfig config) {
+        this.widgetService = widgetService;
+        this.config = config;
+        if (config.isEnabled()) {
+            executor.scheduleWithFixedDelay(this::compactIfNeeded, config.getIntervalMillis(), config.getIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Allow to run compaction pass in background thread regardless of density. Pass isn't started twice if it is already running.
+     *
+     * @return {@link WidgetsCompactionReportDTO} Compaction progress.
+     */
+    public WidgetsCompactionReportDTO trigger() {
+        executor.execute(this::compact);
+        return getReport();
+    }
+
+    /**
+     * Allow to get compaction progress.
+     *
+     * @return {@link WidgetsCompactionReportDTO}
+     */
+    public synchronized WidgetsCompactionReportDTO getReport() {
+        return new WidgetsCompactionReportDTO(config.isEnabled(), running, phase, passesCount, widgetsCount, processedWidgetsCount,
+                movedWidgetsCount, startedAt, finishedAt, density, lastError);
+    }
+
+    /**
+     * Allow to check if stacking order needs compaction.
+     *
+     * @param summary {@link WidgetsStackingSummaryDTO} Stacking order summary.
+     * @return True if there are enough widgets and their density is out of configured range, else false.
+     */
+    boolean isNeedToCompact(WidgetsStackingSummaryDTO summary) {
+        return summary.getWidgetsCount() >= config.getMinWidgetsCount()
+                && (summary.getDensity() < config.getMinDensity() || summary.getDensity() > config.getMaxDensity());
+    }
+
+    private void compactIfNeeded() {
+        try {
+            WidgetsStackingSummaryDTO summary = widgetService.getStackingSummary();
+            synchronized (this) {
+                density = summary.getDensity();
+            }
+            if (isNeedToCompact(summary)) {
+                compact();
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                lastError = e.getMessage();
+            }
+        }
+    }
+
+    /**
+     * Allow to run compaction pass in current thread: lowering sweep upwards, then raising sweep downwards.
+     * Spacing is reduced if widgets don't fit into int range with it.
+     */
+    public void compact() {
+        synchronized (this) {
+            if (running) {
+                return;
+            }
+            running = true;
+            phase = PHASE_LOWERING;
+            processedWidgetsCount = 0;
+            movedWidgetsCount = 0;
+            startedAt = Instant.now().getEpochSecond();
+            lastError = null;
+        }
+        try {
+            WidgetsStackingSummaryDTO summary = widgetService.getStackingSummary();
+            int count = summary.getWidgetsCount();
+            long spacing = Math.max(1, config.getSpacing());
+            if (count > 1) {
+                spacing = Math.max(1, Math.min(spacing, ((long) Integer.MAX_VALUE - Integer.MIN_VALUE) / (count - 1)));
+            }
+            long base = Math.max(Integer.MIN_VALUE, Math.min(summary.getMinZIndex(), Integer.MAX_VALUE - (count - 1L) * spacing));
+            synchronized (this) {
+                widgetsCount = count;
+            }
+
+            int batchSize = Math.max(1, config.getBatchSize());
+            for (int fromRank = 0; fromRank < count; fromRank += batchSize) {
+                compactBatch(new WidgetsCompactionBatchDTO(base, spacing, fromRank, (int) Math.min(count, (long) fromRank + batchSize), false));
+            }
+            synchronized (this) {
+                phase = PHASE_RAISING;
+            }
+            for (int toRank = count; toRank > 0; toRank -= batchSize) {
+                compactBatch(new WidgetsCompactionBatchDTO(base, spacing, Math.max(0, toRank - batchSize), toRank, true));
+            }
+
+            summary = widgetService.getStackingSummary();
+            synchronized (this) {
+                passesCount++;
+                finishedAt = Instant.now().getEpochSecond();
+                density = summary.getDensity();
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                lastError = e.getMessage();
+            }
+        } finally {
+            synchronized (this) {
+                running = false;
+                phase = PHASE_IDLE;
+            }
+        }
+    }
+
+    private void compactBatch(WidgetsCompactionBatchDTO batchDTO) {
+        int movedCount = widgetService.compactStackingOrder(batchDTO);
+        synchronized (this) {
+            processedWidgetsCount += batchDTO.getToRank() - batchDTO.getFromRank();
+            movedWidgetsCount += movedCount;
+        }
+    }
+}
@@ -2,21 +2,35 @@ package com.miro.api.widgets.testtask.services;
 
 import com.miro.api.widgets.testtask.dto.WidgetCreateDTO;
 import com.miro.api.widgets.testtask.dto.WidgetFilterDTO;
+import com.miro.api.widgets.testtask.dto.WidgetReorderDTO;
 import com.miro.api.widgets.testtask.dto.WidgetResponseDTO;
 import com.miro.api.widgets.testtask.dto.WidgetUpdateDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsBulkCreateDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsCompactionBatchDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsHeapReportDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsOverlapResponseDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsStackingSummaryDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsTileResponseDTO;
 import com.miro.api.widgets.testtask.entities.WidgetCustomEntity;
 import com.miro.api.widgets.testtask.repositories.MapBasedWidgetEntityRepository;
 import com.miro.api.widgets.testtask.repositories.InternalWidgetEntityRepository;
 import com.miro.api.widgets.testtask.utils.PageHelperWrapper;
+import com.miro.api.widgets.testtask.utils.TileHelperWrapper;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -33,8 +47,25 @@ public class WidgetInternalService implements WidgetService<WidgetResponseDTO> {
      */
     private final StampedLock lock = new StampedLock();
 
-    public WidgetInternalService(MapBasedWidgetEntityRepository repository) {
+    private final FilteredWidgetsCache filteredWidgetsCache;
+
+    public WidgetInternalService(MapBasedWidgetEntityRepository repository, FilteredWidgetsCache filteredWidgetsCache) {
         widgetsRepository = repository;
+        this.filteredWidgetsCache = filteredWidgetsCache;
+    }
+
+    /**
+     * Allow to invalidate cached filtered widgets pages which could contain widget. Use under write lock after mutation.
+     *
+     * @param widget Widget with old or new bounds.
+     */
+    private void invalidateFilteredWidgets(WidgetCustomEntity widget) {
+        filteredWidgetsCache.invalidate(
+                widget.getXCoordinate(),
+                widget.getYCoordinate(),
+                widget.getXCoordinate() + widget.getWidth(),
+                widget.getYCoordinate() + widget.getHeight()
+        );
     }
 
     private WidgetResponseDTO convertWidgetEntityToWidgetResponseDTO(WidgetCustomEntity widgetEntity) {
@@ -58,32 +89,110 @@ public class WidgetInternalService implements WidgetService<WidgetResponseDTO> {
             if (zIndex != null) {
                 if (widgetsRepository.isNeedToShift(zIndex)) {
                     widgetsRepository.shiftUpwards(zIndex);
+                    filteredWidgetsCache.invalidateZIndexes(zIndex, Integer.MAX_VALUE);
                 }
             } else {
                 createDTO.setZIndex(widgetsRepository.getMaxIndex() + 1);
             }
             WidgetCustomEntity widget = widgetsRepository.createEntity(createDTO);
             widgetsRepository.saveEntity(widget);
+            invalidateFilteredWidgets(widget);
             return convertWidgetEntityToWidgetResponseDTO(widget);
         } finally {
             lock.unlockWrite(stamp);
         }
     }
 
+    /**
+     * Allow to create batch of widgets under one write lock. Ranges of stacked z-indexes are freed by one sweep,
+     * then widgets are placed to free z-indexes, so they don't shift anything.
+     *
+     * @param bulkCreateDTO {@link WidgetsBulkCreateDTO} Batch of widgets.
+     * @return {@link List<WidgetResponseDTO>} Just created widgets in batch order.
+     * @throws IllegalArgumentException throws if height or width params of any widget are negative or z-indexes overflow.
+     */
     @Override
-    public Optional<WidgetResponseDTO> getWidgetById(String id) {
-        long stamp = lock.tryOptimisticRead();
-        Optional<WidgetCustomEntity> widget = widgetsRepository.findEntityById(id);
+    public List<WidgetResponseDTO> createAndSaveWidgets(WidgetsBulkCreateDTO bulkCreateDTO) throws IllegalArgumentException {
+        checkBulkCreate(bulkCreateDTO);
+        long stamp = lock.writeLock();
+        try {
+            widgetsRepository
+                    .shiftUpwards(bulkCreateDTO.getRangesFromIndexes(), bulkCreateDTO.getRangesCounts())
+                    .ifPresent(zIndex -> filteredWidgetsCache.invalidateZIndexes(zIndex, Integer.MAX_VALUE));
+            Map<WidgetCreateDTO, WidgetCustomEntity> widgets = new IdentityHashMap<>();
+            List<WidgetCustomEntity> stackedWidgets = new ArrayList<>();
+            for (WidgetCreateDTO createDTO : bulkCreateDTO.getStackedWidgets()) {
+                stackedWidgets.add(widgets.computeIfAbsent(createDTO, widgetsRepository::createEntity));
+            }
+            widgetsRepository.saveAllEntities(stackedWidgets);
 
-        if (!lock.validate(stamp)) {
-            stamp = lock.readLock();
+            List<WidgetCustomEntity> topWidgets = new ArrayList<>();
+            int topIndex = widgetsRepository.getMaxIndex();
+            for (WidgetCreateDTO createDTO : bulkCreateDTO.getTopWidgets()) {
+                createDTO.setZIndex(++topIndex);
+                topWidgets.add(widgets.computeIfAbsent(createDTO, widgetsRepository::createEntity));
+            }
+            widgetsRepository.saveAllEntities(topWidgets);
+            widgets.values().forEach(this::invalidateFilteredWidgets);
+            return bulkCreateDTO
+                    .getWidgets()
+                    .stream()
+                    .map(createDTO -> convertWidgetEntityToWidgetResponseDTO(widgets.get(createDTO)))
+                    .collect(Collectors.toList());
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Allow to run read operation under optimistic lock. If optimistic read was invalidated by concurrent write,
+     * operation is run again under read lock. Repository indexes aren't thread safe, so exception thrown by
+     * invalidated optimistic read is ignored too.
+     *
+     * @param operation Read operation.
+     * @param <T>       Read operation result type.
+     * @return Read operation result.
+     */
+    private <T> T readWithOptimisticLock(Supplier<T> operation) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
             try {
-                return widgetsRepository.findEntityById(id).map(this::convertWidgetEntityToWidgetResponseDTO);
-            } finally {
-                lock.unlock(stamp);
+                T result = operation.get();
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                if (lock.validate(stamp)) {
+                    throw e;
+                }
             }
         }
-        return widget.map(this::convertWidgetEntityToWidgetResponseDTO);
+
+        stamp = lock.readLock();
+        try {
+            return operation.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Optional<WidgetResponseDTO> getWidgetById(String id) {
+        return readWithOptimisticLock(() -> widgetsRepository.findEntityById(id).map(this::convertWidgetEntityToWidgetResponseDTO));
+    }
+
+    /**
+     * Allow to find many widgets by their IDs under single optimistic read stamp.
+     *
+     * @param ids Widgets unique IDs.
+     * @return {@link List<Optional<WidgetResponseDTO>>} Widget or empty Optional for every ID, in order of IDs.
+     */
+    @Override
+    public List<Optional<WidgetResponseDTO>> getWidgetsByIds(List<String> ids) {
+        return readWithOptimisticLock(() -> ids
+                .stream()
+                .map(id -> widgetsRepository.findEntityById(id).map(this::convertWidgetEntityToWidgetResponseDTO))
+                .collect(Collectors.toList()));
     }
 
     @Override
@@ -100,12 +209,15 @@ public class WidgetInternalService implements WidgetService<WidgetResponseDTO> {
                         updateDTO.getHeight(),
                         updateDTO.getWidth()
                 );
-                widgetEntity.setId(w.getId());
+                widgetEntity.setId(w.getIdMostSignificantBits(), w.getIdLeastSignificantBits());
                 if (widgetsRepository.isNeedToShift(updateDTO.getZIndex(), w.getId())) {
                     widgetsRepository.shiftUpwards(updateDTO.getZIndex());
+                    filteredWidgetsCache.invalidateZIndexes(updateDTO.getZIndex(), Integer.MAX_VALUE);
                 }
                 widgetsRepository.deleteEntityById(w.getId());
                 widgetsRepository.saveEntity(widgetEntity);
+                invalidateFilteredWidgets(w);
+                invalidateFilteredWidgets(widgetEntity);
                 return widgetEntity;
             });
             return widget.map(this::convertWidgetEntityToWidgetResponseDTO);
@@ -114,11 +226,78 @@ public class WidgetInternalService implements WidgetService<WidgetResponseDTO> {
         }
     }
 
+    /**
+     * Allow to move widgets in stacking order under single write lock. Widgets are moved without deleting and saving:
+     * they are displaced, then placed by consecutive z-indexes, and every occupied z-index is freed by local shift.
+     *
+     * @param reorderDTO {@link WidgetReorderDTO} Object with widgets IDs, position and target widget ID.
+     * @return {@link Optional<List<WidgetResponseDTO>>} Moved widgets sorted ascend by z-index, empty Optional if any widget or target widget doesn't exist.
+     * @throws IllegalArgumentException throws if target widget isn't set for relative position, target widget is moved too or z-indexes overflow.
+     */
+    @Override
+    public Optional<List<WidgetResponseDTO>> reorderWidgets(WidgetReorderDTO reorderDTO) throws IllegalArgumentException {
+        checkReorderTarget(reorderDTO);
+        long stamp = lock.writeLock();
+        try {
+            List<WidgetCustomEntity> widgets = new ArrayList<>();
+            for (String id : new LinkedHashSet<>(reorderDTO.getIds())) {
+                Optional<WidgetCustomEntity> widget = widgetsRepository.findEntityById(id);
+                if (widget.isEmpty()) {
+                    return Optional.empty();
+                }
+                widgets.add(widget.get());
+            }
+            int targetIndex = 0;
+            if (reorderDTO.getPosition().isRelative()) {
+                Optional<WidgetCustomEntity> target = widgetsRepository.findEntityById(reorderDTO.getTargetId());
+                if (target.isEmpty()) {
+                    return Optional.empty();
+                }
+                targetIndex = target.get().getZIndex();
+            }
+            widgets.sort(Comparator.comparingInt(WidgetCustomEntity::getZIndex));
+
+            widgets.forEach(widgetsRepository::displaceEntity);
+            int startIndex;
+            try {
+                startIndex = widgetsRepository.getReorderStartIndex(reorderDTO.getPosition(), widgets.size(), targetIndex, widgets.get(0).getZIndex());
+            } catch (IllegalArgumentException e) {
+                widgets.forEach(widget -> widgetsRepository.placeEntity(widget, widget.getZIndex()));
+                throw e;
+            }
+            long shiftedFromIndex = Long.MAX_VALUE;
+            for (int i = 0; i < widgets.size(); i++) {
+                int zIndex = startIndex + i;
+                if (widgetsRepository.isNeedToShift(zIndex)) {
+                    widgetsRepository.shiftUpwards(zIndex);
+                    shiftedFromIndex = Math.min(shiftedFromIndex, zIndex);
+                }
+                WidgetCustomEntity widget = widgets.get(i);
+                widget.markUpdated();
+                widgetsRepository.placeEntity(widget, zIndex);
+            }
+
+            if (shiftedFromIndex != Long.MAX_VALUE) {
+                filteredWidgetsCache.invalidateZIndexes((int) shiftedFromIndex, Integer.MAX_VALUE);
+            }
+            widgets.forEach(this::invalidateFilteredWidgets);
+            return Optional.of(widgets
+                    .stream()
+                    .map(this::convertWidgetEntityToWidgetResponseDTO)
+                    .collect(Collectors.toList()));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
     @Override
     public boolean deleteWidgetById(String id) {
         long stamp = lock.writeLock();
         try {
-            return widgetsRepository.deleteEntityById(id);
+            Optional<WidgetCustomEntity> widget = widgetsRepository.findEntityById(id);
+            boolean isDeleted = widgetsRepository.deleteEntityById(id);
+            widget.ifPresent(this::invalidateFilteredWidgets);
+            return isDeleted;
         } finally {
             lock.unlockWrite(stamp);
         }
@@ -127,61 +306,23 @@ public class WidgetInternalService implements WidgetService<WidgetResponseDTO> {
 
     @Override
     public List<WidgetResponseDTO> getAllWidgets() {
-        long stamp = lock.tryOptimisticRead();
-        List<WidgetCustomEntity> widgets = widgetsRepository.findAllEntities();
-
-        if (!lock.validate(stamp)) {
-            stamp = lock.readLock();
-            try {
-                return widgetsRepository
-                        .findAllEntities()
-                        .stream()
-                        .map(this::convertWidgetEntityToWidgetResponseDTO)
-                        .collect(Collectors.toList());
-            } finally {
-                lock.unlock(stamp);
-            }
-        }
-        return widgets
+        return readWithOptimisticLock(() -> widgetsRepository
+                .findAllEntities()
                 .stream()
                 .map(this::convertWidgetEntityToWidgetResponseDTO)
-                .collect(Collectors.toList());
+                .collect(Collectors.toList()));
     }
 
     @Override
     public Page<WidgetResponseDTO> getAllWidgets(Pageable pageRequest) {
-        long stamp = lock.tryOptimisticRead();
-
         int page = pageRequest.getPageNumber();
         int size = pageRequest.getPageSize();
 
-        PageHelperWrapper<WidgetCustomEntity> widgets = widgetsRepository.findAllEntities(page, size);
-
-        if (!lock.validate(stamp)) {
-            stamp = lock.readLock();
-            try {
-                widgets = widgetsRepository.findAllEntities(page, size);
-                List<WidgetResponseDTO> widgetResponses = widgets
-                        .getData()
-                        .stream()
-                        .map(this::convertWidgetEntityToWidgetResponseDTO)
-                        .collect(Collectors.toList());
-                return new PageImpl<>(widgetResponses, pageRequest, widgets.getCount());
-            } finally {
-                lock.unlock(stamp);
-            }
-        }
-
-        List<WidgetResponseDTO> widgetResponses = widgets
-                .getData()
-                .stream()
-                .map(this::convertWidgetEntityToWidgetResponseDTO)
-                .collect(Collectors.toList());
-        return new PageImpl<>(widgetResponses, pageRequest, widgets.getCount());
+        return readWithOptimisticLock(() -> convertWidgetEntitiesPageToResponsePage(widgetsRepository.findAllEntities(page, size), pageRequest));
     }
 
     /**
-     * Allow to get filtered widgets with pagination, sorted ascend by z-index.
+     * Allow to get filtered widgets with pagination, sorted ascend by z-index. Pages are cached until mutation touches them.
      *
      * @param pageRequest {@link Pageable} any object that implements Pageable interface.
      * @param filterDTO   DTO {@link WidgetFilterDTO} with filtering properties.
@@ -189,28 +330,93 @@ public class WidgetInternalService implements WidgetService<WidgetResponseDTO> {
      */
     @Override
     public Page<WidgetResponseDTO> getFilteredWidgets(Pageable pageRequest, WidgetFilterDTO filterDTO) {
-        long stamp = lock.tryOptimisticRead();
-
+        Page<WidgetResponseDTO> cachedPage = filteredWidgetsCache.get(pageRequest, filterDTO);
+        if (cachedPage != null) {
+            return cachedPage;
+        }
+        long cacheVersion = filteredWidgetsCache.getVersion();
         int page = pageRequest.getPageNumber();
         int size = pageRequest.getPageSize();
 
-        PageHelperWrapper<WidgetCustomEntity> widgets = widgetsRepository.getFilteredEntities(page, size, filterDTO);
+        Page<WidgetResponseDTO> widgetsPage = readWithOptimisticLock(() -> convertWidgetEntitiesPageToResponsePage(widgetsRepository.getFilteredEntities(page, size, filterDTO), pageRequest));
+        filteredWidgetsCache.put(pageRequest, filterDTO, widgetsPage, cacheVersion);
+        return widgetsPage;
+    }
 
-        if (!lock.validate(stamp)) {
-            stamp = lock.readLock();
-            try {
-                widgets = widgetsRepository.getFilteredEntities(page, size, filterDTO);
-                List<WidgetResponseDTO> widgetResponses = widgets
-                        .getData()
+    @Override
+    public long countFilteredWidgets(WidgetFilterDTO filterDTO) {
+        return readWithOptimisticLock(() -> widgetsRepository.countFilteredEntities(filterDTO));
+    }
+
+    @Override
+    public List<WidgetResponseDTO> getWidgetsAtPoint(int x, int y, int limit) {
+        return readWithOptimisticLock(() -> widgetsRepository
+                .findEntitiesAtPoint(x, y, limit)
+                .stream()
+                .map(this::convertWidgetEntityToWidgetResponseDTO)
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public List<WidgetResponseDTO> getUpdatedWidgets(long updatedSince, WidgetFilterDTO filterDTO) {
+        return readWithOptimisticLock(() -> widgetsRepository
+                .findUpdatedEntities(updatedSince, filterDTO)
+                .stream()
+                .map(this::convertWidgetEntityToWidgetResponseDTO)
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public List<WidgetsTileResponseDTO> getTiles(WidgetFilterDTO filterDTO, int zoom, int top) throws IllegalArgumentException {
+        return readWithOptimisticLock(() -> widgetsRepository
+                .getTiles(filterDTO, zoom, top)
+                .stream()
+                .map(this::convertTileToTileResponseDTO)
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public List<WidgetResponseDTO> getNearestWidgets(int x, int y, int k) {
+        return readWithOptimisticLock(() -> widgetsRepository
+                .findNearestEntities(x, y, k)
+                .stream()
+                .map(this::convertWidgetEntityToWidgetResponseDTO)
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public Optional<List<WidgetResponseDTO>> getOverlappingWidgets(String id) {
+        return readWithOptimisticLock(() -> widgetsRepository
+                .findOverlappingEntities(id)
+                .map(widgets -> widgets
                         .stream()
                         .map(this::convertWidgetEntityToWidgetResponseDTO)
-                        .collect(Collectors.toList());
-                return new PageImpl<>(widgetResponses, pageRequest, widgets.getCount());
-            } finally {
-                lock.unlock(stamp);
-            }
-        }
+                        .collect(Collectors.toList())));
+    }
+
+    @Override
+    public List<WidgetsOverlapResponseDTO> getOverlappingWidgetsPairs() {
+        return readWithOptimisticLock(() -> widgetsRepository
+                .findOverlappingEntitiesPairs()
+                .stream()
+                .map(pair -> new WidgetsOverlapResponseDTO(pair.getFirst().getId(), pair.getSecond().getId()))
+                .collect(Collectors.toList()));
+    }
+
+    private WidgetsTileResponseDTO convertTileToTileResponseDTO(TileHelperWrapper<WidgetCustomEntity> tile) {
+        return new WidgetsTileResponseDTO(
+                tile.getCellX(),
+                tile.getCellY(),
+                tile.getCount(),
+                tile.getMinX(),
+                tile.getMinY(),
+                tile.getMaxX(),
+                tile.getMaxY(),
+                tile.getTopmost().stream().map(WidgetCustomEntity::getId).collect(Collectors.toList())
+        );
+    }
 
+    private Page<WidgetResponseDTO> convertWidgetEntitiesPageToResponsePage(PageHelperWrapper<WidgetCustomEntity> widgets, Pageable pageRequest) {
         List<WidgetResponseDTO> widgetResponses = widgets
                 .getData()
                 .stream()
@@ -219,11 +425,81 @@ public class WidgetInternalService implements WidgetService<WidgetResponseDTO> {
         return new PageImpl<>(widgetResponses, pageRequest, widgets.getCount());
     }
 
+    @Override
+    public WidgetsStackingSummaryDTO getStackingSummary() {
+        return readWithOptimisticLock(() -> new WidgetsStackingSummaryDTO(
+                widgetsRepository.getCount(),
+                widgetsRepository.getCeilingIndex(Integer.MIN_VALUE).orElse(0),
+                widgetsRepository.getFloorIndex(Integer.MAX_VALUE).orElse(0)
+        ));
+    }
+
+    /**
+     * Allow to move batch of widgets towards their compacted z-indexes under write lock, which is held for one batch only.
+     * Widgets are moved without deleting and saving, so only indexes which depend on z-index are updated.
+     *
+     * @param batchDTO {@link WidgetsCompactionBatchDTO} Compaction batch.
+     * @return Count of moved widgets.
+     */
+    @Override
+    public int compactStackingOrder(WidgetsCompactionBatchDTO batchDTO) {
+        long stamp = lock.writeLock();
+        try {
+            int fromRank = Math.max(0, batchDTO.getFromRank() - 1);
+            List<WidgetCustomEntity> widgets = widgetsRepository.findEntitiesByRank(fromRank, batchDTO.getToRank() + 1 - fromRank);
+            int first = batchDTO.getFromRank() - fromRank;
+            int last = Math.min(widgets.size(), first + batchDTO.getToRank() - batchDTO.getFromRank()) - 1;
+            int movedCount = 0;
+            for (int j = 0; j <= last - first; j++) {
+                int i = batchDTO.isRaising() ? last - j : first + j;
+                WidgetCustomEntity widget = widgets.get(i);
+                int zIndex = widget.getZIndex();
+                int compactedZIndex = batchDTO.getCompactedZIndex(
+                        fromRank + i,
+                        zIndex,
+                        i > 0 ? widgets.get(i - 1).getZIndex() : Integer.MIN_VALUE - 1L,
+                        i < widgets.size() - 1 ? widgets.get(i + 1).getZIndex() : Integer.MAX_VALUE + 1L
+                );
+                if (compactedZIndex != zIndex) {
+                    widgetsRepository.displaceEntity(widget);
+                    widget.markUpdated();
+                    widgetsRepository.placeEntity(widget, compactedZIndex);
+                    invalidateFilteredWidgets(widget);
+                    movedCount++;
+                }
+            }
+            return movedCount;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Allow to get heap accounting of widgets repository. Report is computed under optimistic lock, so it doesn't block
+     * writes unless concurrent write invalidates it.
+     *
+     * @return {@link WidgetsHeapReportDTO}
+     */
+    public WidgetsHeapReportDTO getHeapReport() {
+        return readWithOptimisticLock(widgetsRepository::getHeapReport);
+    }
+
+    /**
+     * Allow to get widgets version. Every mutation is reported to filtered widgets cache, which increments its version.
+     *
+     * @return Widgets version.
+     */
+    @Override
+    public long getVersion() {
+        return filteredWidgetsCache.getVersion();
+    }
+
     /**
      * Allow to clean repository.
      */
     @Override
     public void purge() {
         widgetsRepository.purge();
+        filteredWidgetsCache.invalidateAll();
     }
 }
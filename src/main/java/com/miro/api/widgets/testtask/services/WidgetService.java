@@ -3,8 +3,15 @@ package com.miro.api.widgets.testtask.services;
 import com.miro.api.widgets.testtask.dto.AppLayerDTO;
 import com.miro.api.widgets.testtask.dto.WidgetCreateDTO;
 import com.miro.api.widgets.testtask.dto.WidgetFilterDTO;
+import com.miro.api.widgets.testtask.dto.WidgetReorderDTO;
 import com.miro.api.widgets.testtask.dto.WidgetUpdateDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsBulkCreateDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsCompactionBatchDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsOverlapResponseDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsStackingSummaryDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsTileResponseDTO;
 import com.miro.api.widgets.testtask.entities.WidgetCustomEntity;
+import com.miro.api.widgets.testtask.exceptions.InvalidRequestException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
@@ -25,6 +32,16 @@ public interface WidgetService<Response extends AppLayerDTO> {
      */
     Response createAndSaveWidget(WidgetCreateDTO createDTO) throws IllegalArgumentException;
 
+    /**
+     * Allow to create batch of widgets as one atomic mutation. Existing widgets are shifted the same way as by creating
+     * widgets one by one in ascending z-index order, but every existing widget is shifted once at most.
+     *
+     * @param bulkCreateDTO {@link WidgetsBulkCreateDTO} Batch of widgets. Not {@code null}
+     * @return {@link List<Response>} Just created widgets in batch order.
+     * @throws IllegalArgumentException throws if height or width params of any widget are negative or z-indexes overflow, no widget is created in this case.
+     */
+    List<Response> createAndSaveWidgets(WidgetsBulkCreateDTO bulkCreateDTO) throws IllegalArgumentException;
+
     /**
      * Allow to find widget by its ID. Returns empty Optional if widget not exists, otherwise returns Optional with widget.
      *
@@ -33,6 +50,14 @@ public interface WidgetService<Response extends AppLayerDTO> {
      */
     Optional<Response> getWidgetById(String id);
 
+    /**
+     * Allow to find many widgets by their IDs at once, as one consistent read.
+     *
+     * @param ids Widgets unique IDs.
+     * @return {@link List<Optional<Response>>} Widget or empty Optional for every ID, in order of IDs.
+     */
+    List<Optional<Response>> getWidgetsByIds(List<String> ids);
+
     /**
      * Allow to update widget by its ID.
      *
@@ -43,6 +68,16 @@ public interface WidgetService<Response extends AppLayerDTO> {
      */
     Optional<Response> updateWidgetById(String id, WidgetUpdateDTO updateDTO) throws IllegalArgumentException;
 
+    /**
+     * Allow to move widgets in stacking order as one mutation: to front, to back, right above or right below target widget.
+     * Widgets keep their relative order and take consecutive z-indexes, other widgets are shifted only if these z-indexes are occupied.
+     *
+     * @param reorderDTO {@link WidgetReorderDTO} Object with widgets IDs, position and target widget ID. Not {@code null}
+     * @return {@link Optional<List<Response>>} Moved widgets sorted ascend by z-index, empty Optional if any widget or target widget doesn't exist.
+     * @throws IllegalArgumentException throws if target widget isn't set for relative position, target widget is moved too or z-indexes overflow.
+     */
+    Optional<List<Response>> reorderWidgets(WidgetReorderDTO reorderDTO) throws IllegalArgumentException;
+
     /**
      * @param id Allow to delete widget by its unique ID.
      * @return True if widget was deleted, false if widget with such id doesn't exist.
@@ -74,15 +109,125 @@ public interface WidgetService<Response extends AppLayerDTO> {
      */
     Page<Response> getFilteredWidgets(Pageable pageRequest, WidgetFilterDTO filterDTO);
 
+    /**
+     * Allow to count filtered widgets without getting them.
+     *
+     * @param filterDTO DTO {@link WidgetFilterDTO} with filtering properties.
+     * @return Count of filtered widgets.
+     */
+    long countFilteredWidgets(WidgetFilterDTO filterDTO);
+
+    /**
+     * Allow to get topmost widgets which contain point, sorted descend by z-index.
+     *
+     * @param x     Point x-coordinate.
+     * @param y     Point y-coordinate.
+     * @param limit Max widgets count. Min value is 1.
+     * @return {@link List<Response>}
+     */
+    List<Response> getWidgetsAtPoint(int x, int y, int limit);
+
+    /**
+     * Allow to get widgets nearest to point. Distance is euclidean distance from point to widget rectangle,
+     * so widgets containing point have zero distance.
+     *
+     * @param x Point x-coordinate.
+     * @param y Point y-coordinate.
+     * @param k Max widgets count. Min value is 1.
+     * @return {@link List<Response>} Nearest widgets, sorted ascend by distance, then descend by z-index.
+     */
+    List<Response> getNearestWidgets(int x, int y, int k);
+
+    /**
+     * Allow to get widgets modified since time, optionally filtered by rectangle.
+     *
+     * @param updatedSince Modification time lower bound (inclusive), epoch seconds.
+     * @param filterDTO    DTO {@link WidgetFilterDTO} with filtering properties, or null to get widgets from the whole board.
+     * @return {@link List<Response>} Modified widgets, sorted ascend by modification time, then by z-index.
+     */
+    List<Response> getUpdatedWidgets(long updatedSince, WidgetFilterDTO filterDTO);
+
+    /**
+     * Allow to get level-of-detail tiles of widgets: per grid cell widgets count, bounding box and topmost widgets ids.
+     * Widget belongs to the cell of its center, widgets which are too small on zoom level are culled.
+     *
+     * @param filterDTO DTO {@link WidgetFilterDTO} with rectangle which tiles cells intersect.
+     * @param zoom      Zoom level. Min value is 0.
+     * @param top       Count of topmost widgets ids in every tile. Min value is 0.
+     * @return {@link List<WidgetsTileResponseDTO>} Not empty tiles sorted by cell y, then by cell x.
+     * @throws IllegalArgumentException throws if zoom level doesn't exist or rectangle has too many cells.
+     */
+    List<WidgetsTileResponseDTO> getTiles(WidgetFilterDTO filterDTO, int zoom, int top) throws IllegalArgumentException;
+
+    /**
+     * Allow to get widgets which rectangles intersect (inclusive) rectangle of widget with ID.
+     *
+     * @param id Widget unique ID.
+     * @return {@link Optional<List<Response>>} Overlapping widgets sorted ascend by z-index, empty Optional if widget doesn't exist.
+     */
+    Optional<List<Response>> getOverlappingWidgets(String id);
+
+    /**
+     * Allow to get all pairs of widgets which rectangles intersect (inclusive).
+     *
+     * @return {@link List<WidgetsOverlapResponseDTO>} Pairs sorted ascend by lower widget z-index, then by upper widget z-index.
+     */
+    List<WidgetsOverlapResponseDTO> getOverlappingWidgetsPairs();
+
+    /**
+     * Allow to get stacking order summary as one consistent read: widgets count, the lowest and the highest z-index.
+     *
+     * @return {@link WidgetsStackingSummaryDTO}
+     */
+    WidgetsStackingSummaryDTO getStackingSummary();
+
+    /**
+     * Allow to move batch of widgets towards their compacted z-indexes as one short mutation. Widgets are moved between
+     * their neighbours only, so stacking order isn't changed. Moved widgets are marked as updated.
+     *
+     * @param batchDTO {@link WidgetsCompactionBatchDTO} Compaction batch.
+     * @return Count of moved widgets.
+     */
+    int compactStackingOrder(WidgetsCompactionBatchDTO batchDTO);
+
     default void checkWidthAndHeightForNegativeValue(int height, int width) throws IllegalArgumentException {
         if (height < 0) {
-            throw new IllegalArgumentException("Widget height can't be negative.");
+            throw new InvalidRequestException("Widget height can't be negative.");
         }
         if (width < 0) {
-            throw new IllegalArgumentException("Widget width can't be negative.");
+            throw new InvalidRequestException("Widget width can't be negative.");
+        }
+    }
+
+    default void checkBulkCreate(WidgetsBulkCreateDTO bulkCreateDTO) throws IllegalArgumentException {
+        for (WidgetCreateDTO createDTO : bulkCreateDTO.getWidgets()) {
+            checkWidthAndHeightForNegativeValue(createDTO.getHeight(), createDTO.getWidth());
+        }
+        if (bulkCreateDTO.getMaxStackedZIndex() > Integer.MAX_VALUE) {
+            throw new InvalidRequestException("Widgets z-indexes can't be greater than " + Integer.MAX_VALUE + ".");
         }
     }
 
+    default void checkReorderTarget(WidgetReorderDTO reorderDTO) throws IllegalArgumentException {
+        if (!reorderDTO.getPosition().isRelative()) {
+            return;
+        }
+        if (reorderDTO.getTargetId() == null) {
+            throw new InvalidRequestException("Target widget id is required to move widgets above or below it.");
+        }
+        if (reorderDTO.getIds().contains(reorderDTO.getTargetId())) {
+            throw new InvalidRequestException("Target widget can't be moved relative to itself.");
+        }
+    }
+
+    /**
+     * Allow to get widgets version. Version is changed by every mutation, after mutation is visible to readers,
+     * so reads started with the same version can share result.
+     *
+     * @return Widgets version.
+     */
+    long getVersion();
+
     /**
      * Allow to clean repository.
      */
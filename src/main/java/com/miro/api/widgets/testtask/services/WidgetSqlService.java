@@ -1,21 +1,42 @@
 package com.miro.api.widgets.testtask.services;
 
+import com.miro.api.widgets.testtask.config.TilesConfig;
 import com.miro.api.widgets.testtask.dto.WidgetCreateDTO;
 import com.miro.api.widgets.testtask.dto.WidgetFilterDTO;
+import com.miro.api.widgets.testtask.dto.WidgetFilterMode;
+import com.miro.api.widgets.testtask.dto.WidgetReorderDTO;
 import com.miro.api.widgets.testtask.dto.WidgetResponseDTO;
 import com.miro.api.widgets.testtask.dto.WidgetUpdateDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsBulkCreateDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsCompactionBatchDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsOverlapResponseDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsStackingSummaryDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsTileResponseDTO;
 import com.miro.api.widgets.testtask.entities.WidgetJpaEntity;
 import com.miro.api.widgets.testtask.repositories.SqlWidgetEntityRepository;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -25,6 +46,15 @@ public class WidgetSqlService implements WidgetService<WidgetResponseDTO> {
 
     private final SqlWidgetEntityRepository widgetsRepository;
 
+    private final TilesConfig tilesConfig;
+
+    private final FilteredWidgetsCache filteredWidgetsCache;
+
+    /**
+     * Half size of the first square searched around point by nearest widgets query.
+     */
+    private static final long NEAREST_INITIAL_RADIUS = 256;
+
     private WidgetResponseDTO convertWidgetEntityToWidgetResponseDTO(WidgetJpaEntity widgetEntity) {
         return new WidgetResponseDTO(
                 widgetEntity.getId(),
@@ -37,8 +67,43 @@ public class WidgetSqlService implements WidgetService<WidgetResponseDTO> {
         );
     }
 
-    public WidgetSqlService(SqlWidgetEntityRepository widgetsRepository) {
+    /**
+     * Allow to convert widgets to response DTOs. Widgets z-indexes and shift times are derived by repository first.
+     *
+     * @param widgets {@link List<WidgetJpaEntity>} Stored widgets.
+     * @return {@link List<WidgetResponseDTO>} Response DTOs in order of widgets.
+     */
+    private List<WidgetResponseDTO> convertWidgetEntitiesToWidgetResponseDTOs(List<WidgetJpaEntity> widgets) {
+        return widgetsRepository
+                .resolve(widgets)
+                .stream()
+                .map(this::convertWidgetEntityToWidgetResponseDTO)
+                .collect(Collectors.toList());
+    }
+
+    public WidgetSqlService(SqlWidgetEntityRepository widgetsRepository, TilesConfig tilesConfig, FilteredWidgetsCache filteredWidgetsCache) {
         this.widgetsRepository = widgetsRepository;
+        this.tilesConfig = tilesConfig;
+        this.filteredWidgetsCache = filteredWidgetsCache;
+    }
+
+    /**
+     * Allow to run cached filtered widgets pages invalidation after current transaction commit, so page computed
+     * from not yet committed state can't be cached after invalidation.
+     *
+     * @param invalidation Cache invalidation.
+     */
+    private void invalidateFilteredWidgetsAfterCommit(Runnable invalidation) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidation.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidation.run();
+            }
+        });
     }
 
     @Override
@@ -49,17 +114,89 @@ public class WidgetSqlService implements WidgetService<WidgetResponseDTO> {
             createDTO.setZIndex(widgetsRepository.getMaxIndex() + 1);
         }
         WidgetJpaEntity widgetEntity = new WidgetJpaEntity(createDTO);
-        if (widgetsRepository.isNeedToShift(widgetEntity.getZIndex())) {
-            widgetsRepository.shiftUpwards(widgetEntity.getZIndex());
+        int zIndex = widgetEntity.getZIndex();
+        boolean isShifted = widgetsRepository.isNeedToShift(zIndex);
+        if (isShifted) {
+            widgetsRepository.shiftUpwards(zIndex);
         }
+        widgetsRepository.place(widgetEntity, zIndex);
         widgetEntity = widgetsRepository.save(widgetEntity);
-        return convertWidgetEntityToWidgetResponseDTO(widgetEntity);
+        widgetEntity.setZIndex(zIndex);
+        WidgetResponseDTO widget = convertWidgetEntityToWidgetResponseDTO(widgetEntity);
+        invalidateFilteredWidgetsAfterCommit(() -> {
+            if (isShifted) {
+                filteredWidgetsCache.invalidateZIndexes(zIndex, Integer.MAX_VALUE);
+            }
+            filteredWidgetsCache.invalidate(widget.getXCoordinate(), widget.getYCoordinate(), widget.getXCoordinate() + widget.getWidth(), widget.getYCoordinate() + widget.getHeight());
+        });
+        return widget;
     }
 
+    /**
+     * Allow to create batch of widgets in one transaction. Ranges of stacked z-indexes are freed by one pass,
+     * then widgets are placed by one pass and inserted by one JDBC batch, so rows of existing widgets are updated once at most.
+     *
+     * @param bulkCreateDTO {@link WidgetsBulkCreateDTO} Batch of widgets.
+     * @return {@link List<WidgetResponseDTO>} Just created widgets in batch order.
+     * @throws IllegalArgumentException throws if height or width params of any widget are negative or z-indexes overflow.
+     */
     @Override
-    @Transactional(readOnly = true)
+    @Transactional
+    public List<WidgetResponseDTO> createAndSaveWidgets(WidgetsBulkCreateDTO bulkCreateDTO) throws IllegalArgumentException {
+        checkBulkCreate(bulkCreateDTO);
+        OptionalInt shiftedFromIndex = widgetsRepository.shiftUpwards(bulkCreateDTO.getRangesFromIndexes(), bulkCreateDTO.getRangesCounts());
+        Map<WidgetCreateDTO, WidgetJpaEntity> widgets = new IdentityHashMap<>();
+        List<WidgetJpaEntity> stackedWidgets = new ArrayList<>();
+        for (WidgetCreateDTO createDTO : bulkCreateDTO.getStackedWidgets()) {
+            stackedWidgets.add(widgets.computeIfAbsent(createDTO, WidgetJpaEntity::new));
+        }
+        widgetsRepository.placeAll(stackedWidgets);
+
+        List<WidgetJpaEntity> topWidgets = new ArrayList<>();
+        int topIndex = bulkCreateDTO.getTopWidgets().isEmpty() ? 0 : widgetsRepository.getMaxIndex();
+        for (WidgetCreateDTO createDTO : bulkCreateDTO.getTopWidgets()) {
+            createDTO.setZIndex(++topIndex);
+            topWidgets.add(widgets.computeIfAbsent(createDTO, WidgetJpaEntity::new));
+        }
+        widgetsRepository.placeAll(topWidgets);
+
+        List<WidgetResponseDTO> createdWidgets = bulkCreateDTO
+                .getWidgets()
+                .stream()
+                .map(createDTO -> convertWidgetEntityToWidgetResponseDTO(widgets.get(createDTO)))
+                .collect(Collectors.toList());
+        invalidateFilteredWidgetsAfterCommit(() -> {
+            shiftedFromIndex.ifPresent(zIndex -> filteredWidgetsCache.invalidateZIndexes(zIndex, Integer.MAX_VALUE));
+            createdWidgets.forEach(widget -> filteredWidgetsCache.invalidate(widget.getXCoordinate(), widget.getYCoordinate(), widget.getXCoordinate() + widget.getWidth(), widget.getYCoordinate() + widget.getHeight()));
+        });
+        return createdWidgets;
+    }
+
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.SERIALIZABLE)
     public Optional<WidgetResponseDTO> getWidgetById(String id) {
-        return widgetsRepository.findById(id).map(this::convertWidgetEntityToWidgetResponseDTO);
+        return widgetsRepository.findById(id).map(widget -> convertWidgetEntitiesToWidgetResponseDTOs(List.of(widget)).get(0));
+    }
+
+    /**
+     * Allow to find many widgets by their IDs via single query, then restore order of IDs.
+     *
+     * @param ids Widgets unique IDs.
+     * @return {@link List<Optional<WidgetResponseDTO>>} Widget or empty Optional for every ID, in order of IDs.
+     */
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.SERIALIZABLE)
+    public List<Optional<WidgetResponseDTO>> getWidgetsByIds(List<String> ids) {
+        Map<String, WidgetResponseDTO> widgetsByIds = new HashMap<>();
+        List<WidgetJpaEntity> widgets = new ArrayList<>();
+        widgetsRepository.findAllById(new HashSet<>(ids)).forEach(widgets::add);
+        for (WidgetResponseDTO widget : convertWidgetEntitiesToWidgetResponseDTOs(widgets)) {
+            widgetsByIds.put(widget.getId(), widget);
+        }
+        return ids
+                .stream()
+                .map(id -> Optional.ofNullable(widgetsByIds.get(id)))
+                .collect(Collectors.toList());
     }
 
     @Override
@@ -68,62 +205,396 @@ public class WidgetSqlService implements WidgetService<WidgetResponseDTO> {
         checkWidthAndHeightForNegativeValue(updateDTO.getHeight(), updateDTO.getWidth());
         Optional<WidgetJpaEntity> widgetEntity = widgetsRepository.findById(id);
         return widgetEntity.map(widget -> {
+            int oldX1 = widget.getXCoordinate();
+            int oldY1 = widget.getYCoordinate();
+            int oldX2 = oldX1 + widget.getWidth();
+            int oldY2 = oldY1 + widget.getHeight();
             widget.setXCoordinate(updateDTO.getXCoordinate());
             widget.setYCoordinate(updateDTO.getYCoordinate());
             widget.setWidth(updateDTO.getWidth());
             widget.setHeight(updateDTO.getHeight());
-            widget.setZIndex(updateDTO.getZIndex());
             widget.markUpdated();
-            if (widgetsRepository.isNeedToShift(updateDTO.getZIndex(), id)) {
+            widgetsRepository.displace(widget);
+            boolean isShifted = widgetsRepository.isNeedToShift(updateDTO.getZIndex(), id);
+            if (isShifted) {
                 widgetsRepository.shiftUpwards(updateDTO.getZIndex());
             }
+            widgetsRepository.place(widget, updateDTO.getZIndex());
             widgetsRepository.save(widget);
-            return convertWidgetEntityToWidgetResponseDTO(widget);
+            WidgetResponseDTO updatedWidget = convertWidgetEntityToWidgetResponseDTO(widget);
+            invalidateFilteredWidgetsAfterCommit(() -> {
+                if (isShifted) {
+                    filteredWidgetsCache.invalidateZIndexes(updateDTO.getZIndex(), Integer.MAX_VALUE);
+                }
+                filteredWidgetsCache.invalidate(oldX1, oldY1, oldX2, oldY2);
+                filteredWidgetsCache.invalidate(updatedWidget.getXCoordinate(), updatedWidget.getYCoordinate(), updatedWidget.getXCoordinate() + updatedWidget.getWidth(), updatedWidget.getYCoordinate() + updatedWidget.getHeight());
+            });
+            return updatedWidget;
+        });
+    }
+
+    /**
+     * Allow to move widgets in stacking order in single transaction, so stacking order lock is taken once.
+     * Widgets rows aren't re-inserted: they are displaced, then placed by consecutive z-indexes,
+     * and every occupied z-index is freed by shift, which changes a few rows.
+     *
+     * @param reorderDTO {@link WidgetReorderDTO} Object with widgets IDs, position and target widget ID.
+     * @return {@link Optional<List<WidgetResponseDTO>>} Moved widgets sorted ascend by z-index, empty Optional if any widget or target widget doesn't exist.
+     * @throws IllegalArgumentException throws if target widget isn't set for relative position, target widget is moved too or z-indexes overflow.
+     */
+    @Override
+    @Transactional
+    public Optional<List<WidgetResponseDTO>> reorderWidgets(WidgetReorderDTO reorderDTO) throws IllegalArgumentException {
+        checkReorderTarget(reorderDTO);
+        Set<String> ids = new HashSet<>(reorderDTO.getIds());
+        List<WidgetJpaEntity> widgets = new ArrayList<>();
+        widgetsRepository.findAllById(ids).forEach(widgets::add);
+        if (widgets.size() != ids.size()) {
+            return Optional.empty();
+        }
+        int targetIndex = 0;
+        if (reorderDTO.getPosition().isRelative()) {
+            Optional<WidgetJpaEntity> target = widgetsRepository.findById(reorderDTO.getTargetId());
+            if (target.isEmpty()) {
+                return Optional.empty();
+            }
+            targetIndex = widgetsRepository.resolve(List.of(target.get())).get(0).getZIndex();
+        }
+        widgetsRepository.resolve(widgets);
+        widgets.sort(Comparator.comparingInt(WidgetJpaEntity::getZIndex));
+        int fallbackIndex = widgets.get(0).getZIndex();
+
+        widgets.forEach(widgetsRepository::displace);
+        int startIndex = widgetsRepository.getReorderStartIndex(reorderDTO.getPosition(), widgets.size(), targetIndex, fallbackIndex);
+        long shiftedFromIndex = Long.MAX_VALUE;
+        for (int i = 0; i < widgets.size(); i++) {
+            int zIndex = startIndex + i;
+            if (widgetsRepository.isNeedToShift(zIndex)) {
+                widgetsRepository.shiftUpwards(zIndex);
+                shiftedFromIndex = Math.min(shiftedFromIndex, zIndex);
+            }
+            WidgetJpaEntity widget = widgets.get(i);
+            widget.markUpdated();
+            widgetsRepository.place(widget, zIndex);
+        }
+
+        List<WidgetResponseDTO> movedWidgets = widgets
+                .stream()
+                .map(this::convertWidgetEntityToWidgetResponseDTO)
+                .collect(Collectors.toList());
+        long shiftedFrom = shiftedFromIndex;
+        invalidateFilteredWidgetsAfterCommit(() -> {
+            if (shiftedFrom != Long.MAX_VALUE) {
+                filteredWidgetsCache.invalidateZIndexes((int) shiftedFrom, Integer.MAX_VALUE);
+            }
+            movedWidgets.forEach(widget -> filteredWidgetsCache.invalidate(widget.getXCoordinate(), widget.getYCoordinate(), widget.getXCoordinate() + widget.getWidth(), widget.getYCoordinate() + widget.getHeight()));
         });
+        return Optional.of(movedWidgets);
     }
 
     @Override
     @Transactional
     public boolean deleteWidgetById(String id) {
         Optional<WidgetJpaEntity> widgetEntity = widgetsRepository.findById(id);
+        widgetEntity.ifPresent(widgetsRepository::displace);
         widgetsRepository.deleteById(id);
+        widgetEntity.ifPresent(widget -> {
+            int x1 = widget.getXCoordinate();
+            int y1 = widget.getYCoordinate();
+            int x2 = x1 + widget.getWidth();
+            int y2 = y1 + widget.getHeight();
+            invalidateFilteredWidgetsAfterCommit(() -> filteredWidgetsCache.invalidate(x1, y1, x2, y2));
+        });
         return widgetEntity.isPresent();
     }
 
     @Override
-    @Transactional(readOnly = true)
+    @Transactional(readOnly = true, isolation = Isolation.SERIALIZABLE)
     public List<WidgetResponseDTO> getAllWidgets() {
-        return StreamSupport.stream(widgetsRepository.findAll().spliterator(), false)
-                .map(this::convertWidgetEntityToWidgetResponseDTO).collect(Collectors.toList());
+        return convertWidgetEntitiesToWidgetResponseDTOs(StreamSupport.stream(widgetsRepository.findAll().spliterator(), false).collect(Collectors.toList()));
     }
 
     @Override
-    @Transactional(readOnly = true)
+    @Transactional(readOnly = true, isolation = Isolation.SERIALIZABLE)
     public Page<WidgetResponseDTO> getAllWidgets(Pageable pageRequest) {
         Page<WidgetJpaEntity> widgetJpaEntityPage = widgetsRepository.findAll(pageRequest);
-        List<WidgetResponseDTO> responseDTOList = widgetJpaEntityPage.getContent().stream().map(this::convertWidgetEntityToWidgetResponseDTO).collect(Collectors.toList());
+        List<WidgetResponseDTO> responseDTOList = convertWidgetEntitiesToWidgetResponseDTOs(widgetJpaEntityPage.getContent());
         return new PageImpl<>(responseDTOList, pageRequest, widgetJpaEntityPage.getTotalElements());
     }
 
     @Override
-    @Transactional(readOnly = true)
+    @Transactional(readOnly = true, isolation = Isolation.SERIALIZABLE)
     public Page<WidgetResponseDTO> getFilteredWidgets(Pageable pageRequest, WidgetFilterDTO filterDTO) {
-        Page<WidgetJpaEntity> widgetJpaEntityPage = widgetsRepository.getFilteredEntities(
-                filterDTO.getX1(),
-                filterDTO.getY1(),
-                filterDTO.getX2(),
-                filterDTO.getY2(),
-                pageRequest
-        );
-        List<WidgetResponseDTO> responseDTOList = widgetJpaEntityPage.getContent().stream().map(this::convertWidgetEntityToWidgetResponseDTO).collect(Collectors.toList());
+        Page<WidgetResponseDTO> cachedPage = filteredWidgetsCache.get(pageRequest, filterDTO);
+        if (cachedPage != null) {
+            return cachedPage;
+        }
+        long cacheVersion = filteredWidgetsCache.getVersion();
+        Page<WidgetResponseDTO> widgetsPage = filterDTO.isExactCount()
+                ? getFilteredWidgetsWithExactCount(pageRequest, filterDTO)
+                : getFilteredWidgetsWithLowerBoundCount(pageRequest, filterDTO);
+        filteredWidgetsCache.put(pageRequest, filterDTO, widgetsPage, cacheVersion);
+        return widgetsPage;
+    }
+
+    private Page<WidgetResponseDTO> getFilteredWidgetsWithExactCount(Pageable pageRequest, WidgetFilterDTO filterDTO) {
+        Page<WidgetJpaEntity> widgetJpaEntityPage = filterDTO.getMode() == WidgetFilterMode.INTERSECTS
+                ? widgetsRepository.getIntersectingEntities(filterDTO.getX1(), filterDTO.getY1(), filterDTO.getX2(), filterDTO.getY2(), pageRequest)
+                : widgetsRepository.getFilteredEntities(filterDTO.getX1(), filterDTO.getY1(), filterDTO.getX2(), filterDTO.getY2(), pageRequest);
+        List<WidgetResponseDTO> responseDTOList = convertWidgetEntitiesToWidgetResponseDTOs(widgetJpaEntityPage.getContent());
         return new PageImpl<>(responseDTOList, pageRequest, widgetJpaEntityPage.getTotalElements());
     }
 
+    /**
+     * Allow to get filtered widgets page without count query. Only one widget after page is fetched,
+     * so total elements is lower bound: widgets before page, widgets on page and one more if next page exists.
+     * If page is past the last widget, widgets before page aren't known, so they are counted by count query.
+     *
+     * @param pageRequest {@link Pageable} any object that implements Pageable interface.
+     * @param filterDTO   DTO {@link WidgetFilterDTO} with filtering properties.
+     * @return {@link Page<WidgetResponseDTO>}
+     */
+    private Page<WidgetResponseDTO> getFilteredWidgetsWithLowerBoundCount(Pageable pageRequest, WidgetFilterDTO filterDTO) {
+        Slice<WidgetJpaEntity> widgetJpaEntitySlice = filterDTO.getMode() == WidgetFilterMode.INTERSECTS
+                ? widgetsRepository.getIntersectingEntitiesSlice(filterDTO.getX1(), filterDTO.getY1(), filterDTO.getX2(), filterDTO.getY2(), pageRequest)
+                : widgetsRepository.getFilteredEntitiesSlice(filterDTO.getX1(), filterDTO.getY1(), filterDTO.getX2(), filterDTO.getY2(), pageRequest);
+        List<WidgetResponseDTO> responseDTOList = convertWidgetEntitiesToWidgetResponseDTOs(widgetJpaEntitySlice.getContent());
+        long count = responseDTOList.isEmpty() && pageRequest.getOffset() > 0
+                ? countFilteredWidgets(filterDTO)
+                : pageRequest.getOffset() + responseDTOList.size() + (widgetJpaEntitySlice.hasNext() ? 1 : 0);
+        return new PageImpl<>(responseDTOList, pageRequest, count);
+    }
+
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.SERIALIZABLE)
+    public long countFilteredWidgets(WidgetFilterDTO filterDTO) {
+        return filterDTO.getMode() == WidgetFilterMode.INTERSECTS
+                ? widgetsRepository.countIntersectingEntities(filterDTO.getX1(), filterDTO.getY1(), filterDTO.getX2(), filterDTO.getY2())
+                : widgetsRepository.countFilteredEntities(filterDTO.getX1(), filterDTO.getY1(), filterDTO.getX2(), filterDTO.getY2());
+    }
+
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.SERIALIZABLE)
+    public List<WidgetResponseDTO> getWidgetsAtPoint(int x, int y, int limit) {
+        return convertWidgetEntitiesToWidgetResponseDTOs(widgetsRepository.findEntitiesAtPoint(x, y, PageRequest.of(0, limit)));
+    }
+
+    /**
+     * Allow to get widgets nearest to point via bounded queries. Every query takes k nearest widgets intersecting square
+     * around point, so intersects filtering index is used. Widgets outside of square are farther than its half size,
+     * so if k-th found widget is not farther, result is final. Otherwise square is doubled until it covers all widgets.
+     *
+     * @param x Point x-coordinate.
+     * @param y Point y-coordinate.
+     * @param k Max widgets count. Min value is 1.
+     * @return {@link List<WidgetResponseDTO>} Nearest widgets, sorted ascend by distance, then descend by z-index.
+     */
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.SERIALIZABLE)
+    public List<WidgetResponseDTO> getNearestWidgets(int x, int y, int k) {
+        List<WidgetJpaEntity> widgets;
+        for (long radius = NEAREST_INITIAL_RADIUS; ; radius *= 2) {
+            int x1 = clampToInt(x - radius);
+            int y1 = clampToInt(y - radius);
+            int x2 = clampToInt(x + radius);
+            int y2 = clampToInt(y + radius);
+            widgets = widgetsRepository.findNearestEntities(x, y, x1, y1, x2, y2, k);
+            boolean isCoveringAllWidgets = x1 == Integer.MIN_VALUE && y1 == Integer.MIN_VALUE && x2 == Integer.MAX_VALUE && y2 == Integer.MAX_VALUE;
+            if (isCoveringAllWidgets || (widgets.size() == k && getDistanceSquared(widgets.get(k - 1), x, y) <= (double) radius * radius)) {
+                break;
+            }
+        }
+        return convertWidgetEntitiesToWidgetResponseDTOs(widgets);
+    }
+
+    private static double getDistanceSquared(WidgetJpaEntity widget, int x, int y) {
+        long dx = Math.max(0, Math.max((long) widget.getXCoordinate() - x, (long) x - widget.getXCoordinate() - widget.getWidth()));
+        long dy = Math.max(0, Math.max((long) widget.getYCoordinate() - y, (long) y - widget.getYCoordinate() - widget.getHeight()));
+        return (double) dx * dx + (double) dy * dy;
+    }
+
+    /**
+     * Allow to get widgets modified since time via updated at index, filtered by rectangle if it is set.
+     * Widgets shifted since time are widgets above the lowest stacking key shifted since time, so they are found by key range.
+     *
+     * @param updatedSince Modification time lower bound (inclusive), epoch seconds.
+     * @param filterDTO    DTO {@link WidgetFilterDTO} with filtering properties, or null to get widgets from the whole board.
+     * @return {@link List<WidgetResponseDTO>} Modified widgets, sorted ascend by modification time, then by z-index.
+     */
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.SERIALIZABLE)
+    public List<WidgetResponseDTO> getUpdatedWidgets(long updatedSince, WidgetFilterDTO filterDTO) {
+        long shiftedKeysFrom = widgetsRepository.getShiftedKeysFrom(updatedSince);
+        List<WidgetJpaEntity> widgets;
+        if (filterDTO == null) {
+            widgets = widgetsRepository.findUpdatedEntities(updatedSince, shiftedKeysFrom);
+        } else if (filterDTO.getMode() == WidgetFilterMode.INTERSECTS) {
+            widgets = widgetsRepository.findUpdatedIntersectingEntities(updatedSince, shiftedKeysFrom, filterDTO.getX1(), filterDTO.getY1(), filterDTO.getX2(), filterDTO.getY2());
+        } else {
+            widgets = widgetsRepository.findUpdatedFilteredEntities(updatedSince, shiftedKeysFrom, filterDTO.getX1(), filterDTO.getY1(), filterDTO.getX2(), filterDTO.getY2());
+        }
+        widgetsRepository.resolve(widgets);
+        widgets.sort(Comparator.comparingLong(WidgetJpaEntity::getUpdatedAt).thenComparingLong(WidgetJpaEntity::getZKey));
+        return widgets
+                .stream()
+                .map(this::convertWidgetEntityToWidgetResponseDTO)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.SERIALIZABLE)
+    public Optional<List<WidgetResponseDTO>> getOverlappingWidgets(String id) {
+        if (!widgetsRepository.existsById(id)) {
+            return Optional.empty();
+        }
+        return Optional.of(convertWidgetEntitiesToWidgetResponseDTOs(widgetsRepository.findOverlappingEntities(id)));
+    }
+
+    /**
+     * Allow to get all pairs of overlapping widgets via self-join. Every widget is joined with widgets
+     * above it only, so pairs aren't duplicated and join is driven by intersects filtering index.
+     *
+     * @return {@link List<WidgetsOverlapResponseDTO>} Pairs sorted ascend by lower widget z-index, then by upper widget z-index.
+     */
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.SERIALIZABLE)
+    public List<WidgetsOverlapResponseDTO> getOverlappingWidgetsPairs() {
+        return widgetsRepository
+                .findOverlappingEntitiesPairs()
+                .stream()
+                .map(pair -> new WidgetsOverlapResponseDTO(((WidgetJpaEntity) pair[0]).getId(), ((WidgetJpaEntity) pair[1]).getId()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Allow to get level-of-detail tiles via two grouped queries: cells aggregates and ranked topmost widgets ids.
+     * Widgets are pre-filtered by intersection with cells rectangle, so intersects filtering index is used.
+     *
+     * @param filterDTO DTO {@link WidgetFilterDTO} with rectangle which tiles cells intersect.
+     * @param zoom      Zoom level. Min value is 0.
+     * @param top       Count of topmost widgets ids in every tile. Min value is 0.
+     * @return {@link List<WidgetsTileResponseDTO>} Not empty tiles sorted by cell y, then by cell x.
+     * @throws IllegalArgumentException throws if zoom level doesn't exist or rectangle has too many cells.
+     */
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.SERIALIZABLE)
+    public List<WidgetsTileResponseDTO> getTiles(WidgetFilterDTO filterDTO, int zoom, int top) throws IllegalArgumentException {
+        int cellSize = tilesConfig.getCellSize(zoom);
+        long fromCellX = Math.floorDiv(filterDTO.getX1(), cellSize);
+        long fromCellY = Math.floorDiv(filterDTO.getY1(), cellSize);
+        long toCellX = Math.floorDiv(filterDTO.getX2(), cellSize);
+        long toCellY = Math.floorDiv(filterDTO.getY2(), cellSize);
+        tilesConfig.checkCellsCount(fromCellX, fromCellY, toCellX, toCellY);
+
+        int x1 = clampToInt(fromCellX * cellSize);
+        int y1 = clampToInt(fromCellY * cellSize);
+        int x2 = clampToInt((toCellX + 1) * cellSize - 1);
+        int y2 = clampToInt((toCellY + 1) * cellSize - 1);
+        long cellPixels = tilesConfig.getCellPixels();
+        long minVisibleSize = (long) tilesConfig.getMinWidgetPixels() * cellSize;
+        int topWidgetsCount = Math.min(top, tilesConfig.getTopWidgetsCount());
+
+        Map<Long, List<String>> topmostIds = new HashMap<>();
+        if (topWidgetsCount > 0) {
+            widgetsRepository
+                    .getTilesTopmostIds(x1, y1, x2, y2, fromCellX, fromCellY, toCellX, toCellY, cellSize, cellPixels, minVisibleSize, topWidgetsCount)
+                    .forEach(row -> topmostIds
+                            .computeIfAbsent(getCellKey(row[0], row[1]), key -> new ArrayList<>())
+                            .add((String) row[2]));
+        }
+        return widgetsRepository
+                .getTiles(x1, y1, x2, y2, fromCellX, fromCellY, toCellX, toCellY, cellSize, cellPixels, minVisibleSize)
+                .stream()
+                .map(row -> new WidgetsTileResponseDTO(
+                        ((Number) row[0]).intValue(),
+                        ((Number) row[1]).intValue(),
+                        ((Number) row[2]).intValue(),
+                        ((Number) row[3]).intValue(),
+                        ((Number) row[4]).intValue(),
+                        ((Number) row[5]).intValue(),
+                        ((Number) row[6]).intValue(),
+                        topmostIds.getOrDefault(getCellKey(row[0], row[1]), List.of())
+                ))
+                .collect(Collectors.toList());
+    }
+
+    private static long getCellKey(Object cellX, Object cellY) {
+        return (((Number) cellX).longValue() << 32) | (((Number) cellY).longValue() & 0xffffffffL);
+    }
+
+    private static int clampToInt(long value) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    @Override
+    @Transactional(readOnly = true, isolation = Isolation.SERIALIZABLE)
+    public WidgetsStackingSummaryDTO getStackingSummary() {
+        OptionalInt minZIndex = widgetsRepository.getCeilingIndex(Integer.MIN_VALUE);
+        return new WidgetsStackingSummaryDTO(
+                (int) widgetsRepository.count(),
+                minZIndex.orElse(0),
+                minZIndex.isPresent() ? widgetsRepository.getMaxIndex() : 0
+        );
+    }
+
+    /**
+     * Allow to move batch of widgets towards their compacted z-indexes in short transaction.
+     * Widgets rows aren't re-inserted, only stacking keys and weights of moved widgets and their next widgets are changed.
+     *
+     * @param batchDTO {@link WidgetsCompactionBatchDTO} Compaction batch.
+     * @return Count of moved widgets.
+     */
+    @Override
+    @Transactional
+    public int compactStackingOrder(WidgetsCompactionBatchDTO batchDTO) {
+        int fromRank = Math.max(0, batchDTO.getFromRank() - 1);
+        List<WidgetJpaEntity> widgets = widgetsRepository.findByRank(fromRank, batchDTO.getToRank() + 1 - fromRank);
+        int first = batchDTO.getFromRank() - fromRank;
+        int last = Math.min(widgets.size(), first + batchDTO.getToRank() - batchDTO.getFromRank()) - 1;
+        List<WidgetJpaEntity> movedWidgets = new ArrayList<>();
+        for (int j = 0; j <= last - first; j++) {
+            int i = batchDTO.isRaising() ? last - j : first + j;
+            WidgetJpaEntity widget = widgets.get(i);
+            int zIndex = widget.getZIndex();
+            int compactedZIndex = batchDTO.getCompactedZIndex(
+                    fromRank + i,
+                    zIndex,
+                    i > 0 ? widgets.get(i - 1).getZIndex() : Integer.MIN_VALUE - 1L,
+                    i < widgets.size() - 1 ? widgets.get(i + 1).getZIndex() : Integer.MAX_VALUE + 1L
+            );
+            if (compactedZIndex != zIndex) {
+                widgetsRepository.displace(widget);
+                widget.markUpdated();
+                widgetsRepository.place(widget, compactedZIndex);
+                movedWidgets.add(widget);
+            }
+        }
+        invalidateFilteredWidgetsAfterCommit(() -> movedWidgets.forEach(widget -> filteredWidgetsCache.invalidate(
+                widget.getXCoordinate(),
+                widget.getYCoordinate(),
+                widget.getXCoordinate() + widget.getWidth(),
+                widget.getYCoordinate() + widget.getHeight()
+        )));
+        return movedWidgets.size();
+    }
+
+    /**
+     * Allow to get widgets version. Every mutation is reported to filtered widgets cache, which increments its version.
+     *
+     * @return Widgets version.
+     */
+    @Override
+    public long getVersion() {
+        return filteredWidgetsCache.getVersion();
+    }
+
     /**
      * Allow to clean repository.
      */
     @Override
     public void purge() {
         widgetsRepository.deleteAll();
+        widgetsRepository.clearStackingOrder();
+        filteredWidgetsCache.invalidateAll();
     }
 }
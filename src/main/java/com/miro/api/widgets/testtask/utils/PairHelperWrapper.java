@@ -0,0 +1,24 @@
+package com.miro.api.widgets.testtask.utils;
+
+/**
+ * Pair of entities, for example overlapping widgets.
+ *
+ * @param <T> Any entity.
+ */
+public class PairHelperWrapper<T> {
+    private final T first;
+    private final T second;
+
+    public PairHelperWrapper(T first, T second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    public T getFirst() {
+        return first;
+    }
+
+    public T getSecond() {
+        return second;
+    }
+}
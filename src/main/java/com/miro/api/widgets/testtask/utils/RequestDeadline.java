@@ -0,0 +1,61 @@
+package com.miro.api.widgets.testtask.utils;
+
+import com.miro.api.widgets.testtask.exceptions.DeadlineExceededException;
+
+/**
+ * Deadline of request handled by current thread. Long running reads check it cooperatively and stop with
+ * {@link DeadlineExceededException} when request time budget is spent.
+ */
+public final class RequestDeadline {
+    /**
+     * Deadline of current thread request, {@link System#nanoTime()} based.
+     */
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private RequestDeadline() {
+    }
+
+    /**
+     * Allow to start deadline of current thread request.
+     *
+     * @param timeoutMillis Request time budget in milliseconds.
+     */
+    public static void start(long timeoutMillis) {
+        DEADLINE.set(System.nanoTime() + timeoutMillis * 1_000_000L);
+    }
+
+    /**
+     * Allow to clear deadline of current thread request.
+     */
+    public static void clear() {
+        DEADLINE.remove();
+    }
+
+    /**
+     * @return True if current thread request has deadline, else false.
+     */
+    public static boolean isStarted() {
+        return DEADLINE.get() != null;
+    }
+
+    /**
+     * Allow to get time left until deadline of current thread request.
+     *
+     * @return Time left in nanoseconds, not positive if deadline is exceeded, {@link Long#MAX_VALUE} if there is no deadline.
+     */
+    public static long getRemainingNanos() {
+        Long deadline = DEADLINE.get();
+        return deadline != null ? deadline - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+    /**
+     * Allow to check deadline of current thread request.
+     *
+     * @throws DeadlineExceededException throws if deadline is exceeded.
+     */
+    public static void check() throws DeadlineExceededException {
+        if (getRemainingNanos() <= 0) {
+            throw new DeadlineExceededException();
+        }
+    }
+}
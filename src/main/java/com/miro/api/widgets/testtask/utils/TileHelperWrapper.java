@@ -0,0 +1,62 @@
+package com.miro.api.widgets.testtask.utils;
+
+import java.util.List;
+
+/**
+ * Aggregate of entities which centers are in one grid cell.
+ *
+ * @param <T> Any entity.
+ */
+public class TileHelperWrapper<T> {
+    private final int cellX;
+    private final int cellY;
+    private final int count;
+    private final int minX;
+    private final int minY;
+    private final int maxX;
+    private final int maxY;
+    private final List<T> topmost;
+
+    public TileHelperWrapper(int cellX, int cellY, int count, int minX, int minY, int maxX, int maxY, List<T> topmost) {
+        this.cellX = cellX;
+        this.cellY = cellY;
+        this.count = count;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.topmost = topmost;
+    }
+
+    public int getCellX() {
+        return cellX;
+    }
+
+    public int getCellY() {
+        return cellY;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getMinX() {
+        return minX;
+    }
+
+    public int getMinY() {
+        return minY;
+    }
+
+    public int getMaxX() {
+        return maxX;
+    }
+
+    public int getMaxY() {
+        return maxY;
+    }
+
+    public List<T> getTopmost() {
+        return topmost;
+    }
+}
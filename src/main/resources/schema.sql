@@ -5,9 +5,25 @@ create table if not exists widgets (
     x2_coordinate integer not null,
     y1_coordinate integer not null,
     y2_coordinate integer not null,
-    z_index integer not null,
+    z_key bigint,
+    z_weight bigint not null,
     primary key (id)
 );
 create index if not exists filtering_index on widgets (x1_coordinate, y1_coordinate, x2_coordinate, y2_coordinate);
-create index if not exists unique_index__z_index on widgets (z_index);
+create index if not exists intersects_filtering_index on widgets (x2_coordinate, y2_coordinate, x1_coordinate, y1_coordinate);
+create index if not exists z_key_index on widgets (z_key);
+create index if not exists updated_at_index on widgets (updated_at, z_key);
 
+create table if not exists widget_z_blocks (
+    start_key bigint not null,
+    weight bigint not null,
+    widgets_count integer not null,
+    primary key (start_key)
+);
+merge into widget_z_blocks (start_key, weight, widgets_count) key (start_key) values (-9223372036854775807 - 1, 0, 0);
+
+create table if not exists widget_z_shifts (
+    from_key bigint not null,
+    shifted_at bigint not null,
+    primary key (from_key)
+);
@@ -2,6 +2,7 @@ package com.miro.api.widgets.testtask;
 
 import com.miro.api.widgets.testtask.dto.WidgetResponseDTO;
 import com.miro.api.widgets.testtask.repositories.MapBasedWidgetEntityRepository;
+import com.miro.api.widgets.testtask.services.FilteredWidgetsCache;
 import com.miro.api.widgets.testtask.services.WidgetInternalService;
 import com.miro.api.widgets.testtask.services.WidgetService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,8 +14,11 @@ public class InternalTestConfiguration {
     @Autowired
     private MapBasedWidgetEntityRepository repository;
 
+    @Autowired
+    private FilteredWidgetsCache filteredWidgetsCache;
+
     @Bean
     WidgetService<WidgetResponseDTO> widgetService() {
-        return new WidgetInternalService(repository);
+        return new WidgetInternalService(repository, filteredWidgetsCache);
     }
 }
@@ -1,7 +1,9 @@
 package com.miro.api.widgets.testtask;
 
+import com.miro.api.widgets.testtask.config.TilesConfig;
 import com.miro.api.widgets.testtask.dto.WidgetResponseDTO;
 import com.miro.api.widgets.testtask.repositories.SqlWidgetEntityRepository;
+import com.miro.api.widgets.testtask.services.FilteredWidgetsCache;
 import com.miro.api.widgets.testtask.services.WidgetService;
 import com.miro.api.widgets.testtask.services.WidgetSqlService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,8 +15,14 @@ public class SqlTestConfiguration {
     @Autowired
     private SqlWidgetEntityRepository repository;
 
+    @Autowired
+    private TilesConfig tilesConfig;
+
+    @Autowired
+    private FilteredWidgetsCache filteredWidgetsCache;
+
     @Bean
     WidgetService<WidgetResponseDTO> widgetService() {
-        return new WidgetSqlService(repository);
+        return new WidgetSqlService(repository, tilesConfig, filteredWidgetsCache);
     }
 }
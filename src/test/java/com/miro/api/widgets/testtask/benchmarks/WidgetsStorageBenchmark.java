@@ -0,0 +1,156 @@
+package com.miro.api.widgets.testtask.benchmarks;
+
+import com.miro.api.widgets.testtask.repositories.indexes.StackingOrderTree;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Comparison of widgets z-ordered storages: skip list map used before and stacking order B+-tree.
+ * Run via main method or JMH runner with test classpath, it isn't run by tests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WidgetsStorageBenchmark {
+    /**
+     * Range scan length.
+     */
+    private static final int SCAN_LENGTH = 1000;
+
+    /**
+     * Page size of paged listing.
+     */
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"1000000"})
+    private int count;
+
+    private final ConcurrentSkipListMap<Integer, Object> skipList = new ConcurrentSkipListMap<>(Collections.reverseOrder());
+
+    private final StackingOrderTree<Object> tree = new StackingOrderTree<>();
+
+    private int[] keys;
+
+    private int position;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        keys = new int[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = i * 2;
+            Object widget = new Object();
+            skipList.put(keys[i], widget);
+            tree.put(keys[i], widget, 2, StackingOrderTree.NO_TAG);
+        }
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int key = keys[i];
+            keys[i] = keys[j];
+            keys[j] = key;
+        }
+    }
+
+    private int nextKey() {
+        position = position + 1 == keys.length ? 0 : position + 1;
+        return keys[position];
+    }
+
+    @Benchmark
+    public Object skipListGet() {
+        return skipList.get(nextKey());
+    }
+
+    @Benchmark
+    public Object treeGet() {
+        return tree.get(nextKey());
+    }
+
+    @Benchmark
+    public Object skipListPutAndRemove() {
+        int key = nextKey() + 1;
+        skipList.put(key, keys);
+        return skipList.remove(key);
+    }
+
+    @Benchmark
+    public Object treePutAndRemove() {
+        int key = nextKey() + 1;
+        tree.put(key, keys, 1, StackingOrderTree.NO_TAG);
+        return tree.remove(key);
+    }
+
+    @Benchmark
+    public void skipListScan(Blackhole blackhole) {
+        int key = nextKey();
+        skipList
+                .headMap(key, true)
+                .tailMap(key + SCAN_LENGTH * 2, true)
+                .descendingMap()
+                .values()
+                .forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public void treeScan(Blackhole blackhole) {
+        int key = nextKey();
+        tree.forEachAscending(key, key + SCAN_LENGTH * 2, (entryKey, widget) -> {
+            blackhole.consume(widget);
+            return true;
+        });
+    }
+
+    @Benchmark
+    public void skipListPage(Blackhole blackhole) {
+        skipList
+                .descendingMap()
+                .values()
+                .stream()
+                .skip(nextKey() / 2)
+                .limit(PAGE_SIZE)
+                .forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public void treePage(Blackhole blackhole) {
+        int[] count = {0};
+        tree.forEachAscendingFromRank(nextKey() / 2, (entryKey, widget) -> {
+            blackhole.consume(widget);
+            return ++count[0] < PAGE_SIZE;
+        });
+    }
+
+    @Benchmark
+    public int skipListMaxKey() {
+        return skipList.firstKey();
+    }
+
+    @Benchmark
+    public long treeMaxKey() {
+        return tree.getTotalWeight();
+    }
+
+    @Benchmark
+    public long treeShift() {
+        int key = nextKey();
+        tree.addWeight(key, 1);
+        tree.tag(key, key, position);
+        tree.addWeight(key, -1);
+        return tree.getPrefixWeight(key);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(WidgetsStorageBenchmark.class.getSimpleName()).build()).run();
+    }
+}
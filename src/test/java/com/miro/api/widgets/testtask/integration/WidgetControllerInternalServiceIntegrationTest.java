@@ -2,12 +2,14 @@ package com.miro.api.widgets.testtask.integration;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.miro.api.widgets.testtask.InternalTestConfiguration;
 import com.miro.api.widgets.testtask.dto.WidgetCreateRequestDTO;
 import com.miro.api.widgets.testtask.dto.WidgetResponseDTO;
 import com.miro.api.widgets.testtask.dto.WidgetUpdateRequestDTO;
 import com.miro.api.widgets.testtask.exceptions.ErrorResponse;
+import com.miro.api.widgets.testtask.services.StackingOrderCompaction;
 import com.miro.api.widgets.testtask.services.WidgetService;
 import com.miro.api.widgets.testtask.utils.PageObjectMapperModule;
 import org.junit.jupiter.api.*;
@@ -25,8 +27,10 @@ import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -52,6 +56,9 @@ public class WidgetControllerInternalServiceIntegrationTest {
     @Autowired
     WidgetService<WidgetResponseDTO> widgetService;
 
+    @Autowired
+    StackingOrderCompaction stackingOrderCompaction;
+
     @AfterEach
     @BeforeEach
     private void purgeRepo() {
@@ -698,4 +705,695 @@ public class WidgetControllerInternalServiceIntegrationTest {
         assertThat(responseDTO.get(1).getZIndex()).isEqualTo(3);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void whenGetFilteredRequestsWithLowerBoundCount_thenCorrectResponse() throws Exception {
+        List<WidgetResponseDTO> widgets = createWidgets(List.of(
+                new WidgetCreateRequestDTO(0, 0, 5, 1, 1),
+                new WidgetCreateRequestDTO(1, 1, 4, 1, 1),
+                new WidgetCreateRequestDTO(50, 50, 3, 1, 1),
+                new WidgetCreateRequestDTO(2, 2, 2, 1, 1),
+                new WidgetCreateRequestDTO(3, 3, 1, 1, 1)
+        ));
+
+        Page<WidgetResponseDTO> firstPage = getFilteredWidgetsPageWithLowerBoundCount(0, 2);
+        assertThat(firstPage.getContent()).extracting(WidgetResponseDTO::getId).containsExactly(widgets.get(4).getId(), widgets.get(3).getId());
+        assertThat(firstPage.getTotalElements()).isEqualTo(3);
+        assertThat(firstPage.hasNext()).isTrue();
+
+        Page<WidgetResponseDTO> lastPage = getFilteredWidgetsPageWithLowerBoundCount(1, 2);
+        assertThat(lastPage.getContent()).extracting(WidgetResponseDTO::getId).containsExactly(widgets.get(1).getId(), widgets.get(0).getId());
+        assertThat(lastPage.getTotalElements()).isEqualTo(4);
+        assertThat(lastPage.hasNext()).isFalse();
+
+        Page<WidgetResponseDTO> pastEndPage = getFilteredWidgetsPageWithLowerBoundCount(5, 10);
+        assertThat(pastEndPage.getContent()).isEmpty();
+        assertThat(pastEndPage.getTotalElements()).isEqualTo(4);
+        assertThat(pastEndPage.getTotalPages()).isEqualTo(1);
+    }
+
+    @Test
+    public void whenGetWidgetsAtPoint_thenTopmostWidgetsResponse() throws Exception {
+        List<WidgetResponseDTO> widgets = createWidgets(List.of(
+                new WidgetCreateRequestDTO(0, 0, 1, 10, 10),
+                new WidgetCreateRequestDTO(5, 5, 2, 10, 10),
+                new WidgetCreateRequestDTO(50, 50, 3, 10, 10)
+        ));
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets/hit")
+                .queryParam("x", "7")
+                .queryParam("y", "7")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        List<WidgetResponseDTO> topmostWidget = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+        });
+        assertThat(topmostWidget).extracting(WidgetResponseDTO::getId).containsExactly(widgets.get(1).getId());
+
+        result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets/hit")
+                .queryParam("x", "7")
+                .queryParam("y", "7")
+                .queryParam("limit", "10")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        List<WidgetResponseDTO> topmostWidgets = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+        });
+        assertThat(topmostWidgets).extracting(WidgetResponseDTO::getId).containsExactly(widgets.get(1).getId(), widgets.get(0).getId());
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/widgets/hit")
+                .queryParam("x", "7")
+                .queryParam("y", "7")
+                .queryParam("limit", "0")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    public void whenGetIntersectingFilteredRequests_thenCorrectResponse() throws Exception {
+        List<WidgetResponseDTO> widgets = createWidgets(List.of(
+                new WidgetCreateRequestDTO(0, 0, 1, 10, 10),
+                new WidgetCreateRequestDTO(5, 5, 2, 1, 1),
+                new WidgetCreateRequestDTO(-20, -20, 3, 10, 10),
+                new WidgetCreateRequestDTO(-5, 8, 4, 2, 20)
+        ));
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets")
+                .queryParam("page", "0")
+                .queryParam("size", "10")
+                .queryParam("x1", "4")
+                .queryParam("y1", "4")
+                .queryParam("x2", "8")
+                .queryParam("y2", "8")
+                .queryParam("mode", "intersects")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        Page<WidgetResponseDTO> responseDTO = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+        });
+        assertThat(responseDTO.getContent()).extracting(WidgetResponseDTO::getId).containsExactly(widgets.get(0).getId(), widgets.get(1).getId(), widgets.get(3).getId());
+        assertThat(responseDTO.getTotalElements()).isEqualTo(3);
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/widgets")
+                .queryParam("page", "0")
+                .queryParam("size", "10")
+                .queryParam("x1", "4")
+                .queryParam("y1", "4")
+                .queryParam("x2", "8")
+                .queryParam("y2", "8")
+                .queryParam("mode", "overlaps")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    public void whenCountFilteredRequests_thenCorrectResponse() throws Exception {
+        createWidgets(List.of(
+                new WidgetCreateRequestDTO(0, 0, 1, 10, 10),
+                new WidgetCreateRequestDTO(5, 5, 2, 1, 1),
+                new WidgetCreateRequestDTO(-20, -20, 3, 10, 10)
+        ));
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets/count")
+                .queryParam("x1", "0")
+                .queryParam("y1", "0")
+                .queryParam("x2", "10")
+                .queryParam("y2", "10")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        assertThat(objectMapper.readTree(result.getResponse().getContentAsString()).get("count").asLong()).isEqualTo(2);
+
+        result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets/count")
+                .queryParam("x1", "-10")
+                .queryParam("y1", "-10")
+                .queryParam("x2", "5")
+                .queryParam("y2", "5")
+                .queryParam("mode", "intersects")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        assertThat(objectMapper.readTree(result.getResponse().getContentAsString()).get("count").asLong()).isEqualTo(3);
+    }
+
+    @Test
+    public void whenGetTilesRequests_thenCorrectResponse() throws Exception {
+        List<WidgetResponseDTO> widgets = createWidgets(List.of(
+                new WidgetCreateRequestDTO(0, 0, 1, 10, 10),
+                new WidgetCreateRequestDTO(100, 100, 2, 1, 1),
+                new WidgetCreateRequestDTO(300, 10, 3, 20, 20),
+                new WidgetCreateRequestDTO(50, 50, 4, 4, 4)
+        ));
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets/tiles")
+                .queryParam("x1", "0")
+                .queryParam("y1", "0")
+                .queryParam("x2", "511")
+                .queryParam("y2", "255")
+                .queryParam("zoom", "0")
+                .queryParam("top", "1")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        JsonNode tiles = objectMapper.readTree(result.getResponse().getContentAsString());
+        assertThat(tiles.size()).isEqualTo(2);
+        assertThat(tiles.get(0).get("cellX").asInt()).isEqualTo(0);
+        assertThat(tiles.get(0).get("count").asInt()).isEqualTo(2);
+        assertThat(tiles.get(0).get("maxX").asInt()).isEqualTo(54);
+        assertThat(tiles.get(0).get("topWidgetsIds").get(0).asText()).isEqualTo(widgets.get(3).getId());
+        assertThat(tiles.get(1).get("cellX").asInt()).isEqualTo(1);
+        assertThat(tiles.get(1).get("count").asInt()).isEqualTo(1);
+        assertThat(tiles.get(1).get("minX").asInt()).isEqualTo(300);
+        assertThat(tiles.get(1).get("topWidgetsIds").get(0).asText()).isEqualTo(widgets.get(2).getId());
+
+        result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets/tiles")
+                .queryParam("x1", "0")
+                .queryParam("y1", "0")
+                .queryParam("x2", "511")
+                .queryParam("y2", "255")
+                .queryParam("zoom", "1")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        tiles = objectMapper.readTree(result.getResponse().getContentAsString());
+        assertThat(tiles.size()).isEqualTo(1);
+        assertThat(tiles.get(0).get("count").asInt()).isEqualTo(3);
+        assertThat(tiles.get(0).get("maxX").asInt()).isEqualTo(320);
+        assertThat(tiles.get(0).get("maxY").asInt()).isEqualTo(54);
+        assertThat(tiles.get(0).get("topWidgetsIds").size()).isEqualTo(3);
+        assertThat(tiles.get(0).get("topWidgetsIds").get(2).asText()).isEqualTo(widgets.get(0).getId());
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/widgets/tiles")
+                .queryParam("x1", "0")
+                .queryParam("y1", "0")
+                .queryParam("x2", "10")
+                .queryParam("y2", "10")
+                .queryParam("zoom", "100")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/widgets/tiles")
+                .queryParam("x1", "-1000000")
+                .queryParam("y1", "-1000000")
+                .queryParam("x2", "1000000")
+                .queryParam("y2", "1000000")
+                .queryParam("zoom", "0")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    public void whenGetOverlappingWidgetsRequests_thenCorrectResponse() throws Exception {
+        List<WidgetResponseDTO> widgets = createWidgets(List.of(
+                new WidgetCreateRequestDTO(0, 0, 1, 10, 10),
+                new WidgetCreateRequestDTO(5, 5, 2, 10, 10),
+                new WidgetCreateRequestDTO(50, 50, 3, 10, 10),
+                new WidgetCreateRequestDTO(10, 10, 4, 1, 1)
+        ));
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets/{id}/overlaps", widgets.get(0).getId())
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        List<WidgetResponseDTO> overlappingWidgets = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+        });
+        assertThat(overlappingWidgets).extracting(WidgetResponseDTO::getId).containsExactly(widgets.get(1).getId(), widgets.get(3).getId());
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/widgets/{id}/overlaps", "unknown")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+
+        result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets/overlaps")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        JsonNode pairs = objectMapper.readTree(result.getResponse().getContentAsString());
+        assertThat(pairs.size()).isEqualTo(3);
+        assertThat(pairs.get(0).get("lowerWidgetId").asText()).isEqualTo(widgets.get(0).getId());
+        assertThat(pairs.get(0).get("upperWidgetId").asText()).isEqualTo(widgets.get(1).getId());
+        assertThat(pairs.get(1).get("lowerWidgetId").asText()).isEqualTo(widgets.get(0).getId());
+        assertThat(pairs.get(1).get("upperWidgetId").asText()).isEqualTo(widgets.get(3).getId());
+        assertThat(pairs.get(2).get("lowerWidgetId").asText()).isEqualTo(widgets.get(1).getId());
+        assertThat(pairs.get(2).get("upperWidgetId").asText()).isEqualTo(widgets.get(3).getId());
+    }
+
+    @Test
+    public void whenGetNearestWidgetsRequests_thenCorrectResponse() throws Exception {
+        List<WidgetResponseDTO> widgets = createWidgets(List.of(
+                new WidgetCreateRequestDTO(0, 0, 1, 10, 10),
+                new WidgetCreateRequestDTO(5, 5, 2, 10, 10),
+                new WidgetCreateRequestDTO(20, 0, 3, 10, 10),
+                new WidgetCreateRequestDTO(5000, 5000, 4, 10, 10)
+        ));
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets/nearest")
+                .queryParam("x", "8")
+                .queryParam("y", "8")
+                .queryParam("k", "3")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        List<WidgetResponseDTO> nearestWidgets = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+        });
+        assertThat(nearestWidgets).extracting(WidgetResponseDTO::getId).containsExactly(widgets.get(1).getId(), widgets.get(0).getId(), widgets.get(2).getId());
+
+        result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets/nearest")
+                .queryParam("x", "-100000")
+                .queryParam("y", "-100000")
+                .queryParam("k", "10")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        nearestWidgets = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+        });
+        assertThat(nearestWidgets).extracting(WidgetResponseDTO::getId).containsExactly(
+                widgets.get(0).getId(), widgets.get(1).getId(), widgets.get(2).getId(), widgets.get(3).getId());
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/widgets/nearest")
+                .queryParam("x", "0")
+                .queryParam("y", "0")
+                .queryParam("k", "0")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    public void whenGetWidgetsByIdsRequests_thenCorrectResponse() throws Exception {
+        List<WidgetResponseDTO> widgets = createWidgets(List.of(
+                new WidgetCreateRequestDTO(0, 0, 1, 10, 10),
+                new WidgetCreateRequestDTO(5, 5, 2, 10, 10)
+        ));
+        String missingId = "6e3b5a04-1d3c-4f83-a2ea-0d2b2c2f0b9a";
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.post("/widgets/_mget")
+                .content(objectMapper.writeValueAsString(Map.of("ids", List.of(widgets.get(1).getId(), missingId, widgets.get(0).getId()))))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        JsonNode response = objectMapper.readTree(result.getResponse().getContentAsString());
+        assertThat(response.get("widgets")).extracting(widget -> widget.get("id").asText()).containsExactly(widgets.get(1).getId(), widgets.get(0).getId());
+        assertThat(response.get("widgets").get(0).get("zIndex").asInt()).isEqualTo(2);
+        assertThat(response.get("missingIds")).extracting(JsonNode::asText).containsExactly(missingId);
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/widgets/_mget")
+                .content(objectMapper.writeValueAsString(Map.of("ids", List.of())))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    public void whenReorderWidgetsRequests_thenWidgetsAreMovedAsSelections() throws Exception {
+        List<WidgetResponseDTO> widgets = createWidgets(List.of(
+                new WidgetCreateRequestDTO(0, 0, 1, 10, 10),
+                new WidgetCreateRequestDTO(0, 0, 2, 10, 10),
+                new WidgetCreateRequestDTO(0, 0, 3, 10, 10),
+                new WidgetCreateRequestDTO(0, 0, 5, 10, 10),
+                new WidgetCreateRequestDTO(0, 0, 6, 10, 10)
+        ));
+        String a = widgets.get(0).getId();
+        String b = widgets.get(1).getId();
+        String c = widgets.get(2).getId();
+        String d = widgets.get(3).getId();
+        String e = widgets.get(4).getId();
+
+        List<WidgetResponseDTO> movedWidgets = reorderWidgets(Map.of("ids", List.of(c, a), "position", "front"));
+        assertThat(movedWidgets).extracting(WidgetResponseDTO::getId).containsExactly(a, c);
+        assertThat(movedWidgets).extracting(WidgetResponseDTO::getZIndex).containsExactly(7, 8);
+
+        movedWidgets = reorderWidgets(Map.of("ids", List.of(d), "position", "back"));
+        assertThat(movedWidgets).extracting(WidgetResponseDTO::getZIndex).containsExactly(1);
+
+        movedWidgets = reorderWidgets(Map.of("ids", List.of(c, e), "position", "above", "targetId", b));
+        assertThat(movedWidgets).extracting(WidgetResponseDTO::getId).containsExactly(e, c);
+        assertThat(movedWidgets).extracting(WidgetResponseDTO::getZIndex).containsExactly(3, 4);
+
+        movedWidgets = reorderWidgets(Map.of("ids", List.of(b, d), "position", "below", "targetId", a));
+        assertThat(movedWidgets).extracting(WidgetResponseDTO::getId).containsExactly(d, b);
+        assertThat(movedWidgets).extracting(WidgetResponseDTO::getZIndex).containsExactly(5, 6);
+
+        movedWidgets = reorderWidgets(Map.of("ids", List.of(a), "position", "below", "targetId", c));
+        assertThat(movedWidgets).extracting(WidgetResponseDTO::getZIndex).containsExactly(4);
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        List<WidgetResponseDTO> allWidgets = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+        });
+        assertThat(allWidgets).extracting(WidgetResponseDTO::getId).containsExactly(e, a, c, d, b);
+        assertThat(allWidgets).extracting(WidgetResponseDTO::getZIndex).containsExactly(3, 4, 5, 6, 7);
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/widgets/_reorder")
+                .content(objectMapper.writeValueAsString(Map.of("ids", List.of(a, b), "position", "above", "targetId", b)))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        mockMvc.perform(MockMvcRequestBuilders.post("/widgets/_reorder")
+                .content(objectMapper.writeValueAsString(Map.of("ids", List.of(a), "position", "below")))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        mockMvc.perform(MockMvcRequestBuilders.post("/widgets/_reorder")
+                .content(objectMapper.writeValueAsString(Map.of("ids", List.of(a), "position", "middle")))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        mockMvc.perform(MockMvcRequestBuilders.post("/widgets/_reorder")
+                .content(objectMapper.writeValueAsString(Map.of("ids", List.of(a, "00000000-0000-0000-0000-000000000000"), "position", "front")))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+    }
+
+    @Test
+    public void whenReorderWidgetsRequests_thenTilesTopWidgetsAreMovedWithoutDuplicates() throws Exception {
+        List<WidgetResponseDTO> widgets = createWidgets(List.of(
+                new WidgetCreateRequestDTO(0, 0, 1, 10, 10),
+                new WidgetCreateRequestDTO(0, 0, 2, 10, 10),
+                new WidgetCreateRequestDTO(20, 20, 3, 10, 10)
+        ));
+        String a = widgets.get(0).getId();
+        String b = widgets.get(1).getId();
+        String c = widgets.get(2).getId();
+
+        reorderWidgets(Map.of("ids", List.of(a), "position", "front"));
+        assertThat(getTileTopWidgetsIds()).containsExactly(a, c, b);
+
+        reorderWidgets(Map.of("ids", List.of(a, c), "position", "back"));
+        assertThat(getTileTopWidgetsIds()).containsExactly(b, a, c);
+
+        reorderWidgets(Map.of("ids", List.of(b, c), "position", "above", "targetId", a));
+        assertThat(getTileTopWidgetsIds()).containsExactly(b, c, a);
+    }
+
+    @Test
+    public void whenGetUpdatedWidgetsRequests_thenCorrectResponse() throws Exception {
+        List<WidgetResponseDTO> widgets = createWidgets(List.of(
+                new WidgetCreateRequestDTO(0, 0, 1, 10, 10),
+                new WidgetCreateRequestDTO(5, 5, 2, 10, 10),
+                new WidgetCreateRequestDTO(5000, 5000, 3, 10, 10)
+        ));
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets")
+                .queryParam("updatedSince", String.valueOf(widgets.get(0).getUpdatedAt()))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        List<WidgetResponseDTO> updatedWidgets = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+        });
+        assertThat(updatedWidgets).extracting(WidgetResponseDTO::getId).containsExactly(
+                widgets.get(0).getId(), widgets.get(1).getId(), widgets.get(2).getId());
+
+        result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets")
+                .queryParam("updatedSince", "0")
+                .queryParam("x1", "0")
+                .queryParam("y1", "0")
+                .queryParam("x2", "100")
+                .queryParam("y2", "100")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        updatedWidgets = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+        });
+        assertThat(updatedWidgets).extracting(WidgetResponseDTO::getId).containsExactly(widgets.get(0).getId(), widgets.get(1).getId());
+
+        result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets")
+                .queryParam("updatedSince", String.valueOf(widgets.get(2).getUpdatedAt() + 3600))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        updatedWidgets = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+        });
+        assertThat(updatedWidgets).isEmpty();
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/widgets")
+                .queryParam("updatedSince", "-1")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    public void whenFilteredWidgetsAreCachedAndWidgetsAreChanged_thenResponseIsActual() throws Exception {
+        List<WidgetResponseDTO> widgets = createWidgets(List.of(
+                new WidgetCreateRequestDTO(0, 0, 5, 10, 10),
+                new WidgetCreateRequestDTO(5000, 5000, 10, 10, 10)
+        ));
+        Page<WidgetResponseDTO> page = getFilteredWidgetsPage(0, 0, 100, 100);
+        assertThat(page.getContent()).extracting(WidgetResponseDTO::getZIndex).containsExactly(5);
+        assertThat(getFilteredWidgetsPage(0, 0, 100, 100).getContent()).extracting(WidgetResponseDTO::getZIndex).containsExactly(5);
+
+        createWidgets(List.of(new WidgetCreateRequestDTO(6000, 6000, 5, 10, 10)));
+        assertThat(getFilteredWidgetsPage(0, 0, 100, 100).getContent()).extracting(WidgetResponseDTO::getZIndex).containsExactly(6);
+
+        mockMvc.perform(MockMvcRequestBuilders.put("/widgets/" + widgets.get(1).getId())
+                .content(objectMapper.writeValueAsString(new WidgetUpdateRequestDTO(50, 50, 10, 10, 10)))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        page = getFilteredWidgetsPage(0, 0, 100, 100);
+        assertThat(page.getContent()).extracting(WidgetResponseDTO::getId).containsExactly(widgets.get(0).getId(), widgets.get(1).getId());
+        assertThat(page.getTotalElements()).isEqualTo(2);
+
+        mockMvc.perform(MockMvcRequestBuilders.delete("/widgets/" + widgets.get(0).getId()))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        assertThat(getFilteredWidgetsPage(0, 0, 100, 100).getContent()).extracting(WidgetResponseDTO::getId).containsExactly(widgets.get(1).getId());
+    }
+
+    @Test
+    public void whenRequestHasTimeout_thenItIsValidatedAndRequestIsHandledWithinIt() throws Exception {
+        createWidgets(List.of(new WidgetCreateRequestDTO(0, 0, 5, 10, 10)));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/widgets")
+                .queryParam("page", "0")
+                .queryParam("size", "10")
+                .queryParam("x1", "0")
+                .queryParam("y1", "0")
+                .queryParam("x2", "100")
+                .queryParam("y2", "100")
+                .queryParam("timeout", "5000"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.content[0].zIndex").value(5));
+        mockMvc.perform(MockMvcRequestBuilders.get("/widgets/count")
+                .queryParam("x1", "0")
+                .queryParam("y1", "0")
+                .queryParam("x2", "100")
+                .queryParam("y2", "100")
+                .header("X-Request-Timeout", "3600000"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.count").value(1));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/widgets").header("X-Request-Timeout", "soon"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        mockMvc.perform(MockMvcRequestBuilders.get("/widgets").queryParam("timeout", "0"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    public void whenHeapReportIsRequested_thenRepositoryStructuresAreReported() throws Exception {
+        createWidgets(List.of(
+                new WidgetCreateRequestDTO(0, 0, 1, 10, 10),
+                new WidgetCreateRequestDTO(0, 0, 1, 10, 10)
+        ));
+
+        mockMvc.perform(MockMvcRequestBuilders.get("/actuator/widgetsheap"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.widgetsCount").value(2))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.structures.widgetsStorage.entriesCount").value(2))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.structures.widgetsStorage.staleEntriesCount").value(0))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.structures.updatedAtSearchIndex.postingSets.keysCount").isNumber());
+    }
+
+    @Test
+    public void whenBulkCreateWidgetsRequest_thenExistingWidgetsAreShiftedOnce() throws Exception {
+        List<WidgetResponseDTO> widgets = createWidgets(List.of(
+                new WidgetCreateRequestDTO(0, 0, 1, 10, 10),
+                new WidgetCreateRequestDTO(0, 0, 2, 10, 10),
+                new WidgetCreateRequestDTO(0, 0, 3, 10, 10),
+                new WidgetCreateRequestDTO(0, 0, 5, 10, 10),
+                new WidgetCreateRequestDTO(0, 0, 10, 10, 10)
+        ));
+
+        List<WidgetResponseDTO> createdWidgets = bulkCreateWidgets(List.of(
+                new WidgetCreateRequestDTO(50, 50, 4, 10, 10),
+                new WidgetCreateRequestDTO(50, 50, 2, 10, 10),
+                new WidgetCreateRequestDTO(50, 50, null, 10, 10),
+                new WidgetCreateRequestDTO(50, 50, 2, 10, 10)
+        ));
+        assertThat(createdWidgets).extracting(WidgetResponseDTO::getZIndex).containsExactly(4, 2, 11, 3);
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        List<WidgetResponseDTO> allWidgets = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+        });
+        assertThat(allWidgets).extracting(WidgetResponseDTO::getId).containsExactly(
+                widgets.get(0).getId(),
+                createdWidgets.get(1).getId(),
+                createdWidgets.get(3).getId(),
+                createdWidgets.get(0).getId(),
+                widgets.get(1).getId(),
+                widgets.get(2).getId(),
+                widgets.get(3).getId(),
+                widgets.get(4).getId(),
+                createdWidgets.get(2).getId()
+        );
+        assertThat(allWidgets).extracting(WidgetResponseDTO::getZIndex).containsExactly(1, 2, 3, 4, 5, 6, 7, 10, 11);
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/widgets/_bulk")
+                .content(objectMapper.writeValueAsString(Map.of("widgets", List.of(
+                        new WidgetCreateRequestDTO(0, 0, Integer.MAX_VALUE, 10, 10),
+                        new WidgetCreateRequestDTO(0, 0, Integer.MAX_VALUE, 10, 10)
+                ))))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        mockMvc.perform(MockMvcRequestBuilders.post("/widgets/_bulk")
+                .content(objectMapper.writeValueAsString(Map.of("widgets", List.of(
+                        new WidgetCreateRequestDTO(0, 0, 1, 10, 10),
+                        new WidgetCreateRequestDTO(0, 0, 1, -10, 10)
+                ))))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        mockMvc.perform(MockMvcRequestBuilders.post("/widgets/_bulk")
+                .content(objectMapper.writeValueAsString(Map.of("widgets", List.of())))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        assertThat(objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<List<WidgetResponseDTO>>() {
+        })).hasSize(9);
+    }
+
+    @Test
+    public void whenCompactionIsTriggered_thenZIndexesAreSpacedInBackground() throws Exception {
+        List<WidgetResponseDTO> widgets = createWidgets(List.of(
+                new WidgetCreateRequestDTO(0, 0, 10, 10, 10),
+                new WidgetCreateRequestDTO(0, 0, 11, 10, 10),
+                new WidgetCreateRequestDTO(0, 0, 12, 10, 10),
+                new WidgetCreateRequestDTO(0, 0, 5000, 10, 10),
+                new WidgetCreateRequestDTO(0, 0, 900000, 10, 10)
+        ));
+
+        mockMvc.perform(MockMvcRequestBuilders.post("/actuator/widgetscompaction"))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        long passesCount = 0;
+        for (int attempt = 0; attempt < 100 && passesCount == 0; attempt++) {
+            Thread.sleep(50);
+            MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/actuator/widgetscompaction"))
+                    .andExpect(MockMvcResultMatchers.status().isOk())
+                    .andReturn();
+            passesCount = objectMapper.readTree(result.getResponse().getContentAsString()).get("passesCount").asLong();
+        }
+        assertThat(passesCount).isGreaterThan(0);
+
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        List<WidgetResponseDTO> compactedWidgets = objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+        });
+        assertThat(compactedWidgets).extracting(WidgetResponseDTO::getId).containsExactlyElementsOf(
+                widgets.stream().map(WidgetResponseDTO::getId).collect(Collectors.toList()));
+        assertThat(compactedWidgets).extracting(WidgetResponseDTO::getZIndex).containsExactly(10, 12, 14, 16, 18);
+        assertThat(getTileTopWidgetsIds()).containsExactly(
+                widgets.get(4).getId(),
+                widgets.get(3).getId(),
+                widgets.get(2).getId()
+        );
+    }
+
+    @Test
+    public void whenStackingOrderIsCompacted_thenTilesTopWidgetsAreMovedWithoutDuplicates() throws Exception {
+        List<WidgetResponseDTO> widgets = createWidgets(List.of(
+                new WidgetCreateRequestDTO(0, 0, 10, 10, 10),
+                new WidgetCreateRequestDTO(0, 0, 5000, 10, 10),
+                new WidgetCreateRequestDTO(20, 20, 900000, 10, 10)
+        ));
+
+        stackingOrderCompaction.compact();
+
+        assertThat(getTileTopWidgetsIds()).containsExactly(
+                widgets.get(2).getId(),
+                widgets.get(1).getId(),
+                widgets.get(0).getId()
+        );
+    }
+
+    private Page<WidgetResponseDTO> getFilteredWidgetsPage(int x1, int y1, int x2, int y2) throws Exception {
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets")
+                .queryParam("page", "0")
+                .queryParam("size", "10")
+                .queryParam("x1", String.valueOf(x1))
+                .queryParam("y1", String.valueOf(y1))
+                .queryParam("x2", String.valueOf(x2))
+                .queryParam("y2", String.valueOf(y2))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        return objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+        });
+    }
+
+    private Page<WidgetResponseDTO> getFilteredWidgetsPageWithLowerBoundCount(int page, int size) throws Exception {
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets")
+                .queryParam("page", String.valueOf(page))
+                .queryParam("size", String.valueOf(size))
+                .queryParam("x1", "0")
+                .queryParam("y1", "0")
+                .queryParam("x2", "10")
+                .queryParam("y2", "10")
+                .queryParam("exactCount", "false")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        return objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+        });
+    }
+
+    private List<String> getTileTopWidgetsIds() throws Exception {
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.get("/widgets/tiles")
+                .queryParam("x1", "0")
+                .queryParam("y1", "0")
+                .queryParam("x2", "255")
+                .queryParam("y2", "255")
+                .queryParam("zoom", "0")
+                .queryParam("top", "5")
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        JsonNode tiles = objectMapper.readTree(result.getResponse().getContentAsString());
+        assertThat(tiles.size()).isEqualTo(1);
+        List<String> ids = new ArrayList<>();
+        tiles.get(0).get("topWidgetsIds").forEach(id -> ids.add(id.asText()));
+        return ids;
+    }
+
+    private List<WidgetResponseDTO> reorderWidgets(Map<String, Object> reorderRequest) throws Exception {
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.post("/widgets/_reorder")
+                .content(objectMapper.writeValueAsString(reorderRequest))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andReturn();
+        return objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+        });
+    }
+
+    private List<WidgetResponseDTO> bulkCreateWidgets(List<WidgetCreateRequestDTO> createRequests) throws Exception {
+        MvcResult result = mockMvc.perform(MockMvcRequestBuilders.post("/widgets/_bulk")
+                .content(objectMapper.writeValueAsString(Map.of("widgets", createRequests)))
+                .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.status().isCreated())
+                .andReturn();
+        return objectMapper.readValue(result.getResponse().getContentAsString(), new TypeReference<>() {
+        });
+    }
+
+    private List<WidgetResponseDTO> createWidgets(List<WidgetCreateRequestDTO> createRequests) throws Exception {
+        List<WidgetResponseDTO> widgets = new ArrayList<>();
+        for (WidgetCreateRequestDTO createRequest : createRequests) {
+            MvcResult result = mockMvc.perform(MockMvcRequestBuilders.post("/widgets")
+                    .content(objectMapper.writeValueAsString(createRequest))
+                    .contentType(MediaType.APPLICATION_JSON))
+                    .andExpect(MockMvcResultMatchers.status().isCreated())
+                    .andReturn();
+            widgets.add(objectMapper.readValue(result.getResponse().getContentAsString(), WidgetResponseDTO.class));
+        }
+        return widgets;
+    }
+}
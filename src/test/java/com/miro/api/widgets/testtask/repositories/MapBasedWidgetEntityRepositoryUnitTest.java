@@ -1,13 +1,30 @@
 package com.miro.api.widgets.testtask.repositories;
 
+import com.miro.api.widgets.testtask.config.RepositoryConfig;
+import com.miro.api.widgets.testtask.config.SearchIndexType;
 import com.miro.api.widgets.testtask.dto.WidgetCreateDTO;
 import com.miro.api.widgets.testtask.dto.WidgetCreateRequestDTO;
+import com.miro.api.widgets.testtask.dto.WidgetFilterDTO;
+import com.miro.api.widgets.testtask.dto.WidgetFilterMode;
+import com.miro.api.widgets.testtask.dto.WidgetsHeapReportDTO;
 import com.miro.api.widgets.testtask.entities.WidgetCustomEntity;
+import com.miro.api.widgets.testtask.exceptions.DeadlineExceededException;
+import com.miro.api.widgets.testtask.utils.RequestDeadline;
+import com.miro.api.widgets.testtask.utils.TileHelperWrapper;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -78,6 +95,52 @@ public class MapBasedWidgetEntityRepositoryUnitTest {
         assertEquals(widget4.getId(), widgets.get(5).getId(), "Fourth widget must shift to sixth position");
     }
 
+    @ParameterizedTest
+    @EnumSource(SearchIndexType.class)
+    public void widgetEntityRepositoryShiftsSameAsDenseZIndexesAfterManyInsertsAndDeletes(SearchIndexType searchIndexType) {
+        RepositoryConfig config = new RepositoryConfig();
+        config.setSearchIndex(searchIndexType);
+        MapBasedWidgetEntityRepository widgetEntityRepository = new MapBasedWidgetEntityRepository(config);
+        TreeMap<Integer, String> expected = new TreeMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 5_000; i++) {
+            if (random.nextInt(4) == 0 && !expected.isEmpty()) {
+                String id = expected.pollFirstEntry().getValue();
+                assertTrue(widgetEntityRepository.deleteEntityById(id));
+                continue;
+            }
+            int zIndex = i % 3 == 0 ? 1_000 : random.nextInt(2_000);
+            WidgetCustomEntity widget = new WidgetCustomEntity(random.nextInt(100), random.nextInt(100), zIndex, 1, 1);
+            assertEquals(expected.containsKey(zIndex), widgetEntityRepository.isNeedToShift(zIndex));
+            if (expected.containsKey(zIndex)) {
+                int tailTo = zIndex;
+                while (expected.containsKey(tailTo + 1)) {
+                    tailTo++;
+                }
+                for (int shifted = tailTo; shifted >= zIndex; shifted--) {
+                    expected.put(shifted + 1, expected.remove(shifted));
+                }
+                widgetEntityRepository.shiftUpwards(zIndex);
+            }
+            widgetEntityRepository.saveEntity(widget);
+            expected.put(zIndex, widget.getId());
+        }
+
+        List<WidgetCustomEntity> widgets = widgetEntityRepository.findAllEntities();
+        assertEquals(List.copyOf(expected.keySet()), widgets.stream().map(WidgetCustomEntity::getZIndex).collect(Collectors.toList()));
+        assertEquals(List.copyOf(expected.values()), widgets.stream().map(WidgetCustomEntity::getId).collect(Collectors.toList()));
+        assertEquals((int) expected.lastKey(), widgetEntityRepository.getMaxIndex());
+        assertEquals(
+                List.copyOf(expected.values()),
+                widgetEntityRepository
+                        .getFilteredEntities(0, expected.size(), new WidgetFilterDTO(0, 0, 200, 200, true))
+                        .getData()
+                        .stream()
+                        .map(WidgetCustomEntity::getId)
+                        .collect(Collectors.toList())
+        );
+    }
+
     @Test
     public void widgetEntityRepositoryCanDeleteWidgetsById() {
         MapBasedWidgetEntityRepository widgetEntityRepository = new MapBasedWidgetEntityRepository();
@@ -97,4 +160,471 @@ public class MapBasedWidgetEntityRepositoryUnitTest {
         assertEquals(1, widgets.size(), "Widgets count must become 1");
         assertEquals(widget2.getId(), widgets.get(0).getId(), "Last widget must be second widget");
     }
+
+    @ParameterizedTest
+    @EnumSource(SearchIndexType.class)
+    public void widgetEntityRepositoryCanReuseDeletedWidgetsSlots(SearchIndexType searchIndexType) {
+        RepositoryConfig config = new RepositoryConfig();
+        config.setSearchIndex(searchIndexType);
+        MapBasedWidgetEntityRepository widgetEntityRepository = new MapBasedWidgetEntityRepository(config);
+        WidgetCustomEntity widget1 = new WidgetCustomEntity(0, 0, 1, 10, 10);
+        WidgetCustomEntity widget2 = new WidgetCustomEntity(0, 0, 2, 10, 10);
+        WidgetCustomEntity widget3 = new WidgetCustomEntity(100, 100, 3, 10, 10);
+        WidgetCustomEntity updatedWidget1 = new WidgetCustomEntity(100, 100, 4, 20, 20);
+        updatedWidget1.setId(widget1.getId());
+
+        widgetEntityRepository.saveEntity(widget1);
+        widgetEntityRepository.saveEntity(widget2);
+        assertTrue(widgetEntityRepository.deleteEntityById(widget2.getId()));
+        assertFalse(widgetEntityRepository.deleteEntityById(widget2.getId()), "Deleted widget can't be deleted twice");
+        assertFalse(widgetEntityRepository.findEntityById(widget2.getId()).isPresent(), "Deleted widget can't be found");
+        widgetEntityRepository.saveEntity(widget3);
+        widgetEntityRepository.saveEntity(updatedWidget1);
+
+        assertEquals(2, widgetEntityRepository.getCount());
+        assertEquals(Optional.of(updatedWidget1), widgetEntityRepository.findEntityById(widget1.getId()));
+        assertEquals(Optional.of(widget3), widgetEntityRepository.findEntityById(widget3.getId()));
+        assertTrue(widgetEntityRepository.getFilteredEntities(0, 10, new WidgetFilterDTO(0, 0, 20, 20)).getData().isEmpty());
+        assertEquals(
+                List.of(widget3, updatedWidget1),
+                widgetEntityRepository.getFilteredEntities(0, 10, new WidgetFilterDTO(100, 100, 120, 120)).getData(),
+                "Only moved first widget and third widget must be found ordered by z-index"
+        );
+    }
+
+    @Test
+    public void widgetEntityRepositoryShiftsRangesSameAsOneByOne() {
+        Random random = new Random(7);
+        for (int round = 0; round < 50; round++) {
+            MapBasedWidgetEntityRepository oneByOneRepository = new MapBasedWidgetEntityRepository();
+            MapBasedWidgetEntityRepository rangesRepository = new MapBasedWidgetEntityRepository();
+            for (int i = 0; i < 100; i++) {
+                int zIndex = random.nextInt(150);
+                if (!oneByOneRepository.isNeedToShift(zIndex)) {
+                    oneByOneRepository.saveEntity(new WidgetCustomEntity(0, 0, zIndex, 1, 1));
+                    rangesRepository.saveEntity(new WidgetCustomEntity(0, 0, zIndex, 1, 1));
+                }
+            }
+            Map<String, Integer> existingZIndexes = rangesRepository
+                    .findAllEntities()
+                    .stream()
+                    .collect(Collectors.toMap(WidgetCustomEntity::getId, WidgetCustomEntity::getZIndex));
+
+            List<Integer> fromIndexes = new ArrayList<>();
+            List<Integer> counts = new ArrayList<>();
+            for (int fromIndex = random.nextInt(20); fromIndex < 200; fromIndex += counts.get(counts.size() - 1) + 1 + random.nextInt(30)) {
+                fromIndexes.add(fromIndex);
+                counts.add(1 + random.nextInt(10));
+            }
+            for (int i = 0; i < fromIndexes.size(); i++) {
+                for (int zIndex = fromIndexes.get(i); zIndex < fromIndexes.get(i) + counts.get(i); zIndex++) {
+                    if (oneByOneRepository.isNeedToShift(zIndex)) {
+                        oneByOneRepository.shiftUpwards(zIndex);
+                    }
+                    oneByOneRepository.saveEntity(new WidgetCustomEntity(1, 1, zIndex, 1, 1));
+                }
+            }
+            OptionalInt shiftedFromIndex = rangesRepository.shiftUpwards(
+                    fromIndexes.stream().mapToInt(Integer::intValue).toArray(),
+                    counts.stream().mapToInt(Integer::intValue).toArray()
+            );
+            for (int i = 0; i < fromIndexes.size(); i++) {
+                for (int zIndex = fromIndexes.get(i); zIndex < fromIndexes.get(i) + counts.get(i); zIndex++) {
+                    assertFalse(rangesRepository.isNeedToShift(zIndex), "Z-index of range must be free");
+                    rangesRepository.saveEntity(new WidgetCustomEntity(1, 1, zIndex, 1, 1));
+                }
+            }
+
+            List<WidgetCustomEntity> expected = oneByOneRepository.findAllEntities();
+            List<WidgetCustomEntity> actual = rangesRepository.findAllEntities();
+            assertEquals(expected.stream().map(WidgetCustomEntity::getZIndex).collect(Collectors.toList()), actual.stream().map(WidgetCustomEntity::getZIndex).collect(Collectors.toList()));
+            assertEquals(expected.stream().map(WidgetCustomEntity::getXCoordinate).collect(Collectors.toList()), actual.stream().map(WidgetCustomEntity::getXCoordinate).collect(Collectors.toList()));
+            for (int zIndex = -1; zIndex <= rangesRepository.getMaxIndex() + 1; zIndex++) {
+                assertEquals(oneByOneRepository.isNeedToShift(zIndex), rangesRepository.isNeedToShift(zIndex));
+            }
+            assertEquals(
+                    actual.stream().filter(widget -> existingZIndexes.containsKey(widget.getId()) && existingZIndexes.get(widget.getId()) != widget.getZIndex())
+                            .mapToInt(widget -> existingZIndexes.get(widget.getId())).min(),
+                    shiftedFromIndex
+            );
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(SearchIndexType.class)
+    public void widgetEntityRepositoryCanFilterWidgetsAfterShiftingAndDeleting(SearchIndexType searchIndexType) {
+        RepositoryConfig config = new RepositoryConfig();
+        config.setSearchIndex(searchIndexType);
+        MapBasedWidgetEntityRepository widgetEntityRepository = new MapBasedWidgetEntityRepository(config);
+        WidgetCustomEntity widget1 = new WidgetCustomEntity(0, 0, 1, 10, 10);
+        WidgetCustomEntity widget2 = new WidgetCustomEntity(5, 5, 2, 10, 10);
+        WidgetCustomEntity widget3 = new WidgetCustomEntity(50, 50, 3, 10, 10);
+        WidgetCustomEntity widget4 = new WidgetCustomEntity(1, 1, 1, 5, 5);
+
+        widgetEntityRepository.saveEntity(widget1);
+        widgetEntityRepository.saveEntity(widget2);
+        widgetEntityRepository.saveEntity(widget3);
+        widgetEntityRepository.shiftUpwards(widget4.getZIndex());
+        widgetEntityRepository.saveEntity(widget4);
+        widgetEntityRepository.deleteEntityById(widget2.getId());
+
+        List<String> filteredIds = widgetEntityRepository
+                .getFilteredEntities(0, 10, new WidgetFilterDTO(0, 0, 20, 20))
+                .getData()
+                .stream()
+                .map(WidgetCustomEntity::getId)
+                .collect(Collectors.toList());
+
+        assertEquals(List.of(widget4.getId(), widget1.getId()), filteredIds, "Only first and fourth widgets must be found ordered by z-index");
+    }
+
+    @ParameterizedTest
+    @EnumSource(SearchIndexType.class)
+    public void widgetEntityRepositoryFiltersSameWidgetsAsFullScan(SearchIndexType searchIndexType) {
+        RepositoryConfig config = new RepositoryConfig();
+        config.setSearchIndex(searchIndexType);
+        MapBasedWidgetEntityRepository widgetEntityRepository = new MapBasedWidgetEntityRepository(config);
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            widgetEntityRepository.saveEntity(new WidgetCustomEntity(random.nextInt(2000), random.nextInt(100), 2000 - i, 1 + random.nextInt(20), 1 + random.nextInt(50)));
+        }
+
+        for (int i = 0; i < 50; i++) {
+            int x1 = random.nextInt(2000);
+            int y1 = random.nextInt(100);
+            WidgetFilterDTO filter = new WidgetFilterDTO(x1, y1, x1 + random.nextInt(300), y1 + random.nextInt(100));
+            List<String> expectedIds = widgetEntityRepository
+                    .findAllEntities()
+                    .stream()
+                    .filter(widget -> widget.getXCoordinate() >= filter.getX1()
+                            && widget.getYCoordinate() >= filter.getY1()
+                            && widget.getXCoordinate() + widget.getWidth() <= filter.getX2()
+                            && widget.getYCoordinate() + widget.getHeight() <= filter.getY2())
+                    .sorted(Comparator.comparingInt(WidgetCustomEntity::getZIndex))
+                    .map(WidgetCustomEntity::getId)
+                    .collect(Collectors.toList());
+            List<String> filteredIds = widgetEntityRepository
+                    .getFilteredEntities(0, 500, filter)
+                    .getData()
+                    .stream()
+                    .map(WidgetCustomEntity::getId)
+                    .collect(Collectors.toList());
+
+            assertEquals(expectedIds, filteredIds, "Filtered widgets must be the same as widgets found by full scan");
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(SearchIndexType.class)
+    public void widgetEntityRepositoryFiltersSameIntersectingWidgetsAsFullScan(SearchIndexType searchIndexType) {
+        RepositoryConfig config = new RepositoryConfig();
+        config.setSearchIndex(searchIndexType);
+        MapBasedWidgetEntityRepository widgetEntityRepository = new MapBasedWidgetEntityRepository(config);
+        Random random = new Random(2);
+        for (int i = 0; i < 2000; i++) {
+            widgetEntityRepository.saveEntity(new WidgetCustomEntity(random.nextInt(2000), random.nextInt(100), 2000 - i, 1 + random.nextInt(20), 1 + random.nextInt(50)));
+        }
+
+        for (int i = 0; i < 50; i++) {
+            int x1 = random.nextInt(2000);
+            int y1 = random.nextInt(100);
+            int x2 = x1 + random.nextInt(300);
+            int y2 = y1 + random.nextInt(100);
+            List<String> expectedIds = widgetEntityRepository
+                    .findAllEntities()
+                    .stream()
+                    .filter(widget -> widget.getXCoordinate() + widget.getWidth() >= x1
+                            && widget.getYCoordinate() + widget.getHeight() >= y1
+                            && widget.getXCoordinate() <= x2
+                            && widget.getYCoordinate() <= y2)
+                    .sorted(Comparator.comparingInt(WidgetCustomEntity::getZIndex))
+                    .map(WidgetCustomEntity::getId)
+                    .collect(Collectors.toList());
+            List<String> filteredIds = widgetEntityRepository
+                    .getFilteredEntities(0, 2000, new WidgetFilterDTO(x1, y1, x2, y2, WidgetFilterMode.INTERSECTS, true))
+                    .getData()
+                    .stream()
+                    .map(WidgetCustomEntity::getId)
+                    .collect(Collectors.toList());
+            List<String> firstPageIds = widgetEntityRepository
+                    .getFilteredEntities(0, 10, new WidgetFilterDTO(x1, y1, x2, y2, WidgetFilterMode.INTERSECTS, false))
+                    .getData()
+                    .stream()
+                    .map(WidgetCustomEntity::getId)
+                    .collect(Collectors.toList());
+
+            assertEquals(expectedIds, filteredIds, "Intersecting widgets must be the same as widgets found by full scan");
+            assertEquals(expectedIds.subList(0, Math.min(10, expectedIds.size())), firstPageIds, "Z-ordered scan must find the same first page");
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(SearchIndexType.class)
+    public void widgetEntityRepositoryCanCountFilteredWidgets(SearchIndexType searchIndexType) {
+        RepositoryConfig config = new RepositoryConfig();
+        config.setSearchIndex(searchIndexType);
+        MapBasedWidgetEntityRepository widgetEntityRepository = new MapBasedWidgetEntityRepository(config);
+        WidgetCustomEntity widget1 = new WidgetCustomEntity(0, 0, 1, 10, 10);
+        WidgetCustomEntity widget2 = new WidgetCustomEntity(5, 5, 2, 10, 10);
+        WidgetCustomEntity widget3 = new WidgetCustomEntity(50, 50, 3, 10, 10);
+        WidgetCustomEntity widget4 = new WidgetCustomEntity(1, 1, 1, 5, 5);
+
+        widgetEntityRepository.saveEntity(widget1);
+        widgetEntityRepository.saveEntity(widget2);
+        widgetEntityRepository.saveEntity(widget3);
+        widgetEntityRepository.shiftUpwards(widget4.getZIndex());
+        widgetEntityRepository.saveEntity(widget4);
+
+        assertEquals(3, widgetEntityRepository.countFilteredEntities(new WidgetFilterDTO(0, 0, 20, 20)));
+        assertEquals(3, widgetEntityRepository.countFilteredEntities(new WidgetFilterDTO(10, 10, 50, 50, WidgetFilterMode.INTERSECTS, true)));
+
+        widgetEntityRepository.deleteEntityById(widget2.getId());
+        assertEquals(2, widgetEntityRepository.countFilteredEntities(new WidgetFilterDTO(0, 0, 20, 20)));
+        assertEquals(0, widgetEntityRepository.countFilteredEntities(new WidgetFilterDTO(100, 100, 200, 200)));
+    }
+
+    @ParameterizedTest
+    @EnumSource(SearchIndexType.class)
+    public void widgetEntityRepositoryCanFindTopmostWidgetsAtPoint(SearchIndexType searchIndexType) {
+        RepositoryConfig config = new RepositoryConfig();
+        config.setSearchIndex(searchIndexType);
+        MapBasedWidgetEntityRepository widgetEntityRepository = new MapBasedWidgetEntityRepository(config);
+        WidgetCustomEntity widget1 = new WidgetCustomEntity(0, 0, 1, 10, 10);
+        WidgetCustomEntity widget2 = new WidgetCustomEntity(5, 5, 2, 10, 10);
+        WidgetCustomEntity widget3 = new WidgetCustomEntity(50, 50, 3, 10, 10);
+        WidgetCustomEntity widget4 = new WidgetCustomEntity(10, 10, 1, 1, 1);
+
+        widgetEntityRepository.saveEntity(widget1);
+        widgetEntityRepository.saveEntity(widget2);
+        widgetEntityRepository.saveEntity(widget3);
+        widgetEntityRepository.shiftUpwards(widget4.getZIndex());
+        widgetEntityRepository.saveEntity(widget4);
+
+        assertEquals(List.of(widget2, widget1, widget4), widgetEntityRepository.findEntitiesAtPoint(10, 10, 10));
+        assertEquals(List.of(widget2), widgetEntityRepository.findEntitiesAtPoint(10, 10, 1));
+        assertEquals(List.of(widget1), widgetEntityRepository.findEntitiesAtPoint(0, 0, 10));
+        assertTrue(widgetEntityRepository.findEntitiesAtPoint(30, 30, 10).isEmpty());
+
+        widgetEntityRepository.deleteEntityById(widget2.getId());
+        assertEquals(List.of(widget1, widget4), widgetEntityRepository.findEntitiesAtPoint(10, 10, 10));
+    }
+
+    @ParameterizedTest
+    @EnumSource(SearchIndexType.class)
+    public void widgetEntityRepositorySavesBatchToEmptyRepositorySameAsOneByOne(SearchIndexType searchIndexType) {
+        RepositoryConfig config = new RepositoryConfig();
+        config.setSearchIndex(searchIndexType);
+        MapBasedWidgetEntityRepository oneByOneRepository = new MapBasedWidgetEntityRepository(config);
+        MapBasedWidgetEntityRepository batchRepository = new MapBasedWidgetEntityRepository(config);
+        Random random = new Random(7);
+        List<WidgetCustomEntity> batch = new ArrayList<>();
+        for (int zIndex = 1; zIndex <= 2000; zIndex++) {
+            int x = random.nextInt(1000);
+            int y = random.nextInt(1000);
+            int width = 1 + random.nextInt(100);
+            int height = 1 + random.nextInt(100);
+            oneByOneRepository.saveEntity(new WidgetCustomEntity(x, y, zIndex, width, height));
+            batch.add(new WidgetCustomEntity(x, y, zIndex, width, height));
+        }
+        batchRepository.saveAllEntities(batch);
+
+        assertSameSpatialResults(oneByOneRepository, batchRepository, random);
+        for (int i = 0; i < 500; i++) {
+            oneByOneRepository.deleteEntityById(oneByOneRepository.findEntitiesByRank(i, 1).get(0).getId());
+            batchRepository.deleteEntityById(batchRepository.findEntitiesByRank(i, 1).get(0).getId());
+        }
+        assertSameSpatialResults(oneByOneRepository, batchRepository, random);
+    }
+
+    private static void assertSameSpatialResults(MapBasedWidgetEntityRepository expectedRepository, MapBasedWidgetEntityRepository actualRepository, Random random) {
+        for (int i = 0; i < 50; i++) {
+            int x = random.nextInt(1100);
+            int y = random.nextInt(1100);
+            assertEquals(
+                    getZIndexes(expectedRepository.findEntitiesAtPoint(x, y, 5)),
+                    getZIndexes(actualRepository.findEntitiesAtPoint(x, y, 5))
+            );
+            WidgetFilterDTO filter = new WidgetFilterDTO(x, y, x + random.nextInt(300), y + random.nextInt(300));
+            assertEquals(
+                    getZIndexes(expectedRepository.getFilteredEntities(0, 10, filter).getData()),
+                    getZIndexes(actualRepository.getFilteredEntities(0, 10, filter).getData())
+            );
+        }
+        WidgetFilterDTO tilesFilter = new WidgetFilterDTO(0, 0, 1100, 1100);
+        for (int zoom = 0; zoom < 3; zoom++) {
+            List<String> expectedTiles = getTilesSummary(expectedRepository.getTiles(tilesFilter, zoom, 3));
+            assertFalse(expectedTiles.isEmpty());
+            assertEquals(expectedTiles, getTilesSummary(actualRepository.getTiles(tilesFilter, zoom, 3)));
+        }
+    }
+
+    private static List<Integer> getZIndexes(List<WidgetCustomEntity> widgets) {
+        return widgets.stream().map(WidgetCustomEntity::getZIndex).collect(Collectors.toList());
+    }
+
+    private static List<String> getTilesSummary(List<TileHelperWrapper<WidgetCustomEntity>> tiles) {
+        return tiles
+                .stream()
+                .map(tile -> tile.getCellX() + ":" + tile.getCellY() + ":" + tile.getCount() + ":" + getZIndexes(tile.getTopmost()))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    @ParameterizedTest
+    @EnumSource(SearchIndexType.class)
+    public void widgetEntityRepositoryCanMoveWidgetsWithoutDeleting(SearchIndexType searchIndexType) {
+        RepositoryConfig config = new RepositoryConfig();
+        config.setSearchIndex(searchIndexType);
+        MapBasedWidgetEntityRepository widgetEntityRepository = new MapBasedWidgetEntityRepository(config);
+        WidgetCustomEntity widget1 = new WidgetCustomEntity(0, 0, 1, 10, 10);
+        WidgetCustomEntity widget2 = new WidgetCustomEntity(5, 5, 2, 10, 10);
+        WidgetCustomEntity widget3 = new WidgetCustomEntity(8, 8, 3, 10, 10);
+        widgetEntityRepository.saveEntity(widget1);
+        widgetEntityRepository.saveEntity(widget2);
+        widgetEntityRepository.saveEntity(widget3);
+
+        widgetEntityRepository.displaceEntity(widget1);
+        assertEquals(OptionalInt.of(3), widgetEntityRepository.getFloorIndex(Integer.MAX_VALUE));
+        assertEquals(OptionalInt.of(2), widgetEntityRepository.getCeilingIndex(Integer.MIN_VALUE));
+        assertFalse(widgetEntityRepository.isNeedToShift(1));
+        widgetEntityRepository.placeEntity(widget1, 4);
+
+        assertEquals(OptionalInt.of(3), widgetEntityRepository.getFloorIndex(3));
+        assertEquals(OptionalInt.empty(), widgetEntityRepository.getFloorIndex(1));
+        assertEquals(OptionalInt.empty(), widgetEntityRepository.getCeilingIndex(5));
+        assertEquals(List.of(widget2, widget3, widget1), widgetEntityRepository.findAllEntities());
+        assertEquals(widget1, widgetEntityRepository.findEntityById(widget1.getId()).orElseThrow());
+        assertEquals(List.of(widget1, widget3, widget2), widgetEntityRepository.findEntitiesAtPoint(9, 9, 10));
+        assertEquals(List.of(widget2, widget3, widget1), widgetEntityRepository.getFilteredEntities(0, 10, new WidgetFilterDTO(0, 0, 20, 20)).getData());
+        assertEquals(3, widgetEntityRepository.getCount());
+    }
+
+    @Test
+    public void widgetEntityRepositoryCanFindOverlappingWidgets() {
+        MapBasedWidgetEntityRepository widgetEntityRepository = new MapBasedWidgetEntityRepository();
+        WidgetCustomEntity widget1 = new WidgetCustomEntity(0, 0, 1, 10, 10);
+        WidgetCustomEntity widget2 = new WidgetCustomEntity(5, 5, 2, 10, 10);
+        WidgetCustomEntity widget3 = new WidgetCustomEntity(50, 50, 3, 10, 10);
+        WidgetCustomEntity widget4 = new WidgetCustomEntity(10, 10, 1, 1, 1);
+
+        widgetEntityRepository.saveEntity(widget1);
+        widgetEntityRepository.saveEntity(widget2);
+        widgetEntityRepository.saveEntity(widget3);
+        widgetEntityRepository.shiftUpwards(widget4.getZIndex());
+        widgetEntityRepository.saveEntity(widget4);
+
+        assertEquals(Optional.of(List.of(widget4, widget2)), widgetEntityRepository.findOverlappingEntities(widget1.getId()));
+        assertEquals(Optional.of(List.of()), widgetEntityRepository.findOverlappingEntities(widget3.getId()));
+        assertTrue(widgetEntityRepository.findOverlappingEntities("unknown").isEmpty());
+
+        List<List<WidgetCustomEntity>> pairs = widgetEntityRepository
+                .findOverlappingEntitiesPairs()
+                .stream()
+                .map(pair -> List.of(pair.getFirst(), pair.getSecond()))
+                .collect(Collectors.toList());
+        assertEquals(List.of(List.of(widget4, widget1), List.of(widget4, widget2), List.of(widget1, widget2)), pairs);
+
+        widgetEntityRepository.deleteEntityById(widget4.getId());
+        assertEquals(1, widgetEntityRepository.findOverlappingEntitiesPairs().size());
+    }
+
+    @Test
+    public void widgetEntityRepositoryCanFindUpdatedWidgets() {
+        MapBasedWidgetEntityRepository widgetEntityRepository = new MapBasedWidgetEntityRepository();
+        WidgetCustomEntity widget1 = new WidgetCustomEntity(0, 0, 1, 10, 10);
+        WidgetCustomEntity widget2 = new WidgetCustomEntity(5, 5, 2, 10, 10);
+        WidgetCustomEntity widget3 = new WidgetCustomEntity(500, 500, 3, 10, 10);
+        WidgetCustomEntity widget4 = new WidgetCustomEntity(0, 0, 2, 10, 10);
+        widget1.setUpdatedAt(300);
+        widget2.setUpdatedAt(100);
+        widget3.setUpdatedAt(200);
+
+        widgetEntityRepository.saveEntity(widget1);
+        widgetEntityRepository.saveEntity(widget2);
+        widgetEntityRepository.saveEntity(widget3);
+        assertEquals(List.of(widget3, widget1), widgetEntityRepository.findUpdatedEntities(150, null));
+        assertEquals(List.of(widget2, widget1), widgetEntityRepository.findUpdatedEntities(0, new WidgetFilterDTO(0, 0, 100, 100)));
+
+        long currentTimeStamp = Instant.now().getEpochSecond();
+        widgetEntityRepository.shiftUpwards(widget4.getZIndex());
+        widgetEntityRepository.saveEntity(widget4);
+        assertEquals(List.of(widget4, widget2, widget3), widgetEntityRepository.findUpdatedEntities(currentTimeStamp, null));
+        assertEquals(List.of(widget1, widget4, widget2, widget3), widgetEntityRepository.findUpdatedEntities(0, null));
+
+        widgetEntityRepository.deleteEntityById(widget2.getId());
+        assertEquals(List.of(widget4, widget3), widgetEntityRepository.findUpdatedEntities(currentTimeStamp, null));
+    }
+
+    @ParameterizedTest
+    @EnumSource(SearchIndexType.class)
+    public void widgetEntityRepositoryStopsFilteringWhenRequestDeadlineIsExceeded(SearchIndexType searchIndexType) {
+        RepositoryConfig config = new RepositoryConfig();
+        config.setSearchIndex(searchIndexType);
+        MapBasedWidgetEntityRepository widgetEntityRepository = new MapBasedWidgetEntityRepository(config);
+        for (int i = 0; i < 10_000; i++) {
+            widgetEntityRepository.saveEntity(new WidgetCustomEntity(i, i, i, 10, 10));
+        }
+        WidgetFilterDTO filter = new WidgetFilterDTO(0, 0, 20_000, 20_000, WidgetFilterMode.INSIDE, true);
+        WidgetFilterDTO lowerBoundCountFilter = new WidgetFilterDTO(-1, -1, -1, -1, WidgetFilterMode.INSIDE, false);
+
+        try {
+            RequestDeadline.start(60_000);
+            assertEquals(10, widgetEntityRepository.getFilteredEntities(0, 10, filter).getData().size());
+            assertEquals(0, widgetEntityRepository.getFilteredEntities(0, 10, lowerBoundCountFilter).getData().size());
+
+            RequestDeadline.start(0);
+            assertThrows(DeadlineExceededException.class, () -> widgetEntityRepository.getFilteredEntities(0, 10, filter));
+            assertThrows(DeadlineExceededException.class, () -> widgetEntityRepository.getFilteredEntities(0, 10, lowerBoundCountFilter));
+        } finally {
+            RequestDeadline.clear();
+        }
+        assertEquals(10, widgetEntityRepository.getFilteredEntities(0, 10, filter).getData().size());
+    }
+
+    @Test
+    public void widgetEntityRepositoryReportsHeapWithoutStaleEntriesAfterShiftsUpdatesAndDeletes() {
+        RepositoryConfig config = new RepositoryConfig();
+        config.setSearchIndex(SearchIndexType.TREEMAP);
+        MapBasedWidgetEntityRepository widgetEntityRepository = new MapBasedWidgetEntityRepository(config);
+        WidgetCustomEntity widget1 = new WidgetCustomEntity(0, 0, 1, 10, 10);
+        WidgetCustomEntity widget2 = new WidgetCustomEntity(0, 0, 2, 10, 20);
+        WidgetCustomEntity widget3 = new WidgetCustomEntity(5, 5, 3, 10, 10);
+        WidgetCustomEntity widget4 = new WidgetCustomEntity(0, 0, 1, 10, 10);
+        WidgetCustomEntity updatedWidget3 = new WidgetCustomEntity(50, 50, 2, 10, 10);
+        updatedWidget3.setId(widget3.getId());
+
+        widgetEntityRepository.saveEntity(widget1);
+        widgetEntityRepository.saveEntity(widget2);
+        widgetEntityRepository.saveEntity(widget3);
+        widgetEntityRepository.shiftUpwards(widget4.getZIndex());
+        widgetEntityRepository.saveEntity(widget4);
+        widgetEntityRepository.deleteEntityById(widget3.getId());
+        widgetEntityRepository.saveEntity(updatedWidget3);
+        widgetEntityRepository.deleteEntityById(widget1.getId());
+
+        WidgetsHeapReportDTO report = widgetEntityRepository.getHeapReport();
+        Map<String, WidgetsHeapReportDTO.StructureReport> structures = report.getStructures();
+        assertEquals(3, report.getWidgetsCount());
+        assertTrue(report.getEstimatedBytes() > 0);
+        assertEquals(3, structures.get("widgetsStorage").getEntriesCount());
+        assertEquals(3, structures.get("widgetsIdsToOrdinalsStorage").getEntriesCount());
+        assertEquals(3, structures.get("x1CoordinateSearchIndex").getEntriesCount());
+        assertEquals(3, structures.get("spatialSearchIndex").getEntriesCount());
+        assertEquals(1, structures.get("widgetsOrdinalsStorage").getStaleEntriesCount(), "Released ordinal must be reported");
+        structures.forEach((name, structure) -> {
+            if (!name.equals("widgetsOrdinalsStorage")) {
+                assertEquals(0, structure.getStaleEntriesCount(), name + " must not have stale entries");
+            }
+        });
+
+        WidgetsHeapReportDTO.PostingSetsReport x1PostingSets = structures.get("x1CoordinateSearchIndex").getPostingSets();
+        assertEquals(2, x1PostingSets.getKeysCount());
+        assertEquals(1, x1PostingSets.getMinSize());
+        assertEquals(2, x1PostingSets.getMaxSize());
+        assertEquals(Map.of("1", 1L, "2-3", 1L), x1PostingSets.getHistogram());
+        assertNull(structures.get("widgetsStorage").getPostingSets());
+
+        widgetEntityRepository.purge();
+        assertEquals(0, widgetEntityRepository.getHeapReport().getWidgetsCount());
+    }
 }
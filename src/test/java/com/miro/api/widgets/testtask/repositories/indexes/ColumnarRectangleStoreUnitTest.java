@@ -0,0 +1,75 @@
+package com.miro.api.widgets.testtask.repositories.indexes;
+
+import com.miro.api.widgets.testtask.exceptions.DeadlineExceededException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ColumnarRectangleStoreUnitTest {
+    @Test
+    public void columnarStoreCanFindContainedRectanglesSortedByKey() {
+        ColumnarRectangleStore store = new ColumnarRectangleStore();
+        store.set(0, 0, 0, 1, 1, 3L << 32);
+        store.set(1, 1, 1, 3, 3, -1);
+        store.set(2, -5, -5, 10, 10, 2);
+        store.set(5, 2, 2, 3, 3, 4L << 32);
+
+        assertArrayEquals(new long[]{-1, 3L << 32, 4L << 32}, store.searchContainedSortedByKey(0, 0, 3, 3));
+
+        assertArrayEquals(new long[]{-1, 2, 4L << 32}, store.searchIntersectingSortedByKey(3, 3, 4, 4));
+
+        store.clear(1);
+        store.setKey(5, 0);
+        assertArrayEquals(new long[]{0, 3L << 32}, store.searchContainedSortedByKey(0, 0, 3, 3));
+        assertEquals(0, store.searchContainedSortedByKey(20, 20, 30, 30).length, "Empty slots can't be found");
+        assertEquals(0, store.searchIntersectingSortedByKey(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE).length, "Empty slots can't be found");
+
+        store.clearAll();
+        assertEquals(0, store.searchContainedSortedByKey(-5, -5, 10, 10).length);
+    }
+
+    @Test
+    public void columnarStoreScansManyRectanglesInParallelSameAsFullScan() {
+        Random random = new Random(42);
+        int count = 300_000;
+        int[][] rectangles = new int[count][];
+        ColumnarRectangleStore store = new ColumnarRectangleStore();
+        for (int i = 0; i < count; i++) {
+            int x = random.nextInt(10000);
+            int y = random.nextInt(10000);
+            rectangles[i] = new int[]{x, y, x + random.nextInt(100), y + random.nextInt(100), count - i};
+            store.set(i, rectangles[i][0], rectangles[i][1], rectangles[i][2], rectangles[i][3], rectangles[i][4]);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            int x1 = random.nextInt(10000);
+            int y1 = random.nextInt(10000);
+            int x2 = x1 + random.nextInt(5000);
+            int y2 = y1 + random.nextInt(5000);
+            long[] expected = IntStream
+                    .range(0, count)
+                    .filter(slot -> rectangles[slot][0] >= x1 && rectangles[slot][1] >= y1 && rectangles[slot][2] <= x2 && rectangles[slot][3] <= y2)
+                    .mapToLong(slot -> rectangles[slot][4])
+                    .sorted()
+                    .toArray();
+
+            assertArrayEquals(expected, store.searchContainedSortedByKey(x1, y1, x2, y2));
+        }
+    }
+
+    @Test
+    public void columnarStoreScanStopsInPoolThreadsWhenBudgetIsSpent() {
+        int count = 300_000;
+        ColumnarRectangleStore store = new ColumnarRectangleStore();
+        for (int i = 0; i < count; i++) {
+            store.set(i, i, i, i + 1, i + 1, i);
+        }
+
+        assertThrows(DeadlineExceededException.class, () -> store.searchContainedSortedByKey(0, 0, count, count, 0));
+        assertThrows(DeadlineExceededException.class, () -> store.searchIntersectingSortedByKey(0, 0, count, count, -1));
+        assertEquals(count, store.searchContainedSortedByKey(0, 0, count, count, Long.MAX_VALUE).length);
+    }
+}
@@ -0,0 +1,179 @@
+package com.miro.api.widgets.testtask.repositories.indexes;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RTreeUnitTest {
+    private static Set<Integer> searchContained(RTree<Integer> tree, int x1, int y1, int x2, int y2) {
+        Set<Integer> result = new HashSet<>();
+        tree.searchContained(x1, y1, x2, y2, result::add);
+        return result;
+    }
+
+    private static Set<Integer> bruteForceContained(List<RTree.Entry<Integer>> entries, int x1, int y1, int x2, int y2) {
+        return entries
+                .stream()
+                .filter(entry -> entry != null)
+                .filter(entry -> entry.getMinX() >= x1 && entry.getMinY() >= y1 && entry.getMaxX() <= x2 && entry.getMaxY() <= y2)
+                .map(RTree.Entry::getValue)
+                .collect(Collectors.toSet());
+    }
+
+    private static List<RTree.Entry<Integer>> generateEntries(Random random, int count) {
+        List<RTree.Entry<Integer>> entries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int x = random.nextInt(1000) - 500;
+            int y = random.nextInt(1000) - 500;
+            entries.add(new RTree.Entry<>(x, y, x + random.nextInt(50), y + random.nextInt(50), i));
+        }
+        return entries;
+    }
+
+    @Test
+    public void rTreeCanFindContainedEntries() {
+        RTree<Integer> tree = new RTree<>();
+        tree.insert(0, 0, 1, 1, 1);
+        tree.insert(1, 1, 3, 3, 2);
+        tree.insert(-5, -5, 10, 10, 3);
+
+        assertEquals(Set.of(1, 2), searchContained(tree, 0, 0, 3, 3));
+        assertEquals(Set.of(1, 2, 3), searchContained(tree, -5, -5, 10, 10));
+        assertTrue(searchContained(tree, 2, 2, 3, 3).isEmpty());
+    }
+
+    @Test
+    public void rTreeCanInsertAndRemoveManyEntries() {
+        Random random = new Random(42);
+        List<RTree.Entry<Integer>> entries = generateEntries(random, 5000);
+        RTree<Integer> tree = new RTree<>();
+        entries.forEach(entry -> tree.insert(entry.getMinX(), entry.getMinY(), entry.getMaxX(), entry.getMaxY(), entry.getValue()));
+
+        for (int i = 0; i < entries.size(); i += 3) {
+            RTree.Entry<Integer> entry = entries.get(i);
+            assertTrue(tree.remove(entry.getMinX(), entry.getMinY(), entry.getMaxX(), entry.getMaxY(), entry.getValue()));
+            entries.set(i, null);
+        }
+        assertFalse(tree.remove(0, 0, 0, 0, -1), "Not existing entry can't be removed");
+
+        assertEquals(entries.stream().filter(entry -> entry != null).count(), tree.size());
+        for (int i = 0; i < 100; i++) {
+            int x1 = random.nextInt(1000) - 500;
+            int y1 = random.nextInt(1000) - 500;
+            int x2 = x1 + random.nextInt(400);
+            int y2 = y1 + random.nextInt(400);
+            assertEquals(bruteForceContained(entries, x1, y1, x2, y2), searchContained(tree, x1, y1, x2, y2));
+        }
+    }
+
+    @Test
+    public void rTreeCanFindIntersectingEntries() {
+        Random random = new Random(11);
+        List<RTree.Entry<Integer>> entries = generateEntries(random, 3000);
+        RTree<Integer> tree = RTree.bulkLoad(entries);
+
+        for (int i = 0; i < 100; i++) {
+            int x1 = random.nextInt(1000) - 500;
+            int y1 = random.nextInt(1000) - 500;
+            int x2 = x1 + random.nextInt(i % 2 == 0 ? 1 : 100);
+            int y2 = y1 + random.nextInt(i % 2 == 0 ? 1 : 100);
+            Set<Integer> expected = entries
+                    .stream()
+                    .filter(entry -> entry.getMinX() <= x2 && entry.getMaxX() >= x1 && entry.getMinY() <= y2 && entry.getMaxY() >= y1)
+                    .map(RTree.Entry::getValue)
+                    .collect(Collectors.toSet());
+            Set<Integer> result = new HashSet<>();
+            tree.searchIntersecting(x1, y1, x2, y2, result::add);
+
+            assertEquals(expected, result);
+        }
+    }
+
+    @Test
+    public void rTreeCanCountEntriesWithoutCollectingThem() {
+        Random random = new Random(13);
+        List<RTree.Entry<Integer>> entries = generateEntries(random, 4000);
+        RTree<Integer> tree = RTree.bulkLoad(entries.subList(0, 2000));
+        entries.subList(2000, 4000).forEach(entry -> tree.insert(entry.getMinX(), entry.getMinY(), entry.getMaxX(), entry.getMaxY(), entry.getValue()));
+        for (int i = 0; i < entries.size(); i += 4) {
+            RTree.Entry<Integer> entry = entries.get(i);
+            tree.remove(entry.getMinX(), entry.getMinY(), entry.getMaxX(), entry.getMaxY(), entry.getValue());
+            entries.set(i, null);
+        }
+
+        assertEquals(entries.size() - 1000, tree.countContained(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE));
+        for (int i = 0; i < 100; i++) {
+            int x1 = random.nextInt(1000) - 500;
+            int y1 = random.nextInt(1000) - 500;
+            int x2 = x1 + random.nextInt(400);
+            int y2 = y1 + random.nextInt(400);
+            long intersectingCount = entries
+                    .stream()
+                    .filter(entry -> entry != null)
+                    .filter(entry -> entry.getMinX() <= x2 && entry.getMaxX() >= x1 && entry.getMinY() <= y2 && entry.getMaxY() >= y1)
+                    .count();
+
+            assertEquals(bruteForceContained(entries, x1, y1, x2, y2).size(), tree.countContained(x1, y1, x2, y2));
+            assertEquals(intersectingCount, tree.countIntersecting(x1, y1, x2, y2));
+        }
+    }
+
+    @Test
+    public void rTreeCanBeBulkLoaded() {
+        Random random = new Random(7);
+        List<RTree.Entry<Integer>> entries = generateEntries(random, 3000);
+        RTree<Integer> tree = RTree.bulkLoad(entries);
+
+        assertEquals(entries.size(), tree.size());
+        for (int i = 0; i < 100; i++) {
+            int x1 = random.nextInt(1000) - 500;
+            int y1 = random.nextInt(1000) - 500;
+            int x2 = x1 + random.nextInt(400);
+            int y2 = y1 + random.nextInt(400);
+            assertEquals(bruteForceContained(entries, x1, y1, x2, y2), searchContained(tree, x1, y1, x2, y2));
+        }
+
+        RTree.Entry<Integer> entry = entries.get(0);
+        assertTrue(tree.remove(entry.getMinX(), entry.getMinY(), entry.getMaxX(), entry.getMaxY(), entry.getValue()));
+        assertFalse(searchContained(tree, entry.getMinX(), entry.getMinY(), entry.getMaxX(), entry.getMaxY()).contains(entry.getValue()));
+    }
+
+    private static double distanceSquared(RTree.Entry<Integer> entry, int x, int y) {
+        long dx = Math.max(0, Math.max((long) entry.getMinX() - x, (long) x - entry.getMaxX()));
+        long dy = Math.max(0, Math.max((long) entry.getMinY() - y, (long) y - entry.getMaxY()));
+        return (double) dx * dx + (double) dy * dy;
+    }
+
+    @Test
+    public void rTreeFindsSameNearestEntriesAsBruteForce() {
+        Random random = new Random(42);
+        List<RTree.Entry<Integer>> entries = generateEntries(random, 5000);
+        RTree<Integer> tree = new RTree<>();
+        entries.forEach(entry -> tree.insert(entry.getMinX(), entry.getMinY(), entry.getMaxX(), entry.getMaxY(), entry.getValue()));
+
+        for (int i = 0; i < 100; i++) {
+            int x = random.nextInt(1400) - 700;
+            int y = random.nextInt(1400) - 700;
+            int k = 1 + random.nextInt(50);
+            List<Integer> expected = entries
+                    .stream()
+                    .sorted(Comparator
+                            .comparingDouble((RTree.Entry<Integer> entry) -> distanceSquared(entry, x, y))
+                            .thenComparing(RTree.Entry::getValue, Comparator.reverseOrder()))
+                    .limit(k)
+                    .map(RTree.Entry::getValue)
+                    .collect(Collectors.toList());
+
+            assertEquals(expected, tree.searchNearest(x, y, k, Comparator.reverseOrder()));
+        }
+        assertTrue(new RTree<Integer>().searchNearest(0, 0, 5, Comparator.reverseOrder()).isEmpty());
+    }
+}
@@ -0,0 +1,198 @@
+package com.miro.api.widgets.testtask.repositories.indexes;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StackingOrderTreeUnitTest {
+    private static List<String> getRange(StackingOrderTree<Integer> tree, long fromKey, long toKey) {
+        List<String> entries = new ArrayList<>();
+        tree.forEachAscending(fromKey, toKey, (key, value) -> entries.add(key + "=" + value));
+        return entries;
+    }
+
+    private static List<String> getRange(TreeMap<Long, Integer> map, long fromKey, long toKey) {
+        List<String> entries = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : map.subMap(fromKey, true, toKey, true).entrySet()) {
+            entries.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return entries;
+    }
+
+    @Test
+    public void treeCanPutGetAndRemove() {
+        StackingOrderTree<String> tree = new StackingOrderTree<>();
+
+        assertThrows(NoSuchElementException.class, tree::firstKey);
+        assertThrows(NoSuchElementException.class, tree::lastKey);
+        assertThrows(NoSuchElementException.class, () -> tree.getWeight(5));
+        assertNull(tree.put(5, "a", 3, StackingOrderTree.NO_TAG));
+        assertEquals("a", tree.put(5, "b", 4, 10));
+        assertEquals("b", tree.get(5));
+        assertEquals(4, tree.getWeight(5));
+        assertEquals(10, tree.getTag(5));
+        assertTrue(tree.containsKey(5));
+        assertFalse(tree.containsKey(6));
+        assertEquals(1, tree.size());
+        assertEquals(StackingKeys.NO_KEY, tree.lowerKey(5));
+        assertEquals(StackingKeys.NO_KEY, tree.higherKey(5));
+
+        assertEquals("b", tree.remove(5));
+        assertNull(tree.remove(5));
+        assertTrue(tree.isEmpty());
+        assertEquals(0, tree.getTotalWeight());
+    }
+
+    @Test
+    public void treeIsSameAsTreeMapAfterManyPutsAndRemoves() {
+        Random random = new Random(42);
+        StackingOrderTree<Integer> tree = new StackingOrderTree<>();
+        TreeMap<Long, Integer> expected = new TreeMap<>();
+        for (int i = 0; i < 300_000; i++) {
+            long key = random.nextInt(20_000) - 10_000;
+            if (random.nextInt(5) < 2) {
+                assertEquals(expected.remove(key), tree.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), tree.put(key, i, 1, StackingOrderTree.NO_TAG));
+            }
+            if (i % 10_000 == 0) {
+                long fromKey = random.nextInt(20_000) - 10_000;
+                long toKey = fromKey + random.nextInt(2_000);
+                assertEquals(getRange(expected, fromKey, toKey), getRange(tree, fromKey, toKey));
+                Long lowerKey = expected.lowerKey(fromKey);
+                Long higherKey = expected.higherKey(fromKey);
+                assertEquals(lowerKey == null ? StackingKeys.NO_KEY : lowerKey, tree.lowerKey(fromKey));
+                assertEquals(higherKey == null ? StackingKeys.NO_KEY : higherKey, tree.higherKey(fromKey));
+                assertEquals(expected.headMap(fromKey).size(), tree.getRank(fromKey));
+            }
+        }
+
+        assertEquals(expected.size(), tree.size());
+        assertEquals((long) expected.firstKey(), tree.firstKey());
+        assertEquals((long) expected.lastKey(), tree.lastKey());
+        assertEquals(expected.size(), tree.getTotalWeight());
+        assertEquals(getRange(expected, Long.MIN_VALUE, Long.MAX_VALUE), getRange(tree, Long.MIN_VALUE, Long.MAX_VALUE));
+        for (long key = -10_001; key <= 10_001; key++) {
+            assertEquals(expected.get(key), tree.get(key));
+        }
+
+        for (Long key : new ArrayList<>(expected.keySet())) {
+            assertEquals(expected.remove(key), tree.remove(key));
+        }
+        assertTrue(tree.isEmpty());
+        assertEquals(List.of(), getRange(tree, Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void treeFindsEntriesByRankAfterManyPutsAndRemoves() {
+        Random random = new Random(7);
+        StackingOrderTree<Integer> tree = new StackingOrderTree<>();
+        TreeMap<Long, Integer> expected = new TreeMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            long key = random.nextInt(50_000);
+            if (random.nextInt(5) < 2) {
+                expected.remove(key);
+                tree.remove(key);
+            } else {
+                expected.put(key, i);
+                tree.put(key, i, 1, StackingOrderTree.NO_TAG);
+            }
+            if (i % 5_000 == 0) {
+                List<String> expectedEntries = getRange(expected, Long.MIN_VALUE, Long.MAX_VALUE);
+                for (int check = 0; check < 20; check++) {
+                    int rank = random.nextInt(expectedEntries.size() + 10);
+                    List<String> entries = new ArrayList<>();
+                    tree.forEachAscendingFromRank(rank, (entryKey, value) -> entries.add(entryKey + "=" + value) && entries.size() < 50);
+                    assertEquals(expectedEntries.subList(Math.min(rank, expectedEntries.size()), Math.min(rank + 50, expectedEntries.size())), entries);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void treeKeepsPrefixWeightsAndTagsAfterManyChanges() {
+        Random random = new Random(11);
+        StackingOrderTree<Integer> tree = new StackingOrderTree<>();
+        TreeMap<Long, long[]> expected = new TreeMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            long key = random.nextInt(10_000);
+            long time = i;
+            int operation = random.nextInt(10);
+            if (operation < 3) {
+                expected.remove(key);
+                tree.remove(key);
+            } else if (operation < 7) {
+                long weight = random.nextInt(5);
+                long tag = random.nextBoolean() ? StackingOrderTree.NO_TAG : i;
+                expected.put(key, new long[]{weight, tag});
+                tree.put(key, i, weight, tag);
+            } else if (operation < 9) {
+                long toKey = key + random.nextInt(500);
+                expected.subMap(key, true, toKey, true).values().forEach(entry -> entry[1] = Math.max(entry[1], time));
+                tree.tag(key, toKey, time);
+            } else if (expected.containsKey(key)) {
+                expected.get(key)[0] += 2;
+                tree.addWeight(key, 2);
+            }
+
+            if (i % 2_000 == 0) {
+                long prefixWeight = 0;
+                for (Map.Entry<Long, long[]> entry : expected.entrySet()) {
+                    prefixWeight += entry.getValue()[0];
+                    assertEquals(prefixWeight, tree.getPrefixWeight(entry.getKey()));
+                    assertEquals(entry.getValue()[0], tree.getWeight(entry.getKey()));
+                    assertEquals(entry.getValue()[1], tree.getTag(entry.getKey()));
+                }
+                assertEquals(prefixWeight, tree.getTotalWeight());
+
+                long target = random.nextInt((int) prefixWeight + 2);
+                long expectedKey = StackingKeys.NO_KEY;
+                long weight = 0;
+                for (Map.Entry<Long, long[]> entry : expected.entrySet()) {
+                    weight += entry.getValue()[0];
+                    if (weight >= target) {
+                        expectedKey = entry.getKey();
+                        break;
+                    }
+                }
+                assertEquals(expectedKey, tree.ceilingKeyByPrefixWeight(target));
+
+                long minTag = i - random.nextInt(10_000);
+                List<Long> expectedTagged = new ArrayList<>();
+                expected.forEach((entryKey, entry) -> {
+                    if (entry[1] >= minTag) {
+                        expectedTagged.add(entryKey);
+                    }
+                });
+                List<Long> tagged = new ArrayList<>();
+                tree.forEachTagged(minTag, (entryKey, value) -> tagged.add(entryKey));
+                assertEquals(expectedTagged, tagged);
+            }
+        }
+    }
+
+    @Test
+    public void treeIterationCanBeStopped() {
+        StackingOrderTree<Integer> tree = new StackingOrderTree<>();
+        for (int key = 0; key < 1000; key++) {
+            tree.put(key, key, 1, StackingOrderTree.NO_TAG);
+        }
+        List<Long> keys = new ArrayList<>();
+        tree.forEachAscending(100, Long.MAX_VALUE, (key, value) -> {
+            keys.add(key);
+            return keys.size() < 3;
+        });
+        assertEquals(List.of(100L, 101L, 102L), keys);
+
+        tree.clear();
+        assertEquals(0, tree.size());
+        assertNull(tree.get(100));
+    }
+}
@@ -0,0 +1,57 @@
+package com.miro.api.widgets.testtask.repositories.indexes;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SweepLineOverlapsUnitTest {
+    @Test
+    public void sweepLineFindsIntersectingPairsInclusive() {
+        int[] minX = {0, 5, 10, 50};
+        int[] minY = {0, 5, 10, 50};
+        int[] maxX = {10, 15, 11, 60};
+        int[] maxY = {10, 15, 11, 60};
+
+        long[] pairs = SweepLineOverlaps.findIntersectingPairs(minX, minY, maxX, maxY);
+        Arrays.sort(pairs);
+
+        assertArrayEquals(new long[]{1L, 2L, (1L << 32) | 2}, pairs);
+        assertEquals(0, SweepLineOverlaps.findIntersectingPairs(new int[0], new int[0], new int[0], new int[0]).length);
+    }
+
+    @Test
+    public void sweepLineFindsSamePairsAsBruteForceInParallel() {
+        Random random = new Random(42);
+        int count = 20_000;
+        int[] minX = new int[count];
+        int[] minY = new int[count];
+        int[] maxX = new int[count];
+        int[] maxY = new int[count];
+        for (int i = 0; i < count; i++) {
+            minX[i] = random.nextInt(20000) - 10000;
+            minY[i] = random.nextInt(20000) - 10000;
+            maxX[i] = minX[i] + random.nextInt(100);
+            maxY[i] = minY[i] + random.nextInt(100);
+        }
+
+        long[] expected = new long[16];
+        int expectedCount = 0;
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                if (maxX[j] >= minX[i] && maxY[j] >= minY[i] && minX[j] <= maxX[i] && minY[j] <= maxY[i]) {
+                    if (expectedCount == expected.length) {
+                        expected = Arrays.copyOf(expected, expectedCount * 2);
+                    }
+                    expected[expectedCount++] = ((long) i << 32) | j;
+                }
+            }
+        }
+
+        long[] pairs = SweepLineOverlaps.findIntersectingPairs(minX, minY, maxX, maxY);
+        Arrays.sort(pairs);
+        assertArrayEquals(Arrays.copyOf(expected, expectedCount), pairs);
+    }
+}
@@ -0,0 +1,64 @@
+package com.miro.api.widgets.testtask.repositories.indexes;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UuidOrdinalMapUnitTest {
+    @Test
+    public void uuidOrdinalMapCanPutGetAndRemove() {
+        UuidOrdinalMap map = new UuidOrdinalMap();
+        UUID id = UUID.randomUUID();
+
+        assertEquals(UuidOrdinalMap.NO_ORDINAL, map.get(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+        map.put(id.getMostSignificantBits(), id.getLeastSignificantBits(), 5);
+        assertEquals(5, map.get(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+        map.put(id.getMostSignificantBits(), id.getLeastSignificantBits(), 7);
+        assertEquals(7, map.get(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+        assertEquals(1, map.size());
+
+        assertEquals(7, map.remove(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+        assertEquals(UuidOrdinalMap.NO_ORDINAL, map.remove(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+        assertEquals(0, map.size());
+        assertThrows(IllegalArgumentException.class, () -> map.put(0, 0, -1));
+    }
+
+    @Test
+    public void uuidOrdinalMapIsSameAsHashMapAfterManyPutsAndRemoves() {
+        Random random = new Random(42);
+        UuidOrdinalMap map = new UuidOrdinalMap();
+        Map<UUID, Integer> expected = new HashMap<>();
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 200_000; i++) {
+            if (!ids.isEmpty() && random.nextInt(3) == 0) {
+                UUID id = ids.remove(random.nextInt(ids.size()));
+                assertEquals((int) expected.remove(id), map.remove(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+            } else {
+                UUID id = new UUID(random.nextInt(1000), random.nextLong());
+                if (expected.put(id, i) == null) {
+                    ids.add(id);
+                }
+                map.put(id.getMostSignificantBits(), id.getLeastSignificantBits(), i);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        expected.forEach((id, ordinal) -> assertEquals((int) ordinal, map.get(id.getMostSignificantBits(), id.getLeastSignificantBits())));
+        for (int i = 0; i < 1000; i++) {
+            UUID id = UUID.randomUUID();
+            assertEquals(UuidOrdinalMap.NO_ORDINAL, map.get(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+        }
+
+        map.clear();
+        assertEquals(0, map.size());
+        UUID id = ids.get(0);
+        assertEquals(UuidOrdinalMap.NO_ORDINAL, map.get(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+    }
+}
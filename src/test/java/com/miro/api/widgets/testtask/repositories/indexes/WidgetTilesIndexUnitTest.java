@@ -0,0 +1,122 @@
+package com.miro.api.widgets.testtask.repositories.indexes;
+
+import com.miro.api.widgets.testtask.config.TilesConfig;
+import com.miro.api.widgets.testtask.entities.WidgetCustomEntity;
+import com.miro.api.widgets.testtask.utils.TileHelperWrapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WidgetTilesIndexUnitTest {
+    private static final int REQUEST_X1 = -600;
+    private static final int REQUEST_Y1 = -600;
+    private static final int REQUEST_X2 = 599;
+    private static final int REQUEST_Y2 = 599;
+
+    private static TilesConfig createConfig() {
+        TilesConfig config = new TilesConfig();
+        config.setBaseCellSize(64);
+        config.setZoomLevels(4);
+        config.setCellPixels(64);
+        config.setMinWidgetPixels(8);
+        return config;
+    }
+
+    private static String describe(TileHelperWrapper<WidgetCustomEntity> tile) {
+        return String.format("%d:%d count=%d bbox=%d,%d,%d,%d top=%s",
+                tile.getCellX(), tile.getCellY(), tile.getCount(),
+                tile.getMinX(), tile.getMinY(), tile.getMaxX(), tile.getMaxY(),
+                tile.getTopmost().stream().map(WidgetCustomEntity::getId).collect(Collectors.toList()));
+    }
+
+    private static List<String> bruteForceTiles(TilesConfig config, List<WidgetCustomEntity> widgets, int zoom, int top) {
+        int cellSize = config.getCellSize(zoom);
+        List<String> tiles = new ArrayList<>();
+        for (int cellY = Math.floorDiv(REQUEST_Y1, cellSize); cellY <= Math.floorDiv(REQUEST_Y2, cellSize); cellY++) {
+            for (int cellX = Math.floorDiv(REQUEST_X1, cellSize); cellX <= Math.floorDiv(REQUEST_X2, cellSize); cellX++) {
+                int x = cellX;
+                int y = cellY;
+                List<WidgetCustomEntity> cellWidgets = widgets
+                        .stream()
+                        .filter(widget -> config.isVisible(widget.getWidth(), widget.getHeight(), cellSize))
+                        .filter(widget -> Math.floorDiv(widget.getXCoordinate() + widget.getWidth() / 2, cellSize) == x)
+                        .filter(widget -> Math.floorDiv(widget.getYCoordinate() + widget.getHeight() / 2, cellSize) == y)
+                        .sorted(Comparator.comparingInt(WidgetCustomEntity::getZIndex).reversed())
+                        .collect(Collectors.toList());
+                if (cellWidgets.isEmpty()) {
+                    continue;
+                }
+                tiles.add(describe(new TileHelperWrapper<>(
+                        x,
+                        y,
+                        cellWidgets.size(),
+                        cellWidgets.stream().mapToInt(WidgetCustomEntity::getXCoordinate).min().getAsInt(),
+                        cellWidgets.stream().mapToInt(WidgetCustomEntity::getYCoordinate).min().getAsInt(),
+                        cellWidgets.stream().mapToInt(widget -> widget.getXCoordinate() + widget.getWidth()).max().getAsInt(),
+                        cellWidgets.stream().mapToInt(widget -> widget.getYCoordinate() + widget.getHeight()).max().getAsInt(),
+                        cellWidgets.subList(0, Math.min(top, cellWidgets.size()))
+                )));
+            }
+        }
+        return tiles;
+    }
+
+    private static List<String> getTiles(WidgetTilesIndex index, int zoom, int top) {
+        return index
+                .getTiles(REQUEST_X1, REQUEST_Y1, REQUEST_X2, REQUEST_Y2, zoom, top)
+                .stream()
+                .map(WidgetTilesIndexUnitTest::describe)
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void tilesIndexIsSameAsBruteForceAfterInsertsAndDeletes() {
+        TilesConfig config = createConfig();
+        RTree<WidgetCustomEntity> spatialIndex = new RTree<>();
+        WidgetTilesIndex index = new WidgetTilesIndex(config, spatialIndex);
+        Random random = new Random(42);
+        List<WidgetCustomEntity> widgets = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            WidgetCustomEntity widget = new WidgetCustomEntity(
+                    random.nextInt(1000) - 500,
+                    random.nextInt(1000) - 500,
+                    random.nextInt(),
+                    random.nextInt(80),
+                    random.nextInt(80)
+            );
+            widget.setZKey(widget.getZIndex());
+            widgets.add(widget);
+            spatialIndex.insert(widget.getXCoordinate(), widget.getYCoordinate(), widget.getXCoordinate() + widget.getWidth(), widget.getYCoordinate() + widget.getHeight(), widget);
+            index.add(widget);
+        }
+
+        for (int i = 0; i < 2000; i++) {
+            WidgetCustomEntity widget = widgets.remove(random.nextInt(widgets.size()));
+            spatialIndex.remove(widget.getXCoordinate(), widget.getYCoordinate(), widget.getXCoordinate() + widget.getWidth(), widget.getYCoordinate() + widget.getHeight(), widget);
+            index.remove(widget);
+        }
+
+        for (int zoom = 0; zoom < config.getZoomLevels(); zoom++) {
+            assertEquals(bruteForceTiles(config, widgets, zoom, 3), getTiles(index, zoom, 3), "Zoom level " + zoom);
+            assertEquals(bruteForceTiles(config, widgets, zoom, 1), getTiles(index, zoom, 1), "Zoom level " + zoom);
+        }
+
+        index.clear();
+        assertTrue(getTiles(index, 0, 3).isEmpty());
+    }
+
+    @Test
+    public void tilesIndexRejectsUnknownZoomAndTooManyCells() {
+        TilesConfig config = createConfig();
+        WidgetTilesIndex index = new WidgetTilesIndex(config, new RTree<>());
+
+        assertThrows(IllegalArgumentException.class, () -> index.getTiles(0, 0, 10, 10, 4, 3));
+        assertThrows(IllegalArgumentException.class, () -> index.getTiles(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 3));
+    }
+}
@@ -0,0 +1,97 @@
+package com.miro.api.widgets.testtask.repositories.indexes;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ZIndexRunsUnitTest {
+    private static int getRunEnd(TreeSet<Integer> zIndexes, int zIndex) {
+        int end = zIndex;
+        while (zIndexes.contains(end + 1)) {
+            end++;
+        }
+        return end;
+    }
+
+    private static int getRunsCount(TreeSet<Integer> zIndexes) {
+        int count = 0;
+        for (int zIndex : zIndexes) {
+            if (!zIndexes.contains(zIndex - 1)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void runsAreMergedAndSplit() {
+        ZIndexRuns runs = new ZIndexRuns();
+        for (int zIndex : new int[]{1, 2, 3, 4, 5, 10, 11, 20, 21}) {
+            runs.add(zIndex);
+        }
+        assertEquals(3, runs.size());
+        assertEquals(5, runs.getRunEnd(3));
+        assertEquals(11, runs.getRunEnd(10));
+        assertThrows(IllegalArgumentException.class, () -> runs.getRunEnd(6));
+
+        runs.shift(3);
+        assertFalse(runs.contains(3));
+        assertEquals(2, runs.getRunEnd(1));
+        assertEquals(6, runs.getRunEnd(4));
+
+        runs.add(3);
+        runs.shift(5);
+        runs.shift(6);
+        runs.shift(7);
+        assertEquals(4, runs.getRunEnd(1));
+        assertEquals(11, runs.getRunEnd(8));
+        assertEquals(3, runs.size());
+
+        runs.remove(9);
+        assertEquals(8, runs.getRunEnd(8));
+        assertEquals(11, runs.getRunEnd(10));
+
+        runs.clear();
+        assertEquals(0, runs.size());
+        assertFalse(runs.contains(1));
+    }
+
+    @Test
+    public void runsAreSameAsOccupiedZIndexesAfterManyChanges() {
+        Random random = new Random(5);
+        ZIndexRuns runs = new ZIndexRuns();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int i = 0; i < 100_000; i++) {
+            int zIndex = random.nextInt(2_000) - 1_000;
+            int operation = random.nextInt(3);
+            if (operation == 0 && !expected.contains(zIndex)) {
+                expected.add(zIndex);
+                runs.add(zIndex);
+            } else if (operation == 1 && expected.contains(zIndex)) {
+                expected.remove(zIndex);
+                runs.remove(zIndex);
+            } else if (operation == 2 && expected.contains(zIndex)) {
+                int end = getRunEnd(expected, zIndex);
+                assertEquals(end, runs.getRunEnd(zIndex));
+                expected.remove(zIndex);
+                expected.add(end + 1);
+            }
+            if (operation == 2 && runs.contains(zIndex)) {
+                runs.shift(zIndex);
+            }
+
+            if (i % 1_000 == 0) {
+                assertEquals(getRunsCount(expected), runs.size());
+                for (int check = -1_010; check < 1_010; check++) {
+                    assertEquals(expected.contains(check), runs.contains(check));
+                    if (expected.contains(check)) {
+                        assertEquals(getRunEnd(expected, check), runs.getRunEnd(check));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.miro.api.widgets.testtask.services;
+
+import com.miro.api.widgets.testtask.config.CacheConfig;
+import com.miro.api.widgets.testtask.dto.WidgetFilterDTO;
+import com.miro.api.widgets.testtask.dto.WidgetFilterMode;
+import com.miro.api.widgets.testtask.dto.WidgetResponseDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilteredWidgetsCacheUnitTest {
+    private static final Pageable PAGE_REQUEST = PageRequest.of(0, 10);
+
+    private static FilteredWidgetsCache createCache(int maxSize) {
+        CacheConfig config = new CacheConfig();
+        config.setFilteredWidgetsMaxSize(maxSize);
+        return new FilteredWidgetsCache(config);
+    }
+
+    private static Page<WidgetResponseDTO> createPage(int zIndex) {
+        return new PageImpl<>(List.of(new WidgetResponseDTO("id", 0, 0, zIndex, 1, 1, 0)), PAGE_REQUEST, 1);
+    }
+
+    private static WidgetFilterDTO createFilter(int x1, int y1, int x2, int y2) {
+        return new WidgetFilterDTO(x1, y1, x2, y2, WidgetFilterMode.INSIDE, true);
+    }
+
+    @Test
+    public void cacheInvalidatesOnlyPagesTouchedByMutation() {
+        FilteredWidgetsCache cache = createCache(16);
+        WidgetFilterDTO leftFilter = createFilter(0, 0, 100, 100);
+        WidgetFilterDTO rightFilter = createFilter(1000, 0, 1100, 100);
+        Page<WidgetResponseDTO> leftPage = createPage(1);
+        Page<WidgetResponseDTO> rightPage = createPage(10);
+
+        assertNull(cache.get(PAGE_REQUEST, leftFilter));
+        cache.put(PAGE_REQUEST, leftFilter, leftPage, cache.getVersion());
+        cache.put(PAGE_REQUEST, rightFilter, rightPage, cache.getVersion());
+        assertSame(leftPage, cache.get(PAGE_REQUEST, leftFilter));
+        assertNull(cache.get(PageRequest.of(1, 10), leftFilter));
+        assertNull(cache.get(PAGE_REQUEST, new WidgetFilterDTO(0, 0, 100, 100, WidgetFilterMode.INTERSECTS, true)));
+
+        cache.invalidate(90, 90, 200, 200);
+        assertNull(cache.get(PAGE_REQUEST, leftFilter));
+        assertSame(rightPage, cache.get(PAGE_REQUEST, rightFilter));
+
+        cache.put(PAGE_REQUEST, leftFilter, leftPage, cache.getVersion());
+        cache.invalidateZIndexes(5, Integer.MAX_VALUE);
+        assertSame(leftPage, cache.get(PAGE_REQUEST, leftFilter));
+        assertNull(cache.get(PAGE_REQUEST, rightFilter));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void cacheDoesNotStorePageComputedBeforeMutation() {
+        FilteredWidgetsCache cache = createCache(16);
+        WidgetFilterDTO filter = createFilter(0, 0, 100, 100);
+
+        long version = cache.getVersion();
+        cache.invalidate(5000, 5000, 5001, 5001);
+        cache.put(PAGE_REQUEST, filter, createPage(1), version);
+        assertNull(cache.get(PAGE_REQUEST, filter));
+    }
+
+    @Test
+    public void cacheEvictsLeastRecentlyUsedPagesAndCountsHitsAndMisses() {
+        FilteredWidgetsCache cache = createCache(2);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+        WidgetFilterDTO filter1 = createFilter(0, 0, 1, 1);
+        WidgetFilterDTO filter2 = createFilter(0, 0, 2, 2);
+        WidgetFilterDTO filter3 = createFilter(0, 0, 3, 3);
+
+        cache.put(PAGE_REQUEST, filter1, createPage(1), cache.getVersion());
+        cache.put(PAGE_REQUEST, filter2, createPage(2), cache.getVersion());
+        assertNotNull(cache.get(PAGE_REQUEST, filter1));
+        cache.put(PAGE_REQUEST, filter3, createPage(3), cache.getVersion());
+        assertNull(cache.get(PAGE_REQUEST, filter2));
+        assertNotNull(cache.get(PAGE_REQUEST, filter1));
+        assertNotNull(cache.get(PAGE_REQUEST, filter3));
+
+        assertEquals(3, registry.get("widgets.filtered.cache.requests").tag("result", "hit").functionCounter().count());
+        assertEquals(1, registry.get("widgets.filtered.cache.requests").tag("result", "miss").functionCounter().count());
+        assertEquals(2, registry.get("widgets.filtered.cache.size").gauge().value());
+    }
+}
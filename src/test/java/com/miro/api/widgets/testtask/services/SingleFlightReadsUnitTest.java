@@ -0,0 +1,173 @@
+package com.miro.api.widgets.testtask.services;
+
+import com.miro.api.widgets.testtask.exceptions.DeadlineExceededException;
+import com.miro.api.widgets.testtask.utils.RequestDeadline;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightReadsUnitTest {
+    private static final int READS_COUNT = 8;
+
+    private static void awaitCoalescedReads(SimpleMeterRegistry registry, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (registry.get("widgets.reads.coalesced").functionCounter().count() < count) {
+            assertTrue(System.nanoTime() < deadline, "Reads weren't coalesced in time");
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void identicalConcurrentReadsShareOneComputation() throws Exception {
+        SingleFlightReads singleFlightReads = new SingleFlightReads();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        singleFlightReads.bindTo(registry);
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(READS_COUNT);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < READS_COUNT; i++) {
+                results.add(executor.submit(() -> singleFlightReads.read(1, () -> {
+                    computations.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return new Object();
+                }, "read", 0, 10)));
+            }
+            awaitCoalescedReads(registry, READS_COUNT - 1);
+            release.countDown();
+
+            Object result = results.get(0).get();
+            for (Future<Object> future : results) {
+                assertSame(result, future.get());
+            }
+            assertEquals(1, computations.get());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertNotSame(singleFlightReads.read(1, Object::new, "read", 0, 10), singleFlightReads.read(1, Object::new, "read", 0, 10));
+    }
+
+    @Test
+    public void readsWithDifferentVersionOrArgumentsAreNotCoalesced() throws Exception {
+        SingleFlightReads singleFlightReads = new SingleFlightReads();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> firstRead = executor.submit(() -> singleFlightReads.read(1, () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return "version 1";
+            }, "read"));
+            started.await();
+
+            assertEquals("version 2", singleFlightReads.read(2, () -> "version 2", "read"));
+            assertEquals("other", singleFlightReads.read(1, () -> "other", "read", 1));
+            release.countDown();
+            assertEquals("version 1", firstRead.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void readExceptionIsThrownToCaller() {
+        SingleFlightReads singleFlightReads = new SingleFlightReads();
+
+        assertThrows(IllegalArgumentException.class, () -> singleFlightReads.read(1, () -> {
+            throw new IllegalArgumentException("Invalid read.");
+        }, "read"));
+        assertEquals("ok", singleFlightReads.read(1, () -> "ok", "read"));
+    }
+
+    @Test
+    public void identicalReadWaitsNoLongerThanItsDeadlineAndIsRecomputedAfterReadInFlightDeadline() throws Exception {
+        SingleFlightReads singleFlightReads = new SingleFlightReads();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> readInFlight = executor.submit(() -> singleFlightReads.read(1, () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                throw new DeadlineExceededException();
+            }, "read"));
+            started.await();
+
+            try {
+                RequestDeadline.start(50);
+                assertThrows(DeadlineExceededException.class, () -> singleFlightReads.read(1, () -> "joined", "read"));
+
+                Future<String> identicalRead = executor.submit(() -> {
+                    RequestDeadline.start(60_000);
+                    return singleFlightReads.read(1, () -> "recomputed", "read");
+                });
+                Thread.sleep(50);
+                release.countDown();
+                assertEquals("recomputed", identicalRead.get(10, TimeUnit.SECONDS));
+            } finally {
+                RequestDeadline.clear();
+            }
+            assertThrows(Exception.class, readInFlight::get);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void identicalReadDoesNotRejoinReadInFlightWhichExceededDeadline() throws Exception {
+        SingleFlightReads singleFlightReads = new SingleFlightReads();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        singleFlightReads.bindTo(registry);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> readInFlight = executor.submit(() -> singleFlightReads.read(1, () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                throw new DeadlineExceededException();
+            }, "read"));
+            started.await();
+
+            Future<String> identicalRead = executor.submit(() -> singleFlightReads.read(1, () -> "recomputed", "read"));
+            awaitCoalescedReads(registry, 1);
+            release.countDown();
+            assertEquals("recomputed", identicalRead.get(10, TimeUnit.SECONDS));
+            assertThrows(Exception.class, readInFlight::get);
+            assertEquals(1, registry.get("widgets.reads.coalesced").functionCounter().count());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.miro.api.widgets.testtask.services;
+
+import com.miro.api.widgets.testtask.config.CacheConfig;
+import com.miro.api.widgets.testtask.config.CompactionConfig;
+import com.miro.api.widgets.testtask.dto.WidgetCreateDTO;
+import com.miro.api.widgets.testtask.dto.WidgetCreateRequestDTO;
+import com.miro.api.widgets.testtask.dto.WidgetResponseDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsCompactionReportDTO;
+import com.miro.api.widgets.testtask.dto.WidgetsStackingSummaryDTO;
+import com.miro.api.widgets.testtask.repositories.MapBasedWidgetEntityRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StackingOrderCompactionUnitTest {
+    private static CompactionConfig createConfig() {
+        CompactionConfig config = new CompactionConfig();
+        config.setEnabled(false);
+        config.setBatchSize(7);
+        config.setSpacing(3);
+        config.setMinWidgetsCount(10);
+        return config;
+    }
+
+    @Test
+    public void whenStackingOrderIsCompacted_thenWidgetsKeepOrderAndGetSpacedZIndexes() {
+        WidgetInternalService widgetService = new WidgetInternalService(new MapBasedWidgetEntityRepository(), new FilteredWidgetsCache(new CacheConfig()));
+        StackingOrderCompaction compaction = new StackingOrderCompaction(widgetService, createConfig());
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            int zIndex = i % 3 == 0 ? random.nextInt(20) : random.nextInt(1_000_000) - 500_000;
+            widgetService.createAndSaveWidget(new WidgetCreateDTO(new WidgetCreateRequestDTO(i, i, zIndex, 10, 10)));
+        }
+        List<WidgetResponseDTO> widgets = widgetService.getAllWidgets();
+        assertThat(compaction.isNeedToCompact(widgetService.getStackingSummary())).isTrue();
+
+        compaction.compact();
+
+        List<WidgetResponseDTO> compactedWidgets = widgetService.getAllWidgets();
+        assertThat(compactedWidgets).extracting(WidgetResponseDTO::getId).containsExactlyElementsOf(
+                widgets.stream().map(WidgetResponseDTO::getId).collect(Collectors.toList()));
+        int base = widgets.get(0).getZIndex();
+        for (int i = 0; i < compactedWidgets.size(); i++) {
+            assertThat(compactedWidgets.get(i).getZIndex()).isEqualTo(base + 3 * i);
+        }
+        WidgetsStackingSummaryDTO summary = widgetService.getStackingSummary();
+        assertThat(summary.getDensity()).isBetween(0.33, 0.34);
+        assertThat(compaction.isNeedToCompact(summary)).isFalse();
+
+        WidgetsCompactionReportDTO report = compaction.getReport();
+        assertThat(report.isRunning()).isFalse();
+        assertThat(report.getPassesCount()).isEqualTo(1);
+        assertThat(report.getWidgetsCount()).isEqualTo(200);
+        assertThat(report.getProcessedWidgetsCount()).isEqualTo(400);
+        assertThat(report.getMovedWidgetsCount()).isGreaterThanOrEqualTo(199);
+        assertThat(report.getLastError()).isNull();
+
+        compaction.compact();
+        assertThat(compaction.getReport().getMovedWidgetsCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void whenZIndexesAreNearIntOverflow_thenSpacingAndBaseAreReduced() {
+        WidgetInternalService widgetService = new WidgetInternalService(new MapBasedWidgetEntityRepository(), new FilteredWidgetsCache(new CacheConfig()));
+        StackingOrderCompaction compaction = new StackingOrderCompaction(widgetService, createConfig());
+        for (int i = 0; i < 20; i++) {
+            widgetService.createAndSaveWidget(new WidgetCreateDTO(new WidgetCreateRequestDTO(i, i, Integer.MAX_VALUE - 30 + i, 10, 10)));
+        }
+
+        compaction.compact();
+
+        List<WidgetResponseDTO> compactedWidgets = widgetService.getAllWidgets();
+        assertThat(compactedWidgets.get(compactedWidgets.size() - 1).getZIndex()).isEqualTo(Integer.MAX_VALUE);
+        for (int i = 1; i < compactedWidgets.size(); i++) {
+            assertThat(compactedWidgets.get(i).getZIndex() - compactedWidgets.get(i - 1).getZIndex()).isEqualTo(3);
+        }
+    }
+}
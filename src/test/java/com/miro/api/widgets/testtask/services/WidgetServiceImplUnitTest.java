@@ -26,6 +26,9 @@ class WidgetServiceImplUnitTest {
     @Mock
     private MapBasedWidgetEntityRepository widgetRepository;
 
+    @Mock
+    private FilteredWidgetsCache filteredWidgetsCache;
+
     @InjectMocks
     private WidgetInternalService widgetService;
 